@@ -0,0 +1,67 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic bitmap carriers and payloads built in memory for the benchmarks.
+ */
+final class BenchmarkBitmaps {
+
+	static final long SEED = 0x5EED;
+
+	private static final int HEADER_SIZE = 54;
+	private static final int DIB_HEADER_SIZE = 40;
+
+	private BenchmarkBitmaps() {
+	}
+
+	// 24 bits bitmap with BITMAPINFOHEADER and random pixels
+	static byte[] createBitmap(final int size) {
+		byte[] image = new byte[size];
+		new Random(SEED).nextBytes(image);
+		ByteBuffer header = ByteBuffer.wrap(image);
+		header.put(0, (byte) 0x42).put(1, (byte) 0x4D);
+		header.putInt(2, Integer.reverseBytes(size));
+		header.putInt(6, 0);
+		header.putInt(10, Integer.reverseBytes(HEADER_SIZE));
+		header.putInt(14, Integer.reverseBytes(DIB_HEADER_SIZE));
+		return image;
+	}
+
+	// uncompressed bitmap of about size bytes with padded rows, 32 bits pixels have an alpha mask
+	static byte[] createPixelBitmap(final int size, final int width, final int bitsPerPixel) {
+		int dibHeaderSize = bitsPerPixel == 32 ? 108 : DIB_HEADER_SIZE;
+		int pixelOffset = 14 + dibHeaderSize;
+		int stride = (width * bitsPerPixel + 31) / 32 * 4;
+		int height = (size - pixelOffset) / stride;
+		byte[] image = createBitmap(pixelOffset + stride * height);
+		ByteBuffer header = ByteBuffer.wrap(image);
+		header.putInt(10, Integer.reverseBytes(pixelOffset));
+		header.putInt(14, Integer.reverseBytes(dibHeaderSize));
+		header.putInt(18, Integer.reverseBytes(width));
+		header.putInt(22, Integer.reverseBytes(height));
+		header.putShort(26, Short.reverseBytes((short) 1));
+		header.putShort(28, Short.reverseBytes((short) bitsPerPixel));
+		header.putInt(30, Integer.reverseBytes(bitsPerPixel == 32 ? 3 : 0));
+		if (bitsPerPixel == 32) {
+			header.putInt(54, Integer.reverseBytes(0x00FF0000));
+			header.putInt(58, Integer.reverseBytes(0x0000FF00));
+			header.putInt(62, Integer.reverseBytes(0x000000FF));
+			header.putInt(66, Integer.reverseBytes(0xFF000000));
+		}
+		return image;
+	}
+
+	static byte[] createData(final int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	// payload using half of the carrier capacity
+	static int payloadSize(final int carrierSize) {
+		return carrierSize / 4;
+	}
+
+}
@@ -0,0 +1,51 @@
+package br.com.lnsoft.cryptography;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Data hash and seed string computation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class HashBenchmark {
+
+	@Param({ "1048576", "16777216", "268435456" })
+	private int dataSize;
+
+	private Steganography steganography;
+	private byte[] data;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		steganography = new Steganography(BenchmarkBitmaps.SEED);
+		data = BenchmarkBitmaps.createData(dataSize);
+	}
+
+	@Benchmark
+	public byte[] computeHash() {
+		return steganography.computeHash(data);
+	}
+
+	@Benchmark
+	public long computeSeedString() {
+		return steganography.computeSeedString("secret_seed");
+	}
+
+}
@@ -0,0 +1,66 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Integrity check computation, alone and fused with the depth 8 decode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class IntegrityBenchmark {
+
+	@Param({ "16777216", "268435456" })
+	private int dataSize;
+
+	@Param({ "MD5", "CRC32C", "MURMUR3_128" })
+	private Integrity integrity;
+
+	private Steganography steganography;
+	private byte[] encodedImage;
+	private IntegrityDigest digest;
+	private ByteBuffer data;
+	private final byte[] hash = new byte[HeaderLayout.HASH_SIZE];
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		steganography = new Steganography(BenchmarkBitmaps.SEED);
+		byte[] bytes = BenchmarkBitmaps.createData(dataSize);
+		data = ByteBuffer.wrap(bytes);
+		digest = integrity.createDigest();
+		EncodeOptions options = new EncodeOptions();
+		options.setDepth(8);
+		options.setIntegrity(integrity);
+		encodedImage = steganography.encodeData(BenchmarkBitmaps.createBitmap(dataSize + 64 * 1024), bytes, options);
+	}
+
+	@Benchmark
+	public byte[] computeIntegrity() {
+		digest.update(data, 0, dataSize);
+		digest.digest(hash);
+		return hash;
+	}
+
+	@Benchmark
+	public byte[] decodeData() throws Exception {
+		return steganography.decodeData(encodedImage);
+	}
+
+}
@@ -0,0 +1,62 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packing kernels of each depth over the whole carrier, on heap and direct buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g", "-XX:MaxDirectMemorySize=2g" })
+public class PackingKernelsBenchmark {
+
+	@Param({ "1048576", "16777216", "268435456", "1073741824" })
+	private int carrierSize;
+
+	@Param({ "false", "true" })
+	private boolean direct;
+
+	@Param({ "1", "2", "4", "8" })
+	private int depth;
+
+	private ByteBuffer image;
+	private byte[] data;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		byte[] bitmap = BenchmarkBitmaps.createBitmap(carrierSize);
+		image = direct ? ByteBuffer.allocateDirect(carrierSize) : ByteBuffer.allocate(carrierSize);
+		image.put(bitmap).clear();
+		data = BenchmarkBitmaps.createData((int) ((long) carrierSize * depth / 8));
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		PackingKernels.encode(depth, image, 0, data, 0, data.length);
+		return data;
+	}
+
+	@Benchmark
+	public byte[] decode() {
+		PackingKernels.decode(depth, image, 0, data, 0, data.length);
+		return data;
+	}
+
+}
@@ -0,0 +1,71 @@
+package br.com.lnsoft.cryptography;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Depth 4 encode and decode within the pixel samples of 24 bits bitmaps, rows padded or not, and of 32 bits bitmaps
+ * with alpha, against the contiguous layout of the same bitmap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PixelBenchmark {
+
+	private static final int IMAGE_SIZE = 16 * 1024 * 1024;
+	private static final int DATA_SIZE = 1024 * 1024;
+
+	// bits per pixel and width: 24 bits aligned rows, 24 bits padded rows, 32 bits with alpha
+	@Param({ "24:1024", "24:1023", "32:1024" })
+	private String format;
+
+	@Param({ "false", "true" })
+	private boolean pixels;
+
+	private Steganography steganography;
+	private EncodeOptions options;
+	private byte[] original;
+	private byte[] image;
+	private byte[] data;
+	private byte[] encodedImage;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		String[] fields = format.split(":");
+		steganography = new Steganography(BenchmarkBitmaps.SEED);
+		options = new EncodeOptions(true);
+		options.setIntegrity(Integrity.CRC32C);
+		options.setPixels(pixels);
+		original = BenchmarkBitmaps.createPixelBitmap(IMAGE_SIZE, Integer.parseInt(fields[1]),
+				Integer.parseInt(fields[0]));
+		image = original.clone();
+		data = BenchmarkBitmaps.createData(DATA_SIZE);
+		encodedImage = steganography.encodeData(original.clone(), data, options);
+	}
+
+	@Benchmark
+	public byte[] encodeData() throws Exception {
+		return steganography.encodeData(image, data, options);
+	}
+
+	@Benchmark
+	public byte[] decodeData() throws Exception {
+		return steganography.decodeData(encodedImage);
+	}
+
+}
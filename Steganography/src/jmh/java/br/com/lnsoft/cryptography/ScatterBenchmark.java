@@ -0,0 +1,55 @@
+package br.com.lnsoft.cryptography;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contiguous and scattered decode of depth 4 data spread over bitmaps from a cache sized one to a memory sized one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class ScatterBenchmark {
+
+	private static final int DATA_SIZE = 1024 * 1024;
+
+	@Param({ "4194304", "1073741824" })
+	private int imageSize;
+
+	@Param({ "false", "true" })
+	private boolean scatter;
+
+	private Steganography steganography;
+	private byte[] encodedImage;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		steganography = new Steganography(BenchmarkBitmaps.SEED);
+		EncodeOptions options = new EncodeOptions();
+		options.setIntegrity(Integrity.CRC32C);
+		options.setScatter(scatter);
+		encodedImage = steganography.encodeData(BenchmarkBitmaps.createBitmap(imageSize),
+				BenchmarkBitmaps.createData(DATA_SIZE), options);
+	}
+
+	@Benchmark
+	public byte[] decodeData() throws Exception {
+		return steganography.decodeData(encodedImage);
+	}
+
+}
@@ -0,0 +1,123 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End to end encode/decode of a payload using half of the carrier capacity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class SteganographyBenchmark {
+
+	@Param({ "1048576", "16777216", "268435456", "1073741824" })
+	private int carrierSize;
+
+	@Param({ "false", "true" })
+	private boolean parallel;
+
+	private Steganography steganography;
+	private byte[] image;
+	private byte[] encodedImage;
+	private byte[] data;
+	private ByteBuffer imageBuffer;
+	private ByteBuffer encodedBuffer;
+	private ByteBuffer dataBuffer;
+	private ByteBuffer decodedBuffer;
+	private EncodeOptions options;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		steganography = new Steganography(BenchmarkBitmaps.SEED);
+		if (parallel) {
+			steganography.setForkJoinPool(new ForkJoinPool());
+		}
+		image = BenchmarkBitmaps.createBitmap(carrierSize);
+		data = BenchmarkBitmaps.createData(BenchmarkBitmaps.payloadSize(carrierSize));
+		encodedImage = steganography.encodeData(BenchmarkBitmaps.createBitmap(carrierSize), data, false);
+		// heap image and direct data buffers for the buffer mode
+		imageBuffer = ByteBuffer.wrap(image);
+		encodedBuffer = ByteBuffer.wrap(encodedImage);
+		dataBuffer = ByteBuffer.allocateDirect(data.length);
+		dataBuffer.put(data);
+		decodedBuffer = ByteBuffer.allocateDirect(data.length);
+		options = new EncodeOptions(true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (steganography.getForkJoinPool() != null) {
+			steganography.getForkJoinPool().shutdown();
+		}
+	}
+
+	@Benchmark
+	public byte[] encodeData() throws Exception {
+		return steganography.encodeData(image, data, true);
+	}
+
+	@Benchmark
+	public byte[] decodeData() throws Exception {
+		return steganography.decodeData(encodedImage);
+	}
+
+	@Benchmark
+	public void encodeDataBuffer() throws Exception {
+		dataBuffer.clear();
+		steganography.encodeData(imageBuffer, dataBuffer, options);
+	}
+
+	@Benchmark
+	public int decodeDataBuffer() throws Exception {
+		decodedBuffer.clear();
+		return steganography.decodeData(encodedBuffer, decodedBuffer);
+	}
+
+	@Benchmark
+	public long decodeDataStream(final Blackhole blackhole) throws Exception {
+		return steganography.decodeData(encodedImage, new BlackholeOutputStream(blackhole));
+	}
+
+	// consume decoded blocks without keeping them
+	private static final class BlackholeOutputStream extends OutputStream {
+
+		private final Blackhole blackhole;
+
+		BlackholeOutputStream(final Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void write(final int b) {
+			blackhole.consume(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			blackhole.consume(b);
+		}
+
+	}
+
+}
@@ -0,0 +1,43 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bitmap file format. The carrier window starts after the DIB header and the signature uses the 2 reserved fields of
+ * the bitmap file header, 2 bytes at offset 6 and 2 bytes more at offset 8.
+ */
+final class BitmapFormat implements CarrierFormat {
+
+	private static final int DIB_HEADER_OFFSET = 14;
+	private static final int SIGNATURE_OFFSET = 6;
+
+	@Override
+	public String getName() {
+		return "bmp";
+	}
+
+	@Override
+	public boolean accepts(final ByteBuffer header) {
+		// first two bytes bitmap identification and the DIB header size
+		return header.limit() >= DIB_HEADER_OFFSET + 4 && header.get(0) == 0x42 && header.get(1) == 0x4D;
+	}
+
+	@Override
+	public int windowOffset(final ByteBuffer header) {
+		// the DIB header size is little endian
+		int dibHeaderSize = 0;
+		for (int idx = 3; idx >= 0; idx--) {
+			dibHeaderSize = (dibHeaderSize << 8) | (header.get(DIB_HEADER_OFFSET + idx) & 0xFF);
+		}
+		if (dibHeaderSize <= 0 || dibHeaderSize > Integer.MAX_VALUE - DIB_HEADER_OFFSET) {
+			throw new IllegalArgumentException("Invalid bitmap format. Invalid DIB header size.");
+		}
+		return DIB_HEADER_OFFSET + dibHeaderSize;
+	}
+
+	@Override
+	public int signatureOffset(final ByteBuffer header) {
+		return SIGNATURE_OFFSET;
+	}
+
+}
@@ -0,0 +1,142 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Image file format of a carrier: the header fields that locate the carrier window and the signature slot.
+ * <p>
+ * The carrier window is the run of {@link #windowLength(ByteBuffer, long)} image bytes from
+ * {@link #windowOffset(ByteBuffer)}, the steganography header and the data are packed in it by the same kernels and
+ * with the same memory-mapped file access whatever the format. The bytes after the window, as the TGA extension area
+ * and footer, are left unchanged. The signature is kept in reserved header bytes when the format has them, as the
+ * bitmap file header does. Otherwise {@link #signatureOffset(ByteBuffer)} is -1 and the signature is packed with the
+ * descriptor depth in the first window bytes, before the steganography header. The pixel layout option is supported
+ * by the bitmap format only, the samples of the other formats have no row padding.
+ * <p>
+ * The {@link #BMP}, {@link #PNM} and {@link #TGA} formats are detected from the image header, see
+ * {@link #detect(ByteBuffer)}. Headerless {@link #RAW} frames are never detected, the format is set with
+ * {@link Steganography#setCarrierFormat(CarrierFormat)}. Implementations are stateless and shared by all threads.
+ */
+public interface CarrierFormat {
+
+	/**
+	 * Bitmap file, the signature is kept in the reserved fields of the bitmap file header.
+	 */
+	CarrierFormat BMP = new BitmapFormat();
+
+	/**
+	 * Binary PPM (P6) and PGM (P5) file with 8 bits samples.
+	 */
+	CarrierFormat PNM = new PnmFormat();
+
+	/**
+	 * Uncompressed true color (24 or 32 bits per pixel) or grayscale (8 bits per pixel) TGA file.
+	 */
+	CarrierFormat TGA = new TgaFormat();
+
+	/**
+	 * Headerless raw frame, the whole image is the carrier window.
+	 */
+	CarrierFormat RAW = new RawFormat();
+
+	/**
+	 * Get the format name, as used by the command line.
+	 *
+	 * @return name
+	 */
+	String getName();
+
+	/**
+	 * Check the image header is a header of this format.
+	 *
+	 * @param header
+	 *            the first image bytes, from index 0 to the buffer limit, at most 512 bytes
+	 * @return true when the format reads the header
+	 */
+	boolean accepts(ByteBuffer header);
+
+	/**
+	 * Get the index of the first byte of the carrier window.
+	 *
+	 * @param header
+	 *            the first image bytes of an accepted header
+	 * @return window offset
+	 * @throws IllegalArgumentException
+	 *             when the header fields are invalid
+	 */
+	int windowOffset(ByteBuffer header);
+
+	/**
+	 * Get the number of bytes of the carrier window, by default up to the end of the image.
+	 *
+	 * @param header
+	 *            the first image bytes of an accepted header
+	 * @param imageLength
+	 *            number of image bytes
+	 * @return window length
+	 * @throws IllegalArgumentException
+	 *             when the header fields are invalid
+	 */
+	default long windowLength(final ByteBuffer header, final long imageLength) {
+		return imageLength - windowOffset(header);
+	}
+
+	/**
+	 * Get the index of the 4 reserved header bytes of the signature.
+	 *
+	 * @param header
+	 *            the first image bytes of an accepted header
+	 * @return signature offset or -1 when the signature is packed in the carrier window
+	 */
+	int signatureOffset(ByteBuffer header);
+
+	/**
+	 * Detect the format of an image header among the {@link #BMP}, {@link #PNM} and {@link #TGA} formats.
+	 *
+	 * @param header
+	 *            the first image bytes, from index 0 to the buffer limit
+	 * @return the format or null when none accepts the header
+	 */
+	static CarrierFormat detect(final ByteBuffer header) {
+		// the TGA header has no magic number, it is checked last
+		if (BMP.accepts(header)) {
+			return BMP;
+		}
+		if (PNM.accepts(header)) {
+			return PNM;
+		}
+		return TGA.accepts(header) ? TGA : null;
+	}
+
+	/**
+	 * Get a built-in format by name, ignoring case.
+	 *
+	 * @param name
+	 *            bmp, pnm, tga or raw
+	 * @return the format
+	 */
+	static CarrierFormat forName(final String name) {
+		for (CarrierFormat format : new CarrierFormat[] { BMP, PNM, TGA, RAW }) {
+			if (format.getName().equalsIgnoreCase(name)) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException(
+				String.format("Invalid carrier format '%s'. Must be bmp, pnm, tga or raw.", name));
+	}
+
+	/**
+	 * Check the file name extension is one of a detected format: bmp, ppm, pgm, pnm or tga.
+	 *
+	 * @param name
+	 *            the file name
+	 * @return true for a carrier file name
+	 */
+	static boolean isCarrierFile(final String name) {
+		String lowerCase = name.toLowerCase(Locale.ROOT);
+		return lowerCase.endsWith(".bmp") || lowerCase.endsWith(".ppm") || lowerCase.endsWith(".pgm")
+				|| lowerCase.endsWith(".pnm") || lowerCase.endsWith(".tga");
+	}
+
+}
@@ -0,0 +1,211 @@
+package br.com.lnsoft.cryptography;
+
+/**
+ * Steganography header fields of an encoded bitmap image, read without the data.
+ * <p>
+ * The length is the number of data bytes stored in the image, the compressed length when the data is compressed. The
+ * original length is the number of data bytes decoded. The offset is the index of the first image byte of the data,
+ * before the permutation when the data is scattered, and the hash is the integrity check of the original data. The
+ * chunk index of chunked data is at the offset, before the data, and the hash is the check of this index. Images of 2
+ * GB or more have 64 bits length and offset fields, see the long getters. Encrypted data is decoded with the key of
+ * the seed string and the nonce of the header, which is not returned. The parity of corrected data follows the data.
+ */
+public final class CarrierHeader {
+
+	private final int version;
+	private final int depth;
+	private final Integrity integrity;
+	private final Compression compression;
+	private final boolean scatter;
+	private final boolean encrypted;
+	private final Shard shard;
+	private final int chunkSize;
+	private final int parity;
+	private final long length;
+	private final long originalLength;
+	private final long offset;
+	private final byte[] hash;
+
+	CarrierHeader(final int version, final int depth, final Integrity integrity, final Compression compression,
+			final boolean scatter, final boolean encrypted, final Shard shard, final int chunkSize, final int parity,
+			final long length, final long originalLength, final long offset, final byte[] hash) {
+		this.version = version;
+		this.depth = depth;
+		this.integrity = integrity;
+		this.compression = compression;
+		this.scatter = scatter;
+		this.encrypted = encrypted;
+		this.shard = shard;
+		this.chunkSize = chunkSize;
+		this.parity = parity;
+		this.length = length;
+		this.originalLength = originalLength;
+		this.offset = offset;
+		this.hash = hash;
+	}
+
+	/**
+	 * Get the header version.
+	 *
+	 * @return 1 or 2
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the number of LSB used per image byte.
+	 *
+	 * @return 1, 2, 4 or 8
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Get the data integrity check.
+	 *
+	 * @return integrity
+	 */
+	public Integrity getIntegrity() {
+		return integrity;
+	}
+
+	/**
+	 * Get the data compression.
+	 *
+	 * @return compression
+	 */
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Get the scatter flag.
+	 *
+	 * @return true when the data is spread over the whole image
+	 */
+	public boolean isScatter() {
+		return scatter;
+	}
+
+	/**
+	 * Get the encryption flag.
+	 *
+	 * @return true when the stored data is encrypted with AES-CTR
+	 */
+	public boolean isEncrypted() {
+		return encrypted;
+	}
+
+	/**
+	 * Get the shard of the data.
+	 *
+	 * @return the shard, null when the data is a whole payload
+	 */
+	public Shard getShard() {
+		return shard;
+	}
+
+	/**
+	 * Get the number of data bytes per chunk.
+	 *
+	 * @return chunk size, 0 when the data is not chunked
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Get the number of Reed-Solomon parity bytes per codeword.
+	 *
+	 * @return parity, 0 when the data has no error correction
+	 */
+	public int getParity() {
+		return parity;
+	}
+
+	/**
+	 * Get the number of data bytes stored in the image.
+	 *
+	 * @return length
+	 * @throws ArithmeticException
+	 *             when the length is 2 GB or more, see {@link #getLongLength()}
+	 */
+	public int getLength() {
+		return Math.toIntExact(length);
+	}
+
+	/**
+	 * Get the number of data bytes stored in the image, 2 GB or more with a 64 bits header.
+	 *
+	 * @return length
+	 */
+	public long getLongLength() {
+		return length;
+	}
+
+	/**
+	 * Get the number of data bytes decoded.
+	 *
+	 * @return originalLength
+	 * @throws ArithmeticException
+	 *             when the length is 2 GB or more, see {@link #getLongOriginalLength()}
+	 */
+	public int getOriginalLength() {
+		return Math.toIntExact(originalLength);
+	}
+
+	/**
+	 * Get the number of data bytes decoded, 2 GB or more with a 64 bits header.
+	 *
+	 * @return originalLength
+	 */
+	public long getLongOriginalLength() {
+		return originalLength;
+	}
+
+	/**
+	 * Get the index of the first image byte of the data.
+	 *
+	 * @return offset
+	 * @throws ArithmeticException
+	 *             when the offset is beyond 2 GB, see {@link #getLongOffset()}
+	 */
+	public int getOffset() {
+		return Math.toIntExact(offset);
+	}
+
+	/**
+	 * Get the index of the first image byte of the data, beyond 2 GB with a 64 bits header.
+	 *
+	 * @return offset
+	 */
+	public long getLongOffset() {
+		return offset;
+	}
+
+	/**
+	 * Get the integrity check of the original data, the keyed check of encrypted data, see
+	 * {@link EncodeOptions#setEncrypted(boolean)}.
+	 *
+	 * @return copy of the hash, 4 or 16 bytes
+	 */
+	public byte[] getHash() {
+		return hash.clone();
+	}
+
+	/**
+	 * Get the integrity check of the original data as hexadecimal string.
+	 *
+	 * @return 8 or 32 lower case hexadecimal digits
+	 */
+	public String getHashString() {
+		StringBuilder value = new StringBuilder(2 * hash.length);
+		for (byte c : hash) {
+			value.append(String.format("%02x", c));
+		}
+		return value.toString();
+	}
+
+}
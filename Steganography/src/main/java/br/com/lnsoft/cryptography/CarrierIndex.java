@@ -0,0 +1,347 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent index of a pool of carrier bitmap files, to pick the carriers of a payload without trial encodes.
+ * <p>
+ * The index records the file size, last modified time, base header offset, carrier window end, pixel samples length
+ * and encoded state of each bitmap file, the fields the capacity is computed from for any encode options, see
+ * {@link Steganography#capacityFile(File, EncodeOptions)}. An update walks the directory tree and reads the first
+ * bytes of the new and modified files only, the other files are checked against the walk attributes. The index file
+ * is CSV with a header line and one line per carrier: <code>image_in</code>, <code>size</code>,
+ * <code>last_modified</code>, <code>base_header_offset</code>, <code>window_end</code>, the file size unless the
+ * format has data after the image, <code>pixel_length</code>, 0 when the bitmap format
+ * has no pixel layout, and <code>encoded</code>. It is replaced atomically on save.
+ * <p>
+ * Carriers already encoded are only picked with the force option. An index is not thread safe.
+ */
+public class CarrierIndex {
+
+	static final String INDEX_HEADER = "image_in,size,last_modified,base_header_offset,window_end,pixel_length,"
+			+ "encoded";
+
+	private final Steganography steganography;
+
+	private final File indexFile;
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	// carriers by size, rebuilt after an update
+	private Entry[] sorted;
+
+	/**
+	 * Create an index backed by a file, the entries of an existing file are loaded.
+	 *
+	 * @param indexFile
+	 *            the CSV index file
+	 * @param steganography
+	 *            the instance with the seed of the encodes, the version 1 data offset depends on it
+	 * @throws Exception
+	 */
+	public CarrierIndex(final File indexFile, final Steganography steganography) throws Exception {
+		this.indexFile = indexFile;
+		this.steganography = steganography;
+		if (indexFile.exists()) {
+			load();
+		}
+	}
+
+	/**
+	 * Get the number of carriers.
+	 *
+	 * @return carriers
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Update the carriers of a directory and of its sub directories: add the new bitmap files, PNM and TGA files too,
+	 * read again the modified ones and remove the deleted ones.
+	 *
+	 * @param directory
+	 *            the root directory of the pool
+	 * @return number of bitmap files whose header was read
+	 * @throws Exception
+	 */
+	public int update(final File directory) throws Exception {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException(String.format("Input directory (%s) not found", directory.getName()));
+		}
+		// absolute paths, the index file is used from any working directory
+		Path root = directory.toPath().toAbsolutePath().normalize();
+		Set<String> visited = new HashSet<>();
+		int[] read = new int[1];
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+				if (attributes.isRegularFile()
+						&& CarrierFormat.isCarrierFile(file.getFileName().toString())) {
+					String path = file.toString();
+					visited.add(path);
+					long lastModified = attributes.lastModifiedTime().toMillis();
+					Entry entry = entries.get(path);
+					// unchanged file
+					if (entry != null && entry.size == attributes.size() && entry.lastModified == lastModified) {
+						return FileVisitResult.CONTINUE;
+					}
+					entry = readEntry(file, attributes.size(), lastModified);
+					if (entry != null) {
+						entries.put(path, entry);
+					} else {
+						entries.remove(path);
+					}
+					read[0]++;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		// deleted files
+		for (Iterator<String> iterator = entries.keySet().iterator(); iterator.hasNext();) {
+			String path = iterator.next();
+			if (!visited.contains(path) && Paths.get(path).startsWith(root)) {
+				iterator.remove();
+			}
+		}
+		sorted = null;
+		return read[0];
+	}
+
+	/**
+	 * Write the index file, the previous file is replaced at once.
+	 *
+	 * @throws Exception
+	 */
+	public void save() throws Exception {
+		Path target = indexFile.getAbsoluteFile().toPath();
+		Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+				writer.write(INDEX_HEADER);
+				writer.newLine();
+				for (Entry entry : sortedEntries()) {
+					writer.write(String.format("%s,%d,%d,%d,%d,%d,%b", SteganographyScan.csvField(entry.path),
+							entry.size, entry.lastModified, entry.baseHeaderOffset, entry.windowEnd, entry.pixelLength,
+							entry.encoded));
+					writer.newLine();
+				}
+			}
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Pick the smallest carrier with the capacity for the data.
+	 *
+	 * @param length
+	 *            number of data bytes
+	 * @param options
+	 *            the encode options
+	 * @return the carrier or null when no carrier fits
+	 */
+	public File select(final long length, final EncodeOptions options) {
+		Entry[] carriers = sortedEntries();
+		// a carrier holds fewer data bytes than its image bytes per data byte
+		long minimumSize = PackingKernels.imageLength(options.getDepth(), length);
+		for (int idx = lowerBound(carriers, minimumSize); idx < carriers.length; idx++) {
+			Entry entry = carriers[idx];
+			if ((!entry.encoded || options.isForce()) && (!options.isPixels() || entry.pixelLength > 0)
+					&& steganography.fits(entry.baseHeaderOffset, imageLength(entry, options), length, options)) {
+				return new File(entry.path);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Pick the carriers of a payload split in shards, see {@link SteganographyShards}: the smallest number of
+	 * carriers, then the smallest carriers, with the capacity for an even split of the data.
+	 *
+	 * @param length
+	 *            number of data bytes
+	 * @param options
+	 *            the encode options
+	 * @return the carriers or null when the pool has not the capacity
+	 */
+	public File[] selectShards(final long length, final EncodeOptions options) {
+		// capacities with the shard header fields
+		EncodeOptions shardOptions = new EncodeOptions(options);
+		shardOptions.setShard(new Shard(0, 0, 1));
+		Entry[] carriers = sortedEntries();
+		long[] capacities = new long[carriers.length];
+		Entry[] available = new Entry[carriers.length];
+		int count = 0;
+		for (Entry entry : carriers) {
+			if ((!entry.encoded || options.isForce()) && (!options.isPixels() || entry.pixelLength > 0)) {
+				available[count++] = entry;
+			}
+		}
+		// capacity is not monotonic with the size when the DIB headers differ
+		Arrays.sort(available, 0, count, Comparator.comparingLong(entry -> capacity(entry, shardOptions)));
+		for (int idx = 0; idx < count; idx++) {
+			capacities[idx] = capacity(available[idx], shardOptions);
+		}
+		for (int shards = 1; shards <= count; shards++) {
+			// the longest shard, see SteganographyShards
+			long shardLength = (length + shards - 1) / shards;
+			int first = lowerBound(capacities, count, shardLength);
+			if (count - first >= shards) {
+				File[] files = new File[shards];
+				for (int idx = 0; idx < shards; idx++) {
+					files[idx] = new File(available[first + idx].path);
+				}
+				return files;
+			}
+		}
+		return null;
+	}
+
+	//
+	// Entries
+	//
+
+	private Entry readEntry(final Path file, final long size, final long lastModified) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = steganography.readBitmapHeader(channel);
+			int pixelLength;
+			try {
+				pixelLength = steganography.computePixelLength(header, size);
+			} catch (IllegalArgumentException e) {
+				// bitmap format without pixel layout
+				pixelLength = 0;
+			}
+			return new Entry(file.toString(), size, lastModified, steganography.computeBaseHeaderOffset(header),
+					steganography.computeImageEnd(header, size), pixelLength, steganography.checkSignature(header));
+		} catch (Exception e) {
+			// not a bitmap file or not readable, not a carrier
+			return null;
+		}
+	}
+
+	private int capacity(final Entry entry, final EncodeOptions options) {
+		return steganography.computeCapacity(entry.baseHeaderOffset, imageLength(entry, options), options);
+	}
+
+	// the pixel samples keep the offsets of the contiguous layout, see PixelLayout
+	private static long imageLength(final Entry entry, final EncodeOptions options) {
+		return options.isPixels() ? entry.pixelLength : entry.windowEnd;
+	}
+
+	private Entry[] sortedEntries() {
+		if (sorted == null) {
+			sorted = entries.values().toArray(new Entry[entries.size()]);
+			Arrays.sort(sorted,
+					Comparator.comparingLong((Entry entry) -> entry.size).thenComparing(entry -> entry.path));
+		}
+		return sorted;
+	}
+
+	// index of the first carrier larger than the size
+	private static int lowerBound(final Entry[] carriers, final long size) {
+		int low = 0;
+		int high = carriers.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (carriers[middle].size <= size) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// index of the first capacity not lower than the length
+	private static int lowerBound(final long[] capacities, final int count, final long length) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (capacities[middle] < length) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void load() throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if (!INDEX_HEADER.equals(line)) {
+				throw new IllegalArgumentException(String.format("Invalid index file (%s). Header must be: %s",
+						indexFile.getName(), INDEX_HEADER));
+			}
+			int lineNumber = 1;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty()) {
+					continue;
+				}
+				List<String> fields = SteganographyBatch.parseCsvLine(line);
+				try {
+					if (fields.size() != 7) {
+						throw new IllegalArgumentException("wrong number of fields");
+					}
+					Entry entry = new Entry(fields.get(0), Long.parseLong(fields.get(1)), Long.parseLong(fields.get(2)),
+							Integer.parseInt(fields.get(3)), Long.parseLong(fields.get(4)),
+							Integer.parseInt(fields.get(5)), Boolean.parseBoolean(fields.get(6)));
+					entries.put(entry.path, entry);
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(String.format("Invalid index file (%s). Line %d: %s",
+							indexFile.getName(), lineNumber, e.getLocalizedMessage()));
+				}
+			}
+		}
+	}
+
+	private static final class Entry {
+
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final int baseHeaderOffset;
+		private final long windowEnd;
+		private final int pixelLength;
+		private final boolean encoded;
+
+		private Entry(final String path, final long size, final long lastModified, final int baseHeaderOffset,
+				final long windowEnd, final int pixelLength, final boolean encoded) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.baseHeaderOffset = baseHeaderOffset;
+			this.windowEnd = windowEnd;
+			this.pixelLength = pixelLength;
+			this.encoded = encoded;
+		}
+
+	}
+
+}
@@ -0,0 +1,84 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream decoding the bytes within the LSB of an image window.
+ * <p>
+ * Bytes are decoded by the packing kernels directly into the caller array, and decrypted in place when the data is
+ * encrypted.
+ */
+final class CarrierInputStream extends InputStream {
+
+	private final ByteBuffer image;
+	private final int depth;
+	private final ImageMapping mapping;
+	private final DataCipher cipher;
+
+	private int offset;
+	private int remaining;
+	// position of the next byte within the window
+	private long position;
+
+	/**
+	 * Create a stream over an image window.
+	 *
+	 * @param image
+	 *            the image buffer
+	 * @param depth
+	 *            number of LSB used per image byte
+	 * @param mapping
+	 *            mapping of the image bytes, null for contiguous data
+	 * @param cipher
+	 *            key stream of the window, null when not encrypted
+	 * @param offset
+	 *            index of the first image byte
+	 * @param length
+	 *            number of data bytes
+	 */
+	CarrierInputStream(final ByteBuffer image, final int depth, final ImageMapping mapping, final DataCipher cipher,
+			final int offset, final int length) {
+		this.image = image;
+		this.depth = depth;
+		this.mapping = mapping;
+		this.cipher = cipher;
+		this.offset = offset;
+		this.remaining = length;
+	}
+
+	@Override
+	public int read() {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (remaining == 0) {
+			return -1;
+		}
+		int count = Math.min(len, remaining);
+		if (mapping != null) {
+			mapping.decode(depth, image, offset, ByteBuffer.wrap(b), off, count);
+		} else {
+			PackingKernels.decode(depth, image, offset, b, off, count);
+		}
+		if (cipher != null) {
+			cipher.apply(b, off, count, position);
+		}
+		offset += (int) PackingKernels.imageLength(depth, count);
+		remaining -= count;
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return remaining;
+	}
+
+}
@@ -0,0 +1,112 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream encoding the bytes written within the LSB of an image window.
+ * <p>
+ * Bytes are buffered and encoded in blocks by the packing kernels, encrypted in place first when the data is
+ * encrypted. Writing more bytes than the window length fails with an {@link IllegalArgumentException}.
+ */
+final class CarrierOutputStream extends OutputStream {
+
+	private final ByteBuffer image;
+	private final int depth;
+	private final ImageMapping mapping;
+	private final DataCipher cipher;
+	private final int limit;
+	private final byte[] buffer;
+
+	private int offset;
+	private int length;
+	private int count;
+
+	/**
+	 * Create a stream over an image window.
+	 *
+	 * @param image
+	 *            the image buffer
+	 * @param depth
+	 *            number of LSB used per image byte
+	 * @param mapping
+	 *            mapping of the image bytes, null for contiguous data
+	 * @param cipher
+	 *            key stream of the window, null when not encrypted
+	 * @param offset
+	 *            index of the first image byte
+	 * @param limit
+	 *            maximum number of data bytes
+	 * @param bufferSize
+	 *            number of data bytes encoded per block
+	 */
+	CarrierOutputStream(final ByteBuffer image, final int depth, final ImageMapping mapping, final DataCipher cipher,
+			final int offset, final int limit, final int bufferSize) {
+		this.image = image;
+		this.depth = depth;
+		this.mapping = mapping;
+		this.cipher = cipher;
+		this.offset = offset;
+		this.limit = limit;
+		this.buffer = new byte[Math.max(1, Math.min(limit, bufferSize))];
+	}
+
+	// number of data bytes written
+	int getLength() {
+		return length + count;
+	}
+
+	@Override
+	public void write(final int b) {
+		if (count == buffer.length) {
+			flush();
+		}
+		checkLimit(1);
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		checkLimit(len);
+		int position = off;
+		int remaining = len;
+		while (remaining > 0) {
+			if (count == buffer.length) {
+				flush();
+			}
+			int size = Math.min(remaining, buffer.length - count);
+			System.arraycopy(b, position, buffer, count, size);
+			count += size;
+			position += size;
+			remaining -= size;
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (cipher != null) {
+			cipher.apply(buffer, 0, count, length);
+		}
+		if (mapping != null) {
+			mapping.encode(depth, image, offset, ByteBuffer.wrap(buffer), 0, count);
+		} else {
+			PackingKernels.encode(depth, image, offset, buffer, 0, count);
+		}
+		offset += (int) PackingKernels.imageLength(depth, count);
+		length += count;
+		count = 0;
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+
+	private void checkLimit(final int len) {
+		if ((long) getLength() + len > limit) {
+			throw new IllegalArgumentException(
+					String.format("Invalid data length. Compressed data exceeds the %d bytes window.", limit));
+		}
+	}
+
+}
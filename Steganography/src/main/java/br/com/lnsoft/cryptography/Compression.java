@@ -0,0 +1,166 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression applied to the data before it is encoded within the image.
+ * <p>
+ * The codec is recorded in the version 2 header by its identifier, so decoding needs no option. New codecs only need
+ * a new identifier, streams and a worst case compressed length.
+ */
+public enum Compression {
+
+	/**
+	 * Data encoded as is.
+	 */
+	NONE(0) {
+		@Override
+		OutputStream compress(final OutputStream out) {
+			return out;
+		}
+
+		@Override
+		InputStream decompress(final InputStream in) {
+			return in;
+		}
+
+		@Override
+		long bound(final long length) {
+			return length;
+		}
+	},
+
+	/**
+	 * Deflate (zlib format) with the default compression level.
+	 */
+	DEFLATE(1) {
+		@Override
+		OutputStream compress(final OutputStream out) {
+			return deflate(out, Deflater.DEFAULT_COMPRESSION);
+		}
+
+		@Override
+		InputStream decompress(final InputStream in) {
+			return inflate(in);
+		}
+
+		@Override
+		long bound(final long length) {
+			return deflateBound(length);
+		}
+	},
+
+	/**
+	 * Deflate (zlib format) with the fastest compression level.
+	 */
+	DEFLATE_FAST(2) {
+		@Override
+		OutputStream compress(final OutputStream out) {
+			return deflate(out, Deflater.BEST_SPEED);
+		}
+
+		@Override
+		InputStream decompress(final InputStream in) {
+			return inflate(in);
+		}
+
+		@Override
+		long bound(final long length) {
+			return deflateBound(length);
+		}
+	};
+
+	// bytes buffered by the deflate streams
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	final int id;
+
+	Compression(final int id) {
+		this.id = id;
+	}
+
+	// compressed stream, closing it finishes the compression and closes the output
+	abstract OutputStream compress(OutputStream out);
+
+	// decompressed stream, closing it closes the input
+	abstract InputStream decompress(InputStream in);
+
+	// worst case compressed length
+	abstract long bound(long length);
+
+	// write the last block of a compressed stream, closing it afterwards is a no-op but for the output
+	static void finish(final OutputStream compressed) throws IOException {
+		if (compressed instanceof DeflaterOutputStream) {
+			((DeflaterOutputStream) compressed).finish();
+		} else {
+			compressed.flush();
+		}
+	}
+
+	/**
+	 * Get the compression by name, ignoring case.
+	 * 
+	 * @param name
+	 *            none, deflate or deflate_fast
+	 * @return the compression
+	 */
+	public static Compression forName(final String name) {
+		for (Compression compression : values()) {
+			if (compression.name().equalsIgnoreCase(name)) {
+				return compression;
+			}
+		}
+		throw new IllegalArgumentException(
+				String.format("Invalid compression '%s'. Must be none, deflate or deflate_fast.", name));
+	}
+
+	// compression of a version 2 header, null when unknown
+	static Compression forId(final int id) {
+		for (Compression compression : values()) {
+			if (compression.id == id) {
+				return compression;
+			}
+		}
+		return null;
+	}
+
+	private static OutputStream deflate(final OutputStream out, final int level) {
+		final Deflater deflater = new Deflater(level);
+		return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					deflater.end();
+				}
+			}
+		};
+	}
+
+	private static InputStream inflate(final InputStream in) {
+		final Inflater inflater = new Inflater();
+		return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inflater.end();
+				}
+			}
+		};
+	}
+
+	// zlib compressBound: stored blocks overhead plus the zlib header and trailer
+	private static long deflateBound(final long length) {
+		return length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 13;
+	}
+
+}
@@ -0,0 +1,223 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-CTR key stream of the stored data bytes, applied block by block while the data is packed and unpacked.
+ * <p>
+ * The counter of a stored byte is the nonce plus its position within the data window divided by the AES block size,
+ * so any block is encrypted or decrypted on its own: a range is decoded without the bytes before it. The runtime
+ * cipher is reused across calls, it uses the AES instructions of the processor where the JVM provides them. The data
+ * check of encrypted data is keyed by a second key derived with the cipher key.
+ * <p>
+ * The keys are derived from the seed string and a random salt stored in the header. A derivation costs tens of
+ * milliseconds, so the keys of the recent seed strings and salts are kept for the instances of the process, and the
+ * encodes with a seed string reuse the salt of its keys: the salt is per process and seed string, not per encode. The
+ * cache is keyed by the SHA-256 of the seed string, never by the seed string itself, it is skipped by the calls that
+ * do not use it and emptied by {@link #clearKeys()}.
+ */
+final class DataCipher {
+
+	static final int NONCE_SIZE = 16;
+	static final int KEY_SIZE = 32;
+	static final int SALT_SIZE = 16;
+
+	private static final int BLOCK_SIZE = 16;
+	private static final int KEY_ITERATIONS = 65536;
+	// derived keys kept, by seed string digest for the encodes and by salt and seed string digest for the decodes
+	private static final int KEYS_CACHE_SIZE = 64;
+	private static final Map<String, Keys> ENCODE_KEYS = createCache();
+	private static final Map<String, Keys> DECODE_KEYS = createCache();
+	private static final SecureRandom SALTS = new SecureRandom();
+
+	private final Cipher cipher;
+	private final byte[] counter = new byte[NONCE_SIZE];
+	private final byte[] skip = new byte[BLOCK_SIZE];
+	private final byte[] nonce = new byte[NONCE_SIZE];
+	private SecretKeySpec key;
+	// position of the next key stream byte, -1 when the counter must be set
+	private long position = -1;
+
+	DataCipher() {
+		try {
+			cipher = Cipher.getInstance("AES/CTR/NoPadding");
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("AES/CTR cipher not available", e);
+		}
+	}
+
+	// keys of an encode, with the salt of the cached keys of the seed string or a new random salt
+	static Keys encodeKeys(final String seedString, final boolean cached) {
+		if (!cached) {
+			return deriveKeys(seedString, newSalt());
+		}
+		String digest = digest(seedString);
+		Keys keys;
+		synchronized (ENCODE_KEYS) {
+			keys = ENCODE_KEYS.get(digest);
+		}
+		if (keys == null) {
+			byte[] salt = newSalt();
+			keys = deriveKeys(seedString, salt);
+			synchronized (ENCODE_KEYS) {
+				ENCODE_KEYS.put(digest, keys);
+			}
+			synchronized (DECODE_KEYS) {
+				DECODE_KEYS.put(cacheKey(digest, salt), keys);
+			}
+		}
+		return keys;
+	}
+
+	// keys of a decode, with the salt read from the header
+	static Keys decodeKeys(final String seedString, final byte[] salt, final boolean cached) {
+		if (!cached) {
+			return deriveKeys(seedString, salt.clone());
+		}
+		String cacheKey = cacheKey(digest(seedString), salt);
+		Keys keys;
+		synchronized (DECODE_KEYS) {
+			keys = DECODE_KEYS.get(cacheKey);
+		}
+		if (keys == null) {
+			keys = deriveKeys(seedString, salt.clone());
+			synchronized (DECODE_KEYS) {
+				DECODE_KEYS.put(cacheKey, keys);
+			}
+		}
+		return keys;
+	}
+
+	// forget the cached keys, the next encode of each seed string has a new salt
+	static void clearKeys() {
+		synchronized (ENCODE_KEYS) {
+			ENCODE_KEYS.clear();
+		}
+		synchronized (DECODE_KEYS) {
+			DECODE_KEYS.clear();
+		}
+	}
+
+	private static byte[] newSalt() {
+		byte[] salt = new byte[SALT_SIZE];
+		SALTS.nextBytes(salt);
+		return salt;
+	}
+
+	// AES-256 and HMAC-SHA256 keys, the two halves of a PBKDF2 with HMAC-SHA256 output
+	private static Keys deriveKeys(final String seedString, final byte[] salt) {
+		try {
+			KeySpec spec = new PBEKeySpec(seedString.toCharArray(), salt, KEY_ITERATIONS, KEY_SIZE * 2 * 8);
+			byte[] keys = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+			return new Keys(new SecretKeySpec(keys, 0, KEY_SIZE, "AES"),
+					new SecretKeySpec(keys, KEY_SIZE, KEY_SIZE, "HmacSHA256"), salt);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("PBKDF2 key derivation not available", e);
+		}
+	}
+
+	// SHA-256 of the seed string, the cache never holds the seed string
+	private static String digest(final String seedString) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(digest.digest(seedString.getBytes(StandardCharsets.UTF_8)));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("SHA-256 digest not available", e);
+		}
+	}
+
+	// the encoded salt has a fixed length, so the seed string digest follows it without a separator
+	private static String cacheKey(final String digest, final byte[] salt) {
+		return Base64.getEncoder().encodeToString(salt) + digest;
+	}
+
+	// least recently used keys first, the eldest is removed beyond the cache size
+	private static Map<String, Keys> createCache() {
+		return new LinkedHashMap<String, Keys>(KEYS_CACHE_SIZE, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Keys> eldest) {
+				return size() > KEYS_CACHE_SIZE;
+			}
+
+		};
+	}
+
+	// key and nonce of one call, the nonce array is copied
+	void init(final SecretKeySpec key, final byte[] nonce) {
+		this.key = key;
+		System.arraycopy(nonce, 0, this.nonce, 0, NONCE_SIZE);
+		this.position = -1;
+	}
+
+	// encrypt or decrypt the bytes in place, the first byte is at the given stored position
+	void apply(final byte[] data, final int index, final int length, final long position) {
+		apply(data, index, data, index, length, position);
+	}
+
+	// encrypt or decrypt the input bytes into the output array
+	void apply(final byte[] input, final int inputIndex, final byte[] output, final int outputIndex, final int length,
+			final long position) {
+		if (length == 0) {
+			return;
+		}
+		try {
+			seek(position);
+			cipher.update(input, inputIndex, length, output, outputIndex);
+			this.position += length;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("AES/CTR cipher failed", e);
+		}
+	}
+
+	// the counter block of the position, the nonce plus the block index as a 128 bits big endian sum
+	private void seek(final long position) throws GeneralSecurityException {
+		if (position == this.position) {
+			return;
+		}
+		long carry = position / BLOCK_SIZE;
+		for (int idx = NONCE_SIZE - 1; idx >= 0; idx--) {
+			long sum = (nonce[idx] & 0xFF) + (carry & 0xFF);
+			counter[idx] = (byte) sum;
+			carry = (carry >>> 8) + (sum >>> 8);
+		}
+		cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(counter));
+		// discard the key stream bytes before the position within its block
+		int rest = (int) (position % BLOCK_SIZE);
+		if (rest > 0) {
+			cipher.update(skip, 0, rest, skip, 0);
+		}
+		this.position = position;
+	}
+
+	// key of the key stream, key of the data check, see IntegrityDigest.Hmac, and their salt, which is not modified
+	static final class Keys {
+
+		final SecretKeySpec cipher;
+		final SecretKeySpec mac;
+		final byte[] salt;
+
+		private Keys(final SecretKeySpec cipher, final SecretKeySpec mac, final byte[] salt) {
+			this.cipher = cipher;
+			this.mac = mac;
+			this.salt = salt;
+		}
+
+	}
+
+}
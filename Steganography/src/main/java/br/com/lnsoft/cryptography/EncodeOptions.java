@@ -0,0 +1,353 @@
+package br.com.lnsoft.cryptography;
+
+/**
+ * Options of one encode call.
+ * <p>
+ * The default options write the original header, readable by previous versions. Any other option writes a version 2
+ * header which records the options, so decoding needs no options.
+ */
+public class EncodeOptions {
+
+	/**
+	 * Default number of LSB used per image byte.
+	 */
+	public static final int DEFAULT_DEPTH = 4;
+
+	/**
+	 * Smallest number of data bytes per chunk.
+	 */
+	public static final int MIN_CHUNK_SIZE = 256;
+
+	/**
+	 * Largest number of data bytes per chunk.
+	 */
+	public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Smallest number of parity bytes per codeword.
+	 */
+	public static final int MIN_PARITY = 2;
+
+	/**
+	 * Largest number of parity bytes per codeword.
+	 */
+	public static final int MAX_PARITY = 128;
+
+	private boolean force;
+
+	private int depth = DEFAULT_DEPTH;
+
+	private Compression compression = Compression.NONE;
+
+	private Integrity integrity = Integrity.MD5;
+
+	private boolean scatter;
+	private boolean pixels;
+
+	private boolean wide;
+
+	private boolean encrypted;
+
+	private Shard shard;
+
+	private int chunkSize;
+
+	private int parity;
+
+	/**
+	 * Create the default options.
+	 */
+	public EncodeOptions() {
+	}
+
+	/**
+	 * Create the default options with the force flag.
+	 * 
+	 * @param force
+	 *            flag to force encode an already encoded bitmap image
+	 */
+	public EncodeOptions(final boolean force) {
+		this.force = force;
+	}
+
+	/**
+	 * Create a copy of the options.
+	 * 
+	 * @param options
+	 *            the options copied, every option included
+	 */
+	public EncodeOptions(final EncodeOptions options) {
+		this.force = options.force;
+		this.depth = options.depth;
+		this.compression = options.compression;
+		this.integrity = options.integrity;
+		this.scatter = options.scatter;
+		this.pixels = options.pixels;
+		this.wide = options.wide;
+		this.encrypted = options.encrypted;
+		this.shard = options.shard;
+		this.chunkSize = options.chunkSize;
+		this.parity = options.parity;
+	}
+
+	/**
+	 * Get the force flag.
+	 * 
+	 * @return true to force encode an already encoded bitmap image
+	 */
+	public boolean isForce() {
+		return force;
+	}
+
+	/**
+	 * Set the force flag.
+	 * 
+	 * @param force
+	 *            flag to force encode an already encoded bitmap image
+	 */
+	public void setForce(final boolean force) {
+		this.force = force;
+	}
+
+	/**
+	 * Get the number of LSB used per image byte.
+	 * 
+	 * @return depth
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Set the number of LSB used per image byte. Lower depths change less the image but need more image bytes: each
+	 * data byte uses 8 / depth image bytes.
+	 * 
+	 * @param depth
+	 *            1, 2, 4 or 8
+	 */
+	public void setDepth(final int depth) {
+		if (depth != 1 && depth != 2 && depth != 4 && depth != 8) {
+			throw new IllegalArgumentException("Invalid depth. Must be 1, 2, 4 or 8.");
+		}
+		this.depth = depth;
+	}
+
+	/**
+	 * Get the compression applied to the data before it is encoded.
+	 * 
+	 * @return compression
+	 */
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Set the compression applied to the data before it is encoded. Compressed data uses less image bytes, so smaller
+	 * images can be used and less image bytes are written. The image must still have room for the data once
+	 * compressed.
+	 * 
+	 * @param compression
+	 *            the compression, {@link Compression#NONE} by default
+	 */
+	public void setCompression(final Compression compression) {
+		if (compression == null) {
+			throw new IllegalArgumentException("Invalid compression. Must not be null.");
+		}
+		this.compression = compression;
+	}
+
+	/**
+	 * Get the integrity check of the data.
+	 * 
+	 * @return integrity
+	 */
+	public Integrity getIntegrity() {
+		return integrity;
+	}
+
+	/**
+	 * Set the integrity check of the data. The check is computed while the data is encoded and checked while it is
+	 * decoded. CRC32C and MurmurHash3 cost much less than MD5 and detect damaged data as well, MD5 is kept where a
+	 * cryptographic hash is required.
+	 * 
+	 * @param integrity
+	 *            the integrity check, {@link Integrity#MD5} by default
+	 */
+	public void setIntegrity(final Integrity integrity) {
+		if (integrity == null) {
+			throw new IllegalArgumentException("Invalid integrity. Must not be null.");
+		}
+		this.integrity = integrity;
+	}
+
+	/**
+	 * Get the scatter flag.
+	 * 
+	 * @return true to spread the data over the whole image
+	 */
+	public boolean isScatter() {
+		return scatter;
+	}
+
+	/**
+	 * Set the scatter flag. The image bytes of the data are spread over the whole image at positions derived from
+	 * the seed instead of a single run starting at the offset. The data is harder to locate but the image is read and
+	 * written at random positions, so encoding and decoding are slower on large images.
+	 * 
+	 * @param scatter
+	 *            flag to spread the data over the whole image
+	 */
+	public void setScatter(final boolean scatter) {
+		this.scatter = scatter;
+	}
+
+	/**
+	 * Get the pixel layout flag.
+	 * 
+	 * @return true to encode within the pixel samples only
+	 */
+	public boolean isPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Set the pixel layout flag. The header and the data are encoded within the color bytes of the pixels only, the
+	 * row padding bytes and the alpha bytes are left unchanged, so the encoding is not visible in the alpha channel.
+	 * The image must be an uncompressed 24 or 32 bits per pixel bitmap and the images encoded are read by this
+	 * version only.
+	 * 
+	 * @param pixels
+	 *            flag to encode within the pixel samples only
+	 */
+	public void setPixels(final boolean pixels) {
+		this.pixels = pixels;
+	}
+
+	/**
+	 * Get the wide header flag.
+	 * 
+	 * @return true to write 64 bits length and offset fields
+	 */
+	public boolean isWide() {
+		return wide;
+	}
+
+	/**
+	 * Set the wide header flag. The length and offset fields are 64 bits long. The wide header is always written in
+	 * bitmap files of 2 GB or more, see {@link Steganography#encodeFile(java.io.File, java.io.File,
+	 * java.io.InputStream, long, EncodeOptions)}, and the images encoded are read by this version only.
+	 * 
+	 * @param wide
+	 *            flag to write 64 bits length and offset fields
+	 */
+	public void setWide(final boolean wide) {
+		this.wide = wide;
+	}
+
+	/**
+	 * Get the encryption flag.
+	 * 
+	 * @return true to encrypt the data with AES-CTR
+	 */
+	public boolean isEncrypted() {
+		return encrypted;
+	}
+
+	/**
+	 * Set the encryption flag. The stored data bytes, after compression and with the chunk index, are encrypted with
+	 * AES-CTR while they are packed, with a key derived from the seed string, see
+	 * {@link Steganography#setSeed(String)}, and a random nonce recorded in the header. The hash field holds an
+	 * HMAC-SHA256 of the nonce and the original data, keyed by a second key derived from the seed string and truncated
+	 * to the size of the integrity check, so it reveals nothing of the data. Encrypted data is not updated in place and
+	 * the images encoded are read by this version only.
+	 * 
+	 * @param encrypted
+	 *            flag to encrypt the data with AES-CTR
+	 */
+	public void setEncrypted(final boolean encrypted) {
+		this.encrypted = encrypted;
+	}
+
+	/**
+	 * Get the shard of the data.
+	 * 
+	 * @return the shard, null when the data is a whole payload
+	 */
+	public Shard getShard() {
+		return shard;
+	}
+
+	/**
+	 * Set the shard of the data, when the data is one part of a payload split across several images. The shard is
+	 * recorded in the header, {@link SteganographyShards} splits and reassembles payloads.
+	 * 
+	 * @param shard
+	 *            the shard, null when the data is a whole payload
+	 */
+	public void setShard(final Shard shard) {
+		this.shard = shard;
+	}
+
+	/**
+	 * Get the number of data bytes per chunk.
+	 * 
+	 * @return chunk size, 0 when the data is not chunked
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Set the number of data bytes per chunk. The data is stored as chunks of this size, the last one may be shorter,
+	 * and the data window starts with a CRC32C checksum per chunk, so a range of the data is decoded reading and
+	 * checking only the chunks it overlaps, see {@link Steganography#decodeRange(byte[], int, int)}. The integrity
+	 * hash is the check of the chunk index instead of the data, so a range is also updated in place without reading
+	 * the other chunks, see {@link Steganography#updateData(byte[], int, byte[])}. The data window is 4 bytes per
+	 * chunk longer. Chunked data is not compressed.
+	 * 
+	 * @param chunkSize
+	 *            between {@link #MIN_CHUNK_SIZE} and {@link #MAX_CHUNK_SIZE}, or 0 to store the data in one piece
+	 */
+	public void setChunkSize(final int chunkSize) {
+		if (chunkSize != 0 && (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE)) {
+			throw new IllegalArgumentException(String.format("Invalid chunk size. Must be 0 or between %d and %d.",
+					MIN_CHUNK_SIZE, MAX_CHUNK_SIZE));
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Get the number of parity bytes per codeword.
+	 * 
+	 * @return parity bytes or 0 without error correction
+	 */
+	public int getParity() {
+		return parity;
+	}
+
+	/**
+	 * Set the number of Reed-Solomon parity bytes per codeword of 255 bytes. The parity of the data follows the data
+	 * in the window and corrects up to half as many damaged bytes per codeword, the codewords are interleaved so a
+	 * burst of damaged image bytes is spread over many codewords. The parity is only read when the hash of the data
+	 * decoded is invalid, the data is then corrected and checked again. The data window is parity / (255 - parity)
+	 * times longer. Corrected data is not compressed nor chunked.
+	 * 
+	 * @param parity
+	 *            between {@link #MIN_PARITY} and {@link #MAX_PARITY}, or 0 without error correction
+	 */
+	public void setParity(final int parity) {
+		if (parity != 0 && (parity < MIN_PARITY || parity > MAX_PARITY)) {
+			throw new IllegalArgumentException(
+					String.format("Invalid parity. Must be 0 or between %d and %d.", MIN_PARITY, MAX_PARITY));
+		}
+		this.parity = parity;
+	}
+
+	// options written by the original header
+	boolean isDefault() {
+		return depth == DEFAULT_DEPTH && compression == Compression.NONE && integrity == Integrity.MD5 && !scatter
+				&& !pixels && shard == null && chunkSize == 0 && !wide
+				&& !encrypted && parity == 0;
+	}
+
+}
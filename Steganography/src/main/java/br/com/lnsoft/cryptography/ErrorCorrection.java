@@ -0,0 +1,402 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reed-Solomon code over GF(256) of the data with error correction, see {@link EncodeOptions#setParity(int)}.
+ * <p>
+ * The data is split in blocks of {@link #INTERLEAVE} codewords of 255 bytes: the data byte i of a block belongs to
+ * the codeword i % c of the block, c being its number of codewords, so a burst of damaged bytes is spread over the
+ * codewords of the block. Each codeword has 255 - parity data bytes, the last block has fewer and shorter codewords,
+ * and parity bytes that correct up to parity / 2 damaged bytes of the codeword, data or parity. The parity of the
+ * blocks follows the data, in block order and interleaved the same way: the parity byte j of the codeword i of a block
+ * is its byte j * c + i.
+ * <p>
+ * The field arithmetic uses log and exp tables of the primitive polynomial x^8 + x^4 + x^3 + x^2 + 1, the encoder a
+ * table of the products of each feedback byte with the generator polynomial. The encoder state of a codeword is packed
+ * in longs, 8 registers each, so each data byte costs a shift and an exclusive or of one table row per long, and the
+ * consecutive data bytes update distinct codewords.
+ * The blocks are independent and are encoded and corrected in parallel in a pool. An instance encodes the data of one
+ * call at a time, the correction is stateless.
+ */
+final class ErrorCorrection {
+
+	// codewords per block
+	static final int INTERLEAVE = 64;
+
+	// symbols of a codeword, the multiplicative group order
+	private static final int CODEWORD_SIZE = 255;
+	private static final int PRIMITIVE = 0x11D;
+	// data bytes of the blocks of a parallel task, at least one block
+	private static final int TASK_SIZE = 1024 * 1024;
+
+	// EXP[i] = a^i over two periods, so a sum of two logs is an index, and LOG[EXP[i]] = i
+	private static final int[] EXP = new int[2 * CODEWORD_SIZE];
+	private static final int[] LOG = new int[CODEWORD_SIZE + 1];
+
+	static {
+		int value = 1;
+		for (int idx = 0; idx < CODEWORD_SIZE; idx++) {
+			EXP[idx] = value;
+			EXP[idx + CODEWORD_SIZE] = value;
+			LOG[value] = idx;
+			value <<= 1;
+			if (value > CODEWORD_SIZE) {
+				value ^= PRIMITIVE;
+			}
+		}
+	}
+
+	private final int parity;
+	// data bytes per codeword and per block, but for the last block
+	private final int codewordData;
+	private final int blockSize;
+	// longs of the encoder state of a codeword
+	private final int words;
+	// products of each feedback byte with the generator coefficients after the leading one, packed as the state
+	private final long[] feedback;
+
+	// encoder state of the codewords, the first register in the high byte of the first long of the codeword
+	private long[] state = new long[0];
+	// parity of the data encoded in stored order
+	private byte[] stored = new byte[0];
+	private int parityLength;
+	private long dataLength;
+	// data bytes encoded
+	private long position;
+
+	ErrorCorrection(final int parity) {
+		this.parity = parity;
+		this.codewordData = CODEWORD_SIZE - parity;
+		this.blockSize = INTERLEAVE * codewordData;
+		// generator polynomial (x + a^0)(x + a^1)...(x + a^(parity-1)), highest degree first
+		int[] generator = new int[parity + 1];
+		generator[0] = 1;
+		for (int root = 0; root < parity; root++) {
+			for (int idx = root + 1; idx > 0; idx--) {
+				generator[idx] ^= multiply(generator[idx - 1], EXP[root]);
+			}
+		}
+		this.words = (parity + Long.BYTES - 1) / Long.BYTES;
+		feedback = new long[(CODEWORD_SIZE + 1) * words];
+		for (int value = 1; value <= CODEWORD_SIZE; value++) {
+			for (int idx = 0; idx < parity; idx++) {
+				feedback[value * words + idx / Long.BYTES] |= (long) multiply(value, generator[idx + 1]) << shift(idx);
+			}
+		}
+	}
+
+	// parity bytes after data of the length
+	static long parityLength(final int parity, final long dataLength) {
+		int codewordData = CODEWORD_SIZE - parity;
+		long blockSize = (long) INTERLEAVE * codewordData;
+		long lastBlock = dataLength % blockSize;
+		return (dataLength / blockSize * INTERLEAVE + (lastBlock + codewordData - 1) / codewordData) * parity;
+	}
+
+	int parity() {
+		return parity;
+	}
+
+	// start the parity of data of the length
+	void start(final long dataLength) {
+		this.parityLength = (int) parityLength(parity, dataLength);
+		int stateLength = parityLength / parity * words;
+		if (state.length < stateLength) {
+			state = new long[stateLength];
+		} else {
+			Arrays.fill(state, 0, stateLength, 0);
+		}
+		if (stored.length < parityLength) {
+			stored = new byte[parityLength];
+		}
+		this.dataLength = dataLength;
+		this.position = 0;
+	}
+
+	// update the parity with the next data bytes of a heap buffer, the tasks of the pool encode distinct blocks
+	void update(final ByteBuffer data, final int index, final int length, final ForkJoinPool pool) {
+		if (pool == null || length < 2 * TASK_SIZE) {
+			encode(data, index, position, length);
+		} else {
+			long span = (long) blockSize * Math.max(1, TASK_SIZE / blockSize);
+			long end = position + length;
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (long start = position; start < end;) {
+				long stop = Math.min(end, (start / span + 1) * span);
+				final int taskIndex = index + (int) (start - position);
+				final long taskPosition = start;
+				final int taskLength = (int) (stop - start);
+				tasks.add(pool.submit(() -> encode(data, taskIndex, taskPosition, taskLength)));
+				start = stop;
+			}
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		}
+		position += length;
+	}
+
+	// parity of the data encoded, valid until the next start
+	ByteBuffer finish() {
+		int codeword = 0;
+		for (long blockStart = 0; blockStart < dataLength; blockStart += blockSize) {
+			int codewords = codewords(blockStart);
+			int base = codeword * parity;
+			for (int idx = 0; idx < codewords; idx++) {
+				int word = (codeword + idx) * words;
+				for (int register = 0; register < parity; register++) {
+					stored[base + register * codewords + idx] = (byte) (state[word + register / Long.BYTES] >>> shift(
+							register));
+				}
+			}
+			codeword += codewords;
+		}
+		return ByteBuffer.wrap(stored, 0, parityLength);
+	}
+
+	/**
+	 * Correct the data from its parity in place.
+	 *
+	 * @param data
+	 *            buffer of the data read, heap or direct
+	 * @param index
+	 *            index of the first data byte in the buffer
+	 * @param length
+	 *            number of data bytes
+	 * @param stored
+	 *            parity read after the data, from index 0
+	 * @param pool
+	 *            pool of the block tasks or null
+	 * @return number of data bytes corrected, the codewords with too many errors are left unchanged
+	 */
+	int correct(final ByteBuffer data, final int index, final int length, final ByteBuffer stored,
+			final ForkJoinPool pool) {
+		long blocks = (length + (long) blockSize - 1) / blockSize;
+		if (pool == null || length < 2 * TASK_SIZE) {
+			return correctBlocks(data, index, length, stored, 0, blocks);
+		}
+		long span = Math.max(1, TASK_SIZE / blockSize);
+		List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+		for (long start = 0; start < blocks; start += span) {
+			final long first = start;
+			final long last = Math.min(blocks, start + span);
+			tasks.add(pool.submit(() -> correctBlocks(data, index, length, stored, first, last)));
+		}
+		int corrected = 0;
+		for (ForkJoinTask<Integer> task : tasks) {
+			corrected += task.join();
+		}
+		return corrected;
+	}
+
+	// encode the data bytes from the position, block by block
+	private void encode(final ByteBuffer data, final int index, final long initialPosition, final int length) {
+		byte[] array = data.array();
+		int arrayIndex = data.arrayOffset() + index;
+		int done = 0;
+		while (done < length) {
+			long at = initialPosition + done;
+			long block = at / blockSize;
+			long blockStart = block * blockSize;
+			int codewords = codewords(blockStart);
+			int within = (int) (at - blockStart);
+			int count = (int) Math.min(length - done, Math.min(blockSize, dataLength - blockStart) - within);
+			// consecutive bytes belong to distinct codewords, so their state updates overlap
+			int base = (int) (block * INTERLEAVE) * words;
+			int word = base + within % codewords * words;
+			int end = base + codewords * words;
+			for (int idx = arrayIndex + done; idx < arrayIndex + done + count; idx++) {
+				encodeByte(array[idx], word);
+				word += words;
+				if (word == end) {
+					word = base;
+				}
+			}
+			done += count;
+		}
+	}
+
+	// shift the encoder state of a codeword, the longs carry their high byte to the previous one
+	private void encodeByte(final byte value, final int base) {
+		int entry = ((int) (state[base] >>> 56) ^ value) & 0xFF;
+		entry *= words;
+		int last = base + words - 1;
+		for (int word = base; word < last; word++) {
+			state[word] = (state[word] << 8 | state[word + 1] >>> 56) ^ feedback[entry++];
+		}
+		state[last] = state[last] << 8 ^ feedback[entry];
+	}
+
+	// bit shift of the register in its long
+	private static int shift(final int register) {
+		return 56 - register % Long.BYTES * 8;
+	}
+
+	// codewords of the block starting at the data position
+	private int codewords(final long blockStart) {
+		long blockLength = Math.min(blockSize, dataLength - blockStart);
+		return (int) ((blockLength + codewordData - 1) / codewordData);
+	}
+
+	private int correctBlocks(final ByteBuffer data, final int index, final int length, final ByteBuffer stored,
+			final long first, final long last) {
+		int[] symbols = new int[CODEWORD_SIZE];
+		int[] syndromes = new int[parity];
+		int corrected = 0;
+		for (long block = first; block < last; block++) {
+			long blockStart = block * blockSize;
+			int blockLength = (int) Math.min(blockSize, length - blockStart);
+			int codewords = (blockLength + codewordData - 1) / codewordData;
+			int base = (int) (block * INTERLEAVE * parity);
+			for (int codeword = 0; codeword < codewords; codeword++) {
+				// data bytes of the codeword, then its parity
+				int dataIndex = index + (int) blockStart + codeword;
+				int count = (blockLength - codeword + codewords - 1) / codewords;
+				for (int idx = 0; idx < count; idx++) {
+					symbols[idx] = data.get(dataIndex + idx * codewords) & 0xFF;
+				}
+				for (int idx = 0; idx < parity; idx++) {
+					symbols[count + idx] = stored.get(base + idx * codewords + codeword) & 0xFF;
+				}
+				if (!computeSyndromes(symbols, count + parity, syndromes)) {
+					continue;
+				}
+				int fixed = correctCodeword(symbols, count, syndromes);
+				if (fixed == 0) {
+					continue;
+				}
+				corrected += fixed;
+				for (int idx = 0; idx < count; idx++) {
+					data.put(dataIndex + idx * codewords, (byte) symbols[idx]);
+				}
+			}
+		}
+		return corrected;
+	}
+
+	// values of the codeword at the generator roots, returns true when one is not 0
+	private boolean computeSyndromes(final int[] symbols, final int length, final int[] syndromes) {
+		boolean damaged = false;
+		for (int root = 0; root < parity; root++) {
+			int value = 0;
+			for (int idx = 0; idx < length; idx++) {
+				value = multiply(value, EXP[root]) ^ symbols[idx];
+			}
+			syndromes[root] = value;
+			damaged |= value != 0;
+		}
+		return damaged;
+	}
+
+	// Berlekamp-Massey error locator, Chien search and Forney error values, returns the data symbols corrected
+	private int correctCodeword(final int[] symbols, final int count, final int[] syndromes) {
+		int length = count + parity;
+		// error locator, lowest degree first
+		int[] locator = new int[parity + 1];
+		int[] previous = new int[parity + 1];
+		locator[0] = 1;
+		previous[0] = 1;
+		int errors = 0;
+		int shift = 1;
+		int previousDiscrepancy = 1;
+		for (int step = 0; step < parity; step++) {
+			int discrepancy = syndromes[step];
+			for (int idx = 1; idx <= errors; idx++) {
+				discrepancy ^= multiply(locator[idx], syndromes[step - idx]);
+			}
+			if (discrepancy == 0) {
+				shift++;
+				continue;
+			}
+			int scale = divide(discrepancy, previousDiscrepancy);
+			int[] current = 2 * errors <= step ? locator.clone() : null;
+			for (int idx = 0; idx + shift <= parity; idx++) {
+				locator[idx + shift] ^= multiply(scale, previous[idx]);
+			}
+			if (current != null) {
+				errors = step + 1 - errors;
+				System.arraycopy(current, 0, previous, 0, current.length);
+				previousDiscrepancy = discrepancy;
+				shift = 1;
+			} else {
+				shift++;
+			}
+		}
+		if (2 * errors > parity) {
+			return 0;
+		}
+		// error evaluator, the syndromes times the locator modulo x^parity
+		int[] evaluator = new int[parity];
+		for (int idx = 0; idx < parity; idx++) {
+			for (int term = 0; term <= Math.min(idx, errors); term++) {
+				evaluator[idx] ^= multiply(syndromes[idx - term], locator[term]);
+			}
+		}
+		// the symbol at idx has the locator a^(length - 1 - idx), a root of the locator polynomial is its inverse
+		int[] positions = new int[errors];
+		int[] values = new int[errors];
+		int found = 0;
+		for (int idx = 0; idx < length && found <= errors; idx++) {
+			int power = length - 1 - idx;
+			int inverse = EXP[CODEWORD_SIZE - power];
+			if (evaluate(locator, errors, inverse) != 0) {
+				continue;
+			}
+			if (found == errors) {
+				return 0;
+			}
+			// the formal derivative keeps the odd degree terms
+			int derivative = 0;
+			for (int term = errors - (errors % 2 == 0 ? 1 : 0); term >= 1; term -= 2) {
+				derivative = multiply(derivative, multiply(inverse, inverse)) ^ locator[term];
+			}
+			if (derivative == 0) {
+				return 0;
+			}
+			positions[found] = idx;
+			values[found] = multiply(EXP[power], divide(evaluate(evaluator, parity - 1, inverse), derivative));
+			found++;
+		}
+		if (found != errors) {
+			return 0;
+		}
+		int corrected = 0;
+		for (int idx = 0; idx < found; idx++) {
+			symbols[positions[idx]] ^= values[idx];
+			if (positions[idx] < count) {
+				corrected++;
+			}
+		}
+		return corrected;
+	}
+
+	// polynomial of the degree, lowest degree first, at x
+	private static int evaluate(final int[] polynomial, final int degree, final int x) {
+		int value = 0;
+		for (int idx = degree; idx >= 0; idx--) {
+			value = multiply(value, x) ^ polynomial[idx];
+		}
+		return value;
+	}
+
+	private static int multiply(final int a, final int b) {
+		if (a == 0 || b == 0) {
+			return 0;
+		}
+		return EXP[LOG[a] + LOG[b]];
+	}
+
+	private static int divide(final int a, final int b) {
+		if (a == 0) {
+			return 0;
+		}
+		return EXP[LOG[a] + CODEWORD_SIZE - LOG[b]];
+	}
+
+}
@@ -0,0 +1,249 @@
+package br.com.lnsoft.cryptography;
+
+/**
+ * Position and size of the steganography header fields within an image.
+ * <p>
+ * The fields start after the DIB header. A version 1 header stores the data length, data offset and MD5 hash with
+ * depth 4. A version 2 header starts with a 4 bytes descriptor, always stored with depth 4: depth, flags, integrity
+ * and compression. The length, offset and hash fields that follow use the depth of the descriptor, as the data, and
+ * the hash field has the size of the integrity check. With compression the length field is the compressed length
+ * and an original length field follows the hash. The scatter flag spreads the data image bytes over the data area,
+ * see {@link ScatterPermutation}, the header fields are never scattered. The shard flag adds the payload identifier,
+ * shard index and shard count fields at the end of the header, see {@link Shard}. The chunked flag adds the chunk
+ * size field last: the data window then starts with the chunk index, a CRC32C checksum per chunk of the data, so a
+ * range of the data is checked without reading the whole data, and the hash field is the check of the chunk index.
+ * The wide flag makes the length and offset fields 64 bits long, high int first, for images and data of 2 GB or more.
+ * The encrypted flag adds the nonce and key salt fields last, the stored bytes of the data window are then encrypted
+ * with AES-CTR, see {@link DataCipher}. The corrected flag adds the parity field last, the number of Reed-Solomon
+ * parity bytes per codeword: the parity of the data follows the data in the window, see {@link ErrorCorrection}.
+ * <p>
+ * A version 3 header is a version 2 header within the pixel samples of the bitmap, see {@link PixelLayout}: the
+ * offsets are those of the contiguous layout of the samples, mapped to the image bytes on access.
+ */
+final class HeaderLayout {
+
+	static final int VERSION_1 = 1;
+	static final int VERSION_2 = 2;
+	static final int VERSION_3 = 3;
+
+	// field sizes in data bytes
+	static final int DESCRIPTOR_SIZE = 4;
+	static final int LENGTH_SIZE = 4;
+	static final int OFFSET_SIZE = 4;
+	// length and offset fields of the wide header
+	static final int WIDE_SIZE = 8;
+	// largest hash field
+	static final int HASH_SIZE = 16;
+	static final int ORIGINAL_LENGTH_SIZE = 4;
+	// payload identifier, shard index and shard count
+	static final int SHARD_SIZE = 16;
+	static final int CHUNK_SIZE_SIZE = 4;
+	static final int NONCE_SIZE = DataCipher.NONCE_SIZE;
+	static final int SALT_SIZE = DataCipher.SALT_SIZE;
+	static final int PARITY_SIZE = 4;
+	// chunk index entry
+	static final int CHECKSUM_SIZE = 4;
+
+	// descriptor flags
+	static final int FLAG_SCATTER = 0x01;
+	static final int FLAG_SHARD = 0x02;
+	static final int FLAG_CHUNKED = 0x04;
+	static final int FLAG_WIDE = 0x08;
+	static final int FLAG_ENCRYPTED = 0x10;
+	static final int FLAG_CORRECTED = 0x20;
+	static final int FLAGS = FLAG_SCATTER | FLAG_SHARD | FLAG_CHUNKED | FLAG_WIDE | FLAG_ENCRYPTED | FLAG_CORRECTED;
+
+	// depth of the version 1 fields and of the version 2 descriptor
+	static final int DESCRIPTOR_DEPTH = 4;
+
+	// image bytes of the largest header: version 2 with depth 1, wide fields, compression, shard, chunks, nonce, salt
+	// and parity
+	static final int MAX_SIZE = (int) (PackingKernels.imageLength(DESCRIPTOR_DEPTH, DESCRIPTOR_SIZE)
+			+ PackingKernels.imageLength(1, 2 * WIDE_SIZE + HASH_SIZE + ORIGINAL_LENGTH_SIZE + SHARD_SIZE
+					+ CHUNK_SIZE_SIZE + NONCE_SIZE + SALT_SIZE + PARITY_SIZE));
+
+	// last layout of each thread, the calls of a thread usually repeat the same layout
+	private static final ThreadLocal<HeaderLayout> LAST_LAYOUT = new ThreadLocal<>();
+
+	final int version;
+	final int depth;
+	final Integrity integrity;
+	final Compression compression;
+	final int flags;
+	final boolean scatter;
+	final boolean shard;
+	final boolean chunked;
+	final boolean wide;
+	final boolean encrypted;
+	final boolean corrected;
+	// data bytes per chunk, chunked data only
+	final int chunkSize;
+	// parity bytes per codeword, corrected data only
+	final int parity;
+	final int baseHeaderOffset;
+	// version 3 only
+	final PixelLayout pixels;
+
+	private HeaderLayout(final int version, final int depth, final Integrity integrity, final Compression compression,
+			final int flags, final int chunkSize, final int parity, final int baseHeaderOffset,
+			final PixelLayout pixels) {
+		this.version = version;
+		this.depth = depth;
+		this.integrity = integrity;
+		this.compression = compression;
+		this.flags = flags;
+		this.scatter = (flags & FLAG_SCATTER) != 0;
+		this.shard = (flags & FLAG_SHARD) != 0;
+		this.chunked = (flags & FLAG_CHUNKED) != 0;
+		this.wide = (flags & FLAG_WIDE) != 0;
+		this.encrypted = (flags & FLAG_ENCRYPTED) != 0;
+		this.corrected = (flags & FLAG_CORRECTED) != 0;
+		this.chunkSize = chunkSize;
+		this.parity = parity;
+		this.baseHeaderOffset = baseHeaderOffset;
+		this.pixels = pixels;
+	}
+
+	// reuse the last layout of the calling thread when it matches, so the steady state allocates no layout
+	static HeaderLayout of(final int version, final int depth, final Integrity integrity, final Compression compression,
+			final int flags, final int baseHeaderOffset) {
+		return of(version, depth, integrity, compression, flags, 0, 0, baseHeaderOffset, null);
+	}
+
+	// the pixel layout belongs to a single image, so it is compared by reference
+	static HeaderLayout of(final int version, final int depth, final Integrity integrity, final Compression compression,
+			final int flags, final int chunkSize, final int parity, final int baseHeaderOffset,
+			final PixelLayout pixels) {
+		HeaderLayout layout = LAST_LAYOUT.get();
+		if (layout == null || layout.version != version || layout.depth != depth || layout.integrity != integrity
+				|| layout.compression != compression || layout.flags != flags || layout.chunkSize != chunkSize
+				|| layout.parity != parity || layout.baseHeaderOffset != baseHeaderOffset
+				|| layout.pixels != pixels) {
+			layout = new HeaderLayout(version, depth, integrity, compression, flags, chunkSize, parity,
+					baseHeaderOffset, pixels);
+			LAST_LAYOUT.set(layout);
+		}
+		return layout;
+	}
+
+	// data in a single run of image bytes
+	boolean isContiguous() {
+		return !scatter && pixels == null;
+	}
+
+	boolean isCompressed() {
+		return compression != Compression.NONE;
+	}
+
+	// index of the descriptor, version 2 and 3 only
+	int descriptorOffset() {
+		return baseHeaderOffset;
+	}
+
+	int lengthOffset() {
+		if (version == VERSION_1) {
+			return baseHeaderOffset;
+		}
+		return baseHeaderOffset + (int) PackingKernels.imageLength(DESCRIPTOR_DEPTH, DESCRIPTOR_SIZE);
+	}
+
+	int offsetOffset() {
+		return lengthOffset() + imageLength(wide ? WIDE_SIZE : LENGTH_SIZE);
+	}
+
+	int hashOffset() {
+		return offsetOffset() + imageLength(wide ? WIDE_SIZE : OFFSET_SIZE);
+	}
+
+	// data bytes of the hash field
+	int hashSize() {
+		return integrity.size;
+	}
+
+	// compressed data only
+	int originalLengthOffset() {
+		return hashOffset() + imageLength(hashSize());
+	}
+
+	// sharded data only, after the hash or the original length
+	int shardOffset() {
+		if (isCompressed()) {
+			return originalLengthOffset() + imageLength(ORIGINAL_LENGTH_SIZE);
+		}
+		return hashOffset() + imageLength(hashSize());
+	}
+
+	// chunked data only, after the other fields
+	int chunkSizeOffset() {
+		if (shard) {
+			return shardOffset() + imageLength(SHARD_SIZE);
+		}
+		return shardOffset();
+	}
+
+	// encrypted data only, after the other fields
+	int nonceOffset() {
+		if (chunked) {
+			return chunkSizeOffset() + imageLength(CHUNK_SIZE_SIZE);
+		}
+		return chunkSizeOffset();
+	}
+
+	// encrypted data only, after the nonce
+	int saltOffset() {
+		return nonceOffset() + imageLength(NONCE_SIZE);
+	}
+
+	// corrected data only, after the other fields
+	int parityOffset() {
+		if (encrypted) {
+			return saltOffset() + imageLength(SALT_SIZE);
+		}
+		return nonceOffset();
+	}
+
+	// index of the first image byte after the header, the lowest data offset
+	int headerSize() {
+		if (corrected) {
+			return parityOffset() + imageLength(PARITY_SIZE);
+		}
+		return parityOffset();
+	}
+
+	// data bytes of the chunk index at the start of the data window, 0 when not chunked
+	int indexLength(final int dataLength) {
+		if (!chunked) {
+			return 0;
+		}
+		return (int) ((dataLength + (long) chunkSize - 1) / chunkSize) * CHECKSUM_SIZE;
+	}
+
+	// data bytes of the parity after the data, 0 when not corrected
+	long parityLength(final long dataLength) {
+		if (!corrected) {
+			return 0;
+		}
+		return ErrorCorrection.parityLength(parity, dataLength);
+	}
+
+	// data bytes of the window of uncompressed data: the chunk index, the data and its parity
+	long windowLength(final int dataLength) {
+		return (long) dataLength + indexLength(dataLength) + parityLength(dataLength);
+	}
+
+	// index after the last image byte of the contiguous layout, the pixel samples with version 3
+	int imageEnd(final int imageLength) {
+		return pixels != null ? pixels.length() : imageLength;
+	}
+
+	// image bytes used by data bytes within an image
+	int imageLength(final int length) {
+		return (int) PackingKernels.imageLength(depth, length);
+	}
+
+	// image bytes used by data bytes within an image of 2 GB or more
+	long imageLength(final long length) {
+		return PackingKernels.imageLength(depth, length);
+	}
+
+}
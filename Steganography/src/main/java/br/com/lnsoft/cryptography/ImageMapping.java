@@ -0,0 +1,49 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Placement of the image bytes of the data other than a single run of the image.
+ * <p>
+ * Data offsets and lengths are those of the contiguous layout, see {@link PackingKernels}, and the mapping moves each
+ * image byte of the contiguous layout to its own image index. See {@link ScatterPermutation} and {@link PixelLayout}.
+ */
+interface ImageMapping {
+
+	/**
+	 * Encode data bytes at the mapped positions of their contiguous image bytes.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte of the contiguous layout
+	 * @param data
+	 *            the data buffer, read with absolute accesses
+	 * @param dataOffset
+	 *            index of the first data byte
+	 * @param length
+	 *            number of data bytes
+	 */
+	void encode(int depth, ByteBuffer image, int imageOffset, ByteBuffer data, int dataOffset, int length);
+
+	/**
+	 * Decode data bytes from the mapped positions of their contiguous image bytes.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte of the contiguous layout
+	 * @param result
+	 *            the data buffer, written with absolute accesses
+	 * @param resultOffset
+	 *            index of the first data byte
+	 * @param length
+	 *            number of data bytes
+	 */
+	void decode(int depth, ByteBuffer image, int imageOffset, ByteBuffer result, int resultOffset, int length);
+
+}
@@ -0,0 +1,80 @@
+package br.com.lnsoft.cryptography;
+
+/**
+ * Integrity check computed on the original data while it is encoded and checked while it is decoded.
+ * <p>
+ * The check is recorded in the version 2 header by its identifier and its value is stored in the hash field, which
+ * has the size of the check. MD5 is the check of the original header. CRC32C and MurmurHash3 are much cheaper and
+ * detect damaged or truncated data as well, but they are not cryptographic hashes.
+ */
+public enum Integrity {
+
+	/**
+	 * MD5 hash, 16 bytes.
+	 */
+	MD5(0, 16) {
+		@Override
+		IntegrityDigest createDigest() {
+			return IntegrityDigest.md5();
+		}
+	},
+
+	/**
+	 * CRC32C (Castagnoli) checksum, 4 bytes.
+	 */
+	CRC32C(1, 4) {
+		@Override
+		IntegrityDigest createDigest() {
+			return IntegrityDigest.crc32c();
+		}
+	},
+
+	/**
+	 * MurmurHash3 x64 128 bits hash with seed 0, 16 bytes.
+	 */
+	MURMUR3_128(2, 16) {
+		@Override
+		IntegrityDigest createDigest() {
+			return IntegrityDigest.murmur3();
+		}
+	};
+
+	final int id;
+	final int size;
+
+	Integrity(final int id, final int size) {
+		this.id = id;
+		this.size = size;
+	}
+
+	// new digest, reused by the calls of a thread
+	abstract IntegrityDigest createDigest();
+
+	/**
+	 * Get the integrity check by name, ignoring case.
+	 *
+	 * @param name
+	 *            md5, crc32c or murmur3_128
+	 * @return the integrity check
+	 */
+	public static Integrity forName(final String name) {
+		for (Integrity integrity : values()) {
+			if (integrity.name().equalsIgnoreCase(name)) {
+				return integrity;
+			}
+		}
+		throw new IllegalArgumentException(
+				String.format("Invalid integrity '%s'. Must be md5, crc32c or murmur3_128.", name));
+	}
+
+	// integrity check of a version 2 header, null when unknown
+	static Integrity forId(final int id) {
+		for (Integrity integrity : values()) {
+			if (integrity.id == id) {
+				return integrity;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,362 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Incremental computation of an {@link Integrity} check.
+ * <p>
+ * The data is read from heap buffers with absolute accesses, the buffer position is not used. Completing the digest
+ * writes the check into a hash array and resets the digest, so a digest is reused without allocations.
+ */
+abstract class IntegrityDigest {
+
+	// add data bytes of a heap buffer
+	abstract void update(ByteBuffer data, int index, int length);
+
+	// write the check into the first bytes of the hash array and reset
+	abstract void digest(byte[] hash);
+
+	abstract void reset();
+
+	static IntegrityDigest md5() {
+		try {
+			return new Md5(MessageDigest.getInstance("MD5"));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 digest not available", e);
+		}
+	}
+
+	// the runtime CRC32C, intrinsified since Java 9, or the table based implementation on Java 8
+	static IntegrityDigest crc32c() {
+		Checksum checksum;
+		try {
+			checksum = (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			checksum = new Crc32c();
+		}
+		return new Checksum32(checksum);
+	}
+
+	static IntegrityDigest murmur3() {
+		return new Murmur3();
+	}
+
+	//
+	// MD5
+	//
+
+	private static final class Md5 extends IntegrityDigest {
+
+		private final MessageDigest md5;
+
+		Md5(final MessageDigest md5) {
+			this.md5 = md5;
+		}
+
+		@Override
+		void update(final ByteBuffer data, final int index, final int length) {
+			md5.update(data.array(), data.arrayOffset() + index, length);
+		}
+
+		@Override
+		void digest(final byte[] hash) {
+			try {
+				md5.digest(hash, 0, Integrity.MD5.size);
+			} catch (DigestException e) {
+				throw new IllegalStateException("MD5 digest not available", e);
+			}
+		}
+
+		@Override
+		void reset() {
+			md5.reset();
+		}
+
+	}
+
+	//
+	// CRC32C
+	//
+
+	private static final class Checksum32 extends IntegrityDigest {
+
+		private final Checksum checksum;
+
+		Checksum32(final Checksum checksum) {
+			this.checksum = checksum;
+		}
+
+		@Override
+		void update(final ByteBuffer data, final int index, final int length) {
+			checksum.update(data.array(), data.arrayOffset() + index, length);
+		}
+
+		@Override
+		void digest(final byte[] hash) {
+			int value = (int) checksum.getValue();
+			hash[0] = (byte) (value >>> 24);
+			hash[1] = (byte) (value >>> 16);
+			hash[2] = (byte) (value >>> 8);
+			hash[3] = (byte) value;
+			checksum.reset();
+		}
+
+		@Override
+		void reset() {
+			checksum.reset();
+		}
+
+	}
+
+	// slicing by 8 CRC32C, reflected polynomial 0x82F63B78
+	static final class Crc32c implements Checksum {
+
+		private static final int[][] TABLES = createTables();
+
+		private int crc = 0xFFFFFFFF;
+
+		private static int[][] createTables() {
+			int[][] tables = new int[8][256];
+			for (int n = 0; n < 256; n++) {
+				int value = n;
+				for (int bit = 0; bit < 8; bit++) {
+					value = (value & 1) != 0 ? (value >>> 1) ^ 0x82F63B78 : value >>> 1;
+				}
+				tables[0][n] = value;
+			}
+			for (int k = 1; k < 8; k++) {
+				for (int n = 0; n < 256; n++) {
+					int value = tables[k - 1][n];
+					tables[k][n] = (value >>> 8) ^ tables[0][value & 0xFF];
+				}
+			}
+			return tables;
+		}
+
+		@Override
+		public void update(final int b) {
+			crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+		}
+
+		@Override
+		public void update(final byte[] b, final int off, final int len) {
+			int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+			int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+			int value = crc;
+			int idx = off;
+			int end = off + len;
+			// 8 bytes per step
+			for (; idx <= end - 8; idx += 8) {
+				int low = value ^ ((b[idx] & 0xFF) | (b[idx + 1] & 0xFF) << 8 | (b[idx + 2] & 0xFF) << 16
+						| (b[idx + 3] & 0xFF) << 24);
+				value = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+						^ t3[b[idx + 4] & 0xFF] ^ t2[b[idx + 5] & 0xFF] ^ t1[b[idx + 6] & 0xFF]
+						^ t0[b[idx + 7] & 0xFF];
+			}
+			// remaining bytes
+			for (; idx < end; idx++) {
+				value = (value >>> 8) ^ t0[(value ^ b[idx]) & 0xFF];
+			}
+			crc = value;
+		}
+
+		@Override
+		public long getValue() {
+			return ~crc & 0xFFFFFFFFL;
+		}
+
+		@Override
+		public void reset() {
+			crc = 0xFFFFFFFF;
+		}
+
+	}
+
+	//
+	// MurmurHash3 x64 128
+	//
+
+	private static final class Murmur3 extends IntegrityDigest {
+
+		private static final int BLOCK_SIZE = 16;
+		private static final long C1 = 0x87c37b91114253d5L;
+		private static final long C2 = 0x4cf5ad432745937fL;
+
+		// partial block of the previous updates
+		private final byte[] tail = new byte[BLOCK_SIZE];
+		private final ByteBuffer tailView = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+		private int tailLength;
+		private long length;
+		private long h1;
+		private long h2;
+
+		@Override
+		void update(final ByteBuffer data, final int index, final int count) {
+			int idx = index;
+			int end = index + count;
+			length += count;
+			// complete the partial block
+			if (tailLength > 0) {
+				int fill = Math.min(BLOCK_SIZE - tailLength, count);
+				for (int i = 0; i < fill; i++) {
+					tail[tailLength++] = data.get(idx++);
+				}
+				if (tailLength < BLOCK_SIZE) {
+					return;
+				}
+				mix(tailView.getLong(0), tailView.getLong(8));
+				tailLength = 0;
+			}
+			// whole blocks, little endian words
+			if (data.order() == ByteOrder.LITTLE_ENDIAN) {
+				for (; idx <= end - BLOCK_SIZE; idx += BLOCK_SIZE) {
+					mix(data.getLong(idx), data.getLong(idx + 8));
+				}
+			} else {
+				for (; idx <= end - BLOCK_SIZE; idx += BLOCK_SIZE) {
+					mix(Long.reverseBytes(data.getLong(idx)), Long.reverseBytes(data.getLong(idx + 8)));
+				}
+			}
+			// keep the partial block
+			while (idx < end) {
+				tail[tailLength++] = data.get(idx++);
+			}
+		}
+
+		private void mix(long k1, long k2) {
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		@Override
+		void digest(final byte[] hash) {
+			// last partial block
+			if (tailLength > 0) {
+				for (int i = tailLength; i < BLOCK_SIZE; i++) {
+					tail[i] = 0;
+				}
+				long k1 = tailView.getLong(0);
+				long k2 = tailView.getLong(8);
+				k2 *= C2;
+				k2 = Long.rotateLeft(k2, 33);
+				k2 *= C1;
+				h2 ^= k2;
+				k1 *= C1;
+				k1 = Long.rotateLeft(k1, 31);
+				k1 *= C2;
+				h1 ^= k1;
+			}
+			// finalization
+			h1 ^= length;
+			h2 ^= length;
+			h1 += h2;
+			h2 += h1;
+			h1 = fmix(h1);
+			h2 = fmix(h2);
+			h1 += h2;
+			h2 += h1;
+			// canonical byte order: h1 then h2, little endian
+			for (int i = 0; i < 8; i++) {
+				hash[i] = (byte) (h1 >>> (8 * i));
+				hash[8 + i] = (byte) (h2 >>> (8 * i));
+			}
+			reset();
+		}
+
+		private static long fmix(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			k ^= k >>> 33;
+			return k;
+		}
+
+		@Override
+		void reset() {
+			tailLength = 0;
+			length = 0;
+			h1 = 0;
+			h2 = 0;
+		}
+
+	}
+
+
+	//
+	// HMAC-SHA256
+	//
+
+	// keyed check of encrypted data, the tag is truncated to the hash field of the integrity
+	static final class Hmac extends IntegrityDigest {
+
+		private final Mac mac;
+		private final byte[] tag = new byte[32];
+		private byte[] nonce;
+
+		Hmac() {
+			try {
+				mac = Mac.getInstance("HmacSHA256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("HMAC-SHA256 not available", e);
+			}
+		}
+
+		// key and nonce of one call, the nonce is the first authenticated bytes of each check
+		void init(final SecretKeySpec key, final byte[] nonce) {
+			try {
+				mac.init(key);
+			} catch (InvalidKeyException e) {
+				throw new IllegalStateException("HMAC-SHA256 not available", e);
+			}
+			this.nonce = nonce;
+			mac.update(nonce);
+		}
+
+		@Override
+		void update(final ByteBuffer data, final int index, final int length) {
+			mac.update(data.array(), data.arrayOffset() + index, length);
+		}
+
+		@Override
+		void digest(final byte[] hash) {
+			try {
+				mac.doFinal(tag, 0);
+			} catch (ShortBufferException e) {
+				throw new IllegalStateException("HMAC-SHA256 not available", e);
+			}
+			System.arraycopy(tag, 0, hash, 0, Math.min(hash.length, tag.length));
+			mac.update(nonce);
+		}
+
+		@Override
+		void reset() {
+			mac.reset();
+			mac.update(nonce);
+		}
+
+	}
+
+}
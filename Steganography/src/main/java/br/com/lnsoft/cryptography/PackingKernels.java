@@ -0,0 +1,497 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Bit-packing kernels used to encode data bytes within the least significant bits of image bytes.
+ * <p>
+ * The depth is the number of LSB used in each image byte: 1, 2, 4 or 8. Each data byte is split in 8 / depth groups
+ * of bits stored most significant group first, e.g. with depth 4 the high nibble is stored in the four LSB of the
+ * first image byte and the low nibble in the four LSB of the second image byte. Each depth has its own kernel working
+ * on 8 data bytes per step using SWAR (SIMD within a register) operations on <code>long</code> values read through
+ * the {@link ByteBuffer} view, and falls back to one byte per step for the remaining bytes. Depth 8 replaces the image
+ * bytes and is a plain copy. The kernels only use absolute buffer accesses, so a buffer may be shared by threads
+ * working on distinct ranges.
+ */
+final class PackingKernels {
+
+	// image bits kept by the kernels
+	private static final long IMAGE_MASK = 0xF0F0F0F0F0F0F0F0L;
+	private static final long NIBBLE_MASK = 0x0F0F0F0F0F0F0F0FL;
+	private static final long PAIR_IMAGE_MASK = 0xFCFCFCFCFCFCFCFCL;
+	private static final long PAIR_MASK = 0x0303030303030303L;
+	private static final long BIT_IMAGE_MASK = 0xFEFEFEFEFEFEFEFEL;
+	private static final long BIT_MASK = 0x0101010101010101L;
+
+	// data bytes processed per SWAR step
+	private static final int WORD_SIZE = 8;
+
+	private PackingKernels() {
+	}
+
+	/**
+	 * Get the number of image bytes used by data bytes.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte
+	 * @param length
+	 *            number of data bytes
+	 * @return number of image bytes
+	 */
+	static long imageLength(final int depth, final long length) {
+		return (8 / depth) * length;
+	}
+
+	/**
+	 * Encode data bytes within the LSB of image bytes.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte
+	 * @param data
+	 *            the data array
+	 * @param dataOffset
+	 *            index of the first data byte
+	 * @param length
+	 *            number of data bytes
+	 */
+	static void encode(final int depth, final ByteBuffer image, final int imageOffset, final byte[] data,
+			final int dataOffset, final int length) {
+		encode(depth, image, imageOffset, ByteBuffer.wrap(data), dataOffset, length);
+	}
+
+	/**
+	 * Encode data bytes read from a heap or direct buffer within the LSB of image bytes.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte
+	 * @param data
+	 *            the data buffer, read with absolute accesses
+	 * @param dataOffset
+	 *            index of the first data byte
+	 * @param length
+	 *            number of data bytes
+	 */
+	static void encode(final int depth, final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		switch (depth) {
+		case 1:
+			encodeBits(image, imageOffset, data, dataOffset, length);
+			break;
+		case 2:
+			encodePairs(image, imageOffset, data, dataOffset, length);
+			break;
+		case 4:
+			encodeNibbles(image, imageOffset, data, dataOffset, length);
+			break;
+		case 8:
+			encodeBytes(image, imageOffset, data, dataOffset, length);
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid depth. Must be 1, 2, 4 or 8.");
+		}
+	}
+
+	/**
+	 * Decode data bytes from the LSB of image bytes.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte
+	 * @param data
+	 *            the data array to fill
+	 * @param dataOffset
+	 *            index of the first data byte
+	 * @param length
+	 *            number of data bytes
+	 */
+	static void decode(final int depth, final ByteBuffer image, final int imageOffset, final byte[] data,
+			final int dataOffset, final int length) {
+		decode(depth, image, imageOffset, ByteBuffer.wrap(data), dataOffset, length);
+	}
+
+	/**
+	 * Decode data bytes from the LSB of image bytes into a heap or direct buffer.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte
+	 * @param data
+	 *            the data buffer to fill, written with absolute accesses
+	 * @param dataOffset
+	 *            index of the first data byte
+	 * @param length
+	 *            number of data bytes
+	 */
+	static void decode(final int depth, final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		switch (depth) {
+		case 1:
+			decodeBits(image, imageOffset, data, dataOffset, length);
+			break;
+		case 2:
+			decodePairs(image, imageOffset, data, dataOffset, length);
+			break;
+		case 4:
+			decodeNibbles(image, imageOffset, data, dataOffset, length);
+			break;
+		case 8:
+			decodeBytes(image, imageOffset, data, dataOffset, length);
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid depth. Must be 1, 2, 4 or 8.");
+		}
+	}
+
+	/**
+	 * Encode a 32 bits value within the LSB of image bytes, most significant bits first.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte
+	 * @param value
+	 *            the value
+	 */
+	static void encodeInt(final int depth, final ByteBuffer image, final int imageOffset, final int value) {
+		int mask = (1 << depth) - 1;
+		int offset = imageOffset;
+		for (int shift = Integer.SIZE - depth; shift >= 0; shift -= depth) {
+			image.put(offset, (byte) ((image.get(offset) & ~mask) | ((value >>> shift) & mask)));
+			offset++;
+		}
+	}
+
+	/**
+	 * Decode a 32 bits value from the LSB of image bytes, most significant bits first.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte
+	 * @return the value
+	 */
+	static int decodeInt(final int depth, final ByteBuffer image, final int imageOffset) {
+		int mask = (1 << depth) - 1;
+		int value = 0;
+		int end = imageOffset + Integer.SIZE / depth;
+		for (int offset = imageOffset; offset < end; offset++) {
+			value = (value << depth) | (image.get(offset) & mask);
+		}
+		return value;
+	}
+
+	//
+	// Bit kernels (1 bit per image byte)
+	//
+
+	private static void encodeBits(final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		boolean swap = image.order() != ByteOrder.BIG_ENDIAN;
+		int offset = imageOffset;
+		int idx = dataOffset;
+		int end = dataOffset + length;
+		// 1 data byte into 8 image bytes per long
+		for (; idx < end; idx++) {
+			long bits = spreadBits(data.get(idx) & 0xFF);
+			if (swap) {
+				bits = Long.reverseBytes(bits);
+			}
+			image.putLong(offset, (image.getLong(offset) & BIT_IMAGE_MASK) | bits);
+			offset += 8;
+		}
+	}
+
+	private static void decodeBits(final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		boolean swap = image.order() != ByteOrder.BIG_ENDIAN;
+		int offset = imageOffset;
+		int idx = dataOffset;
+		int end = dataOffset + length;
+		// 8 image bytes into 1 data byte per long
+		for (; idx < end; idx++) {
+			long bits = image.getLong(offset);
+			offset += 8;
+			if (swap) {
+				bits = Long.reverseBytes(bits);
+			}
+			data.put(idx, (byte) gatherBits(bits));
+		}
+	}
+
+	//
+	// Pair kernels (2 bits per image byte)
+	//
+
+	private static void encodePairs(final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		boolean swap = image.order() != ByteOrder.BIG_ENDIAN;
+		boolean dataSwap = data.order() != ByteOrder.BIG_ENDIAN;
+		int offset = imageOffset;
+		int idx = dataOffset;
+		int end = dataOffset + length;
+		// 8 data bytes into 32 image bytes per step
+		for (; idx <= end - WORD_SIZE; idx += WORD_SIZE) {
+			long value = data.getLong(idx);
+			if (dataSwap) {
+				value = Long.reverseBytes(value);
+			}
+			for (int shift = 48; shift >= 0; shift -= 16) {
+				long pairs = spreadPairs((int) (value >>> shift));
+				if (swap) {
+					pairs = Long.reverseBytes(pairs);
+				}
+				image.putLong(offset, (image.getLong(offset) & PAIR_IMAGE_MASK) | pairs);
+				offset += 8;
+			}
+		}
+		// remaining data bytes
+		for (; idx < end; idx++) {
+			int value = data.get(idx) & 0xFF;
+			for (int shift = 6; shift >= 0; shift -= 2) {
+				image.put(offset, (byte) ((image.get(offset) & 0xFC) | ((value >>> shift) & 0x03)));
+				offset++;
+			}
+		}
+	}
+
+	private static void decodePairs(final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		boolean swap = image.order() != ByteOrder.BIG_ENDIAN;
+		boolean dataSwap = data.order() != ByteOrder.BIG_ENDIAN;
+		int offset = imageOffset;
+		int idx = dataOffset;
+		int end = dataOffset + length;
+		// 32 image bytes into 8 data bytes per step
+		for (; idx <= end - WORD_SIZE; idx += WORD_SIZE) {
+			long value = 0;
+			for (int step = 0; step < 4; step++) {
+				long pairs = image.getLong(offset);
+				offset += 8;
+				if (swap) {
+					pairs = Long.reverseBytes(pairs);
+				}
+				value = (value << 16) | gatherPairs(pairs);
+			}
+			data.putLong(idx, dataSwap ? Long.reverseBytes(value) : value);
+		}
+		// remaining data bytes
+		for (; idx < end; idx++) {
+			int value = 0;
+			for (int step = 0; step < 4; step++) {
+				value = (value << 2) | (image.get(offset) & 0x03);
+				offset++;
+			}
+			data.put(idx, (byte) value);
+		}
+	}
+
+	//
+	// Nibble kernels (4 bits per image byte)
+	//
+
+	/**
+	 * Encode data bytes within the four LSB of image bytes.
+	 *
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte
+	 * @param data
+	 *            the data buffer
+	 * @param dataOffset
+	 *            index of the first data byte
+	 * @param length
+	 *            number of data bytes, it uses twice as much image bytes
+	 */
+	static void encodeNibbles(final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		boolean swap = image.order() != ByteOrder.BIG_ENDIAN;
+		boolean dataSwap = data.order() != ByteOrder.BIG_ENDIAN;
+		int offset = imageOffset;
+		int idx = dataOffset;
+		int end = dataOffset + length;
+		// 8 data bytes into 16 image bytes per step
+		for (; idx <= end - WORD_SIZE; idx += WORD_SIZE) {
+			long value = data.getLong(idx);
+			if (dataSwap) {
+				value = Long.reverseBytes(value);
+			}
+			long high = spreadNibbles((int) (value >>> 32));
+			long low = spreadNibbles((int) value);
+			if (swap) {
+				high = Long.reverseBytes(high);
+				low = Long.reverseBytes(low);
+			}
+			image.putLong(offset, (image.getLong(offset) & IMAGE_MASK) | high);
+			offset += 8;
+			image.putLong(offset, (image.getLong(offset) & IMAGE_MASK) | low);
+			offset += 8;
+		}
+		// remaining data bytes
+		for (; idx < end; idx++) {
+			int value = data.get(idx) & 0xFF;
+			image.put(offset, (byte) ((image.get(offset) & 0xF0) | (value >>> 4)));
+			offset++;
+			image.put(offset, (byte) ((image.get(offset) & 0xF0) | (value & 0x0F)));
+			offset++;
+		}
+	}
+
+	/**
+	 * Decode data bytes from the four LSB of image bytes.
+	 *
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte
+	 * @param data
+	 *            the data buffer to fill
+	 * @param dataOffset
+	 *            index of the first data byte
+	 * @param length
+	 *            number of data bytes, it uses twice as much image bytes
+	 */
+	static void decodeNibbles(final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		boolean swap = image.order() != ByteOrder.BIG_ENDIAN;
+		boolean dataSwap = data.order() != ByteOrder.BIG_ENDIAN;
+		int offset = imageOffset;
+		int idx = dataOffset;
+		int end = dataOffset + length;
+		// 16 image bytes into 8 data bytes per step
+		for (; idx <= end - WORD_SIZE; idx += WORD_SIZE) {
+			long high = image.getLong(offset);
+			offset += 8;
+			long low = image.getLong(offset);
+			offset += 8;
+			if (swap) {
+				high = Long.reverseBytes(high);
+				low = Long.reverseBytes(low);
+			}
+			long value = ((long) gatherNibbles(high) << 32) | (gatherNibbles(low) & 0xFFFFFFFFL);
+			data.putLong(idx, dataSwap ? Long.reverseBytes(value) : value);
+		}
+		// remaining data bytes
+		for (; idx < end; idx++) {
+			int high = image.get(offset) & 0x0F;
+			offset++;
+			int low = image.get(offset) & 0x0F;
+			offset++;
+			data.put(idx, (byte) ((high << 4) | low));
+		}
+	}
+
+	//
+	// Byte kernels (8 bits per image byte)
+	//
+
+	// absolute copies, a duplicate buffer would be allocated per call
+	private static void encodeBytes(final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		if (image.hasArray() && data.hasArray()) {
+			System.arraycopy(data.array(), data.arrayOffset() + dataOffset, image.array(),
+					image.arrayOffset() + imageOffset, length);
+			return;
+		}
+		copyBytes(data, dataOffset, image, imageOffset, length);
+	}
+
+	private static void decodeBytes(final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		if (image.hasArray() && data.hasArray()) {
+			System.arraycopy(image.array(), image.arrayOffset() + imageOffset, data.array(),
+					data.arrayOffset() + dataOffset, length);
+			return;
+		}
+		copyBytes(image, imageOffset, data, dataOffset, length);
+	}
+
+	private static void copyBytes(final ByteBuffer source, final int sourceOffset, final ByteBuffer target,
+			final int targetOffset, final int length) {
+		boolean swap = source.order() != target.order();
+		int idx = 0;
+		// 8 bytes per step
+		for (; idx <= length - WORD_SIZE; idx += WORD_SIZE) {
+			long value = source.getLong(sourceOffset + idx);
+			target.putLong(targetOffset + idx, swap ? Long.reverseBytes(value) : value);
+		}
+		// remaining bytes
+		for (; idx < length; idx++) {
+			target.put(targetOffset + idx, source.get(sourceOffset + idx));
+		}
+	}
+
+	// spread 1 data byte into the LSB of 8 image bytes, most significant bit first
+	private static long spreadBits(final int value) {
+		long spread = value & 0xFFL;
+		spread = (spread | (spread << 28)) & 0x0000000F0000000FL;
+		spread = (spread | (spread << 14)) & 0x0003000300030003L;
+		spread = (spread | (spread << 7)) & BIT_MASK;
+		return spread;
+	}
+
+	// gather the LSB of 8 image bytes into 1 data byte
+	private static int gatherBits(final long value) {
+		long gather = value & BIT_MASK;
+		gather = (gather | (gather >>> 7)) & 0x0003000300030003L;
+		gather = (gather | (gather >>> 14)) & 0x0000000F0000000FL;
+		gather = (gather | (gather >>> 28)) & 0xFFL;
+		return (int) gather;
+	}
+
+	// spread 2 data bytes into the two LSB of 8 image bytes, most significant pair first
+	private static long spreadPairs(final int value) {
+		long spread = value & 0xFFFFL;
+		spread = (spread | (spread << 24)) & 0x000000FF000000FFL;
+		spread = (spread | (spread << 12)) & 0x000F000F000F000FL;
+		spread = (spread | (spread << 6)) & PAIR_MASK;
+		return spread;
+	}
+
+	// gather the two LSB of 8 image bytes into 2 data bytes
+	private static long gatherPairs(final long value) {
+		long gather = value & PAIR_MASK;
+		gather = (gather | (gather >>> 6)) & 0x000F000F000F000FL;
+		gather = (gather | (gather >>> 12)) & 0x000000FF000000FFL;
+		gather = (gather | (gather >>> 24)) & 0xFFFFL;
+		return gather;
+	}
+
+	// spread 4 data bytes into the low nibbles of 8 image bytes, high nibble first
+	private static long spreadNibbles(final int value) {
+		long spread = value & 0xFFFFFFFFL;
+		spread = (spread | (spread << 16)) & 0x0000FFFF0000FFFFL;
+		spread = (spread | (spread << 8)) & 0x00FF00FF00FF00FFL;
+		spread = (spread | (spread << 4)) & NIBBLE_MASK;
+		return spread;
+	}
+
+	// gather the low nibbles of 8 image bytes into 4 data bytes
+	private static int gatherNibbles(final long value) {
+		long gather = value & NIBBLE_MASK;
+		gather = (gather | (gather >>> 4)) & 0x00FF00FF00FF00FFL;
+		gather = (gather | (gather >>> 8)) & 0x0000FFFF0000FFFFL;
+		gather = (gather | (gather >>> 16)) & 0x00000000FFFFFFFFL;
+		return (int) gather;
+	}
+
+}
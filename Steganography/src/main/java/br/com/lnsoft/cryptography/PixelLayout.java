@@ -0,0 +1,370 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pixel array layout of an uncompressed 24 or 32 bits per pixel bitmap, used to embed in the pixel samples only.
+ * <p>
+ * The pixel array starts at the <code>bfOffBits</code> offset of the bitmap file header, after the DIB header, the
+ * bit masks and any gap, and its rows are padded to a multiple of 4 bytes. The height is negative for a top-down
+ * bitmap. The samples are the color bytes of the pixels: the padding bytes are skipped and, when the bitmap has an
+ * alpha channel (32 bits per pixel with a non zero alpha mask), so are the alpha bytes. Rows are walked in storage
+ * order, bottom-up and top-down bitmaps alike, so the accesses are sequential.
+ * <p>
+ * The mapping keeps the addresses of the contiguous layout: the image bytes before the steganography header, the
+ * bitmap file header and the DIB header, are mapped to themselves and the sample <code>s</code> has the index
+ * <code>baseHeaderOffset + s</code>, so the steganography header and the data area have the same offsets as in an
+ * image of {@link #length()} bytes. Whole data bytes within a row of contiguous samples are packed in place by the
+ * {@link PackingKernels}, the 24 bits and the 32 bits without alpha fast paths. Samples with alpha bytes between them
+ * and data bytes across two rows are gathered into a staging buffer, packed and scattered back. The staging buffers
+ * belong to the calling thread and the image is only accessed with absolute accesses.
+ */
+final class PixelLayout implements ImageMapping {
+
+	// bitmap file header and DIB header fields, little endian
+	private static final int PIXEL_OFFSET_OFFSET = 10;
+	private static final int DIB_HEADER_OFFSET = 14;
+	private static final int WIDTH_OFFSET = 18;
+	private static final int HEIGHT_OFFSET = 22;
+	private static final int BITS_PER_PIXEL_OFFSET = 28;
+	private static final int COMPRESSION_OFFSET = 30;
+	// alpha mask of a BITMAPV3INFOHEADER or later, or after the BITMAPINFOHEADER with BI_ALPHABITFIELDS
+	private static final int ALPHA_MASK_OFFSET = 66;
+
+	/**
+	 * Image bytes needed to read the layout.
+	 */
+	static final int HEADER_SIZE = ALPHA_MASK_OFFSET + 4;
+
+	private static final int BITMAPINFOHEADER_SIZE = 40;
+	private static final int BITMAPV3INFOHEADER_SIZE = 56;
+
+	private static final int BI_RGB = 0;
+	private static final int BI_BITFIELDS = 3;
+	private static final int BI_ALPHABITFIELDS = 6;
+
+	// image bytes per staging block
+	private static final int STAGE_SIZE = 16 * 1024;
+
+	private static final ThreadLocal<Stage> STAGES = ThreadLocal.withInitial(Stage::new);
+
+	final int baseHeaderOffset;
+	final int pixelOffset;
+	final int width;
+	final int height;
+	final boolean topDown;
+	final int bitsPerPixel;
+	final boolean alpha;
+	// bytes per padded row and per pixel, samples per pixel and per row
+	final int stride;
+	final int pixelBytes;
+	final int channels;
+	final int rowSamples;
+	final int sampleCount;
+
+	private PixelLayout(final int baseHeaderOffset, final int pixelOffset, final int width, final int height,
+			final boolean topDown, final int bitsPerPixel, final boolean alpha, final int stride) {
+		this.baseHeaderOffset = baseHeaderOffset;
+		this.pixelOffset = pixelOffset;
+		this.width = width;
+		this.height = height;
+		this.topDown = topDown;
+		this.bitsPerPixel = bitsPerPixel;
+		this.alpha = alpha;
+		this.stride = stride;
+		this.pixelBytes = bitsPerPixel / 8;
+		this.channels = alpha ? 3 : pixelBytes;
+		this.rowSamples = width * channels;
+		this.sampleCount = rowSamples * height;
+	}
+
+	/**
+	 * Read the pixel array layout of a bitmap.
+	 *
+	 * @param image
+	 *            the image buffer, at least its first {@link #HEADER_SIZE} bytes or the whole image
+	 * @param imageLength
+	 *            number of image bytes
+	 * @return the layout
+	 */
+	static PixelLayout parse(final ByteBuffer image, final long imageLength) {
+		if (image.limit() < COMPRESSION_OFFSET + 4) {
+			throw new IllegalArgumentException("Invalid bitmap format. Pixel array not found.");
+		}
+		int dibHeaderSize = readInt(image, DIB_HEADER_OFFSET);
+		int pixelOffset = readInt(image, PIXEL_OFFSET_OFFSET);
+		int width = readInt(image, WIDTH_OFFSET);
+		int height = readInt(image, HEIGHT_OFFSET);
+		int bitsPerPixel = image.get(BITS_PER_PIXEL_OFFSET) & 0xFF | (image.get(BITS_PER_PIXEL_OFFSET + 1) & 0xFF) << 8;
+		int compression = readInt(image, COMPRESSION_OFFSET);
+		boolean rgb = bitsPerPixel == 24 && compression == BI_RGB;
+		boolean rgba = bitsPerPixel == 32
+				&& (compression == BI_RGB || compression == BI_BITFIELDS || compression == BI_ALPHABITFIELDS);
+		if (dibHeaderSize < BITMAPINFOHEADER_SIZE || !(rgb || rgba)) {
+			throw new IllegalArgumentException(
+					"Invalid bitmap format. Pixel layout supports uncompressed 24 and 32 bits per pixel bitmaps.");
+		}
+		boolean alpha = false;
+		if (rgba && (dibHeaderSize >= BITMAPV3INFOHEADER_SIZE || compression == BI_ALPHABITFIELDS)) {
+			if (image.limit() < HEADER_SIZE) {
+				throw new IllegalArgumentException("Invalid bitmap format. Pixel array not found.");
+			}
+			alpha = readInt(image, ALPHA_MASK_OFFSET) != 0;
+		}
+		// rows padded to 4 bytes, a negative height is a top-down bitmap
+		long rows = Math.abs((long) height);
+		long stride = ((long) width * bitsPerPixel + 31) / 32 * 4;
+		long baseHeaderOffset = (long) DIB_HEADER_OFFSET + dibHeaderSize;
+		long end = pixelOffset + (rows - 1) * stride + (long) width * (bitsPerPixel / 8);
+		if (width <= 0 || rows == 0 || pixelOffset < baseHeaderOffset || end > imageLength) {
+			throw new IllegalArgumentException("Invalid bitmap format. Invalid pixel array.");
+		}
+		// contiguous layout length field is 32 bits long
+		if (baseHeaderOffset + rows * width * (alpha ? 3 : bitsPerPixel / 8) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid file size. Bitmap file must be smaller than 2 GB.");
+		}
+		return new PixelLayout((int) baseHeaderOffset, pixelOffset, width, (int) rows, height < 0, bitsPerPixel,
+				alpha, (int) stride);
+	}
+
+	private static int readInt(final ByteBuffer image, final int offset) {
+		return image.get(offset) & 0xFF | (image.get(offset + 1) & 0xFF) << 8 | (image.get(offset + 2) & 0xFF) << 16
+				| (image.get(offset + 3) & 0xFF) << 24;
+	}
+
+	/**
+	 * Get the number of image bytes of the contiguous layout: the bitmap headers and the samples.
+	 *
+	 * @return length
+	 */
+	int length() {
+		return baseHeaderOffset + sampleCount;
+	}
+
+	/**
+	 * Get the image index of an index of the contiguous layout.
+	 *
+	 * @param index
+	 *            index of the contiguous layout
+	 * @return image index
+	 */
+	int imageIndex(final int index) {
+		if (index < baseHeaderOffset) {
+			return index;
+		}
+		int sample = index - baseHeaderOffset;
+		int row = sample / rowSamples;
+		int column = sample - row * rowSamples;
+		if (alpha) {
+			column += column / 3;
+		}
+		return pixelOffset + row * stride + column;
+	}
+
+	@Override
+	public void encode(final int depth, final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		int step = 8 / depth;
+		int start = 0;
+		while (start < length) {
+			int index = imageOffset + start * step;
+			int count = Math.min(contiguousLength(index) / step, length - start);
+			if (count > 0) {
+				// whole data bytes within a row
+				PackingKernels.encode(depth, image, imageIndex(index), data, dataOffset + start, count);
+			} else {
+				// alpha bytes between the samples or a data byte across two rows
+				Stage stage = STAGES.get();
+				count = Math.min(alpha ? STAGE_SIZE / step : 1, length - start);
+				int imageCount = count * step;
+				// depth 8 replaces the samples
+				if (depth != 8) {
+					gather(image, index, stage.bytes, imageCount);
+				}
+				PackingKernels.encode(depth, stage.view, 0, data, dataOffset + start, count);
+				scatter(stage.bytes, image, index, imageCount);
+			}
+			start += count;
+		}
+	}
+
+	@Override
+	public void decode(final int depth, final ByteBuffer image, final int imageOffset, final ByteBuffer result,
+			final int resultOffset, final int length) {
+		int step = 8 / depth;
+		int start = 0;
+		while (start < length) {
+			int index = imageOffset + start * step;
+			int count = Math.min(contiguousLength(index) / step, length - start);
+			if (count > 0) {
+				PackingKernels.decode(depth, image, imageIndex(index), result, resultOffset + start, count);
+			} else {
+				Stage stage = STAGES.get();
+				count = Math.min(alpha ? STAGE_SIZE / step : 1, length - start);
+				gather(image, index, stage.bytes, count * step);
+				PackingKernels.decode(depth, stage.view, 0, result, resultOffset + start, count);
+			}
+			start += count;
+		}
+	}
+
+	/**
+	 * Encode a 32 bits value within the LSB of the mapped image bytes, see
+	 * {@link PackingKernels#encodeInt(int, ByteBuffer, int, int)}.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte of the contiguous layout
+	 * @param value
+	 *            the value
+	 */
+	void encodeInt(final int depth, final ByteBuffer image, final int imageOffset, final int value) {
+		int mask = (1 << depth) - 1;
+		int index = imageOffset;
+		for (int shift = Integer.SIZE - depth; shift >= 0; shift -= depth) {
+			int position = imageIndex(index++);
+			image.put(position, (byte) ((image.get(position) & ~mask) | ((value >>> shift) & mask)));
+		}
+	}
+
+	/**
+	 * Decode a 32 bits value from the LSB of the mapped image bytes.
+	 *
+	 * @param depth
+	 *            number of LSB used per image byte: 1, 2, 4 or 8
+	 * @param image
+	 *            the image buffer
+	 * @param imageOffset
+	 *            index of the first image byte of the contiguous layout
+	 * @return the value
+	 */
+	int decodeInt(final int depth, final ByteBuffer image, final int imageOffset) {
+		int mask = (1 << depth) - 1;
+		int value = 0;
+		int end = imageOffset + Integer.SIZE / depth;
+		for (int index = imageOffset; index < end; index++) {
+			value = (value << depth) | (image.get(imageIndex(index)) & mask);
+		}
+		return value;
+	}
+
+	// indexes from the index mapped to consecutive image bytes, none within pixels with an alpha byte
+	private int contiguousLength(final int index) {
+		if (index < baseHeaderOffset) {
+			return baseHeaderOffset - index;
+		}
+		if (alpha) {
+			return 0;
+		}
+		return rowSamples - (index - baseHeaderOffset) % rowSamples;
+	}
+
+	// copy the mapped image bytes of count indexes, row by row
+	private void gather(final ByteBuffer image, final int index, final byte[] bytes, final int count) {
+		int position = 0;
+		while (position < count) {
+			int length = copyRow(image, index + position, bytes, position, count - position, false);
+			position += length;
+		}
+	}
+
+	private void scatter(final byte[] bytes, final ByteBuffer image, final int index, final int count) {
+		int position = 0;
+		while (position < count) {
+			int length = copyRow(image, index + position, bytes, position, count - position, true);
+			position += length;
+		}
+	}
+
+	// copy the samples from the index to the end of its row at most, returns the number of samples copied
+	private int copyRow(final ByteBuffer image, final int index, final byte[] bytes, final int bytesOffset,
+			final int maxLength, final boolean write) {
+		int start = imageIndex(index);
+		int length = Math.min(contiguousLength(index), maxLength);
+		if (length > 0) {
+			copyRun(image, start, bytes, bytesOffset, length, write);
+			return length;
+		}
+		// three color bytes of four per pixel: the end of the first pixel, whole pixels, the start of the last pixel
+		int column = (index - baseHeaderOffset) % rowSamples;
+		length = Math.min(rowSamples - column, maxLength);
+		int channel = column % 3;
+		int head = channel == 0 ? 0 : Math.min(3 - channel, length);
+		copyRun(image, start, bytes, bytesOffset, head, write);
+		// skip the alpha byte of the first pixel
+		int position = head == 0 ? start : start + head + 1;
+		int count = (length - head) / 3;
+		copyPixels(image, position, bytes, bytesOffset + head, count, write);
+		position += count * 4;
+		int done = head + count * 3;
+		copyRun(image, position, bytes, bytesOffset + done, length - done, write);
+		return length;
+	}
+
+	// copy the color bytes of count pixels of 4 bytes
+	private static void copyPixels(final ByteBuffer image, final int start, final byte[] bytes, final int bytesOffset,
+			final int count, final boolean write) {
+		int position = start;
+		int offset = bytesOffset;
+		if (image.hasArray()) {
+			byte[] array = image.array();
+			position += image.arrayOffset();
+			if (write) {
+				for (int idx = 0; idx < count; idx++, position += 4, offset += 3) {
+					array[position] = bytes[offset];
+					array[position + 1] = bytes[offset + 1];
+					array[position + 2] = bytes[offset + 2];
+				}
+			} else {
+				for (int idx = 0; idx < count; idx++, position += 4, offset += 3) {
+					bytes[offset] = array[position];
+					bytes[offset + 1] = array[position + 1];
+					bytes[offset + 2] = array[position + 2];
+				}
+			}
+		} else if (write) {
+			for (int idx = 0; idx < count; idx++, position += 4, offset += 3) {
+				image.put(position, bytes[offset]);
+				image.put(position + 1, bytes[offset + 1]);
+				image.put(position + 2, bytes[offset + 2]);
+			}
+		} else {
+			for (int idx = 0; idx < count; idx++, position += 4, offset += 3) {
+				bytes[offset] = image.get(position);
+				bytes[offset + 1] = image.get(position + 1);
+				bytes[offset + 2] = image.get(position + 2);
+			}
+		}
+	}
+
+	private static void copyRun(final ByteBuffer image, final int start, final byte[] bytes, final int bytesOffset,
+			final int length, final boolean write) {
+		if (image.hasArray()) {
+			if (write) {
+				System.arraycopy(bytes, bytesOffset, image.array(), image.arrayOffset() + start, length);
+			} else {
+				System.arraycopy(image.array(), image.arrayOffset() + start, bytes, bytesOffset, length);
+			}
+		} else if (write) {
+			for (int idx = 0; idx < length; idx++) {
+				image.put(start + idx, bytes[bytesOffset + idx]);
+			}
+		} else {
+			for (int idx = 0; idx < length; idx++) {
+				bytes[bytesOffset + idx] = image.get(start + idx);
+			}
+		}
+	}
+
+	// staging block of a thread
+	private static final class Stage {
+
+		final byte[] bytes = new byte[STAGE_SIZE];
+		final ByteBuffer view = ByteBuffer.wrap(bytes);
+
+	}
+
+}
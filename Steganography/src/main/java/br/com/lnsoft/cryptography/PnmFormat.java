@@ -0,0 +1,91 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary PPM (P6) and PGM (P5) file format. The text header is the magic number, the width, the height and the
+ * maximum sample value, separated by white space and comments, and a single white space character ends it. The
+ * carrier window is the raster and the signature is packed in its first bytes, the data after the raster, as the next
+ * image of a multi-image file, is out of the window. The samples must be 8 bits long: the
+ * 16 bits samples are big endian, the low bits of their first byte are significant.
+ */
+final class PnmFormat implements CarrierFormat {
+
+	private static final int MAX_SAMPLE_VALUE = 255;
+
+	// header fields
+	private static final int WIDTH = 0;
+	private static final int HEIGHT = 1;
+	private static final int MAX_VALUE = 2;
+	private static final int WINDOW_OFFSET = 3;
+
+	@Override
+	public String getName() {
+		return "pnm";
+	}
+
+	@Override
+	public boolean accepts(final ByteBuffer header) {
+		return header.limit() >= 3 && header.get(0) == 'P' && (header.get(1) == '5' || header.get(1) == '6')
+				&& isWhitespace(header.get(2));
+	}
+
+	@Override
+	public int windowOffset(final ByteBuffer header) {
+		return parseHeader(header)[WINDOW_OFFSET];
+	}
+
+	@Override
+	public long windowLength(final ByteBuffer header, final long imageLength) {
+		int[] fields = parseHeader(header);
+		// 3 samples per pixel in PPM files
+		return (long) fields[WIDTH] * fields[HEIGHT] * (header.get(1) == '6' ? 3 : 1);
+	}
+
+	@Override
+	public int signatureOffset(final ByteBuffer header) {
+		return -1;
+	}
+
+	// width, height, maximum sample value and the index after the header
+	private static int[] parseHeader(final ByteBuffer header) {
+		int index = 2;
+		int[] fields = new int[4];
+		for (int field = WIDTH; field <= MAX_VALUE; field++) {
+			// white space and comments up to the end of their line
+			while (index < header.limit() && (isWhitespace(header.get(index)) || header.get(index) == '#')) {
+				if (header.get(index) == '#') {
+					while (index < header.limit() && header.get(index) != '\n' && header.get(index) != '\r') {
+						index++;
+					}
+				} else {
+					index++;
+				}
+			}
+			// decimal value
+			long value = 0;
+			int start = index;
+			while (index < header.limit() && header.get(index) >= '0' && header.get(index) <= '9'
+					&& value <= Integer.MAX_VALUE) {
+				value = value * 10 + header.get(index++) - '0';
+			}
+			if (index == start || value == 0 || value > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Invalid PNM format. Invalid header.");
+			}
+			fields[field] = (int) value;
+		}
+		if (index >= header.limit() || !isWhitespace(header.get(index))) {
+			throw new IllegalArgumentException("Invalid PNM format. Invalid header.");
+		}
+		if (fields[MAX_VALUE] > MAX_SAMPLE_VALUE) {
+			throw new IllegalArgumentException("Invalid PNM format. Only 8 bits samples supported.");
+		}
+		fields[WINDOW_OFFSET] = index + 1;
+		return fields;
+	}
+
+	private static boolean isWhitespace(final byte value) {
+		return value == ' ' || value == '\t' || value == '\n' || value == '\r' || value == 0x0B || value == 0x0C;
+	}
+
+}
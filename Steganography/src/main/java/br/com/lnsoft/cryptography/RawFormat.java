@@ -0,0 +1,32 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Headerless raw frame format, e.g. the frames of a capture pipeline. Every image byte is a sample: the carrier window
+ * is the whole image and the signature is packed in its first bytes. Any image is accepted, so the format is never
+ * detected.
+ */
+final class RawFormat implements CarrierFormat {
+
+	@Override
+	public String getName() {
+		return "raw";
+	}
+
+	@Override
+	public boolean accepts(final ByteBuffer header) {
+		return true;
+	}
+
+	@Override
+	public int windowOffset(final ByteBuffer header) {
+		return 0;
+	}
+
+	@Override
+	public int signatureOffset(final ByteBuffer header) {
+		return -1;
+	}
+
+}
@@ -0,0 +1,227 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pseudorandom bijection spreading the image bytes of the data over the whole data area of an image.
+ * <p>
+ * The data area starts after the steganography header and ends with the image. An image index within the area is
+ * split in two digits of radix about the square root of the area, mapped by a 4 rounds Feistel network keyed by the
+ * seed, where each round adds a keyed hash of one digit to the other modulo its radix, and mapped again in the rare
+ * case where the result falls outside the area (cycle walking). The permutation is computed, not stored, so it needs
+ * constant memory whatever the image length.
+ * <p>
+ * Data bytes are packed in blocks: the positions of a block are computed round by round over the whole block, so the
+ * computations of distinct positions overlap, the image bytes are gathered into a staging buffer, packed by the
+ * {@link PackingKernels} and scattered back. The staging buffers belong to the calling thread and the image is only
+ * accessed with absolute accesses, so threads may pack distinct ranges of the same image.
+ * <p>
+ * With a {@link PixelLayout} the area is that of the contiguous layout of the pixel samples and the scattered indexes
+ * are mapped to their image bytes.
+ */
+final class ScatterPermutation implements ImageMapping {
+
+	// image bytes per staging block
+	private static final int STAGE_SIZE = 16 * 1024;
+
+	// even, so the digits get back their radix
+	private static final int ROUNDS = 4;
+
+	// digits are packed in the high and low 16 bits of an int
+	private static final int DIGIT_BITS = 16;
+	private static final int DIGIT_MASK = 0xFFFF;
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	// round function multipliers, 32 bits arithmetic so the rounds over a block are vectorized
+	private static final int MULTIPLIER_1 = 0x85EBCA6B;
+	private static final int MULTIPLIER_2 = 0xC2B2AE35;
+
+	private static final ThreadLocal<Stage> STAGES = ThreadLocal.withInitial(Stage::new);
+
+	private final int base;
+	private final int size;
+	private final int highRadix;
+	private final int lowRadix;
+	private final int[] keys = new int[ROUNDS];
+	private final PixelLayout pixels;
+
+	/**
+	 * Create the permutation of a data area.
+	 *
+	 * @param seed
+	 *            the seed of the round keys
+	 * @param base
+	 *            index of the first image byte of the data area
+	 * @param imageLength
+	 *            number of image bytes
+	 */
+	ScatterPermutation(final long seed, final int base, final int imageLength) {
+		this(seed, base, imageLength, null);
+	}
+
+	/**
+	 * Create the permutation of the data area of the pixel samples.
+	 *
+	 * @param seed
+	 *            the seed of the round keys
+	 * @param base
+	 *            index of the first image byte of the data area in the contiguous layout
+	 * @param imageLength
+	 *            number of image bytes of the contiguous layout
+	 * @param pixels
+	 *            the pixel layout or null for the image bytes
+	 */
+	ScatterPermutation(final long seed, final int base, final int imageLength, final PixelLayout pixels) {
+		this.base = base;
+		this.pixels = pixels;
+		this.size = imageLength - base;
+		// the domain highRadix * lowRadix covers the area and exceeds it by less than highRadix, both radix fit 16 bits
+		this.highRadix = Math.max(1, (int) Math.ceil(Math.sqrt(size)));
+		this.lowRadix = Math.max(1, (size + highRadix - 1) / highRadix);
+		// round keys depend on the area size too, so images of different lengths use different permutations
+		long state = seed ^ ((long) size << 32);
+		for (int idx = 0; idx < ROUNDS; idx++) {
+			state += GOLDEN_GAMMA;
+			keys[idx] = (int) (mix(state) >>> 32);
+		}
+	}
+
+	// SplitMix64 finalizer
+	private static long mix(final long value) {
+		long z = value;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public void encode(final int depth, final ByteBuffer image, final int imageOffset, final ByteBuffer data,
+			final int dataOffset, final int length) {
+		Stage stage = STAGES.get();
+		int step = 8 / depth;
+		int blockLength = STAGE_SIZE / step;
+		for (int start = 0; start < length; start += blockLength) {
+			int count = Math.min(blockLength, length - start);
+			int imageCount = count * step;
+			int offset = imageOffset + start * step;
+			// gather the image bytes, depth 8 replaces them
+			if (depth == 8) {
+				computePositions(stage, offset, imageCount);
+			} else {
+				gather(stage, image, offset, imageCount);
+			}
+			PackingKernels.encode(depth, stage.view, 0, data, dataOffset + start, count);
+			scatter(stage, image, imageCount);
+		}
+	}
+
+	@Override
+	public void decode(final int depth, final ByteBuffer image, final int imageOffset, final ByteBuffer result,
+			final int resultOffset, final int length) {
+		Stage stage = STAGES.get();
+		int step = 8 / depth;
+		int blockLength = STAGE_SIZE / step;
+		for (int start = 0; start < length; start += blockLength) {
+			int count = Math.min(blockLength, length - start);
+			gather(stage, image, imageOffset + start * step, count * step);
+			PackingKernels.decode(depth, stage.view, 0, result, resultOffset + start, count);
+		}
+	}
+
+	// scattered image indexes of count image bytes of the contiguous layout
+	private void computePositions(final Stage stage, final int offset, final int count) {
+		int[] positions = stage.positions;
+		// digits of consecutive indexes, one division per block
+		int high = (offset - base) / lowRadix;
+		int low = (offset - base) % lowRadix;
+		for (int idx = 0; idx < count; idx++) {
+			positions[idx] = (high << DIGIT_BITS) | low;
+			if (++low == lowRadix) {
+				low = 0;
+				high++;
+			}
+		}
+		encrypt(positions, count);
+		for (int idx = 0; idx < count; idx++) {
+			int value = positions[idx];
+			int index = (value >>> DIGIT_BITS) * lowRadix + (value & DIGIT_MASK);
+			// cycle walking, less than one index in the low radix falls outside the area
+			while (index >= size) {
+				stage.values[0] = value;
+				encrypt(stage.values, 1);
+				value = stage.values[0];
+				index = (value >>> DIGIT_BITS) * lowRadix + (value & DIGIT_MASK);
+			}
+			positions[idx] = pixels == null ? base + index : pixels.imageIndex(base + index);
+		}
+	}
+
+	// Feistel rounds over count packed digits, the high digit is added a hash of the low digit and they swap
+	private void encrypt(final int[] values, final int count) {
+		int high = highRadix;
+		int low = lowRadix;
+		for (int round = 0; round < ROUNDS; round++) {
+			int key = keys[round];
+			int radix = high;
+			for (int idx = 0; idx < count; idx++) {
+				int value = values[idx];
+				int digit = value & DIGIT_MASK;
+				int hash = (digit ^ key) * MULTIPLIER_1;
+				hash = (hash ^ (hash >>> 16)) * MULTIPLIER_2;
+				// hash within the radix, then sum modulo the radix without branches
+				int sum = (value >>> DIGIT_BITS) + (((hash >>> DIGIT_BITS) * radix) >>> DIGIT_BITS) - radix;
+				sum += (sum >> 31) & radix;
+				values[idx] = (digit << DIGIT_BITS) | sum;
+			}
+			high = low;
+			low = radix;
+		}
+	}
+
+	// positions are computed first so the loads of the gather loop are independent
+	private void gather(final Stage stage, final ByteBuffer image, final int offset, final int count) {
+		computePositions(stage, offset, count);
+		int[] positions = stage.positions;
+		byte[] bytes = stage.bytes;
+		if (image.hasArray()) {
+			byte[] array = image.array();
+			int arrayOffset = image.arrayOffset();
+			for (int idx = 0; idx < count; idx++) {
+				bytes[idx] = array[arrayOffset + positions[idx]];
+			}
+		} else {
+			for (int idx = 0; idx < count; idx++) {
+				bytes[idx] = image.get(positions[idx]);
+			}
+		}
+	}
+
+	private static void scatter(final Stage stage, final ByteBuffer image, final int count) {
+		int[] positions = stage.positions;
+		byte[] bytes = stage.bytes;
+		if (image.hasArray()) {
+			byte[] array = image.array();
+			int arrayOffset = image.arrayOffset();
+			for (int idx = 0; idx < count; idx++) {
+				array[arrayOffset + positions[idx]] = bytes[idx];
+			}
+		} else {
+			for (int idx = 0; idx < count; idx++) {
+				image.put(positions[idx], bytes[idx]);
+			}
+		}
+	}
+
+	// staging block of a thread
+	private static final class Stage {
+
+		final int[] positions = new int[STAGE_SIZE];
+		// cycle walking of a single position
+		final int[] values = new int[1];
+		final byte[] bytes = new byte[STAGE_SIZE];
+		final ByteBuffer view = ByteBuffer.wrap(bytes);
+
+	}
+
+}
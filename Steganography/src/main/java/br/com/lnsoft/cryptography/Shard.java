@@ -0,0 +1,65 @@
+package br.com.lnsoft.cryptography;
+
+/**
+ * Place of one carrier image among the carriers of a payload split in shards.
+ * <p>
+ * The shards of a payload record the same payload identifier and shard count in their version 2 header, and their own
+ * index, so the payload is reassembled whatever the order of the carrier files. See {@link SteganographyShards}.
+ */
+public final class Shard {
+
+	private final long payloadId;
+	private final int index;
+	private final int count;
+
+	/**
+	 * Create a shard.
+	 *
+	 * @param payloadId
+	 *            identifier shared by the shards of a payload
+	 * @param index
+	 *            index of the shard, from 0
+	 * @param count
+	 *            number of shards of the payload
+	 */
+	public Shard(final long payloadId, final int index, final int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Invalid shard count. Must be at least 1.");
+		}
+		if (index < 0 || index >= count) {
+			throw new IllegalArgumentException(
+					String.format("Invalid shard index. Must be between 0 and %d.", count - 1));
+		}
+		this.payloadId = payloadId;
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Get the payload identifier.
+	 *
+	 * @return payloadId
+	 */
+	public long getPayloadId() {
+		return payloadId;
+	}
+
+	/**
+	 * Get the index of the shard.
+	 *
+	 * @return index, from 0
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get the number of shards of the payload.
+	 *
+	 * @return count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+}
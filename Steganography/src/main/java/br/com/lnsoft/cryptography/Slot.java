@@ -0,0 +1,62 @@
+package br.com.lnsoft.cryptography;
+
+/**
+ * Entry of the slot directory of a carrier image: one payload among the payloads of the carrier.
+ * <p>
+ * The identifier is keyed by the seed, so the directory does not reveal the slot names. See
+ * {@link SteganographySlots}.
+ */
+public final class Slot {
+
+	private final long id;
+	private final int offset;
+	private final int length;
+	private final int hash;
+
+	Slot(final long id, final int offset, final int length, final int hash) {
+		if (offset < 0 || length < 0) {
+			throw new IllegalArgumentException("Decode error. Invalid slot directory");
+		}
+		this.id = id;
+		this.offset = offset;
+		this.length = length;
+		this.hash = hash;
+	}
+
+	/**
+	 * Get the slot identifier.
+	 *
+	 * @return id, see {@link SteganographySlots#slotId(String)}
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Get the position of the payload in the data of the carrier.
+	 *
+	 * @return offset
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Get the number of payload bytes.
+	 *
+	 * @return length
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Get the CRC32C checksum of the payload.
+	 *
+	 * @return hash
+	 */
+	public int getHash() {
+		return hash;
+	}
+
+}
@@ -1,28 +1,103 @@
 package br.com.lnsoft.cryptography;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class Steganography {
-
-	private static final int COMPRESSION_FACTOR = 4;
+import javax.crypto.spec.SecretKeySpec;
 
-	private static final int DIB_HEADER_OFFSET = 14;
-	private static final int SIGNATURE_OFFSET = 6;
+import br.com.lnsoft.cryptography.SteganographyMetrics.Failure;
+import br.com.lnsoft.cryptography.SteganographyMetrics.Operation;
+import br.com.lnsoft.cryptography.SteganographyMetrics.Phase;
 
-	private static final int LENGTH_HEADER_SIZE = 32 / COMPRESSION_FACTOR;
-	private static final int OFFSET_HEADER_SIZE = 32 / COMPRESSION_FACTOR;
-	private static final int HASH_HEADER_SIZE = 128 / COMPRESSION_FACTOR;
+public class Steganography {
 
 	private static final byte[] SIGNATURE = new byte[] { (byte) 0x4c, (byte) 0x4e, (byte) 0x76, (byte) 0x31 };
+	private static final byte[] SIGNATURE_V2 = new byte[] { (byte) 0x4c, (byte) 0x4e, (byte) 0x76, (byte) 0x32 };
+	private static final byte[] SIGNATURE_V3 = new byte[] { (byte) 0x4c, (byte) 0x4e, (byte) 0x76, (byte) 0x33 };
 
 	private static final int INT_SIZE = 4;
 
+	// image bytes of a signature packed in the carrier window
+	private static final int PACKED_SIGNATURE_LENGTH = (int) PackingKernels.imageLength(HeaderLayout.DESCRIPTOR_DEPTH,
+			INT_SIZE);
+
+	// data bytes processed per step in stream mode
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	// data bytes per mapped segment of the bitmap files of 2 GB or more
+	private static final int SEGMENT_DATA_SIZE = 64 * 1024 * 1024;
+	// largest array length of the common virtual machines
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	// data bytes packed and hashed in turn, small enough for the block to be hashed from the L1 cache
+	private static final int FUSED_BLOCK_SIZE = 16 * 1024;
+
+	// image bytes read at once by a file probe, the largest format header and steganography header fit
+	private static final int PROBE_READ_SIZE = 512;
+
+	// data length from which the parallel mode splits the data in chunks
+	private static final int PARALLEL_THRESHOLD = 1024 * 1024;
+	// data bytes per parallel chunk, image and data chunks fit in the L2 cache
+	private static final int PARALLEL_CHUNK_SIZE = 128 * 1024;
+
+	// linear congruential generator of java.util.Random
+	private static final long RANDOM_MULTIPLIER = 0x5DEECE66DL;
+	private static final long RANDOM_ADDEND = 0xBL;
+	private static final long RANDOM_MASK = (1L << 48) - 1;
+
+	// digest and buffers reused by the calls of each thread
+	private static final ThreadLocal<Workspace> WORKSPACES = ThreadLocal.withInitial(Workspace::new);
+	// a virtual thread runs a single task, its calls share the idle workspaces instead
+	private static final Queue<Workspace> SHARED_WORKSPACES = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger SHARED_WORKSPACES_IDLE = new AtomicInteger();
+	private static final int SHARED_WORKSPACES_LIMIT = 4 * Runtime.getRuntime().availableProcessors();
+	// Thread.isVirtual, null before Java 21
+	private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+	// nonces of the encrypted data
+	private static final SecureRandom NONCES = new SecureRandom();
+
 	private long seed;
 
+	// seed string of the keys, null with a seed value
+	private String keyString;
+
+	private boolean keyCache = true;
+
+	private ForkJoinPool forkJoinPool;
+
+	private SteganographyMetrics metrics;
+
+	// detected from the image header when null
+	private CarrierFormat carrierFormat;
+
 	/**
 	 * Create an instance with a random seed.
 	 */
@@ -60,21 +135,123 @@ public class Steganography {
 	}
 
 	/**
-	 * Set the seed string.
+	 * Set the seed string. The key of the encrypted data is derived from the seed string too.
 	 * 
 	 * @param seedString
 	 */
 	public void setSeed(final String seedString) {
 		seed = computeSeedString(seedString);
+		keyString = seedString == null || seedString.isEmpty() ? null : seedString;
 	}
 
 	/**
-	 * Set the seed value.
+	 * Set the seed value. Encrypted data needs a seed string, see {@link EncodeOptions#setEncrypted(boolean)}.
 	 * 
 	 * @param seedValue
 	 */
 	public void setSeed(final long seedValue) {
 		this.seed = seedValue;
+		keyString = null;
+	}
+
+	/**
+	 * Check whether the keys of the encrypted data are cached.
+	 * 
+	 * @return keyCache
+	 */
+	public boolean isKeyCache() {
+		return keyCache;
+	}
+
+	/**
+	 * Set whether the keys of the encrypted data are cached.
+	 * <p>
+	 * A key derivation costs tens of milliseconds, so by default the keys of the recent seed strings are kept for the
+	 * instances of the process, keyed by a SHA-256 of the seed string, and the encodes with a seed string reuse the
+	 * salt of its keys. Without the cache each encode derives its keys with a new salt and each decode derives the
+	 * keys of the stored salt, and nothing is kept.
+	 * 
+	 * @param keyCache
+	 *            false to derive the keys on each call
+	 */
+	public void setKeyCache(final boolean keyCache) {
+		this.keyCache = keyCache;
+	}
+
+	/**
+	 * Forget the keys cached by all instances, see {@link #setKeyCache(boolean)}. The next encode of each seed string
+	 * derives its keys with a new salt.
+	 */
+	public static void clearKeys() {
+		DataCipher.clearKeys();
+	}
+
+	/**
+	 * Get the pool used by the parallel mode.
+	 * 
+	 * @return forkJoinPool or null when the parallel mode is disabled
+	 */
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	/**
+	 * Set the pool used by the parallel mode.
+	 * <p>
+	 * When set, data longer than 1 MB is split in chunks that are encoded or decoded by the pool workers while the
+	 * calling thread computes the hash, and the Reed-Solomon blocks of corrected data are encoded and corrected by the
+	 * pool workers. The encoded image is the same as in sequential mode.
+	 * 
+	 * @param forkJoinPool
+	 *            the pool or null to disable the parallel mode
+	 */
+	public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Get the metrics recorded by this instance.
+	 * 
+	 * @return metrics or null when the metrics are disabled
+	 */
+	public SteganographyMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the metrics recorded by this instance.
+	 * <p>
+	 * When set, the time of each step, the time and data length of each encode and decode call and the failures are
+	 * recorded. The same metrics may be shared by several instances. Without metrics the clock is not read.
+	 * 
+	 * @param metrics
+	 *            the metrics or null to disable the metrics
+	 */
+	public void setMetrics(final SteganographyMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the carrier format of the images.
+	 * 
+	 * @return carrierFormat or null when the format is detected from each image header
+	 */
+	public CarrierFormat getCarrierFormat() {
+		return carrierFormat;
+	}
+
+	/**
+	 * Set the carrier format of the images.
+	 * <p>
+	 * By default the bitmap, PNM and TGA formats are detected from the image header, see
+	 * {@link CarrierFormat#detect(ByteBuffer)}. Headerless formats such as {@link CarrierFormat#RAW} frames are never
+	 * detected and must be set, the images are then read with this format only.
+	 * 
+	 * @param carrierFormat
+	 *            the format or null to detect the format of each image
+	 */
+	public void setCarrierFormat(final CarrierFormat carrierFormat) {
+		this.carrierFormat = carrierFormat;
 	}
 
 	/**
@@ -90,256 +267,2443 @@ public class Steganography {
 	 * @throws Exception
 	 */
 	public byte[] encodeData(final byte[] image, final byte[] data, final boolean force) throws Exception {
-		byte[] encodeData;
-		// check first two bytes bitmap identification
-		if (!(image[0] == 0x42 && image[1] == 0x4D)) {
-			throw new IllegalArgumentException("Invalid file format. Only Bitmap file supported.");
-		}
-		// checks if SIGNATURE exists
-		if (checkSignature(image) && !force) {
-			throw new IllegalArgumentException(
-					"Signature detected. Set force flag to use this image to encode data in. Previous data encoded will be lost.");
-		}
-		// add SIGNATURE
-		setImageSignature(image);
-		// compute base header offset
-		int baseHeaderOffset = computeBaseHeaderOffset(image);
-		// add data length
-		encodeDataLength(image, baseHeaderOffset, data.length);
-		// computeImageOffset
-		int offset = computeImageOffset(baseHeaderOffset, image.length, data.length);
-		// add data offset
-		encodeDataOffset(image, baseHeaderOffset, offset);
-		// add hash
-		encodeDataHash(image, baseHeaderOffset, data);
-		// encodeBytes
-		encodeData = encodeDataBytes(image, offset, data);
-		//
-		return encodeData;
+		return encodeData(image, data, new EncodeOptions(force));
 	}
 
 	/**
-	 * Decode the data within the encoded image.
+	 * Encode data within bitmap image with encode options.
 	 * 
 	 * @param image
-	 *            byte array with the encoded image
-	 * @return byte array with the data decoded
+	 *            byte array of the original image
+	 * @param data
+	 *            byte array of the data
+	 * @param options
+	 *            the encode options
+	 * @return byte array of the encoded image
 	 * @throws Exception
 	 */
-	public byte[] decodeData(final byte[] image) throws Exception {
-		byte[] decodeData;
-		// check first two bytes bitmap identification
-		if (!(image[0] == 0x42 && image[1] == 0x4D)) {
-			throw new IllegalArgumentException("Invalid file format. Only Bitmap file supported.");
-		}
-		// checks if SIGNATURE is valid
-		if (!checkSignature(image)) {
-			throw new IllegalArgumentException("Decode error. Invalid signature");
-		}
-		// compute base header offset
-		int baseHeaderOffset = computeBaseHeaderOffset(image);
-		// retrieve length
-		int dataLength = decodeDataLength(image, baseHeaderOffset);
-		// computeImageOffset
-		int offset = computeImageOffset(baseHeaderOffset, image.length, dataLength);
-		// retrieve offset
-		int dataOffset = decodeDataOffset(image, baseHeaderOffset);
-		// check compute and retrieved data offset
-		if (offset != dataOffset) {
-			throw new IllegalArgumentException("Decode error. Invalid offset");
-		}
-		// retrieve hash
-		byte[] hash = decodeDataHash(image, baseHeaderOffset);
-		// decodeBytes
-		decodeData = decodeDataBytes(image, offset, dataLength);
-		// check hash
-		if (!checkDataHash(decodeData, hash)) {
-			throw new IllegalArgumentException("Decode error. Invalid hash");
-		}
+	public byte[] encodeData(final byte[] image, final byte[] data, final EncodeOptions options) throws Exception {
+		long start = startTimer();
+		encodeImage(ByteBuffer.wrap(image), ByteBuffer.wrap(data), null, data.length, options);
+		recordOperation(Operation.ENCODE, start, data.length);
 		//
-		return decodeData;
+		return image;
 	}
 
-	//
-	// Core data encode/decode
-	//
+	/**
+	 * Encode data read from a stream within bitmap image.
+	 * <p>
+	 * The data is read and encoded in fixed size blocks and its hash is updated incrementally, so the whole data is
+	 * never held in memory.
+	 * 
+	 * @param image
+	 *            byte array of the original image
+	 * @param data
+	 *            input stream of the data, it is not closed
+	 * @param length
+	 *            number of bytes to read from the data stream
+	 * @param force
+	 *            flag to force encode an already encoded bitmap image
+	 * @return byte array of the encoded image
+	 * @throws Exception
+	 */
+	public byte[] encodeData(final byte[] image, final InputStream data, final long length, final boolean force)
+			throws Exception {
+		return encodeData(image, data, length, new EncodeOptions(force));
+	}
 
-	private byte[] encodeDataBytes(final byte[] image, final int initialOffset, final byte[] data) {
-		// add data to image
-		int offset = initialOffset;
-		for (int i = 0; i < data.length; ++i) {
-			image[offset] = (byte) ((image[offset] & 0xF0) | (((data[i] >>> 7) & 1) << 3));
-			image[offset] = (byte) (image[offset] | (((data[i] >>> 6) & 1)) << 2);
-			image[offset] = (byte) (image[offset] | (((data[i] >>> 5) & 1) << 1));
-			image[offset] = (byte) (image[offset] | ((data[i] >>> 4) & 1));
-			offset++;
-			image[offset] = (byte) ((image[offset] & 0xF0) | (((data[i] >>> 3) & 1) << 3));
-			image[offset] = (byte) (image[offset] | (((data[i] >>> 2) & 1)) << 2);
-			image[offset] = (byte) (image[offset] | (((data[i] >>> 1) & 1) << 1));
-			image[offset] = (byte) (image[offset] | ((data[i] >>> 0) & 1));
-			offset++;
-		}
+	/**
+	 * Encode data read from a stream within bitmap image with encode options.
+	 * 
+	 * @param image
+	 *            byte array of the original image
+	 * @param data
+	 *            input stream of the data, it is not closed
+	 * @param length
+	 *            number of bytes to read from the data stream
+	 * @param options
+	 *            the encode options
+	 * @return byte array of the encoded image
+	 * @throws Exception
+	 */
+	public byte[] encodeData(final byte[] image, final InputStream data, final long length,
+			final EncodeOptions options) throws Exception {
+		long start = startTimer();
+		// check data length
+		int dataLength = checkDataLength(length);
+		encodeImage(ByteBuffer.wrap(image), null, data, dataLength, options);
+		recordOperation(Operation.ENCODE, start, dataLength);
 		//
 		return image;
 	}
 
-	private byte[] decodeDataBytes(final byte[] image, final int initialOffset, final int length) {
-		// retrieve original data
-		int offset = initialOffset;
-		byte[] result = new byte[length];
-		for (int b = 0; b < result.length; ++b) {
-			result[b] = (byte) ((result[b] << 1) | (image[offset] & 8) >> 3);
-			result[b] = (byte) ((result[b] << 1) | (image[offset] & 4) >> 2);
-			result[b] = (byte) ((result[b] << 1) | (image[offset] & 2) >> 1);
-			result[b] = (byte) ((result[b] << 1) | (image[offset] & 1));
-			offset++;
-			result[b] = (byte) ((result[b] << 1) | (image[offset] & 8) >> 3);
-			result[b] = (byte) ((result[b] << 1) | (image[offset] & 4) >> 2);
-			result[b] = (byte) ((result[b] << 1) | (image[offset] & 2) >> 1);
-			result[b] = (byte) ((result[b] << 1) | (image[offset] & 1));
-			offset++;
-		}
-		// return result data
-		return result;
-	}
-
-	//
-	// Signature methods
-	// Use the Unused 2 fields at BMP Header
-	// 2 bytes at offset 6 and 2 bytes more at offset 8
-	// add and retrieve a predefined signature
-	//
-
-	// encode
-	private void setImageSignature(final byte[] image) {
-		// add SIGNATURE
-		for (int idx = 0; idx < SIGNATURE.length; idx++) {
-			image[SIGNATURE_OFFSET + idx] = SIGNATURE[idx];
-		}
+	/**
+	 * Decode the data within the encoded image.
+	 * 
+	 * @param image
+	 *            byte array with the encoded image
+	 * @return byte array with the data decoded
+	 * @throws Exception
+	 */
+	public byte[] decodeData(final byte[] image) throws Exception {
+		long start = startTimer();
+		ByteBuffer imageBuffer = ByteBuffer.wrap(image);
+		DataFields fields = decodeDataFields(imageBuffer, image.length);
+		byte[] decodeData = new byte[fields.originalLength];
+		decodeImage(imageBuffer, fields, ByteBuffer.wrap(decodeData), null);
+		recordOperation(Operation.DECODE, start, decodeData.length);
+		//
+		return decodeData;
 	}
 
-	// decode
-	private byte[] getImageSignature(final byte[] image) {
-		// retrieve SIGNATURE
-		byte[] signature = new byte[SIGNATURE.length];
-		for (int idx = 0; idx < SIGNATURE.length; idx++) {
-			signature[idx] = image[SIGNATURE_OFFSET + idx];
-		}
-		// return decoded signature
-		return signature;
+	/**
+	 * Decode the data within the encoded image to a stream.
+	 * <p>
+	 * The data is decoded and written in fixed size blocks while its hash is updated incrementally. The hash is
+	 * checked after the last block, so the stream may have received data when an invalid hash is detected.
+	 * 
+	 * @param image
+	 *            byte array with the encoded image
+	 * @param data
+	 *            output stream for the data decoded, it is not closed
+	 * @return number of bytes decoded
+	 * @throws Exception
+	 */
+	public long decodeData(final byte[] image, final OutputStream data) throws Exception {
+		long start = startTimer();
+		ByteBuffer imageBuffer = ByteBuffer.wrap(image);
+		DataFields fields = decodeDataFields(imageBuffer, image.length);
+		decodeImage(imageBuffer, fields, null, data);
+		recordOperation(Operation.DECODE, start, fields.originalLength);
+		//
+		return fields.originalLength;
 	}
 
-	// check
-	private boolean checkSignature(final byte[] image) {
-		// compare signatures
-		return Arrays.equals(getImageSignature(image), SIGNATURE);
+	/**
+	 * Encode data within a bitmap image buffer with encode options.
+	 * <p>
+	 * The image buffer may be a heap or a direct buffer. The image starts at index 0 and ends at the buffer limit, the
+	 * buffer position is not used, use a slice for an image stored at another index. The data is read from the data
+	 * buffer position to its limit and the position is advanced. The header fields are written in place and the digest
+	 * and block buffer are reused by the calls of a thread, so uncompressed data is encoded without allocations in the
+	 * steady state.
+	 * 
+	 * @param image
+	 *            buffer of the original image, encoded in place
+	 * @param data
+	 *            buffer of the data
+	 * @param options
+	 *            the encode options
+	 * @throws Exception
+	 */
+	public void encodeData(final ByteBuffer image, final ByteBuffer data, final EncodeOptions options)
+			throws Exception {
+		long start = startTimer();
+		int dataLength = data.remaining();
+		encodeImage(image, data, null, dataLength, options);
+		recordOperation(Operation.ENCODE, start, dataLength);
 	}
 
-	//
-	// Length methods
-	//
-
-	// encode length
-	private void encodeDataLength(final byte[] image, final int baseHeaderOffset, final int length) {
-		// add data length
-		encodeDataBytes(image, baseHeaderOffset, int2ByteArray(length));
+	/**
+	 * Decode the data within an encoded bitmap image buffer.
+	 * <p>
+	 * The image buffer may be a heap or a direct buffer, the image starts at index 0 and ends at the buffer limit. The
+	 * data is written at the data buffer position, which is advanced by the number of bytes decoded. The header fields
+	 * and hash are read and checked in place, so uncompressed data is decoded without allocations in the steady state.
+	 * The data buffer content is undefined and its position unchanged when an invalid hash is detected.
+	 * 
+	 * @param image
+	 *            buffer with the encoded image
+	 * @param data
+	 *            buffer for the data decoded, it must have enough bytes remaining
+	 * @return number of bytes decoded
+	 * @throws Exception
+	 */
+	public int decodeData(final ByteBuffer image, final ByteBuffer data) throws Exception {
+		long start = startTimer();
+		// the header fields are read in locals, no holder is allocated in the steady state
+		checkDecodeImage(image);
+		HeaderLayout layout = decodeLayout(image, image.limit());
+		int dataLength = decodeDataLength(image, layout);
+		int originalLength = decodeOriginalLength(image, layout, dataLength);
+		int imageEnd = computeImageEnd(image, image.limit());
+		int offset = checkDataOffset(image, layout, imageEnd, dataLength, originalLength);
+		decodeWindow(image, image, layout, offset, imageEnd, dataLength, originalLength, data, null);
+		recordOperation(Operation.DECODE, start, originalLength);
+		//
+		return originalLength;
 	}
 
-	// decode length
-	private int decodeDataLength(final byte[] image, final int baseHeaderOffset) {
-		int dataLength = 0;
-		byte[] byteLength = decodeDataBytes(image, baseHeaderOffset, INT_SIZE);
-		dataLength = byteArray2Int(byteLength);
-		return dataLength;
+	/**
+	 * Encode data within a bitmap file using memory-mapped file access.
+	 * <p>
+	 * Only the header pages and the data window of the output image are mapped and written, so the heap usage is
+	 * bounded by the data length instead of the image length. When the output file differs from the input file the
+	 * input image is copied first by the file system.
+	 * <p>
+	 * Bitmap files of 2 GB or more are encoded with a wide header, see {@link EncodeOptions#setWide(boolean)}, and
+	 * the data window is mapped one segment at a time. Only contiguous uncompressed data without chunks is supported
+	 * in these files.
+	 * 
+	 * @param imageIn
+	 *            the original bitmap file
+	 * @param imageOut
+	 *            the encoded bitmap file, may be the same as the original file to encode in place
+	 * @param data
+	 *            byte array of the data
+	 * @param force
+	 *            flag to force encode an already encoded bitmap image
+	 * @throws Exception
+	 */
+	public void encodeFile(final File imageIn, final File imageOut, final byte[] data, final boolean force)
+			throws Exception {
+		encodeFile(imageIn, imageOut, data, new EncodeOptions(force));
 	}
 
-	//
-	// Offset methods
-	//
-
-	// encode offset
-	private void encodeDataOffset(final byte[] image, final int baseHeaderOffset, final int offset) {
-		// add data offset
-		encodeDataBytes(image, baseHeaderOffset + LENGTH_HEADER_SIZE, int2ByteArray(offset));
+	/**
+	 * Encode data within a bitmap file using memory-mapped file access with encode options.
+	 * 
+	 * @param imageIn
+	 *            the original bitmap file
+	 * @param imageOut
+	 *            the encoded bitmap file, may be the same as the original file to encode in place
+	 * @param data
+	 *            byte array of the data
+	 * @param options
+	 *            the encode options
+	 * @throws Exception
+	 */
+	public void encodeFile(final File imageIn, final File imageOut, final byte[] data, final EncodeOptions options)
+			throws Exception {
+		if (isLargeFile(imageIn)) {
+			encodeLargeFile(imageIn, imageOut, new ByteArrayInputStream(data), data.length, options);
+			return;
+		}
+		long start = startTimer();
+		encodeImageFile(imageIn, imageOut, ByteBuffer.wrap(data), null, data.length, options);
+		recordOperation(Operation.ENCODE, start, data.length);
 	}
 
-	// decode offset
-	private int decodeDataOffset(final byte[] image, final int baseHeaderOffset) {
-		int dataOffset = 0;
-		byte[] decodeDataBytes = decodeDataBytes(image, baseHeaderOffset + LENGTH_HEADER_SIZE, INT_SIZE);
-		dataOffset = byteArray2Int(decodeDataBytes);
-		return dataOffset;
+	/**
+	 * Encode data read from a stream within a bitmap file using memory-mapped file access.
+	 * <p>
+	 * Memory usage is bounded by the stream block size regardless of the image and data lengths. In bitmap files of
+	 * 2 GB or more the data may be 2 GB or more too.
+	 * 
+	 * @param imageIn
+	 *            the original bitmap file
+	 * @param imageOut
+	 *            the encoded bitmap file, may be the same as the original file to encode in place
+	 * @param data
+	 *            input stream of the data, it is not closed
+	 * @param length
+	 *            number of bytes to read from the data stream
+	 * @param force
+	 *            flag to force encode an already encoded bitmap image
+	 * @throws Exception
+	 */
+	public void encodeFile(final File imageIn, final File imageOut, final InputStream data, final long length,
+			final boolean force) throws Exception {
+		encodeFile(imageIn, imageOut, data, length, new EncodeOptions(force));
 	}
 
-	private int computeBaseHeaderOffset(byte[] image) {
-		// compute base offset
-		int baseHeaderOffset = 0;
-		int dibHeaderSize = 0;
-		byte[] dibData = (new byte[] { image[DIB_HEADER_OFFSET + 3], image[DIB_HEADER_OFFSET + 2],
-				image[DIB_HEADER_OFFSET + 1], image[DIB_HEADER_OFFSET] });
-		for (int idx = 0; idx < INT_SIZE; idx++) {
-			dibHeaderSize = (dibHeaderSize << 8) | (dibData[idx] & 0xFF);
+	/**
+	 * Encode data read from a stream within a bitmap file using memory-mapped file access with encode options.
+	 * 
+	 * @param imageIn
+	 *            the original bitmap file
+	 * @param imageOut
+	 *            the encoded bitmap file, may be the same as the original file to encode in place
+	 * @param data
+	 *            input stream of the data, it is not closed
+	 * @param length
+	 *            number of bytes to read from the data stream
+	 * @param options
+	 *            the encode options
+	 * @throws Exception
+	 */
+	public void encodeFile(final File imageIn, final File imageOut, final InputStream data, final long length,
+			final EncodeOptions options) throws Exception {
+		if (isLargeFile(imageIn)) {
+			encodeLargeFile(imageIn, imageOut, data, length, options);
+			return;
 		}
-		baseHeaderOffset = DIB_HEADER_OFFSET + dibHeaderSize;
-		// return baseHeaderOffset
-		return baseHeaderOffset;
+		long start = startTimer();
+		// check data length
+		int dataLength = checkDataLength(length);
+		encodeImageFile(imageIn, imageOut, null, data, dataLength, options);
+		recordOperation(Operation.ENCODE, start, dataLength);
 	}
 
-	// compute offset
-	// headerSize | valid data area
-	// max offset consider original image length minus data length * <compression factor> (=8/bits per image byte)
-	// minus total header size
-	private int computeImageOffset(final int baseHeaderOffset, final int imageLength, final int dataLength) {
-		int offset = 0;
-		Random rand = new Random(seed);
-		int headerSize = baseHeaderOffset + LENGTH_HEADER_SIZE + OFFSET_HEADER_SIZE + HASH_HEADER_SIZE;
-		int compressionFactor = 8 / COMPRESSION_FACTOR;
-		int maxOffset = imageLength - ((compressionFactor * dataLength) + headerSize);
-		offset = rand.nextInt(maxOffset) + headerSize;
-		if (offset < headerSize || offset > maxOffset) {
-			throw new IllegalArgumentException(
-					String.format("Invalid offset. Must be between %d and %d.", baseHeaderOffset, maxOffset));
+	/**
+	 * Decode the data within an encoded bitmap file using memory-mapped file access.
+	 * <p>
+	 * Only the header pages and the data window of the image are mapped and read. Data of 2 GB or more within a
+	 * larger bitmap file is only decoded to a stream, see {@link #decodeFile(File, OutputStream)}.
+	 * 
+	 * @param image
+	 *            the encoded bitmap file
+	 * @return byte array with the data decoded
+	 * @throws Exception
+	 */
+	public byte[] decodeFile(final File image) throws Exception {
+		if (isLargeFile(image)) {
+			// the data length of the header sets the array length
+			CarrierHeader carrier = probeFile(image);
+			long length = carrier != null ? carrier.getLongLength() : 0;
+			if (length > MAX_ARRAY_LENGTH) {
+				throw new IllegalArgumentException(
+						String.format("Invalid data length. Data of %d bytes must be decoded to a stream.", length));
+			}
+			byte[] decodeData = new byte[(int) length];
+			decodeLargeFile(image, new BufferOutputStream(ByteBuffer.wrap(decodeData)));
+			return decodeData;
 		}
-		return offset;
-	}
-
-	//
-	// Hash
-	//
-
-	private void encodeDataHash(final byte[] image, final int baseHeaderOffset, final byte[] data) {
-		encodeDataBytes(image, baseHeaderOffset + LENGTH_HEADER_SIZE + OFFSET_HEADER_SIZE, computeHash(data));
-	}
-
-	private byte[] decodeDataHash(final byte[] image, final int baseHeaderOffset) {
-		byte[] hash = decodeDataBytes(image, baseHeaderOffset + LENGTH_HEADER_SIZE + OFFSET_HEADER_SIZE, 16);
-		return hash;
+		long start = startTimer();
+		byte[] decodeData;
+		try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_ONLY, false);
+			DataFields fields = decodeDataFields(header, imageLength(channel));
+			decodeData = new byte[fields.originalLength];
+			decodeFileWindow(channel, header, fields, ByteBuffer.wrap(decodeData), null);
+		}
+		recordOperation(Operation.DECODE, start, decodeData.length);
+		//
+		return decodeData;
 	}
 
-	private boolean checkDataHash(final byte[] decodeData, final byte[] hash) {
-		return Arrays.equals(computeHash(decodeData), hash);
+	/**
+	 * Decode the data within an encoded bitmap file to a stream using memory-mapped file access.
+	 * <p>
+	 * The hash is checked after the last block, so the stream may have received data when an invalid hash is
+	 * detected.
+	 * 
+	 * @param image
+	 *            the encoded bitmap file
+	 * @param data
+	 *            output stream for the data decoded, it is not closed
+	 * @return number of bytes decoded
+	 * @throws Exception
+	 */
+	public long decodeFile(final File image, final OutputStream data) throws Exception {
+		if (isLargeFile(image)) {
+			return decodeLargeFile(image, data);
+		}
+		long start = startTimer();
+		int originalLength;
+		try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_ONLY, false);
+			DataFields fields = decodeDataFields(header, imageLength(channel));
+			originalLength = fields.originalLength;
+			decodeFileWindow(channel, header, fields, null, data);
+		}
+		recordOperation(Operation.DECODE, start, originalLength);
+		//
+		return originalLength;
 	}
 
-	private byte[] computeHash(final byte[] data) {
-		byte[] digest = null;
+	/**
+	 * Decode a range of the data within the encoded image.
+	 * <p>
+	 * With chunked data, see {@link EncodeOptions#setChunkSize(int)}, only the chunks overlapping the range and their
+	 * checksums are decoded and checked, the hash of the whole data is not. Otherwise the whole data is decoded and
+	 * checked.
+	 * 
+	 * @param image
+	 *            byte array with the encoded image
+	 * @param position
+	 *            index of the first data byte of the range
+	 * @param length
+	 *            number of data bytes of the range
+	 * @return byte array with the range of the data decoded
+	 * @throws Exception
+	 */
+	public byte[] decodeRange(final byte[] image, final int position, final int length) throws Exception {
+		long start = startTimer();
+		byte[] range;
+		ByteBuffer imageBuffer = ByteBuffer.wrap(image);
+		DataFields fields = decodeDataFields(imageBuffer, image.length);
+		HeaderLayout layout = fields.layout;
+		checkRange(fields.originalLength, position, length);
+		if (!layout.chunked) {
+			return Arrays.copyOfRange(decodeData(image), position, position + length);
+		}
+		// decodeBytes and check the chunks of the range
+		Workspace workspace = acquireWorkspace(layout, fields.imageEnd);
 		try {
-			MessageDigest md5 = MessageDigest.getInstance("MD5");
-			digest = md5.digest(data);
-			// System.out.print("MD5: ");
-			// for (byte c : digest) {
-			// System.out.print(String.format("%02x", c));
-			// }
-			// System.out.println();
-		} catch (NoSuchAlgorithmException e) {
+			startDecryption(imageBuffer, layout, fields.offset, workspace);
+			range = decodeChunkRange(imageBuffer, layout, fields.offset, fields.dataLength, position, length,
+					workspace);
+		} finally {
+			releaseWorkspace(workspace);
 		}
-		return digest;
+		recordOperation(Operation.DECODE, start, length);
+		//
+		return range;
+	}
+
+	/**
+	 * Decode a range of the data within an encoded bitmap file using memory-mapped file access.
+	 * <p>
+	 * With chunked contiguous data only the header pages and the image bytes up to the end of the last chunk of the
+	 * range are mapped, and only the chunk index entries and the chunks of the range are read.
+	 * 
+	 * @param image
+	 *            the encoded bitmap file
+	 * @param position
+	 *            index of the first data byte of the range
+	 * @param length
+	 *            number of data bytes of the range
+	 * @return byte array with the range of the data decoded
+	 * @throws Exception
+	 * @see #decodeRange(byte[], int, int)
+	 */
+	public byte[] decodeFileRange(final File image, final int position, final int length) throws Exception {
+		long start = startTimer();
+		byte[] range;
+		try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_ONLY, false);
+			DataFields fields = decodeDataFields(header, imageLength(channel));
+			HeaderLayout layout = fields.layout;
+			checkRange(fields.originalLength, position, length);
+			if (!layout.chunked) {
+				return Arrays.copyOfRange(decodeFile(image), position, position + length);
+			}
+			// decodeBytes within the chunk index and the chunks of the range only
+			int rangeEnd = length == 0 ? 0 : chunkEnd(layout, fields.dataLength, position + length - 1);
+			ByteBuffer window = mapWindow(channel, MapMode.READ_ONLY, layout, fields.offset,
+					layout.indexLength(fields.dataLength) + rangeEnd);
+			int windowOffset = windowOffset(layout, fields.offset);
+			Workspace workspace = acquireWorkspace(layout, fields.imageEnd);
+			try {
+				startDecryption(header, layout, windowOffset, workspace);
+				range = decodeChunkRange(window, layout, windowOffset, fields.dataLength, position, length,
+						workspace);
+			} finally {
+				releaseWorkspace(workspace);
+			}
+		}
+		recordOperation(Operation.DECODE, start, length);
+		//
+		return range;
+	}
+
+	/**
+	 * Update a range of the chunked data within the encoded image in place.
+	 * <p>
+	 * The data length is unchanged. Only the image bytes of the range, the checksums of its chunks and the hash are
+	 * written, and only the chunks of the range and the chunk index are read, so the cost depends on the range and
+	 * on the number of chunks, not on the data length. The chunks of the range are checked before they are updated.
+	 * 
+	 * @param image
+	 *            byte array with the encoded image, updated in place
+	 * @param position
+	 *            index of the first data byte to update
+	 * @param data
+	 *            byte array of the new data bytes
+	 * @throws Exception
+	 * @see EncodeOptions#setChunkSize(int)
+	 */
+	public void updateData(final byte[] image, final int position, final byte[] data) throws Exception {
+		long start = startTimer();
+		ByteBuffer imageBuffer = ByteBuffer.wrap(image);
+		// check bitmap identification and signature
+		checkDecodeImage(imageBuffer);
+		// retrieve header layout
+		HeaderLayout layout = decodeLayout(imageBuffer, image.length);
+		checkUpdateLayout(layout);
+		// retrieve length
+		int dataLength = decodeDataLength(imageBuffer, layout);
+		// retrieve and check offset
+		int imageEnd = computeImageEnd(imageBuffer, image.length);
+		int offset = checkDataOffset(imageBuffer, layout, imageEnd, dataLength, dataLength);
+		checkRange(dataLength, position, data.length);
+		// encodeBytes of the range, its checksums and the hash
+		Workspace workspace = acquireWorkspace(layout, imageEnd);
+		try {
+			updateChunkRange(imageBuffer, imageBuffer, layout, offset, dataLength, position, data, workspace);
+		} finally {
+			releaseWorkspace(workspace);
+		}
+		recordOperation(Operation.ENCODE, start, data.length);
+	}
+
+	/**
+	 * Update a range of the chunked data within an encoded bitmap file in place using memory-mapped file access.
+	 * <p>
+	 * Only the pages of the header, of the chunk index and of the chunks of the range are read and written, so
+	 * updating a few bytes of a large image costs a few pages.
+	 * 
+	 * @param image
+	 *            the encoded bitmap file, updated in place
+	 * @param position
+	 *            index of the first data byte to update
+	 * @param data
+	 *            byte array of the new data bytes
+	 * @throws Exception
+	 * @see #updateData(byte[], int, byte[])
+	 */
+	public void updateFile(final File image, final int position, final byte[] data) throws Exception {
+		long start = startTimer();
+		try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_WRITE, false);
+			// check bitmap identification and signature
+			checkDecodeImage(header);
+			// retrieve header layout
+			HeaderLayout layout = decodeLayout(header, header.limit());
+			checkUpdateLayout(layout);
+			// retrieve length
+			int dataLength = decodeDataLength(header, layout);
+			// retrieve and check offset
+			int imageLength = computeImageEnd(header, imageLength(channel));
+			int offset = checkDataOffset(header, layout, imageLength, dataLength, dataLength);
+			checkRange(dataLength, position, data.length);
+			// encodeBytes within the data window only
+			ByteBuffer window = mapWindow(channel, MapMode.READ_WRITE, layout, offset,
+					dataLength + layout.indexLength(dataLength));
+			Workspace workspace = acquireWorkspace(layout, imageLength);
+			try {
+				updateChunkRange(header, window, layout, windowOffset(layout, offset), dataLength, position, data,
+						workspace);
+			} finally {
+				releaseWorkspace(workspace);
+			}
+		}
+		recordOperation(Operation.ENCODE, start, data.length);
+	}
+
+	/**
+	 * Read the steganography header of an image without decoding the data.
+	 * <p>
+	 * The seed is not used, so the header of an image encoded with any seed is read. The data offset and length are
+	 * checked against the image length only.
+	 * 
+	 * @param image
+	 *            byte array with the image
+	 * @return the header or null when the image has no steganography signature
+	 * @throws Exception
+	 */
+	public CarrierHeader probeData(final byte[] image) throws Exception {
+		return probeData(ByteBuffer.wrap(image));
+	}
+
+	/**
+	 * Read the steganography header of an image buffer without decoding the data.
+	 * 
+	 * @param image
+	 *            buffer with the image, from index 0 to the buffer limit
+	 * @return the header or null when the image has no steganography signature
+	 * @throws Exception
+	 * @see #probeData(byte[])
+	 */
+	public CarrierHeader probeData(final ByteBuffer image) throws Exception {
+		return probeHeader(image, image.limit());
+	}
+
+	/**
+	 * Read the steganography header of a bitmap file without decoding the data.
+	 * <p>
+	 * Only the bitmap header and the steganography header are read, a few hundred bytes whatever the image length, so
+	 * probing many files is bound by the file system metadata accesses.
+	 * 
+	 * @param image
+	 *            the bitmap file
+	 * @return the header or null when the image has no steganography signature
+	 * @throws Exception
+	 * @see #probeData(byte[])
+	 */
+	public CarrierHeader probeFile(final File image) throws Exception {
+		try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer header = readHeader(channel, (int) Math.min(size, PROBE_READ_SIZE));
+			// larger format header
+			long headerLength = (long) computeBaseHeaderOffset(header) + HeaderLayout.MAX_SIZE;
+			// version 3 header fields within the pixel samples
+			if (hasSignature(header, SIGNATURE_V3)) {
+				PixelLayout pixels = parsePixelLayout(header, size);
+				headerLength = pixels.imageIndex((int) Math.min(pixels.length(), headerLength) - 1) + 1L;
+			}
+			if (headerLength > header.limit() && size > header.limit()) {
+				header = readHeader(channel, (int) Math.min(size, headerLength));
+			}
+			return probeHeader(header, size);
+		}
+	}
+
+	/**
+	 * Compute the largest data length that can be encoded in an image with the given options.
+	 * <p>
+	 * Only the bitmap header is read. Any data of this length fits, with compression even data that does not
+	 * compress. The steganography signature is not checked, an encoded image has the capacity of the original one.
+	 * <p>
+	 * With the default options the version 1 data offset depends on the seed and on the data length, so does the
+	 * capacity, and many shorter lengths do not fit: the offset drawn for a length must be below the offset range of
+	 * the length. Any other option, e.g. an integrity, writes a version 2 header and every shorter length fits.
+	 * 
+	 * @param image
+	 *            byte array with the image
+	 * @param options
+	 *            the encode options
+	 * @return capacity in data bytes, -1 when even empty data does not fit
+	 * @throws Exception
+	 */
+	public int capacityData(final byte[] image, final EncodeOptions options) throws Exception {
+		return capacityData(ByteBuffer.wrap(image), options);
+	}
+
+	/**
+	 * Compute the largest data length that can be encoded in an image buffer with the given options.
+	 * 
+	 * @param image
+	 *            buffer with the image, from index 0 to the buffer limit
+	 * @param options
+	 *            the encode options
+	 * @return capacity in data bytes, -1 when even empty data does not fit
+	 * @throws Exception
+	 * @see #capacityData(byte[], EncodeOptions)
+	 */
+	public int capacityData(final ByteBuffer image, final EncodeOptions options) throws Exception {
+		checkFormat(image);
+		return computeCapacity(computeBaseHeaderOffset(image), capacityLength(image, image.limit(), options), options);
+	}
+
+	/**
+	 * Compute the largest data length that can be encoded in a bitmap file with the given options.
+	 * <p>
+	 * Only the first bytes of the bitmap header are read, so planning does not read the images. The capacity of a
+	 * bitmap file of 2 GB or more is limited to {@link Integer#MAX_VALUE}.
+	 * 
+	 * @param image
+	 *            the bitmap file
+	 * @param options
+	 *            the encode options
+	 * @return capacity in data bytes, -1 when even empty data does not fit
+	 * @throws Exception
+	 * @see #capacityData(byte[], EncodeOptions)
+	 */
+	public int capacityFile(final File image, final EncodeOptions options) throws Exception {
+		try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = readBitmapHeader(channel);
+			return computeCapacity(computeBaseHeaderOffset(header), capacityLength(header, channel.size(), options),
+					options);
+		}
+	}
+
+	//
+	// Probe
+	//
+
+	private ByteBuffer readHeader(final FileChannel channel, final int length) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(length);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				throw new EOFException("Unexpected end of image.");
+			}
+		}
+		((Buffer) header).flip();
+		return header;
+	}
+
+	private CarrierHeader probeHeader(final ByteBuffer header, final long imageLength) {
+		// check carrier format identification
+		checkFormat(header);
+		if (!checkSignature(header)) {
+			return null;
+		}
+		// retrieve header layout, the descriptor and the version 1 length use the same image bytes
+		int baseHeaderOffset = computeBaseHeaderOffset(header);
+		long descriptorEnd = baseHeaderOffset + PackingKernels.imageLength(HeaderLayout.DESCRIPTOR_DEPTH, INT_SIZE);
+		if (descriptorEnd > header.limit()) {
+			throw new IllegalArgumentException("Decode error. Invalid header");
+		}
+		HeaderLayout layout = decodeLayout(header, imageLength);
+		if (headerEnd(layout) > header.limit()) {
+			throw new IllegalArgumentException("Decode error. Invalid header");
+		}
+		// retrieve length and offset, 64 bits long with the wide header
+		long dataLength = decodeLongLength(header, layout);
+		long originalLength = layout.isCompressed() ? decodeOriginalLength(header, layout, 0) : dataLength;
+		long offset = decodeLongOffset(header, layout);
+		// data within the image
+		if (dataLength < 0 || dataLength > imageLength) {
+			throw invalid(Failure.INVALID_LENGTH, "Decode error. Invalid length");
+		}
+		long windowLength = dataLength + layout.indexLength((int) Math.min(dataLength, Integer.MAX_VALUE))
+				+ layout.parityLength(dataLength);
+		long imageEnd = layout.pixels != null ? layout.pixels.length() : computeImageEnd(header, imageLength);
+		if (offset < layout.headerSize() || offset + layout.imageLength(windowLength) > imageEnd) {
+			throw invalid(Failure.INVALID_OFFSET, "Decode error. Invalid offset");
+		}
+		// retrieve hash
+		byte[] hash = new byte[layout.hashSize()];
+		decodeDataBytes(header, layout.depth, layout.pixels, layout.hashOffset(), ByteBuffer.wrap(hash), 0,
+				hash.length);
+		return new CarrierHeader(layout.version, layout.depth, layout.integrity, layout.compression, layout.scatter,
+				layout.encrypted, decodeShard(header, layout), layout.chunkSize, layout.parity, dataLength,
+				originalLength, offset, hash);
+	}
+
+	// index after the last image byte of the header fields
+	private int headerEnd(final HeaderLayout layout) {
+		if (layout.pixels != null) {
+			return layout.pixels.imageIndex(layout.headerSize() - 1) + 1;
+		}
+		return layout.headerSize();
+	}
+
+	//
+	// Capacity
+	//
+
+	// format header fields, of the pixel layout too, the reserved signature bytes are within
+	ByteBuffer readBitmapHeader(final FileChannel channel) throws IOException {
+		ByteBuffer header = readHeader(channel, (int) Math.min(channel.size(), PROBE_READ_SIZE));
+		checkFormat(header);
+		return header;
+	}
+
+	// image length of the capacity, the pixel samples keep the offsets of the contiguous layout
+	private long capacityLength(final ByteBuffer header, final long imageLength, final EncodeOptions options) {
+		return options.isPixels() ? computePixelLength(header, imageLength) : computeImageEnd(header, imageLength);
+	}
+
+	// contiguous layout length of the pixel samples
+	int computePixelLength(final ByteBuffer header, final long imageLength) {
+		return parsePixelLayout(header, imageLength).length();
+	}
+
+	// the pixel layout of the bitmap format only
+	private PixelLayout parsePixelLayout(final ByteBuffer image, final long imageLength) {
+		if (checkFormat(image) != CarrierFormat.BMP) {
+			throw new IllegalArgumentException("Invalid carrier format. Pixel layout supports bitmap files only.");
+		}
+		return PixelLayout.parse(image, imageLength);
+	}
+
+	// largest data length whose window fits the image, with compression the worst case compressed length must fit
+	int computeCapacity(final int baseHeaderOffset, final long imageLength, final EncodeOptions options) {
+		// bitmap files of 2 GB or more hold contiguous uncompressed data, the capacity is limited to the int range
+		if (imageLength > Integer.MAX_VALUE) {
+			if (!isLargeOptions(options)) {
+				return -1;
+			}
+			HeaderLayout layout = createLayout(baseHeaderOffset, options, null, true);
+			return (int) Math.min(Integer.MAX_VALUE,
+					Math.max(0, (imageLength - layout.headerSize() - 1) / layout.imageLength(1)));
+		}
+		return computeCapacity(createLayout(baseHeaderOffset, options), imageLength);
+	}
+
+	// largest data length of the layout whose window fits the image end, -1 when the header does not fit
+	private int computeCapacity(final HeaderLayout layout, final long imageLength) {
+		if (imageLength - layout.headerSize() - 1 < 0) {
+			return -1;
+		}
+		long capacity = (imageLength - layout.headerSize() - 1) / layout.imageLength(1);
+		if (layout.version == HeaderLayout.VERSION_1) {
+			// the version 1 offset range check depends on the seed, many lengths below the bound fail
+			while (capacity >= 0 && !isValidOffset(layout, (int) imageLength, (int) capacity)) {
+				capacity--;
+			}
+			return (int) capacity;
+		}
+		if (layout.chunked || layout.corrected) {
+			// the chunk index or the parity is within the window
+			long length = capacity * capacity / Math.max(1, layout.windowLength((int) capacity));
+			while (length > 0 && layout.windowLength((int) length) > capacity) {
+				length--;
+			}
+			while (length < capacity && layout.windowLength((int) length + 1) <= capacity) {
+				length++;
+			}
+			return (int) length;
+		}
+		if (!layout.isCompressed()) {
+			return (int) capacity;
+		}
+		// the compression bound grows with the length, even empty data may not fit
+		if (layout.compression.bound(0) > capacity) {
+			return -1;
+		}
+		long low = 0;
+		long high = capacity;
+		while (low < high) {
+			long middle = (low + high + 1) >>> 1;
+			if (layout.compression.bound(middle) <= capacity) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return (int) low;
+	}
+
+	// data of this length is encoded in the image, the capacity is not monotonic with version 1 headers
+	boolean fits(final int baseHeaderOffset, final long imageLength, final long length, final EncodeOptions options) {
+		HeaderLayout layout = createLayout(baseHeaderOffset, options);
+		if (layout.version == HeaderLayout.VERSION_1) {
+			return imageLength <= Integer.MAX_VALUE && length <= Integer.MAX_VALUE
+					&& isValidOffset(layout, (int) imageLength, (int) length);
+		}
+		return length <= computeCapacity(baseHeaderOffset, imageLength, options);
+	}
+
+	// the offset computed for the data length is accepted, see computeImageOffset
+	private boolean isValidOffset(final HeaderLayout layout, final int imageLength, final int dataLength) {
+		int headerSize = layout.headerSize();
+		long maxOffset = imageLength - (PackingKernels.imageLength(layout.depth, dataLength) + headerSize);
+		if (maxOffset <= 0) {
+			return false;
+		}
+		long lastOffset = layout.version == HeaderLayout.VERSION_1 ? maxOffset : maxOffset + headerSize - 1;
+		return nextInt(seed, (int) maxOffset) + headerSize <= lastOffset;
+	}
+
+	//
+	// Encode/decode pipeline
+	// Every mode runs the same steps on a header buffer and a data window buffer, the whole image in memory or the
+	// mapped pages of a file, the modes only differ by the data source or sink
+	//
+
+	// check the original image, compute the layout and the data offset and encode the data within the image
+	private void encodeImage(final ByteBuffer image, final ByteBuffer data, final InputStream stream,
+			final int dataLength, final EncodeOptions options) throws IOException {
+		// check bitmap identification and signature
+		checkEncodeImage(image, options.isForce());
+		// compute header layout
+		HeaderLayout layout = createLayout(image, options);
+		// computeImageOffset
+		int imageEnd = computeImageEnd(image, image.limit());
+		int windowLength = computeWindowLength(layout, imageEnd, dataLength);
+		int offset = computeImageOffset(layout, imageEnd, windowLength);
+		encodeWindow(image, image, layout, offset, offset, windowLength, imageEnd, data, stream, dataLength,
+				options.getShard());
+	}
+
+	// validate the original image, copy it to the output and encode the data within the mapped data window only
+	private void encodeImageFile(final File imageIn, final File imageOut, final ByteBuffer data,
+			final InputStream stream, final int dataLength, final EncodeOptions options) throws IOException {
+		// validate original image and copy it to the output
+		int offset = prepareImageFile(imageIn, imageOut, dataLength, options);
+		// encode in place
+		try (FileChannel channel = FileChannel.open(imageOut.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_WRITE, options.isPixels());
+			HeaderLayout layout = createLayout(header, options);
+			int imageLength = computeImageEnd(header, imageLength(channel));
+			int windowLength = computeWindowLength(layout, imageLength, dataLength);
+			ByteBuffer window = mapWindow(channel, MapMode.READ_WRITE, layout, offset, windowLength);
+			encodeWindow(header, window, layout, offset, windowOffset(layout, offset), windowLength, imageLength,
+					data, stream, dataLength, options.getShard());
+		}
+	}
+
+	// encode the data of the buffer, or of the stream when the buffer is null, within the window from the window
+	// offset and write the header fields
+	private void encodeWindow(final ByteBuffer header, final ByteBuffer window, final HeaderLayout layout,
+			final int offset, final int windowOffset, final int windowLength, final int imageEnd,
+			final ByteBuffer data, final InputStream stream, final int dataLength, final Shard shard)
+			throws IOException {
+		Workspace workspace = acquireWorkspace(layout, imageEnd);
+		try {
+			startEncryption(header, layout, windowOffset, workspace);
+			if (layout.isCompressed()) {
+				// compress, encodeBytes within the data window and compute hash
+				CarrierOutputStream carrier = createCarrier(window, layout, windowOffset, windowLength, workspace);
+				byte[] hash = compressDataStream(layout, data != null ? new BufferInputStream(data) : stream,
+						dataLength, carrier, workspace);
+				// add signature, length, offset, hash and original length
+				encodeHeader(header, layout, carrier.getLength(), offset, hash, dataLength, shard);
+			} else {
+				// encodeBytes within the data window, after the chunk index, and compute hash
+				int dataOffset = startChunkIndex(layout, windowOffset, dataLength, workspace);
+				startParity(layout, dataLength, workspace);
+				byte[] hash = data != null ? encodeDataBuffer(window, layout, dataOffset, data, dataLength, workspace)
+						: encodeDataStream(window, layout, dataOffset, stream, dataLength, workspace);
+				// add parity, chunk index, signature, length, offset and hash
+				encodeParity(window, layout, dataOffset, dataLength, workspace);
+				hash = encodeChunkIndex(window, layout, windowOffset, hash, workspace);
+				encodeHeader(header, layout, dataLength, offset, hash, dataLength, shard);
+			}
+		} finally {
+			releaseWorkspace(workspace);
+		}
+	}
+
+	// check the encoded image and read the layout, the lengths and the data offset of its header
+	private DataFields decodeDataFields(final ByteBuffer header, final int imageLength) {
+		// check bitmap identification and signature
+		checkDecodeImage(header);
+		// retrieve header layout
+		HeaderLayout layout = decodeLayout(header, header.limit());
+		// retrieve length
+		int dataLength = decodeDataLength(header, layout);
+		int originalLength = decodeOriginalLength(header, layout, dataLength);
+		// retrieve and check offset
+		int imageEnd = computeImageEnd(header, imageLength);
+		int offset = checkDataOffset(header, layout, imageEnd, dataLength, originalLength);
+		return new DataFields(layout, dataLength, originalLength, offset, imageEnd);
+	}
+
+	// decode the data within the whole image
+	private void decodeImage(final ByteBuffer image, final DataFields fields, final ByteBuffer data,
+			final OutputStream stream) throws IOException {
+		decodeWindow(image, image, fields.layout, fields.offset, fields.imageEnd, fields.dataLength,
+				fields.originalLength, data, stream);
+	}
+
+	// decode the data within the mapped data window only
+	private void decodeFileWindow(final FileChannel channel, final ByteBuffer header, final DataFields fields,
+			final ByteBuffer data, final OutputStream stream) throws IOException {
+		ByteBuffer window = mapWindow(channel, MapMode.READ_ONLY, fields.layout, fields.offset,
+				(int) fields.layout.windowLength(fields.dataLength));
+		decodeWindow(header, window, fields.layout, windowOffset(fields.layout, fields.offset), fields.imageEnd,
+				fields.dataLength, fields.originalLength, data, stream);
+	}
+
+	// decode the data within the window from the window offset into the buffer, or into the stream when the buffer is
+	// null, and check its hash, the buffer position is unchanged when the data is invalid
+	private void decodeWindow(final ByteBuffer header, final ByteBuffer window, final HeaderLayout layout,
+			final int windowOffset, final int imageEnd, final int dataLength, final int originalLength,
+			final ByteBuffer data, final OutputStream stream) throws IOException {
+		if (data != null && data.remaining() < originalLength) {
+			throw new IllegalArgumentException(
+					String.format("Invalid data buffer. Must have %d bytes remaining.", originalLength));
+		}
+		// decodeBytes and compute hash
+		int position = data != null ? data.position() : 0;
+		Workspace workspace = acquireWorkspace(layout, imageEnd);
+		try {
+			startDecryption(header, layout, windowOffset, workspace);
+			if (layout.isCompressed()) {
+				if (data != null) {
+					decompressDataBuffer(window, layout, windowOffset, dataLength, originalLength, data, workspace);
+				} else {
+					decompressDataStream(window, layout, windowOffset, dataLength, originalLength, stream, workspace);
+				}
+				// check hash
+				checkDataHash(header, layout, workspace);
+			} else if (data != null) {
+				int dataOffset = startChunkIndex(layout, windowOffset, dataLength, workspace);
+				decodeDataBuffer(window, layout, dataOffset, data, dataLength, workspace);
+				checkChunkIndex(window, layout, windowOffset, workspace);
+				// check hash, damaged data is corrected from its parity
+				checkDataHash(header, window, layout, dataOffset, data, position, dataLength, workspace);
+			} else if (layout.corrected) {
+				// damaged data is corrected before it is written
+				decodeCorrectedStream(header, window, layout, windowOffset, dataLength, stream, workspace);
+			} else {
+				int dataOffset = startChunkIndex(layout, windowOffset, dataLength, workspace);
+				decodeDataStream(window, layout, dataOffset, dataLength, stream, workspace);
+				checkChunkIndex(window, layout, windowOffset, workspace);
+				// check hash
+				checkDataHash(header, layout, workspace);
+			}
+		} catch (Exception e) {
+			if (data != null) {
+				((Buffer) data).position(position);
+			}
+			throw e;
+		} finally {
+			releaseWorkspace(workspace);
+		}
+	}
+
+	//
+	// Encode/decode steps shared by the byte array and mapped file modes
+	//
+
+	private void checkEncodeImage(final ByteBuffer image, final boolean force) {
+		long start = startTimer();
+		// check carrier format identification
+		checkFormat(image);
+		// checks if SIGNATURE exists
+		if (checkSignature(image) && !force) {
+			throw new IllegalArgumentException(
+					"Signature detected. Set force flag to use this image to encode data in. Previous data encoded will be lost.");
+		}
+		stopTimer(Phase.HEADER, start);
+	}
+
+	private void checkDecodeImage(final ByteBuffer image) {
+		long start = startTimer();
+		// check carrier format identification
+		checkFormat(image);
+		// checks if SIGNATURE is valid
+		if (!checkSignature(image)) {
+			throw invalid(Failure.INVALID_SIGNATURE, "Decode error. Invalid signature");
+		}
+		stopTimer(Phase.HEADER, start);
+	}
+
+	// the format set or the format detected from the image header
+	private CarrierFormat checkFormat(final ByteBuffer image) {
+		if (carrierFormat != null) {
+			if (!carrierFormat.accepts(image)) {
+				throw new IllegalArgumentException(
+						String.format("Invalid file format. Not a %s file.", carrierFormat.getName()));
+			}
+			return carrierFormat;
+		}
+		CarrierFormat format = CarrierFormat.detect(image);
+		if (format == null) {
+			throw new IllegalArgumentException("Invalid file format. Only Bitmap, PNM and TGA files supported.");
+		}
+		return format;
+	}
+
+	private void encodeHeader(final ByteBuffer image, final HeaderLayout layout, final long length, final long offset,
+			final byte[] hash, final int originalLength, final Shard shard) {
+		long start = startTimer();
+		// add SIGNATURE
+		setImageSignature(image, signature(layout));
+		// add descriptor
+		if (layout.version != HeaderLayout.VERSION_1) {
+			encodeDescriptor(image, layout);
+		}
+		// add data length
+		encodeDataLength(image, layout, length);
+		// add data offset
+		encodeDataOffset(image, layout, offset);
+		// add hash
+		encodeDataHash(image, layout, hash);
+		// add original length
+		if (layout.isCompressed()) {
+			encodeInt(image, layout, layout.depth, layout.originalLengthOffset(), originalLength);
+		}
+		// add shard
+		if (layout.shard) {
+			encodeShard(image, layout, shard);
+		}
+		// add chunk size
+		if (layout.chunked) {
+			encodeInt(image, layout, layout.depth, layout.chunkSizeOffset(), layout.chunkSize);
+		}
+		// add parity
+		if (layout.corrected) {
+			encodeInt(image, layout, layout.depth, layout.parityOffset(), layout.parity);
+		}
+		stopTimer(Phase.HEADER, start);
+	}
+
+	// default options keep the version 1 header
+	private HeaderLayout createLayout(final ByteBuffer image, final EncodeOptions options) {
+		long start = startTimer();
+		PixelLayout pixels = options.isPixels() ? parsePixelLayout(image, image.limit()) : null;
+		HeaderLayout layout = createLayout(computeBaseHeaderOffset(image), options, pixels, options.isWide());
+		stopTimer(Phase.HEADER, start);
+		return layout;
+	}
+
+	// the field sizes and offsets only, the same with and without pixel layout
+	private HeaderLayout createLayout(final int baseHeaderOffset, final EncodeOptions options) {
+		return createLayout(baseHeaderOffset, options, null, options.isWide());
+	}
+
+	private HeaderLayout createLayout(final int baseHeaderOffset, final EncodeOptions options,
+			final PixelLayout pixels, final boolean wide) {
+		if (options.isDefault() && !wide) {
+			return HeaderLayout.of(HeaderLayout.VERSION_1, HeaderLayout.DESCRIPTOR_DEPTH, Integrity.MD5,
+					Compression.NONE, 0, baseHeaderOffset);
+		}
+		// the chunk checksums are computed on the stored data
+		if (options.getChunkSize() != 0 && options.getCompression() != Compression.NONE) {
+			throw new IllegalArgumentException("Invalid chunk size. Chunked data must not be compressed.");
+		}
+		// the parity is computed on the data as it is stored, and a range update would change it
+		if (options.getParity() != 0
+				&& (options.getChunkSize() != 0 || options.getCompression() != Compression.NONE)) {
+			throw new IllegalArgumentException("Invalid parity. Corrected data must not be compressed nor chunked.");
+		}
+		int flags = (options.isScatter() ? HeaderLayout.FLAG_SCATTER : 0)
+				| (options.getShard() != null ? HeaderLayout.FLAG_SHARD : 0)
+				| (options.getChunkSize() != 0 ? HeaderLayout.FLAG_CHUNKED : 0) | (wide ? HeaderLayout.FLAG_WIDE : 0)
+				| (options.isEncrypted() ? HeaderLayout.FLAG_ENCRYPTED : 0)
+				| (options.getParity() != 0 ? HeaderLayout.FLAG_CORRECTED : 0);
+		return HeaderLayout.of(pixels != null ? HeaderLayout.VERSION_3 : HeaderLayout.VERSION_2, options.getDepth(),
+				options.getIntegrity(), options.getCompression(), flags, options.getChunkSize(), options.getParity(),
+				baseHeaderOffset, pixels);
+	}
+
+	private HeaderLayout decodeLayout(final ByteBuffer image, final long imageLength) {
+		long start = startTimer();
+		int baseHeaderOffset = computeBaseHeaderOffset(image);
+		HeaderLayout layout;
+		if (hasSignature(image, SIGNATURE)) {
+			layout = HeaderLayout.of(HeaderLayout.VERSION_1, HeaderLayout.DESCRIPTOR_DEPTH, Integrity.MD5,
+					Compression.NONE, 0, baseHeaderOffset);
+		} else {
+			PixelLayout pixels = hasSignature(image, SIGNATURE_V3) ? parsePixelLayout(image, imageLength) : null;
+			layout = decodeDescriptor(image, baseHeaderOffset, pixels);
+		}
+		stopTimer(Phase.HEADER, start);
+		return layout;
+	}
+
+	private int checkDataLength(final long length) {
+		// length header field is 32 bits long
+		if (length < 0 || length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					String.format("Invalid data length. Must be between 0 and %d.", Integer.MAX_VALUE));
+		}
+		return (int) length;
+	}
+
+	private int checkDataOffset(final ByteBuffer image, final HeaderLayout layout, final int imageLength,
+			final int dataLength, final int originalLength) {
+		// compressed data must fit within its window
+		int windowLength = computeWindowLength(layout, imageLength, originalLength);
+		if (dataLength < 0 || dataLength > windowLength) {
+			throw invalid(Failure.INVALID_LENGTH, "Decode error. Invalid length");
+		}
+		// computeImageOffset
+		int offset = computeImageOffset(layout, imageLength, windowLength);
+		// retrieve offset
+		long start = startTimer();
+		int dataOffset = decodeDataOffset(image, layout);
+		stopTimer(Phase.HEADER, start);
+		// check compute and retrieved data offset
+		if (offset != dataOffset) {
+			throw invalid(Failure.INVALID_OFFSET, "Decode error. Invalid offset");
+		}
+		return offset;
+	}
+
+	//
+	// Memory-mapped file access
+	//
+
+	// map the bitmap header and the largest steganography header, the whole image with a pixel layout
+	private ByteBuffer mapHeader(final FileChannel channel, final MapMode mode, final boolean pixels)
+			throws IOException {
+		long start = startTimer();
+		long size = channel.size();
+		ByteBuffer formatHeader = channel.map(MapMode.READ_ONLY, 0, Math.min(size, PROBE_READ_SIZE));
+		long headerLength = size;
+		if (!(pixels || hasSignature(formatHeader, SIGNATURE_V3))) {
+			headerLength = Math.min(size, (long) computeBaseHeaderOffset(formatHeader) + HeaderLayout.MAX_SIZE);
+		} else if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"Invalid file size. Bitmap file with a pixel layout must be smaller than 2 GB.");
+		}
+		ByteBuffer header = channel.map(mode, 0, headerLength);
+		stopTimer(Phase.IO, start);
+		return header;
+	}
+
+	// map the data window, scattered data and pixel samples need the whole image
+	private MappedByteBuffer mapWindow(final FileChannel channel, final MapMode mode, final HeaderLayout layout,
+			final int offset, final int dataLength) throws IOException {
+		long start = startTimer();
+		MappedByteBuffer window;
+		if (!layout.isContiguous()) {
+			window = channel.map(mode, 0, channel.size());
+		} else {
+			window = channel.map(mode, offset, layout.imageLength(dataLength));
+		}
+		stopTimer(Phase.IO, start);
+		return window;
+	}
+
+	// index of the data offset within the window
+	private int windowOffset(final HeaderLayout layout, final int offset) {
+		return layout.isContiguous() ? 0 : offset;
+	}
+
+	// validate the original image and copy it to the output, returns the data offset
+	private int prepareImageFile(final File imageIn, final File imageOut, final int dataLength,
+			final EncodeOptions options) throws IOException {
+		int offset;
+		// validate the original image before writing any output
+		try (FileChannel channel = FileChannel.open(imageIn.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_ONLY, options.isPixels());
+			checkEncodeImage(header, options.isForce());
+			HeaderLayout layout = createLayout(header, options);
+			int imageLength = computeImageEnd(header, imageLength(channel));
+			offset = computeImageOffset(layout, imageLength, computeWindowLength(layout, imageLength, dataLength));
+		}
+		// copy original image
+		if (!(imageOut.exists() && Files.isSameFile(imageIn.toPath(), imageOut.toPath()))) {
+			long start = startTimer();
+			copyFile(imageIn, imageOut);
+			stopTimer(Phase.IO, start);
+		}
+		return offset;
+	}
+
+	// bitmap file size field is 32 bits long
+	private int imageLength(final FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid file size. Bitmap file must be smaller than 2 GB.");
+		}
+		return (int) size;
+	}
+
+	private void copyFile(final File source, final File target) throws IOException {
+		try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+	}
+
+	//
+	// Large files
+	// Bitmap files of 2 GB or more hold contiguous uncompressed data with a wide header, the data window is mapped
+	// one segment at a time
+	//
+
+	// bitmap files beyond the int range of the mapped buffers
+	private static boolean isLargeFile(final File image) {
+		return image.length() > Integer.MAX_VALUE;
+	}
+
+	private void encodeLargeFile(final File imageIn, final File imageOut, final InputStream data, final long length,
+			final EncodeOptions options) throws IOException {
+		long start = startTimer();
+		if (length < 0) {
+			throw new IllegalArgumentException(
+					String.format("Invalid data length. Must be between 0 and %d.", Long.MAX_VALUE));
+		}
+		long offset;
+		// validate the original image before writing any output
+		try (FileChannel channel = FileChannel.open(imageIn.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_ONLY, false);
+			checkEncodeImage(header, options.isForce());
+			offset = computeLargeImageOffset(createLargeLayout(header, options),
+					computeImageEnd(header, channel.size()), length);
+		}
+		// copy original image
+		if (!(imageOut.exists() && Files.isSameFile(imageIn.toPath(), imageOut.toPath()))) {
+			long copyStart = startTimer();
+			copyFile(imageIn, imageOut);
+			stopTimer(Phase.IO, copyStart);
+		}
+		// encode in place, one mapped segment at a time
+		try (FileChannel channel = FileChannel.open(imageOut.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_WRITE, false);
+			HeaderLayout layout = createLargeLayout(header, options);
+			Workspace workspace = acquireWorkspace(layout, 0);
+			try {
+				startEncryption(header, layout, 0, workspace);
+				long position = offset;
+				for (long remaining = length; remaining > 0;) {
+					int count = (int) Math.min(remaining, SEGMENT_DATA_SIZE);
+					ByteBuffer segment = mapSegment(channel, MapMode.READ_WRITE, position, layout.imageLength(count));
+					workspace.storedAt(length - remaining, 0);
+					encodeStreamBlocks(segment, layout, 0, data, count, workspace);
+					position += layout.imageLength(count);
+					remaining -= count;
+				}
+				// add signature, length, offset and hash
+				encodeHeader(header, layout, length, offset, workspace.digest(), 0, options.getShard());
+			} finally {
+				releaseWorkspace(workspace);
+			}
+		}
+		recordOperation(Operation.ENCODE, start, length);
+	}
+
+	private long decodeLargeFile(final File image, final OutputStream data) throws IOException {
+		long start = startTimer();
+		long dataLength;
+		try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = mapHeader(channel, MapMode.READ_ONLY, false);
+			// check bitmap identification and signature
+			checkDecodeImage(header);
+			// retrieve header layout
+			HeaderLayout layout = decodeLayout(header, header.limit());
+			if (!layout.isContiguous() || layout.isCompressed() || layout.chunked || layout.corrected) {
+				throw new IllegalArgumentException("Decode error. Invalid header");
+			}
+			// retrieve length
+			dataLength = decodeLongLength(header, layout);
+			if (dataLength < 0 || dataLength > channel.size()) {
+				throw invalid(Failure.INVALID_LENGTH, "Decode error. Invalid length");
+			}
+			// retrieve and check offset
+			long offset = computeLargeImageOffset(layout, computeImageEnd(header, channel.size()), dataLength);
+			long headerStart = startTimer();
+			long dataOffset = decodeLongOffset(header, layout);
+			stopTimer(Phase.HEADER, headerStart);
+			if (offset != dataOffset) {
+				throw invalid(Failure.INVALID_OFFSET, "Decode error. Invalid offset");
+			}
+			// decodeBytes one mapped segment at a time and compute hash
+			Workspace workspace = acquireWorkspace(layout, 0);
+			try {
+				startDecryption(header, layout, 0, workspace);
+				long position = offset;
+				for (long remaining = dataLength; remaining > 0;) {
+					int count = (int) Math.min(remaining, SEGMENT_DATA_SIZE);
+					ByteBuffer segment = mapSegment(channel, MapMode.READ_ONLY, position, layout.imageLength(count));
+					workspace.storedAt(dataLength - remaining, 0);
+					decodeDataStream(segment, layout, 0, count, data, workspace);
+					position += layout.imageLength(count);
+					remaining -= count;
+				}
+				// check hash
+				checkDataHash(header, layout, workspace);
+			} finally {
+				releaseWorkspace(workspace);
+			}
+		}
+		recordOperation(Operation.DECODE, start, dataLength);
+		return dataLength;
+	}
+
+	private static boolean isLargeOptions(final EncodeOptions options) {
+		return !options.isScatter() && !options.isPixels() && options.getCompression() == Compression.NONE
+				&& options.getChunkSize() == 0 && options.getParity() == 0;
+	}
+
+	// wide header, with or without the wide option
+	private HeaderLayout createLargeLayout(final ByteBuffer header, final EncodeOptions options) {
+		if (!isLargeOptions(options)) {
+			throw new IllegalArgumentException("Invalid options. Bitmap files of 2 GB or more only support "
+					+ "contiguous uncompressed data without chunks nor parity.");
+		}
+		long start = startTimer();
+		HeaderLayout layout = createLayout(computeBaseHeaderOffset(header), options, null, true);
+		stopTimer(Phase.HEADER, start);
+		return layout;
+	}
+
+	// version 2 offset range of computeImageOffset with 64 bits offsets
+	private long computeLargeImageOffset(final HeaderLayout layout, final long imageLength, final long dataLength) {
+		long start = startTimer();
+		int headerSize = layout.headerSize();
+		long maxOffset = imageLength - (layout.imageLength(dataLength) + headerSize);
+		if (dataLength > imageLength || maxOffset <= 0) {
+			throw invalid(Failure.INVALID_LENGTH, String.format("Invalid data length. Image capacity is %d bytes.",
+					Math.max(0, (imageLength - headerSize - 1) / layout.imageLength(1))));
+		}
+		long offset = nextLong(seed, maxOffset) + headerSize;
+		stopTimer(Phase.OFFSET, start);
+		return offset;
+	}
+
+	private MappedByteBuffer mapSegment(final FileChannel channel, final MapMode mode, final long position,
+			final int length) throws IOException {
+		long start = startTimer();
+		MappedByteBuffer segment = channel.map(mode, position, length);
+		stopTimer(Phase.IO, start);
+		return segment;
+	}
+
+	//
+	// Core data encode/decode
+	//
+
+	// the mapping is null for contiguous data, the header fields are only mapped to the pixel samples
+	private void encodeDataBytes(final ByteBuffer image, final int depth, final ImageMapping mapping,
+			final int initialOffset, final ByteBuffer data, final int dataOffset, final int length) {
+		long start = startTimer();
+		// add data to image
+		if (mapping != null) {
+			mapping.encode(depth, image, initialOffset, data, dataOffset, length);
+		} else {
+			PackingKernels.encode(depth, image, initialOffset, data, dataOffset, length);
+		}
+		stopTimer(Phase.PACK, start);
+	}
+
+	private void decodeDataBytes(final ByteBuffer image, final int depth, final ImageMapping mapping,
+			final int initialOffset, final ByteBuffer result, final int resultOffset, final int length) {
+		long start = startTimer();
+		// retrieve original data
+		if (mapping != null) {
+			mapping.decode(depth, image, initialOffset, result, resultOffset, length);
+		} else {
+			PackingKernels.decode(depth, image, initialOffset, result, resultOffset, length);
+		}
+		stopTimer(Phase.PACK, start);
+	}
+
+	// encode data bytes of a heap buffer and update hash block by block, so each data block is read once from memory
+	private void encodeDataBlocks(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final ByteBuffer data, final int dataOffset, final int length, final Workspace workspace) {
+		int offset = initialOffset;
+		for (int start = 0; start < length; start += FUSED_BLOCK_SIZE) {
+			int count = Math.min(FUSED_BLOCK_SIZE, length - start);
+			encodeStoredBytes(image, layout, offset, data, dataOffset + start, count, workspace);
+			updateHash(workspace, data, dataOffset + start, count);
+			offset += layout.imageLength(count);
+		}
+	}
+
+	// decode data bytes into a heap buffer and update hash block by block, each block is hashed while still in cache
+	private void decodeDataBlocks(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final ByteBuffer result, final int resultOffset, final int length, final Workspace workspace) {
+		int offset = initialOffset;
+		for (int start = 0; start < length; start += FUSED_BLOCK_SIZE) {
+			int count = Math.min(FUSED_BLOCK_SIZE, length - start);
+			decodeStoredBytes(image, layout, offset, result, resultOffset + start, count, workspace);
+			updateHash(workspace, result, resultOffset + start, count);
+			offset += layout.imageLength(count);
+		}
+	}
+
+	//
+	// Parallel data encode/decode
+	// Each data byte maps to its own image bytes so chunks are independent
+	//
+
+	// encode data bytes of a heap buffer and compute hash, returns data hash
+	private byte[] encodeDataChunks(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final ByteBuffer data, final int dataOffset, final int length, final Workspace workspace) {
+		ImageMapping mapping = workspace.mapping;
+		if (!isParallel(length, workspace)) {
+			encodeDataBlocks(image, layout, initialOffset, data, dataOffset, length, workspace);
+			return workspace.digest();
+		}
+		// encode chunks in the pool, the kernels only use absolute accesses to the shared image buffer
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int start = 0; start < length; start += PARALLEL_CHUNK_SIZE) {
+			final int chunkStart = start;
+			final int chunkLength = Math.min(PARALLEL_CHUNK_SIZE, length - start);
+			tasks.add(forkJoinPool.submit(() -> encodeDataBytes(image, layout.depth, mapping,
+					initialOffset + layout.imageLength(chunkStart), data, dataOffset + chunkStart, chunkLength)));
+		}
+		// compute hash alongside the workers
+		updateHash(workspace, data, dataOffset, length);
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		return workspace.digest();
+	}
+
+	// decode data bytes into a heap buffer and update hash
+	private void decodeDataChunks(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final ByteBuffer result, final int resultOffset, final int length, final Workspace workspace) {
+		ImageMapping mapping = workspace.mapping;
+		if (!isParallel(length, workspace)) {
+			decodeDataBlocks(image, layout, initialOffset, result, resultOffset, length, workspace);
+			return;
+		}
+		// decode chunks in the pool
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int start = 0; start < length; start += PARALLEL_CHUNK_SIZE) {
+			final int chunkStart = start;
+			final int chunkLength = Math.min(PARALLEL_CHUNK_SIZE, length - start);
+			tasks.add(forkJoinPool.submit(() -> decodeDataBytes(image, layout.depth, mapping,
+					initialOffset + layout.imageLength(chunkStart), result, resultOffset + chunkStart,
+					chunkLength)));
+		}
+		// update hash alongside the workers as each chunk is decoded in order
+		int start = 0;
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+			int chunkLength = Math.min(PARALLEL_CHUNK_SIZE, length - start);
+			updateHash(workspace, result, resultOffset + start, chunkLength);
+			start += chunkLength;
+		}
+	}
+
+	// the key stream of the workspace is used by the calling thread only
+	private boolean isParallel(final int length, final Workspace workspace) {
+		return forkJoinPool != null && length >= PARALLEL_THRESHOLD && workspace.cipher == null;
+	}
+
+	//
+	// Stream data encode/decode
+	//
+
+	// encode data blocks read from stream, returns data hash
+	private byte[] encodeDataStream(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final InputStream data, final int length, final Workspace workspace) throws IOException {
+		encodeStreamBlocks(image, layout, initialOffset, data, length, workspace);
+		return workspace.digest();
+	}
+
+	// encode data blocks read from stream and update hash
+	private void encodeStreamBlocks(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final InputStream data, final int length, final Workspace workspace) throws IOException {
+		byte[] buffer = workspace.buffer();
+		int offset = initialOffset;
+		int remaining = length;
+		while (remaining > 0) {
+			long start = startTimer();
+			int count = data.read(buffer, 0, Math.min(remaining, buffer.length));
+			stopTimer(Phase.IO, start);
+			if (count < 0) {
+				throw new EOFException(String.format("Unexpected end of data. Missing %d bytes.", remaining));
+			}
+			encodeDataBlocks(image, layout, offset, workspace.bufferView, 0, count, workspace);
+			offset += layout.imageLength(count);
+			remaining -= count;
+		}
+	}
+
+	// decode data blocks written to stream and update hash
+	private void decodeDataStream(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final int length, final OutputStream data, final Workspace workspace) throws IOException {
+		byte[] buffer = workspace.buffer();
+		int offset = initialOffset;
+		int remaining = length;
+		while (remaining > 0) {
+			int count = Math.min(remaining, buffer.length);
+			decodeDataBlocks(image, layout, offset, workspace.bufferView, 0, count, workspace);
+			long start = startTimer();
+			data.write(buffer, 0, count);
+			stopTimer(Phase.IO, start);
+			offset += layout.imageLength(count);
+			remaining -= count;
+		}
+	}
+
+	//
+	// Buffer data encode/decode
+	// Heap data buffers are packed in place, direct data buffers are copied in blocks through the workspace for the
+	// digest
+	//
+
+	// encode data bytes from the buffer position and compute hash, returns data hash
+	private byte[] encodeDataBuffer(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final ByteBuffer data, final int length, final Workspace workspace) {
+		if (data.hasArray()) {
+			int position = data.position();
+			byte[] hash = encodeDataChunks(image, layout, initialOffset, data, position, length, workspace);
+			((Buffer) data).position(position + length);
+			return hash;
+		}
+		byte[] buffer = workspace.buffer();
+		int offset = initialOffset;
+		int remaining = length;
+		while (remaining > 0) {
+			int count = Math.min(remaining, buffer.length);
+			data.get(buffer, 0, count);
+			encodeDataBlocks(image, layout, offset, workspace.bufferView, 0, count, workspace);
+			offset += layout.imageLength(count);
+			remaining -= count;
+		}
+		return workspace.digest();
+	}
+
+	// decode data bytes at the buffer position and update hash
+	private void decodeDataBuffer(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final ByteBuffer data, final int length, final Workspace workspace) {
+		if (data.hasArray()) {
+			int position = data.position();
+			decodeDataChunks(image, layout, initialOffset, data, position, length, workspace);
+			((Buffer) data).position(position + length);
+			return;
+		}
+		byte[] buffer = workspace.buffer();
+		int offset = initialOffset;
+		int remaining = length;
+		while (remaining > 0) {
+			int count = Math.min(remaining, buffer.length);
+			decodeDataBlocks(image, layout, offset, workspace.bufferView, 0, count, workspace);
+			data.put(buffer, 0, count);
+			offset += layout.imageLength(count);
+			remaining -= count;
+		}
+	}
+
+	//
+	// Compressed data encode/decode
+	// The data is compressed and decompressed through the image window in blocks, the hash is computed on the
+	// original data
+	//
+
+	private CarrierOutputStream createCarrier(final ByteBuffer image, final HeaderLayout layout, final int offset,
+			final int windowLength, final Workspace workspace) {
+		return new CarrierOutputStream(image, layout.depth, workspace.mapping, workspace.cipher, offset, windowLength,
+				STREAM_BUFFER_SIZE);
+	}
+
+	// compress data blocks read from stream into the carrier, returns data hash
+	private byte[] compressDataStream(final HeaderLayout layout, final InputStream data, final int length,
+			final CarrierOutputStream carrier, final Workspace workspace) throws IOException {
+		IntegrityDigest integrity = workspace.integrity;
+		byte[] buffer = workspace.buffer();
+		try (OutputStream compressed = layout.compression.compress(carrier)) {
+			int remaining = length;
+			while (remaining > 0) {
+				long start = startTimer();
+				int count = data.read(buffer, 0, Math.min(remaining, buffer.length));
+				stopTimer(Phase.IO, start);
+				if (count < 0) {
+					throw new EOFException(String.format("Unexpected end of data. Missing %d bytes.", remaining));
+				}
+				updateHash(integrity, workspace.bufferView, 0, count);
+				start = startTimer();
+				compressed.write(buffer, 0, count);
+				stopTimer(Phase.COMPRESSION, start);
+				remaining -= count;
+			}
+			// compress and write the last block
+			long start = startTimer();
+			Compression.finish(compressed);
+			stopTimer(Phase.COMPRESSION, start);
+		}
+		return workspace.digest();
+	}
+
+	// decompress data at the buffer position and update hash, heap buffers are filled in place
+	private void decompressDataBuffer(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final int length, final int originalLength, final ByteBuffer data, final Workspace workspace)
+			throws IOException {
+		if (!data.hasArray()) {
+			decompressDataStream(image, layout, initialOffset, length, originalLength, new BufferOutputStream(data),
+					workspace);
+			return;
+		}
+		byte[] result = data.array();
+		int position = data.position();
+		int resultOffset = data.arrayOffset() + position;
+		try (InputStream decompressed = layout.compression
+				.decompress(new CarrierInputStream(image, layout.depth, workspace.mapping, workspace.cipher,
+						initialOffset, length))) {
+			int index = 0;
+			while (index < originalLength) {
+				long start = startTimer();
+				int count = decompressed.read(result, resultOffset + index, originalLength - index);
+				stopTimer(Phase.COMPRESSION, start);
+				if (count < 0) {
+					throw invalid(Failure.INVALID_LENGTH, "Decode error. Invalid length");
+				}
+				index += count;
+			}
+			checkEndOfData(decompressed);
+		}
+		updateHash(workspace.integrity, data, position, originalLength);
+		((Buffer) data).position(position + originalLength);
+	}
+
+	// decompress data blocks written to stream and update hash
+	private void decompressDataStream(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final int length, final int originalLength, final OutputStream data, final Workspace workspace)
+			throws IOException {
+		IntegrityDigest integrity = workspace.integrity;
+		byte[] buffer = workspace.buffer();
+		try (InputStream decompressed = layout.compression
+				.decompress(new CarrierInputStream(image, layout.depth, workspace.mapping, workspace.cipher,
+						initialOffset, length))) {
+			int remaining = originalLength;
+			while (remaining > 0) {
+				long start = startTimer();
+				int count = decompressed.read(buffer, 0, Math.min(remaining, buffer.length));
+				stopTimer(Phase.COMPRESSION, start);
+				if (count < 0) {
+					throw invalid(Failure.INVALID_LENGTH, "Decode error. Invalid length");
+				}
+				updateHash(integrity, workspace.bufferView, 0, count);
+				start = startTimer();
+				data.write(buffer, 0, count);
+				stopTimer(Phase.IO, start);
+				remaining -= count;
+			}
+			checkEndOfData(decompressed);
+		}
+	}
+
+	// decompressed data longer than the original length
+	private void checkEndOfData(final InputStream decompressed) throws IOException {
+		long start = startTimer();
+		int next = decompressed.read();
+		stopTimer(Phase.COMPRESSION, start);
+		if (next >= 0) {
+			throw invalid(Failure.INVALID_LENGTH, "Decode error. Invalid length");
+		}
+	}
+
+	//
+	// Signature methods
+	// Use the reserved header bytes of the carrier format, e.g. the Unused 2 fields at BMP Header
+	// or pack it in the first bytes of the carrier window with the descriptor depth
+	// add and retrieve a predefined signature
+	//
+
+	// encode
+	private void setImageSignature(final ByteBuffer image, final byte[] signature) {
+		CarrierFormat format = checkFormat(image);
+		int signatureOffset = format.signatureOffset(image);
+		if (signatureOffset < 0) {
+			PackingKernels.encodeInt(HeaderLayout.DESCRIPTOR_DEPTH, image, format.windowOffset(image),
+					ByteBuffer.wrap(signature).getInt());
+			return;
+		}
+		// add SIGNATURE
+		for (int idx = 0; idx < signature.length; idx++) {
+			image.put(signatureOffset + idx, signature[idx]);
+		}
+	}
+
+	// decode and compare in place
+	private boolean hasSignature(final ByteBuffer image, final byte[] signature) {
+		CarrierFormat format = checkFormat(image);
+		int signatureOffset = format.signatureOffset(image);
+		if (signatureOffset < 0) {
+			int windowOffset = format.windowOffset(image);
+			return windowOffset + PACKED_SIGNATURE_LENGTH <= image.limit()
+					&& PackingKernels.decodeInt(HeaderLayout.DESCRIPTOR_DEPTH, image, windowOffset) == ByteBuffer
+							.wrap(signature).getInt();
+		}
+		for (int idx = 0; idx < signature.length; idx++) {
+			if (image.get(signatureOffset + idx) != signature[idx]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// check
+	boolean checkSignature(final ByteBuffer image) {
+		// compare signatures
+		return hasSignature(image, SIGNATURE) || hasSignature(image, SIGNATURE_V2) || hasSignature(image, SIGNATURE_V3);
+	}
+
+	private byte[] signature(final HeaderLayout layout) {
+		if (layout.version == HeaderLayout.VERSION_1) {
+			return SIGNATURE;
+		}
+		return layout.version == HeaderLayout.VERSION_2 ? SIGNATURE_V2 : SIGNATURE_V3;
+	}
+
+	//
+	// Descriptor methods
+	// Version 2 and 3 headers only: depth, flags, integrity and compression
+	//
+
+	// encode descriptor
+	private void encodeDescriptor(final ByteBuffer image, final HeaderLayout layout) {
+		int descriptor = (layout.depth << 24) | (layout.flags << 16) | (layout.integrity.id << 8)
+				| layout.compression.id;
+		encodeInt(image, layout, HeaderLayout.DESCRIPTOR_DEPTH, layout.descriptorOffset(), descriptor);
+	}
+
+	// decode descriptor
+	private HeaderLayout decodeDescriptor(final ByteBuffer image, final int baseHeaderOffset,
+			final PixelLayout pixels) {
+		int descriptor = pixels != null ? pixels.decodeInt(HeaderLayout.DESCRIPTOR_DEPTH, image, baseHeaderOffset)
+				: PackingKernels.decodeInt(HeaderLayout.DESCRIPTOR_DEPTH, image, baseHeaderOffset);
+		int depth = descriptor >>> 24;
+		if (depth != 1 && depth != 2 && depth != 4 && depth != 8) {
+			throw new IllegalArgumentException("Decode error. Invalid depth");
+		}
+		// flags byte
+		int flags = (descriptor >>> 16) & 0xFF;
+		if ((flags & ~HeaderLayout.FLAGS) != 0) {
+			throw new IllegalArgumentException("Decode error. Unsupported header options");
+		}
+		Integrity integrity = Integrity.forId((descriptor >>> 8) & 0xFF);
+		if (integrity == null) {
+			throw new IllegalArgumentException("Decode error. Unsupported integrity");
+		}
+		Compression compression = Compression.forId(descriptor & 0xFF);
+		if (compression == null) {
+			throw new IllegalArgumentException("Decode error. Unsupported compression");
+		}
+		int version = pixels != null ? HeaderLayout.VERSION_3 : HeaderLayout.VERSION_2;
+		HeaderLayout layout = HeaderLayout.of(version, depth, integrity, compression, flags, 0, 0, baseHeaderOffset,
+				pixels);
+		if (!layout.chunked && !layout.corrected) {
+			return layout;
+		}
+		// chunk size and parity fields, the last header fields
+		if (headerEnd(layout) > image.limit()) {
+			throw new IllegalArgumentException("Decode error. Invalid header");
+		}
+		int chunkSize = 0;
+		if (layout.chunked) {
+			chunkSize = decodeInt(image, layout, depth, layout.chunkSizeOffset());
+			if (chunkSize < EncodeOptions.MIN_CHUNK_SIZE || chunkSize > EncodeOptions.MAX_CHUNK_SIZE
+					|| layout.isCompressed()) {
+				throw new IllegalArgumentException("Decode error. Invalid chunk size");
+			}
+		}
+		int parity = 0;
+		if (layout.corrected) {
+			parity = decodeInt(image, layout, depth, layout.parityOffset());
+			if (parity < EncodeOptions.MIN_PARITY || parity > EncodeOptions.MAX_PARITY || layout.isCompressed()
+					|| layout.chunked) {
+				throw new IllegalArgumentException("Decode error. Invalid parity");
+			}
+		}
+		return HeaderLayout.of(version, depth, integrity, compression, flags, chunkSize, parity, baseHeaderOffset,
+				pixels);
+	}
+
+	//
+	// Shard methods
+	//
+
+	// encode payload identifier, shard index and shard count
+	private void encodeShard(final ByteBuffer image, final HeaderLayout layout, final Shard shard) {
+		int offset = layout.shardOffset();
+		encodeInt(image, layout, layout.depth, offset, (int) (shard.getPayloadId() >>> 32));
+		offset += layout.imageLength(INT_SIZE);
+		encodeInt(image, layout, layout.depth, offset, (int) shard.getPayloadId());
+		offset += layout.imageLength(INT_SIZE);
+		encodeInt(image, layout, layout.depth, offset, shard.getIndex());
+		offset += layout.imageLength(INT_SIZE);
+		encodeInt(image, layout, layout.depth, offset, shard.getCount());
+	}
+
+	// decode shard, null when the data is a whole payload
+	private Shard decodeShard(final ByteBuffer image, final HeaderLayout layout) {
+		if (!layout.shard) {
+			return null;
+		}
+		int offset = layout.shardOffset();
+		long high = decodeInt(image, layout, layout.depth, offset);
+		offset += layout.imageLength(INT_SIZE);
+		long low = decodeInt(image, layout, layout.depth, offset) & 0xFFFFFFFFL;
+		offset += layout.imageLength(INT_SIZE);
+		int index = decodeInt(image, layout, layout.depth, offset);
+		offset += layout.imageLength(INT_SIZE);
+		int count = decodeInt(image, layout, layout.depth, offset);
+		if (count < 1 || index < 0 || index >= count) {
+			throw new IllegalArgumentException("Decode error. Invalid shard");
+		}
+		return new Shard((high << 32) | low, index, count);
+	}
+
+	//
+	// Header field methods
+	// Version 3 header fields are mapped to the pixel samples
+	//
+
+	private static void encodeInt(final ByteBuffer image, final HeaderLayout layout, final int depth,
+			final int offset, final int value) {
+		if (layout.pixels != null) {
+			layout.pixels.encodeInt(depth, image, offset, value);
+		} else {
+			PackingKernels.encodeInt(depth, image, offset, value);
+		}
+	}
+
+	private static int decodeInt(final ByteBuffer image, final HeaderLayout layout, final int depth,
+			final int offset) {
+		if (layout.pixels != null) {
+			return layout.pixels.decodeInt(depth, image, offset);
+		}
+		return PackingKernels.decodeInt(depth, image, offset);
+	}
+
+	// length and offset fields of the wide header are two ints, high int first
+	private static void encodeLong(final ByteBuffer image, final HeaderLayout layout, final int offset,
+			final long value) {
+		if (!layout.wide) {
+			encodeInt(image, layout, layout.depth, offset, (int) value);
+			return;
+		}
+		encodeInt(image, layout, layout.depth, offset, (int) (value >>> 32));
+		encodeInt(image, layout, layout.depth, offset + layout.imageLength(INT_SIZE), (int) value);
+	}
+
+	private static long decodeLong(final ByteBuffer image, final HeaderLayout layout, final int offset) {
+		if (!layout.wide) {
+			return decodeInt(image, layout, layout.depth, offset);
+		}
+		long high = decodeInt(image, layout, layout.depth, offset);
+		int low = decodeInt(image, layout, layout.depth, offset + layout.imageLength(INT_SIZE));
+		return (high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	//
+	// Length methods
+	//
+
+	// encode length
+	private void encodeDataLength(final ByteBuffer image, final HeaderLayout layout, final long length) {
+		// add data length
+		encodeLong(image, layout, layout.lengthOffset(), length);
+	}
+
+	// decode length, a wide length beyond the int range is only decoded from files
+	private int decodeDataLength(final ByteBuffer image, final HeaderLayout layout) {
+		long length = decodeLongLength(image, layout);
+		if (length != (int) length) {
+			throw invalid(Failure.INVALID_LENGTH, "Decode error. Invalid length");
+		}
+		return (int) length;
+	}
+
+	private long decodeLongLength(final ByteBuffer image, final HeaderLayout layout) {
+		long start = startTimer();
+		long length = decodeLong(image, layout, layout.lengthOffset());
+		stopTimer(Phase.HEADER, start);
+		return length;
+	}
+
+	// decode original length, the data length when not compressed
+	private int decodeOriginalLength(final ByteBuffer image, final HeaderLayout layout, final int dataLength) {
+		if (!layout.isCompressed()) {
+			return dataLength;
+		}
+		long start = startTimer();
+		int originalLength = decodeInt(image, layout, layout.depth, layout.originalLengthOffset());
+		stopTimer(Phase.HEADER, start);
+		if (originalLength < 0) {
+			throw invalid(Failure.INVALID_LENGTH, "Decode error. Invalid length");
+		}
+		return originalLength;
+	}
+
+	//
+	// Offset methods
+	//
+
+	// encode offset
+	private void encodeDataOffset(final ByteBuffer image, final HeaderLayout layout, final long offset) {
+		// add data offset
+		encodeLong(image, layout, layout.offsetOffset(), offset);
+	}
+
+	// decode offset, a wide offset beyond the int range is only decoded from files
+	private int decodeDataOffset(final ByteBuffer image, final HeaderLayout layout) {
+		long offset = decodeLongOffset(image, layout);
+		if (offset != (int) offset) {
+			throw invalid(Failure.INVALID_OFFSET, "Decode error. Invalid offset");
+		}
+		return (int) offset;
+	}
+
+	private long decodeLongOffset(final ByteBuffer image, final HeaderLayout layout) {
+		return decodeLong(image, layout, layout.offsetOffset());
+	}
+
+	int computeBaseHeaderOffset(final ByteBuffer image) {
+		// compute base offset, the start of the carrier window
+		CarrierFormat format = checkFormat(image);
+		int windowOffset = format.windowOffset(image);
+		// return baseHeaderOffset, after the signature packed in the window
+		return format.signatureOffset(image) < 0 ? windowOffset + PACKED_SIGNATURE_LENGTH : windowOffset;
+	}
+
+	// index after the last byte of the carrier window, the format data after the window is left unchanged
+	long computeImageEnd(final ByteBuffer image, final long imageLength) {
+		CarrierFormat format = checkFormat(image);
+		long imageEnd = format.windowOffset(image) + format.windowLength(image, imageLength);
+		if (imageEnd > imageLength) {
+			throw new IllegalArgumentException("Invalid image length. The image data is truncated.");
+		}
+		return imageEnd;
+	}
+
+	private int computeImageEnd(final ByteBuffer image, final int imageLength) {
+		return (int) computeImageEnd(image, (long) imageLength);
+	}
+
+	// compute offset
+	// headerSize | valid data area
+	// max offset consider original image length minus data length * (8 / depth) minus total header size
+	private int computeImageOffset(final HeaderLayout layout, final int imageLength, final int dataLength) {
+		long start = startTimer();
+		int offset = 0;
+		int headerSize = layout.headerSize();
+		int imageEnd = layout.imageEnd(imageLength);
+		long maxOffset = imageEnd - (PackingKernels.imageLength(layout.depth, dataLength) + headerSize);
+		if (maxOffset <= 0) {
+			int capacity = computeCapacity(layout, imageEnd);
+			throw invalid(Failure.INVALID_LENGTH, capacity < 0 ? "Invalid data length. Image has no capacity."
+					: String.format("Invalid data length. Image capacity is %d bytes.", capacity));
+		}
+		offset = nextInt(seed, (int) maxOffset) + headerSize;
+		// version 1 readers also require the offset to be lower than the offset range
+		long lastOffset = layout.version == HeaderLayout.VERSION_1 ? maxOffset : maxOffset + headerSize - 1;
+		if (offset < headerSize || offset > lastOffset) {
+			throw invalid(Failure.INVALID_OFFSET, String.format("Invalid offset. Must be between %d and %d.",
+					layout.baseHeaderOffset, lastOffset));
+		}
+		stopTimer(Phase.OFFSET, start);
+		return offset;
+	}
+
+	// first value of new Random(seed).nextInt(bound) without allocating the generator
+	private static int nextInt(final long seed, final int bound) {
+		long state = (seed ^ RANDOM_MULTIPLIER) & RANDOM_MASK;
+		state = (state * RANDOM_MULTIPLIER + RANDOM_ADDEND) & RANDOM_MASK;
+		int value = (int) (state >>> 17);
+		int mask = bound - 1;
+		if ((bound & mask) == 0) {
+			return (int) ((bound * (long) value) >> 31);
+		}
+		// reject the values of the last incomplete range
+		for (int bits = value; bits - (value = bits % bound) + mask < 0;) {
+			state = (state * RANDOM_MULTIPLIER + RANDOM_ADDEND) & RANDOM_MASK;
+			bits = (int) (state >>> 17);
+		}
+		return value;
+	}
+
+	// first value of new Random(seed).nextLong() reduced to the bound, the offsets of images of 2 GB or more
+	private static long nextLong(final long seed, final long bound) {
+		long state = (seed ^ RANDOM_MULTIPLIER) & RANDOM_MASK;
+		state = (state * RANDOM_MULTIPLIER + RANDOM_ADDEND) & RANDOM_MASK;
+		int high = (int) (state >>> 16);
+		state = (state * RANDOM_MULTIPLIER + RANDOM_ADDEND) & RANDOM_MASK;
+		int low = (int) (state >>> 16);
+		return Math.floorMod(((long) high << 32) + low, bound);
+	}
+
+	// image window reserved for the data: the data length with its chunk index or its parity or, when compressed, the
+	// worst case compressed length limited to the image capacity
+	private int computeWindowLength(final HeaderLayout layout, final int imageLength, final int dataLength) {
+		if (!layout.isCompressed()) {
+			return checkDataLength(layout.windowLength(dataLength));
+		}
+		long capacity = Math.max(0, (layout.imageEnd(imageLength) - layout.headerSize() - 1) / layout.imageLength(1));
+		return (int) Math.min(layout.compression.bound(dataLength), capacity);
+	}
+
+	//
+	// Chunk index
+	// Chunked data windows start with a CRC32C checksum per chunk of the data, the header hash is the check of this
+	// index, so a range is checked and updated without the other chunks
+	//
+
+	// index of the first data image byte, after the chunk index
+	private int dataStart(final HeaderLayout layout, final int offset, final int dataLength) {
+		return offset + layout.imageLength(layout.indexLength(dataLength));
+	}
+
+	// compute the chunk checksums instead of the data hash, returns the index of the first data image byte
+	private int startChunkIndex(final HeaderLayout layout, final int offset, final int dataLength,
+			final Workspace workspace) {
+		if (layout.chunked) {
+			workspace.chunks = workspace.chunkIndex();
+			workspace.chunks.start(layout.chunkSize, layout.indexLength(dataLength));
+		}
+		return dataStart(layout, offset, dataLength);
+	}
+
+	// write the chunk checksums at the start of the window once the data is encoded, returns the header hash: the
+	// check of the index for chunked data, the data hash otherwise
+	private byte[] encodeChunkIndex(final ByteBuffer image, final HeaderLayout layout, final int offset,
+			final byte[] hash, final Workspace workspace) {
+		if (workspace.chunks == null) {
+			return hash;
+		}
+		ByteBuffer index = workspace.chunks.finish();
+		workspace.chunks = null;
+		encodeStoredBytes(image, layout, offset, index, 0, index.limit(), workspace);
+		updateHash(workspace.integrity, index, 0, index.limit());
+		return workspace.digest();
+	}
+
+	// compare the checksums of the data decoded with the stored index, whose check is then compared with the header
+	// hash
+	private void checkChunkIndex(final ByteBuffer image, final HeaderLayout layout, final int offset,
+			final Workspace workspace) {
+		if (workspace.chunks == null) {
+			return;
+		}
+		ByteBuffer index = workspace.chunks.finish();
+		workspace.chunks = null;
+		ByteBuffer stored = workspace.chunkIndex().stored(index.limit());
+		decodeStoredBytes(image, layout, offset, stored, 0, index.limit(), workspace);
+		long start = startTimer();
+		for (int idx = 0; idx < index.limit(); idx++) {
+			if (index.get(idx) != stored.get(idx)) {
+				throw invalid(Failure.INVALID_HASH, "Decode error. Invalid chunk hash");
+			}
+		}
+		stopTimer(Phase.HASH, start);
+		updateHash(workspace.integrity, index, 0, index.limit());
+	}
+
+	// data index after the chunk of a data byte
+	private int chunkEnd(final HeaderLayout layout, final int dataLength, final int position) {
+		return (int) Math.min(dataLength, (position / layout.chunkSize + 1L) * layout.chunkSize);
+	}
+
+	// the other layouts have a hash of the whole data
+	private void checkUpdateLayout(final HeaderLayout layout) {
+		if (!layout.chunked) {
+			throw new IllegalArgumentException("Invalid update. Only chunked data is updated in place.");
+		}
+		// the key stream of the range would encrypt the new data as it did the previous data
+		if (layout.encrypted) {
+			throw new IllegalArgumentException("Invalid update. Encrypted data is not updated in place.");
+		}
+	}
+
+	private void checkRange(final int dataLength, final int position, final int length) {
+		if (position < 0 || length < 0 || (long) position + length > dataLength) {
+			throw new IllegalArgumentException(
+					String.format("Invalid range. Must be within the %d data bytes.", dataLength));
+		}
+	}
+
+	// decode the chunks overlapping the range and check their checksums, returns the range
+	private byte[] decodeChunkRange(final ByteBuffer image, final HeaderLayout layout, final int offset,
+			final int dataLength, final int position, final int length, final Workspace workspace) {
+		if (length == 0) {
+			return new byte[0];
+		}
+		ByteBuffer span = decodeChunkSpan(image, layout, offset, dataLength, position, length, workspace);
+		int spanStart = position / layout.chunkSize * layout.chunkSize;
+		return Arrays.copyOfRange(span.array(), position - spanStart, position - spanStart + length);
+	}
+
+	// decode the chunks overlapping a non empty range and check their checksums, returns the chunks
+	private ByteBuffer decodeChunkSpan(final ByteBuffer image, final HeaderLayout layout, final int offset,
+			final int dataLength, final int position, final int length, final Workspace workspace) {
+		int chunkSize = layout.chunkSize;
+		int firstChunk = position / chunkSize;
+		int lastChunk = (position + length - 1) / chunkSize;
+		int spanStart = firstChunk * chunkSize;
+		int spanEnd = chunkEnd(layout, dataLength, position + length - 1);
+		// retrieve the checksums of the chunks
+		ByteBuffer checksums = ByteBuffer.allocate((lastChunk - firstChunk + 1) * HeaderLayout.CHECKSUM_SIZE);
+		decodeStoredBytes(image, layout, offset + layout.imageLength(firstChunk * HeaderLayout.CHECKSUM_SIZE),
+				checksums, 0, checksums.limit(), workspace);
+		// retrieve the chunks
+		ByteBuffer span = ByteBuffer.allocate(spanEnd - spanStart);
+		decodeStoredBytes(image, layout, dataStart(layout, offset, dataLength) + layout.imageLength(spanStart), span,
+				0, span.limit(), workspace);
+		// check the chunks
+		long start = startTimer();
+		ChunkIndex chunks = workspace.chunkIndex();
+		for (int chunk = 0; chunk <= lastChunk - firstChunk; chunk++) {
+			int chunkStart = chunk * chunkSize;
+			int chunkLength = Math.min(chunkSize, span.limit() - chunkStart);
+			int stored = checksums.getInt(chunk * HeaderLayout.CHECKSUM_SIZE);
+			if (chunks.compute(span, chunkStart, chunkLength) != stored) {
+				throw invalid(Failure.INVALID_HASH, "Decode error. Invalid chunk hash");
+			}
+		}
+		stopTimer(Phase.HASH, start);
+		return span;
+	}
+
+	// encode the range, the checksums of its chunks and the check of the index, the other chunks are not read
+	private void updateChunkRange(final ByteBuffer header, final ByteBuffer image, final HeaderLayout layout,
+			final int offset, final int dataLength, final int position, final byte[] data, final Workspace workspace) {
+		if (data.length == 0) {
+			return;
+		}
+		int chunkSize = layout.chunkSize;
+		int firstChunk = position / chunkSize;
+		int spanStart = firstChunk * chunkSize;
+		// the unchanged bytes of the chunks must be valid to compute their new checksums
+		ByteBuffer span = decodeChunkSpan(image, layout, offset, dataLength, position, data.length, workspace);
+		System.arraycopy(data, 0, span.array(), position - spanStart, data.length);
+		encodeDataBytes(image, layout.depth, workspace.mapping,
+				dataStart(layout, offset, dataLength) + layout.imageLength(position), span, position - spanStart,
+				data.length);
+		// add the checksums of the chunks
+		long start = startTimer();
+		ChunkIndex chunks = workspace.chunkIndex();
+		int chunkCount = (span.limit() + chunkSize - 1) / chunkSize;
+		ByteBuffer checksums = ByteBuffer.allocate(chunkCount * HeaderLayout.CHECKSUM_SIZE);
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			int chunkStart = chunk * chunkSize;
+			checksums.putInt(chunks.compute(span, chunkStart, Math.min(chunkSize, span.limit() - chunkStart)));
+		}
+		stopTimer(Phase.HASH, start);
+		encodeDataBytes(image, layout.depth, workspace.mapping,
+				offset + layout.imageLength(firstChunk * HeaderLayout.CHECKSUM_SIZE), checksums, 0,
+				checksums.limit());
+		// add the check of the whole index, 4 data bytes per chunk
+		int indexLength = layout.indexLength(dataLength);
+		byte[] buffer = workspace.buffer();
+		for (int index = 0; index < indexLength; index += buffer.length) {
+			int count = Math.min(buffer.length, indexLength - index);
+			decodeDataBytes(image, layout.depth, workspace.mapping, offset + layout.imageLength(index),
+					workspace.bufferView, 0, count);
+			updateHash(workspace.integrity, workspace.bufferView, 0, count);
+		}
+		start = startTimer();
+		encodeDataHash(header, layout, workspace.digest());
+		stopTimer(Phase.HEADER, start);
+	}
+
+	//
+	// Encryption
+	// The stored bytes of an encrypted data window, the chunk index and the data or the compressed data, are encrypted
+	// with the AES-CTR key stream at their position within the window as they are packed
+	//
+
+	// write a new nonce and the key salt to the header and start the key stream at the window offset
+	private void startEncryption(final ByteBuffer header, final HeaderLayout layout, final int windowOffset,
+			final Workspace workspace) {
+		if (!layout.encrypted) {
+			return;
+		}
+		long start = startTimer();
+		DataCipher.Keys keys = DataCipher.encodeKeys(keyString(), keyCache);
+		NONCES.nextBytes(workspace.nonce);
+		encodeDataBytes(header, layout.depth, layout.pixels, layout.nonceOffset(), workspace.nonceView, 0,
+				HeaderLayout.NONCE_SIZE);
+		encodeDataBytes(header, layout.depth, layout.pixels, layout.saltOffset(), ByteBuffer.wrap(keys.salt), 0,
+				HeaderLayout.SALT_SIZE);
+		startCipher(windowOffset, keys, workspace);
+		stopTimer(Phase.CIPHER, start);
+	}
+
+	// read the nonce and the key salt of the header and start the key stream at the window offset
+	private void startDecryption(final ByteBuffer header, final HeaderLayout layout, final int windowOffset,
+			final Workspace workspace) {
+		if (!layout.encrypted) {
+			return;
+		}
+		long start = startTimer();
+		String seedString = keyString();
+		decodeDataBytes(header, layout.depth, layout.pixels, layout.nonceOffset(), workspace.nonceView, 0,
+				HeaderLayout.NONCE_SIZE);
+		decodeDataBytes(header, layout.depth, layout.pixels, layout.saltOffset(), workspace.saltView, 0,
+				HeaderLayout.SALT_SIZE);
+		startCipher(windowOffset, DataCipher.decodeKeys(seedString, workspace.salt, keyCache), workspace);
+		stopTimer(Phase.CIPHER, start);
+	}
+
+	// the hash of encrypted data is a keyed check of the nonce and the data, it reveals nothing without the key
+	private void startCipher(final int windowOffset, final DataCipher.Keys keys, final Workspace workspace) {
+		workspace.cipher = workspace.dataCipher();
+		workspace.cipher.init(keys.cipher, workspace.nonce);
+		workspace.integrity = workspace.dataMac(keys.mac);
+		workspace.storedAt(0, windowOffset);
+	}
+
+	// encode stored bytes, encrypted into the workspace block when the data is encrypted, the data is unchanged
+	private void encodeStoredBytes(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final ByteBuffer data, final int dataOffset, final int length, final Workspace workspace) {
+		if (workspace.cipher == null) {
+			encodeDataBytes(image, layout.depth, workspace.mapping, initialOffset, data, dataOffset, length);
+			return;
+		}
+		ByteBuffer block = workspace.cipherBlock();
+		int offset = initialOffset;
+		for (int index = 0; index < length; index += block.capacity()) {
+			int count = Math.min(block.capacity(), length - index);
+			long start = startTimer();
+			workspace.cipher.apply(data.array(), data.arrayOffset() + dataOffset + index, block.array(), 0, count,
+					storedPosition(layout, offset, workspace));
+			stopTimer(Phase.CIPHER, start);
+			encodeDataBytes(image, layout.depth, workspace.mapping, offset, block, 0, count);
+			offset += layout.imageLength(count);
+		}
+	}
+
+	// decode stored bytes into a heap buffer, decrypted in place when the data is encrypted
+	private void decodeStoredBytes(final ByteBuffer image, final HeaderLayout layout, final int initialOffset,
+			final ByteBuffer result, final int resultOffset, final int length, final Workspace workspace) {
+		decodeDataBytes(image, layout.depth, workspace.mapping, initialOffset, result, resultOffset, length);
+		if (workspace.cipher != null) {
+			long start = startTimer();
+			workspace.cipher.apply(result.array(), result.arrayOffset() + resultOffset, length,
+					storedPosition(layout, initialOffset, workspace));
+			stopTimer(Phase.CIPHER, start);
+		}
+	}
+
+	// position within the data window of the stored byte at the image offset
+	private static long storedPosition(final HeaderLayout layout, final int offset, final Workspace workspace) {
+		return workspace.cipherPosition + (offset - workspace.cipherOffset) / layout.imageLength(1);
+	}
+
+	//
+	// Error correction
+	// The Reed-Solomon parity of corrected data is computed as the data is encoded and stored after it, it is only read
+	// when the hash of the data decoded is invalid
+	//
+
+	// compute the parity of the data as it is encoded
+	private void startParity(final HeaderLayout layout, final int dataLength, final Workspace workspace) {
+		if (layout.corrected) {
+			workspace.parity = workspace.errorCorrection(layout.parity);
+			workspace.parity.start(dataLength);
+		}
+	}
+
+	// write the parity after the data once the data is encoded
+	private void encodeParity(final ByteBuffer image, final HeaderLayout layout, final int dataOffset,
+			final int dataLength, final Workspace workspace) {
+		if (workspace.parity == null) {
+			return;
+		}
+		ByteBuffer parity = workspace.parity.finish();
+		workspace.parity = null;
+		encodeStoredBytes(image, layout, dataOffset + layout.imageLength(dataLength), parity, 0, parity.limit(),
+				workspace);
+	}
+
+	// decode the corrected data into an array, so damaged data is corrected before it is written to stream
+	private void decodeCorrectedStream(final ByteBuffer header, final ByteBuffer image, final HeaderLayout layout,
+			final int dataOffset, final int length, final OutputStream data, final Workspace workspace)
+			throws IOException {
+		ByteBuffer result = ByteBuffer.allocate(length);
+		decodeDataChunks(image, layout, dataOffset, result, 0, length, workspace);
+		checkDataHash(header, image, layout, dataOffset, result, 0, length, workspace);
+		long start = startTimer();
+		data.write(result.array(), 0, length);
+		stopTimer(Phase.IO, start);
+	}
+
+	// check the hash of the data decoded, corrected data with an invalid hash is corrected from its parity and checked
+	// again
+	private void checkDataHash(final ByteBuffer header, final ByteBuffer image, final HeaderLayout layout,
+			final int dataOffset, final ByteBuffer result, final int resultOffset, final int length,
+			final Workspace workspace) {
+		if (!layout.corrected) {
+			checkDataHash(header, layout, workspace);
+			return;
+		}
+		if (isDataHash(header, layout, workspace)) {
+			return;
+		}
+		// read the parity, decrypted too, and correct the codewords of the data in place
+		ByteBuffer parity = ByteBuffer.allocate((int) layout.parityLength(length));
+		decodeStoredBytes(image, layout, dataOffset + layout.imageLength(length), parity, 0, parity.limit(),
+				workspace);
+		long start = startTimer();
+		int corrected = workspace.errorCorrection(layout.parity).correct(result, resultOffset, length, parity,
+				forkJoinPool);
+		stopTimer(Phase.PARITY, start);
+		if (corrected == 0) {
+			throw invalid(Failure.INVALID_HASH, "Decode error. Invalid hash");
+		}
+		// hash of the corrected data, direct buffers through the block buffer
+		if (result.hasArray()) {
+			updateHash(workspace.integrity, result, resultOffset, length);
+		} else {
+			byte[] buffer = workspace.buffer();
+			ByteBuffer view = result.duplicate();
+			((Buffer) view).position(resultOffset);
+			for (int index = 0; index < length; index += buffer.length) {
+				int count = Math.min(buffer.length, length - index);
+				view.get(buffer, 0, count);
+				updateHash(workspace.integrity, workspace.bufferView, 0, count);
+			}
+		}
+		checkDataHash(header, layout, workspace);
+	}
+
+	//
+	// Hash
+	//
+
+	// write the hash as big endian int fields in place
+	private void encodeDataHash(final ByteBuffer image, final HeaderLayout layout, final byte[] hash) {
+		for (int idx = 0; idx < layout.hashSize(); idx += INT_SIZE) {
+			int value = (hash[idx] << 24) | ((hash[idx + 1] & 0xFF) << 16) | ((hash[idx + 2] & 0xFF) << 8)
+					| (hash[idx + 3] & 0xFF);
+			encodeInt(image, layout, layout.depth, layout.hashOffset() + layout.imageLength(idx), value);
+		}
+	}
+
+	private void checkDataHash(final ByteBuffer image, final HeaderLayout layout, final Workspace workspace) {
+		if (!isDataHash(image, layout, workspace)) {
+			throw invalid(Failure.INVALID_HASH, "Decode error. Invalid hash");
+		}
+	}
+
+	// compare the computed hash with the stored hash in place
+	private boolean isDataHash(final ByteBuffer image, final HeaderLayout layout, final Workspace workspace) {
+		long start = startTimer();
+		byte[] decodeHash = workspace.digest();
+		// retrieve hash
+		decodeDataBytes(image, layout.depth, layout.pixels, layout.hashOffset(), workspace.storedHashView, 0,
+				layout.hashSize());
+		// check hash
+		boolean valid = true;
+		for (int idx = 0; idx < layout.hashSize(); idx++) {
+			valid &= decodeHash[idx] == workspace.storedHash[idx];
+		}
+		stopTimer(Phase.HASH, start);
+		return valid;
+	}
+
+	private void updateHash(final IntegrityDigest integrity, final ByteBuffer data, final int index, final int length) {
+		long start = startTimer();
+		integrity.update(data, index, length);
+		stopTimer(Phase.HASH, start);
+	}
+
+	// update the hash of the data or, for chunked data, the checksums of its chunks, and the parity of corrected data
+	// as it is encoded
+	private void updateHash(final Workspace workspace, final ByteBuffer data, final int index, final int length) {
+		if (workspace.chunks == null) {
+			updateHash(workspace.integrity, data, index, length);
+		} else {
+			long start = startTimer();
+			workspace.chunks.update(data, index, length);
+			stopTimer(Phase.HASH, start);
+		}
+		if (workspace.parity != null) {
+			long start = startTimer();
+			workspace.parity.update(data, index, length, forkJoinPool);
+			stopTimer(Phase.PARITY, start);
+		}
+	}
+
+	byte[] computeHash(final byte[] data) {
+		byte[] digest = null;
+		MessageDigest md5 = createDigest();
+		digest = md5.digest(data);
+		// System.out.print("MD5: ");
+		// for (byte c : digest) {
+		// System.out.print(String.format("%02x", c));
+		// }
+		// System.out.println();
+		return digest;
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 digest not available", e);
+		}
+	}
+
+	//
+	// Metrics
+	// The clock is only read when metrics are set, a start time of 0 skips the steps started without metrics
+	//
+
+	private long startTimer() {
+		return metrics != null ? System.nanoTime() : 0;
+	}
+
+	private void stopTimer(final Phase phase, final long start) {
+		SteganographyMetrics current = metrics;
+		if (current != null && start != 0) {
+			current.record(phase, System.nanoTime() - start);
+		}
+	}
+
+	private void recordOperation(final Operation operation, final long start, final long length) {
+		SteganographyMetrics current = metrics;
+		if (current != null && start != 0) {
+			current.record(operation, System.nanoTime() - start, length);
+		}
+	}
+
+	// count the failure and create its exception
+	private IllegalArgumentException invalid(final Failure failure, final String message) {
+		SteganographyMetrics current = metrics;
+		if (current != null) {
+			current.record(failure);
+		}
+		return new IllegalArgumentException(message);
 	}
 
 	//
 	// Seed
 	//
 
-	private long computeSeedString(final String seedString) {
+	// seed string of the keys of the encrypted data
+	private String keyString() {
+		if (keyString == null) {
+			throw new IllegalArgumentException("Invalid seed. Encrypted data needs a seed string.");
+		}
+		return keyString;
+	}
+
+	long computeSeedString(final String seedString) {
 		long computedSeed = 0;
 		if (seedString == null || seedString.isEmpty()) {
 			Random rand = new Random(Calendar.getInstance().getTimeInMillis());
@@ -360,25 +2724,321 @@ public class Steganography {
 	}
 
 	//
-	// byte[] <=> int conversions
+	// Workspace
 	//
 
-	// int to byte[]
-	private byte[] int2ByteArray(final int data) {
-		byte bytes[] = new byte[INT_SIZE];
-		for (int idx = 0; idx < INT_SIZE; idx++) {
-			bytes[idx] = (byte) ((data >> (idx * 8)) & 0xFF);
+	private Workspace acquireWorkspace(final HeaderLayout layout, final int imageLength) {
+		Workspace workspace;
+		if (isVirtualThread()) {
+			workspace = SHARED_WORKSPACES.poll();
+			if (workspace != null) {
+				SHARED_WORKSPACES_IDLE.decrementAndGet();
+			} else {
+				workspace = new Workspace();
+			}
+			workspace.shared = true;
+		} else {
+			workspace = WORKSPACES.get();
+			// a nested call on the same thread, e.g. a pool worker running another call while it joins, uses its own
+			if (workspace.inUse) {
+				workspace = new Workspace();
+			}
+		}
+		workspace.inUse = true;
+		workspace.select(layout.integrity);
+		if (layout.scatter) {
+			workspace.mapping = new ScatterPermutation(seed, layout.headerSize(), layout.imageEnd(imageLength),
+					layout.pixels);
+		} else {
+			workspace.mapping = layout.pixels;
 		}
-		return (new byte[] { bytes[3], bytes[2], bytes[1], bytes[0] });
+		return workspace;
 	}
 
-	// byte[] to int
-	private int byteArray2Int(final byte[] data) {
-		int value = 0;
-		for (int idx = 0; idx < INT_SIZE; idx++) {
-			value = (value << 8) | (data[idx] & 0xFF);
+	private static void releaseWorkspace(final Workspace workspace) {
+		workspace.integrity.reset();
+		workspace.mapping = null;
+		workspace.chunks = null;
+		workspace.cipher = null;
+		workspace.parity = null;
+		workspace.inUse = false;
+		// keep a bounded number of idle shared workspaces
+		if (workspace.shared && SHARED_WORKSPACES_IDLE.incrementAndGet() <= SHARED_WORKSPACES_LIMIT) {
+			SHARED_WORKSPACES.offer(workspace);
+		} else if (workspace.shared) {
+			SHARED_WORKSPACES_IDLE.decrementAndGet();
 		}
-		return value;
+	}
+
+	private static boolean isVirtualThread() {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	private static MethodHandle findIsVirtual() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+					MethodType.methodType(boolean.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	// header fields of an encoded image, checked before its data window is decoded
+	private static final class DataFields {
+
+		final HeaderLayout layout;
+		final int dataLength;
+		final int originalLength;
+		final int offset;
+		final int imageEnd;
+
+		DataFields(final HeaderLayout layout, final int dataLength, final int originalLength, final int offset,
+				final int imageEnd) {
+			this.layout = layout;
+			this.dataLength = dataLength;
+			this.originalLength = originalLength;
+			this.offset = offset;
+			this.imageEnd = imageEnd;
+		}
+
+	}
+
+	// digests and buffers of one call at a time
+	private static final class Workspace {
+
+		private final IntegrityDigest[] digests = new IntegrityDigest[Integrity.values().length];
+		IntegrityDigest integrity;
+		// data placement of the call, null for contiguous data
+		ImageMapping mapping;
+		// chunk checksums of the data encoded, null when not chunked
+		ChunkIndex chunks;
+		private ChunkIndex chunkIndex;
+		// key stream of the stored data bytes, null when not encrypted
+		DataCipher cipher;
+		private DataCipher dataCipher;
+		private IntegrityDigest.Hmac dataMac;
+		// parity of the data encoded, null when not corrected
+		ErrorCorrection parity;
+		private ErrorCorrection errorCorrection;
+		final byte[] nonce = new byte[HeaderLayout.NONCE_SIZE];
+		final ByteBuffer nonceView = ByteBuffer.wrap(nonce);
+		final byte[] salt = new byte[HeaderLayout.SALT_SIZE];
+		final ByteBuffer saltView = ByteBuffer.wrap(salt);
+		// the stored byte at cipherPosition is at the image offset cipherOffset
+		long cipherPosition;
+		int cipherOffset;
+		private ByteBuffer cipherBlock;
+		final byte[] hash = new byte[HeaderLayout.HASH_SIZE];
+		final byte[] storedHash = new byte[HeaderLayout.HASH_SIZE];
+		final ByteBuffer storedHashView = ByteBuffer.wrap(storedHash);
+		private byte[] buffer;
+		ByteBuffer bufferView;
+		boolean inUse;
+		// from the shared workspaces of the virtual threads
+		boolean shared;
+
+		// stream block buffer and its view, allocated on first use
+		byte[] buffer() {
+			if (buffer == null) {
+				buffer = new byte[STREAM_BUFFER_SIZE];
+				bufferView = ByteBuffer.wrap(buffer);
+			}
+			return buffer;
+		}
+
+		// digest of the call, created on first use
+		void select(final Integrity selected) {
+			integrity = digests[selected.ordinal()];
+			if (integrity == null) {
+				integrity = selected.createDigest();
+				digests[selected.ordinal()] = integrity;
+			}
+		}
+
+		// complete the digest into the hash array, which is overwritten by the next digest
+		byte[] digest() {
+			integrity.digest(hash);
+			return hash;
+		}
+
+		// chunk index, created on first use
+		ChunkIndex chunkIndex() {
+			if (chunkIndex == null) {
+				chunkIndex = new ChunkIndex();
+			}
+			return chunkIndex;
+		}
+
+		// code of the parity bytes per codeword, created on first use
+		ErrorCorrection errorCorrection(final int parity) {
+			if (errorCorrection == null || errorCorrection.parity() != parity) {
+				errorCorrection = new ErrorCorrection(parity);
+			}
+			return errorCorrection;
+		}
+
+		// check of encrypted data keyed for the nonce of the call, created on first use
+		IntegrityDigest dataMac(final SecretKeySpec key) {
+			if (dataMac == null) {
+				dataMac = new IntegrityDigest.Hmac();
+			}
+			dataMac.init(key, nonce);
+			return dataMac;
+		}
+
+		// cipher, created on first use
+		DataCipher dataCipher() {
+			if (dataCipher == null) {
+				dataCipher = new DataCipher();
+			}
+			return dataCipher;
+		}
+
+		// the stored byte at the position is at the image offset, each mapped segment has its own offsets
+		void storedAt(final long position, final int offset) {
+			cipherPosition = position;
+			cipherOffset = offset;
+		}
+
+		// block of the encrypted bytes, allocated on first use
+		ByteBuffer cipherBlock() {
+			if (cipherBlock == null) {
+				cipherBlock = ByteBuffer.allocate(FUSED_BLOCK_SIZE);
+			}
+			return cipherBlock;
+		}
+
+	}
+
+	// CRC32C checksums of consecutive chunks, as big endian ints, computed as the data is encoded in order
+	private static final class ChunkIndex {
+
+		// own digest, the integrity digest of the call may also be CRC32C
+		private final IntegrityDigest checksum = IntegrityDigest.crc32c();
+		private final byte[] value = new byte[HeaderLayout.CHECKSUM_SIZE];
+		private byte[] index = new byte[0];
+		// index read from the image
+		private byte[] stored = new byte[0];
+		private int chunkSize;
+		// data bytes missing to complete the current chunk
+		private int chunkRemaining;
+		private int length;
+
+		void start(final int chunkSize, final int indexLength) {
+			if (index.length < indexLength) {
+				index = new byte[indexLength];
+			}
+			this.chunkSize = chunkSize;
+			this.chunkRemaining = chunkSize;
+			this.length = 0;
+			checksum.reset();
+		}
+
+		void update(final ByteBuffer data, final int index, final int count) {
+			int idx = index;
+			int remaining = count;
+			while (remaining > 0) {
+				int step = Math.min(remaining, chunkRemaining);
+				checksum.update(data, idx, step);
+				idx += step;
+				remaining -= step;
+				chunkRemaining -= step;
+				if (chunkRemaining == 0) {
+					completeChunk();
+				}
+			}
+		}
+
+		// complete the last chunk, returns the index
+		ByteBuffer finish() {
+			if (chunkRemaining < chunkSize) {
+				completeChunk();
+			}
+			return ByteBuffer.wrap(index, 0, length);
+		}
+
+		private void completeChunk() {
+			checksum.digest(value);
+			System.arraycopy(value, 0, index, length, value.length);
+			length += value.length;
+			chunkRemaining = chunkSize;
+		}
+
+		// buffer of the stored index
+		ByteBuffer stored(final int length) {
+			if (stored.length < length) {
+				stored = new byte[length];
+			}
+			return ByteBuffer.wrap(stored, 0, length);
+		}
+
+		// checksum of a whole chunk
+		int compute(final ByteBuffer data, final int index, final int count) {
+			checksum.update(data, index, count);
+			checksum.digest(value);
+			return ((value[0] & 0xFF) << 24) | ((value[1] & 0xFF) << 16) | ((value[2] & 0xFF) << 8)
+					| (value[3] & 0xFF);
+		}
+
+	}
+
+	//
+	// Buffer streams used by the compressed buffer mode
+	//
+
+	private static final class BufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		BufferInputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+	}
+
+	private static final class BufferOutputStream extends OutputStream {
+
+		private final ByteBuffer buffer;
+
+		BufferOutputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void write(final int b) {
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			buffer.put(b, off, len);
+		}
+
 	}
 
 }
@@ -0,0 +1,696 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run many encode or decode jobs in one JVM on a bounded worker pool.
+ * <p>
+ * Jobs come from a manifest file or from the bitmap files of a directory. A manifest is either a CSV file with a
+ * header line or a JSONL file (<code>.jsonl</code> or <code>.json</code> extension) with one object per line. Both use
+ * the command line long option names as column or key names: <code>image_in</code>, <code>image_out</code>,
+ * <code>data_in</code>, <code>message_in</code>, <code>data_out</code>, <code>seed_string</code>,
+ * <code>seed_value</code>, <code>depth</code>, <code>compression</code> and <code>integrity</code>. Relative paths
+ * are resolved against the working directory. The scatter, pixels and encrypted flags apply to every
+ * job.
+ * <p>
+ * A failed job is reported and does not abort the run. A summary with the throughput is printed at the end.
+ */
+public class SteganographyBatch {
+
+	static final String IMAGE_IN = "image_in";
+	static final String IMAGE_OUT = "image_out";
+	static final String DATA_IN = "data_in";
+	static final String DATA_OUT = "data_out";
+	static final String MESSAGE_IN = "message_in";
+	static final String SEED_STRING = "seed_string";
+	static final String SEED_VALUE = "seed_value";
+	static final String DEPTH = "depth";
+	static final String COMPRESSION = "compression";
+	static final String INTEGRITY = "integrity";
+
+	private static final String DATA_EXTENSION = ".data";
+
+	// pending jobs per worker before the submission blocks
+	private static final int QUEUE_FACTOR = 2;
+
+	private final boolean encode;
+	private final int threads;
+
+	private boolean force;
+	private int depth = EncodeOptions.DEFAULT_DEPTH;
+	private Compression compression = Compression.NONE;
+	private Integrity integrity = Integrity.MD5;
+	private boolean scatter;
+	private boolean pixels;
+	private boolean encrypted;
+	private int chunkSize;
+	private int parity;
+	private boolean override;
+	private boolean mapped;
+	private ForkJoinPool forkJoinPool;
+	private SteganographyMetrics metrics;
+	private CarrierFormat carrierFormat;
+
+	private PrintStream out = System.out;
+	private PrintStream err = System.err;
+
+	private final AtomicInteger succeeded = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong dataBytes = new AtomicLong();
+
+	/**
+	 * Create a batch.
+	 *
+	 * @param encode
+	 *            true to encode, false to decode
+	 * @param threads
+	 *            number of worker threads
+	 */
+	public SteganographyBatch(final boolean encode, final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads. Must be at least 1.");
+		}
+		this.encode = encode;
+		this.threads = threads;
+	}
+
+	/**
+	 * Set force flag to encode already encoded bitmap images.
+	 *
+	 * @param force
+	 */
+	public void setForce(final boolean force) {
+		this.force = force;
+	}
+
+	/**
+	 * Set the number of LSB used per image byte by jobs without depth column.
+	 *
+	 * @param depth
+	 *            1, 2, 4 or 8
+	 */
+	public void setDepth(final int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * Set the compression used by jobs without compression column.
+	 *
+	 * @param compression
+	 *            the compression
+	 */
+	public void setCompression(final Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Set the integrity check used by jobs without integrity column.
+	 *
+	 * @param integrity
+	 *            the integrity check
+	 */
+	public void setIntegrity(final Integrity integrity) {
+		this.integrity = integrity;
+	}
+
+	/**
+	 * Set scatter flag to spread the data of every job over the whole image.
+	 *
+	 * @param scatter
+	 */
+	public void setScatter(final boolean scatter) {
+		this.scatter = scatter;
+	}
+
+	/**
+	 * Set pixels flag to encode the data of every job within the pixel samples only.
+	 *
+	 * @param pixels
+	 */
+	public void setPixels(final boolean pixels) {
+		this.pixels = pixels;
+	}
+
+	/**
+	 * Set encrypted flag to encrypt the data of every job with the key of its seed string.
+	 *
+	 * @param encrypted
+	 * @see EncodeOptions#setEncrypted(boolean)
+	 */
+	public void setEncrypted(final boolean encrypted) {
+		this.encrypted = encrypted;
+	}
+
+	/**
+	 * Set number of data bytes per chunk of every job, 0 to store the data in one piece.
+	 *
+	 * @param chunkSize
+	 * @see EncodeOptions#setChunkSize(int)
+	 */
+	public void setChunkSize(final int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Set number of Reed-Solomon parity bytes per codeword of every job, 0 without error correction.
+	 *
+	 * @param parity
+	 * @see EncodeOptions#setParity(int)
+	 */
+	public void setParity(final int parity) {
+		this.parity = parity;
+	}
+
+	/**
+	 * Set override flag to overwrite existing output files.
+	 *
+	 * @param override
+	 */
+	public void setOverride(final boolean override) {
+		this.override = override;
+	}
+
+	/**
+	 * Set mapped flag to access image files through memory mapping.
+	 *
+	 * @param mapped
+	 */
+	public void setMapped(final boolean mapped) {
+		this.mapped = mapped;
+	}
+
+	/**
+	 * Set the pool used by the parallel mode of each job.
+	 *
+	 * @param forkJoinPool
+	 *            the pool or null to disable the parallel mode
+	 */
+	public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Set the metrics recorded by each job.
+	 *
+	 * @param metrics
+	 *            the metrics or null to disable the metrics
+	 */
+	public void setMetrics(final SteganographyMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Set the carrier format of every image.
+	 *
+	 * @param carrierFormat
+	 *            the format or null to detect the format of each image
+	 * @see Steganography#setCarrierFormat(CarrierFormat)
+	 */
+	public void setCarrierFormat(final CarrierFormat carrierFormat) {
+		this.carrierFormat = carrierFormat;
+	}
+
+	/**
+	 * Set the streams for job messages and errors.
+	 *
+	 * @param out
+	 *            stream for messages and summary
+	 * @param err
+	 *            stream for job errors
+	 */
+	public void setOutput(final PrintStream out, final PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Get the number of failed jobs.
+	 *
+	 * @return failed jobs
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Get the number of succeeded jobs.
+	 *
+	 * @return succeeded jobs
+	 */
+	public int getSucceeded() {
+		return succeeded.get();
+	}
+
+	/**
+	 * Run the jobs listed in a CSV or JSONL manifest. The manifest is read line by line while the jobs run.
+	 *
+	 * @param manifest
+	 *            the manifest file
+	 * @throws Exception
+	 */
+	public void runManifest(final File manifest) throws Exception {
+		boolean json = manifest.getName().endsWith(".jsonl") || manifest.getName().endsWith(".json");
+		run(new JobSource() {
+			@Override
+			public void submit(final ThreadPoolExecutor executor) throws IOException {
+				try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+					List<String> columns = null;
+					int lineNumber = 0;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						lineNumber++;
+						// skip blank and comment lines
+						if (line.trim().isEmpty() || line.startsWith("#")) {
+							continue;
+						}
+						Map<String, String> values;
+						try {
+							if (json) {
+								values = parseJsonLine(line, lineNumber);
+							} else if (columns == null) {
+								columns = parseCsvLine(line);
+								continue;
+							} else {
+								values = toMap(columns, parseCsvLine(line), lineNumber);
+							}
+						} catch (IllegalArgumentException e) {
+							// report invalid line as a failed job
+							reportFailure(lineNumber, manifest.getName(), e);
+							continue;
+						}
+						executor.execute(new Job(lineNumber, values));
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run one job for each bitmap, PNM or TGA file of a directory, see {@link CarrierFormat#isCarrierFile(String)}.
+	 * <p>
+	 * Encoded images are written with the same file name to the output directory. Decoded data is written to the
+	 * output directory with the image file name and a <code>.data</code> extension.
+	 *
+	 * @param directory
+	 *            directory with the input bitmap files
+	 * @param outputDirectory
+	 *            directory for the output files
+	 * @param defaults
+	 *            values shared by all jobs, e.g. data_in, message_in or seed_string
+	 * @throws Exception
+	 */
+	public void runDirectory(final File directory, final File outputDirectory, final Map<String, String> defaults)
+			throws Exception {
+		File[] images = directory.listFiles((dir, name) -> CarrierFormat.isCarrierFile(name));
+		if (images == null) {
+			throw new IllegalArgumentException(String.format("Input directory (%s) not found", directory.getName()));
+		}
+		if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IllegalArgumentException(
+					String.format("Output directory (%s) could not be created", outputDirectory.getName()));
+		}
+		Arrays.sort(images);
+		run(new JobSource() {
+			@Override
+			public void submit(final ThreadPoolExecutor executor) {
+				int jobNumber = 0;
+				for (File image : images) {
+					Map<String, String> values = new LinkedHashMap<>(defaults);
+					values.put(IMAGE_IN, image.getPath());
+					if (encode) {
+						values.put(IMAGE_OUT, new File(outputDirectory, image.getName()).getPath());
+					} else {
+						String name = image.getName().substring(0, image.getName().lastIndexOf('.'));
+						values.put(DATA_OUT, new File(outputDirectory, name + DATA_EXTENSION).getPath());
+					}
+					executor.execute(new Job(++jobNumber, values));
+				}
+			}
+		});
+	}
+
+	//
+	// Execution
+	//
+
+	private interface JobSource {
+		void submit(ThreadPoolExecutor executor) throws IOException;
+	}
+
+	private void run(final JobSource source) throws Exception {
+		long start = System.nanoTime();
+		// bounded queue, the submitting thread runs the job when the queue is full
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_FACTOR * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			source.submit(executor);
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		printSummary(System.nanoTime() - start);
+	}
+
+	private void reportFailure(final int number, final String source, final Exception e) {
+		failed.incrementAndGet();
+		err.println(String.format("Job %d (%s) failed: %s", number, source, e.getLocalizedMessage()));
+	}
+
+	private void printSummary(final long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		int jobs = succeeded.get() + failed.get();
+		out.println(String.format(
+				"Batch finished: %d jobs, %d succeeded, %d failed, %d data bytes in %.3f s (%.1f jobs/s, %.2f MB/s)",
+				jobs, succeeded.get(), failed.get(), dataBytes.get(), seconds, jobs / seconds,
+				dataBytes.get() / 1e6 / seconds));
+	}
+
+	private final class Job implements Runnable {
+
+		private final int number;
+		private final Map<String, String> values;
+
+		Job(final int number, final Map<String, String> values) {
+			this.number = number;
+			this.values = values;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Steganography steganography = createSteganography();
+				long length = encode ? runEncode(steganography) : runDecode(steganography);
+				dataBytes.addAndGet(length);
+				succeeded.incrementAndGet();
+			} catch (Exception e) {
+				reportFailure(number, values.get(IMAGE_IN), e);
+			}
+		}
+
+		private Steganography createSteganography() throws Exception {
+			Steganography steganography = new Steganography(values.get(SEED_STRING));
+			String seedValue = values.get(SEED_VALUE);
+			if (seedValue != null && !seedValue.isEmpty()) {
+				try {
+					steganography.setSeed(Long.parseLong(seedValue));
+				} catch (NumberFormatException nfe) {
+					throw new Exception(
+							String.format("Number format exception: '%s' is not a valid number", seedValue));
+				}
+			}
+			steganography.setForkJoinPool(forkJoinPool);
+			steganography.setMetrics(metrics);
+			steganography.setCarrierFormat(carrierFormat);
+			return steganography;
+		}
+
+		private long runEncode(final Steganography steganography) throws Exception {
+			File fileInput = getRequiredFile(IMAGE_IN, "Input image");
+			File fileOutput = getOutputFile(IMAGE_OUT, "Output image");
+			EncodeOptions options = createOptions();
+			long length;
+			if (has(DATA_IN)) {
+				File fileDataInput = getRequiredFile(DATA_IN, "Input data");
+				length = fileDataInput.length();
+				// stream data file
+				try (InputStream inputData = new BufferedInputStream(new FileInputStream(fileDataInput))) {
+					if (mapped) {
+						steganography.encodeFile(fileInput, fileOutput, inputData, length, options);
+					} else {
+						byte[] image = Files.readAllBytes(fileInput.toPath());
+						Files.write(fileOutput.toPath(), steganography.encodeData(image, inputData, length, options));
+					}
+				}
+			} else if (has(MESSAGE_IN)) {
+				byte[] inputData = values.get(MESSAGE_IN).getBytes();
+				length = inputData.length;
+				if (mapped) {
+					steganography.encodeFile(fileInput, fileOutput, inputData, options);
+				} else {
+					byte[] image = Files.readAllBytes(fileInput.toPath());
+					Files.write(fileOutput.toPath(), steganography.encodeData(image, inputData, options));
+				}
+			} else {
+				throw new Exception("Set one type of input: 'data_in' or 'message_in'");
+			}
+			// show seed if not defined previously
+			if (!has(SEED_STRING) && !has(SEED_VALUE)) {
+				out.println(String.format("Job %d (%s): data inserted with %d seed", number, fileInput.getPath(),
+						steganography.getSeed()));
+			}
+			return length;
+		}
+
+		private EncodeOptions createOptions() throws Exception {
+			EncodeOptions options = new EncodeOptions(force);
+			options.setDepth(depth);
+			options.setCompression(has(COMPRESSION) ? Compression.forName(values.get(COMPRESSION)) : compression);
+			options.setIntegrity(has(INTEGRITY) ? Integrity.forName(values.get(INTEGRITY)) : integrity);
+			options.setScatter(scatter);
+			options.setPixels(pixels);
+			options.setEncrypted(encrypted);
+			options.setChunkSize(chunkSize);
+			options.setParity(parity);
+			if (has(DEPTH)) {
+				try {
+					options.setDepth(Integer.parseInt(values.get(DEPTH)));
+				} catch (NumberFormatException nfe) {
+					throw new Exception(
+							String.format("Number format exception: '%s' is not a valid number", values.get(DEPTH)));
+				}
+			}
+			return options;
+		}
+
+		private long runDecode(final Steganography steganography) throws Exception {
+			File fileInput = getRequiredFile(IMAGE_IN, "Input image");
+			File fileOutput = getOutputFile(DATA_OUT, "Output data");
+			// stream decoded data file
+			try (OutputStream outputData = new BufferedOutputStream(new FileOutputStream(fileOutput))) {
+				if (mapped) {
+					return steganography.decodeFile(fileInput, outputData);
+				} else {
+					byte[] image = Files.readAllBytes(fileInput.toPath());
+					return steganography.decodeData(image, outputData);
+				}
+			} catch (Exception e) {
+				// discard partially decoded data file
+				Files.deleteIfExists(fileOutput.toPath());
+				throw e;
+			}
+		}
+
+		private boolean has(final String key) {
+			String value = values.get(key);
+			return value != null && !value.isEmpty();
+		}
+
+		private File getRequiredFile(final String key, final String description) throws Exception {
+			if (!has(key)) {
+				throw new Exception(String.format("Missing required column: '%s'", key));
+			}
+			File file = new File(values.get(key));
+			if (!file.exists()) {
+				throw new Exception(String.format("%s file (%s) not found", description, file.getName()));
+			}
+			return file;
+		}
+
+		private File getOutputFile(final String key, final String description) throws Exception {
+			if (!has(key)) {
+				throw new Exception(String.format("Missing required column: '%s'", key));
+			}
+			File file = new File(values.get(key));
+			if (file.exists() && !override) {
+				throw new Exception(String.format("%s file (%s) already exist. Set override flag to overwrite",
+						description, file.getName()));
+			}
+			return file;
+		}
+
+	}
+
+	//
+	// Manifest parsing
+	//
+
+	// CSV line with optional double quoted fields
+	static List<String> parseCsvLine(final String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int idx = 0; idx < line.length(); idx++) {
+			char c = line.charAt(idx);
+			if (quoted) {
+				if (c == '"' && idx + 1 < line.length() && line.charAt(idx + 1) == '"') {
+					field.append('"');
+					idx++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString().trim());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString().trim());
+		return fields;
+	}
+
+	private static Map<String, String> toMap(final List<String> columns, final List<String> fields,
+			final int lineNumber) {
+		if (fields.size() > columns.size()) {
+			throw new IllegalArgumentException(
+					String.format("Invalid manifest line %d. Expected %d columns.", lineNumber, columns.size()));
+		}
+		Map<String, String> values = new LinkedHashMap<>();
+		for (int idx = 0; idx < fields.size(); idx++) {
+			values.put(columns.get(idx), fields.get(idx));
+		}
+		return values;
+	}
+
+	// flat JSON object with string, number or boolean values
+	static Map<String, String> parseJsonLine(final String line, final int lineNumber) {
+		Map<String, String> values = new LinkedHashMap<>();
+		JsonReader reader = new JsonReader(line, lineNumber);
+		reader.expect('{');
+		if (!reader.consume('}')) {
+			do {
+				String key = reader.readString();
+				reader.expect(':');
+				values.put(key, reader.readValue());
+			} while (reader.consume(','));
+			reader.expect('}');
+		}
+		return values;
+	}
+
+	private static final class JsonReader {
+
+		private final String line;
+		private final int lineNumber;
+		private int position;
+
+		JsonReader(final String line, final int lineNumber) {
+			this.line = line;
+			this.lineNumber = lineNumber;
+		}
+
+		void expect(final char c) {
+			if (!consume(c)) {
+				throw error(String.format("'%c' expected", c));
+			}
+		}
+
+		boolean consume(final char c) {
+			skipWhitespace();
+			if (position < line.length() && line.charAt(position) == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		String readValue() {
+			skipWhitespace();
+			if (position < line.length() && line.charAt(position) == '"') {
+				return readString();
+			}
+			// number, boolean or null literal
+			int start = position;
+			while (position < line.length() && ",}".indexOf(line.charAt(position)) < 0
+					&& !Character.isWhitespace(line.charAt(position))) {
+				position++;
+			}
+			String literal = line.substring(start, position);
+			if (literal.isEmpty()) {
+				throw error("value expected");
+			}
+			return "null".equals(literal) ? null : literal;
+		}
+
+		String readString() {
+			expect('"');
+			StringBuilder value = new StringBuilder();
+			while (position < line.length()) {
+				char c = line.charAt(position++);
+				if (c == '"') {
+					return value.toString();
+				} else if (c == '\\' && position < line.length()) {
+					char escaped = line.charAt(position++);
+					switch (escaped) {
+					case 'n':
+						value.append('\n');
+						break;
+					case 't':
+						value.append('\t');
+						break;
+					case 'r':
+						value.append('\r');
+						break;
+					case 'b':
+						value.append('\b');
+						break;
+					case 'f':
+						value.append('\f');
+						break;
+					case 'u':
+						if (position + 4 > line.length()) {
+							throw error("invalid unicode escape");
+						}
+						value.append((char) Integer.parseInt(line.substring(position, position + 4), 16));
+						position += 4;
+						break;
+					default:
+						value.append(escaped);
+					}
+				} else {
+					value.append(c);
+				}
+			}
+			throw error("unterminated string");
+		}
+
+		private void skipWhitespace() {
+			while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+				position++;
+			}
+		}
+
+		private IllegalArgumentException error(final String message) {
+			return new IllegalArgumentException(
+					String.format("Invalid manifest line %d at column %d: %s", lineNumber, position + 1, message));
+		}
+
+	}
+
+}
@@ -1,7 +1,20 @@
 package br.com.lnsoft.cryptography;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -24,6 +37,10 @@ public class SteganographyCLI {
 			steganography.showHelp();
 			System.exit(-1);
 		}
+		// batch jobs failed
+		if (steganography.exitCode != 0) {
+			System.exit(steganography.exitCode);
+		}
 	}
 
 	public SteganographyCLI() {
@@ -32,6 +49,8 @@ public class SteganographyCLI {
 
 	private Steganography steganography;
 
+	private int exitCode;
+
 	private enum Mode {
 		ENCODE, DECODE
 	}
@@ -65,6 +84,71 @@ public class SteganographyCLI {
 	private static final String OVERRIDE = "o";
 	private static final String OVERRIDE_LONG = "override";
 
+	private static final String MAPPED = "mm";
+	private static final String MAPPED_LONG = "mapped";
+
+	private static final String PARALLEL = "pa";
+	private static final String PARALLEL_LONG = "parallel";
+
+	private static final String DEPTH = "dp";
+	private static final String DEPTH_LONG = "depth";
+
+	private static final String COMPRESSION = "cz";
+	private static final String COMPRESSION_LONG = "compression";
+
+	private static final String INTEGRITY = "ig";
+	private static final String INTEGRITY_LONG = "integrity";
+
+	private static final String SCATTER = "sp";
+	private static final String SCATTER_LONG = "scatter";
+
+	private static final String PIXELS = "px";
+	private static final String PIXELS_LONG = "pixels";
+
+	private static final String ENCRYPT = "ec";
+	private static final String ENCRYPT_LONG = "encrypt";
+
+	private static final String PARITY = "pr";
+	private static final String PARITY_LONG = "parity";
+
+	private static final String CARRIER_FORMAT = "cf";
+	private static final String CARRIER_FORMAT_LONG = "carrier_format";
+
+	private static final String CHUNK_SIZE = "ck";
+	private static final String CHUNK_SIZE_LONG = "chunk_size";
+	private static final String RANGE = "rg";
+	private static final String RANGE_LONG = "range";
+	private static final String UPDATE = "up";
+	private static final String UPDATE_LONG = "update";
+
+	private static final String BATCH = "ba";
+	private static final String BATCH_LONG = "batch";
+	private static final String BATCH_DIR = "bd";
+	private static final String BATCH_DIR_LONG = "batch_dir";
+	private static final String THREADS = "th";
+	private static final String THREADS_LONG = "threads";
+
+	private static final String SERVER = "sr";
+	private static final String SERVER_LONG = "server";
+	private static final String SERVER_DIR = "sd";
+	private static final String SERVER_DIR_LONG = "server_dir";
+
+	private static final String SCAN = "sc";
+	private static final String SCAN_LONG = "scan";
+
+	private static final String SHARDS = "sh";
+	private static final String SHARDS_LONG = "shards";
+
+	private static final String CAPACITY = "cp";
+	private static final String CAPACITY_LONG = "capacity";
+	private static final String INDEX = "ix";
+	private static final String INDEX_LONG = "index";
+
+	private static final String METRICS = "mt";
+	private static final String METRICS_LONG = "metrics";
+	private static final String METRICS_PERIOD = "mp";
+	private static final String METRICS_PERIOD_LONG = "metrics_period";
+
 	private static final String SEED_VALUE = "sv";
 	private static final String SEED_VALUE_LONG = "seed_value";
 	private static final String SEED_STRING = "ss";
@@ -73,6 +157,8 @@ public class SteganographyCLI {
 	private Options options;
 	private CommandLine cmd;
 
+	private SteganographyMetrics metrics;
+
 	private void initCLI(final String[] args) throws ParseException {
 		options = new Options();
 		// command line options definition
@@ -94,6 +180,57 @@ public class SteganographyCLI {
 		// override
 		options.addOption(Option.builder(OVERRIDE).longOpt(OVERRIDE_LONG)
 				.desc("set override flag to overwrite exiting files").build());
+		// mapped
+		options.addOption(Option.builder(MAPPED).longOpt(MAPPED_LONG)
+				.desc("set mapped flag to access image files through memory mapping").build());
+		// parallel
+		options.addOption(Option.builder(PARALLEL).longOpt(PARALLEL_LONG)
+				.desc("set parallel flag to encode and decode large data using all processors").build());
+		// depth
+		options.addOption(Option.builder(DEPTH).longOpt(DEPTH_LONG).hasArg(true)
+				.desc("set number of bits used per image byte: 1, 2, 4 or 8, default is 4").build());
+		// compression
+		options.addOption(Option.builder(COMPRESSION).longOpt(COMPRESSION_LONG).hasArg(true)
+				.desc("set data compression: none, deflate or deflate_fast, default is none").build());
+		// integrity
+		options.addOption(Option.builder(INTEGRITY).longOpt(INTEGRITY_LONG).hasArg(true)
+				.desc("set data integrity check: md5, crc32c or murmur3_128, default is md5").build());
+		// scatter
+		options.addOption(Option.builder(SCATTER).longOpt(SCATTER_LONG)
+				.desc("set scatter flag to spread the data over the whole image at positions derived from the seed")
+				.build());
+		// pixels
+		options.addOption(Option.builder(PIXELS).longOpt(PIXELS_LONG)
+				.desc("set pixels flag to encode within the color bytes of a 24 or 32 bits per pixel bitmap only, "
+						+ "leaving the row padding and alpha bytes unchanged")
+				.build());
+		// carrier format
+		options.addOption(Option.builder(CARRIER_FORMAT).longOpt(CARRIER_FORMAT_LONG).hasArg(true)
+				.desc("set image format: bmp, pnm, tga or raw for headerless frames, default is detected from the "
+						+ "image header")
+				.build());
+		// encryption
+		options.addOption(Option.builder(ENCRYPT).longOpt(ENCRYPT_LONG)
+				.desc("set encrypt flag to encrypt the data with AES-CTR and a key derived from the seed string")
+				.build());
+		// error correction
+		options.addOption(Option.builder(PARITY).longOpt(PARITY_LONG).hasArg(true)
+				.desc("set number of Reed-Solomon parity bytes per 255 bytes codeword, between 2 and 128, to correct "
+						+ "up to half as many damaged bytes per codeword, default is no error correction")
+				.build());
+		// chunks
+		options.addOption(Option.builder(CHUNK_SIZE).longOpt(CHUNK_SIZE_LONG).hasArg(true)
+				.desc("set number of data bytes per checksummed chunk, between 256 and 16777216, so a range of the "
+						+ "data is decoded without the whole data, default is no chunks")
+				.build());
+		options.addOption(Option.builder(RANGE).longOpt(RANGE_LONG).hasArg(true)
+				.desc("set data range to decode as position:length, only the chunks of the range are read and "
+						+ "checked when the data is chunked")
+				.build());
+		options.addOption(Option.builder(UPDATE).longOpt(UPDATE_LONG).hasArg(true)
+				.desc("set data position for 'encode' mode to update the chunked data of 'image_in' in place with "
+						+ "'data_in' or 'message_in', only the chunks of the range are read and written")
+				.build());
 		// encode type group
 		OptionGroup encodeTypeInGroup = new OptionGroup();
 		encodeTypeInGroup.addOption(
@@ -108,6 +245,53 @@ public class SteganographyCLI {
 		encodeTypeOutGroup.addOption(Option.builder(MESSAGE_OUT).longOpt(MESSAGE_OUT_LONG).hasArg(false)
 				.desc("set output to message string").build());
 		options.addOptionGroup(encodeTypeOutGroup);
+		// batch group
+		OptionGroup batchGroup = new OptionGroup();
+		batchGroup.addOption(Option.builder(BATCH).longOpt(BATCH_LONG).hasArg(true)
+				.desc("set batch manifest file path: CSV or JSONL (.jsonl) with image_in, image_out, data_in, "
+						+ "message_in, data_out, seed_string, seed_value, depth, compression and integrity columns")
+				.build());
+		batchGroup.addOption(Option.builder(BATCH_DIR).longOpt(BATCH_DIR_LONG).hasArg(true)
+				.desc("set batch input directory: process every bitmap file, 'image_out' or 'data_out' "
+						+ "set the output directory")
+				.build());
+		options.addOptionGroup(batchGroup);
+		options.addOption(Option.builder(THREADS).longOpt(THREADS_LONG).hasArg(true)
+				.desc("set number of batch, scan, shards or server worker threads: default is the number of processors")
+				.build());
+		// server
+		options.addOption(Option.builder(SERVER).longOpt(SERVER_LONG).hasArg(true)
+				.desc("start a loopback HTTP server on the port to encode and decode without the JVM startup").build());
+		options.addOption(Option.builder(SERVER_DIR).longOpt(SERVER_DIR_LONG).hasArg(true)
+				.desc("set server root directory: the files of the requests must be within it, default is the "
+						+ "working directory")
+				.build());
+		// scan
+		options.addOption(Option.builder(SCAN).longOpt(SCAN_LONG).hasArg(true)
+				.desc("scan a directory tree reading only the bitmap headers and print a CSV catalog of the encoded "
+						+ "bitmap files")
+				.build());
+		// shards
+		// capacity
+		options.addOption(Option.builder(CAPACITY).longOpt(CAPACITY_LONG)
+				.desc("show the number of data bytes 'image_in' can hold with the depth, compression, integrity, "
+						+ "scatter and pixels options, only the bitmap header is read")
+				.build());
+		options.addOption(Option.builder(INDEX).longOpt(INDEX_LONG).hasArg(true)
+				.desc("set carrier index file path for 'encode' mode: 'image_in' is a directory of bitmap files, the "
+						+ "index is updated and the smallest bitmap file that fits the data is encoded")
+				.build());
+		options.addOption(Option.builder(SHARDS).longOpt(SHARDS_LONG)
+				.desc("set shards flag: 'image_in' and 'image_out' are comma separated lists of bitmap files, the data "
+						+ "is split across them")
+				.build());
+		// metrics
+		options.addOption(Option.builder(METRICS).longOpt(METRICS_LONG).hasArg(true)
+				.desc("record the time of each step, the data bytes and the failures, print them to the error output "
+						+ "at exit as text or json and expose them through JMX")
+				.build());
+		options.addOption(Option.builder(METRICS_PERIOD).longOpt(METRICS_PERIOD_LONG).hasArg(true)
+				.desc("set number of seconds between two metrics prints, default is only at exit").build());
 		// seed group
 		OptionGroup seedGroup = new OptionGroup();
 		seedGroup.addOption(Option.builder(SEED_VALUE).longOpt(SEED_VALUE_LONG).hasArg(true)
@@ -126,12 +310,49 @@ public class SteganographyCLI {
 			showHelp();
 			return;
 		}
+		// metrics
+		if (cmd.hasOption(METRICS)) {
+			startMetrics();
+		}
+		// carrier format
+		if (cmd.hasOption(CARRIER_FORMAT)) {
+			steganography.setCarrierFormat(CarrierFormat.forName(cmd.getOptionValue(CARRIER_FORMAT)));
+		}
+		// server
+		if (cmd.hasOption(SERVER)) {
+			runServer();
+			return;
+		}
+		// scan
+		if (cmd.hasOption(SCAN)) {
+			runScan();
+			return;
+		}
+		// capacity
+		if (cmd.hasOption(CAPACITY)) {
+			runCapacity();
+			return;
+		}
 		// mode
 		Mode operationMode = getRequiredMode();
-		// File Input
-		File fileInput = getRequiredFileInput();
+		// batch
+		if (cmd.hasOption(BATCH) || cmd.hasOption(BATCH_DIR)) {
+			runBatch(operationMode);
+			return;
+		}
+		// shards
+		if (cmd.hasOption(SHARDS)) {
+			runShards(operationMode);
+			return;
+		}
+		// File Input, picked from the carrier index
+		File fileInput = cmd.hasOption(INDEX) ? selectCarrier(operationMode) : getRequiredFileInput();
 		// Seed
 		setOptionalSeed();
+		// Parallel
+		if (cmd.hasOption(PARALLEL)) {
+			steganography.setForkJoinPool(new ForkJoinPool());
+		}
 		// mode options
 		if (operationMode == Mode.ENCODE) {
 			runEncode(fileInput);
@@ -141,6 +362,11 @@ public class SteganographyCLI {
 	}
 
 	private void runEncode(final File fileInput) throws Exception {
+		// update in place
+		if (cmd.hasOption(UPDATE)) {
+			runUpdate(fileInput);
+			return;
+		}
 		// encode options
 		if (!cmd.hasOption(IMAGE_OUT)) {
 			throw new Exception("Missing required option: 'image_out' for 'encode' mode");
@@ -158,33 +384,136 @@ public class SteganographyCLI {
 					fileOutput.getName()));
 		}
 		// in type
-		byte[] inputData;
 		if (cmd.hasOption(DATA_IN)) {
 			String inputDataFilenameValue = cmd.getOptionValue(DATA_IN);
 			File fileDataInput = new File(inputDataFilenameValue);
 			if (!fileDataInput.exists()) {
 				throw new Exception(String.format("Input image file (%s) not found", fileDataInput.getName()));
 			}
-			inputData = Files.readAllBytes(fileDataInput.toPath());
+			// stream data file
+			try (InputStream inputData = new BufferedInputStream(new FileInputStream(fileDataInput))) {
+				encodeImage(fileInput, fileOutput, inputData, fileDataInput.length());
+			}
 		} else if (cmd.hasOption(MESSAGE_IN)) {
 			String optionMessageInValue = cmd.getOptionValue(MESSAGE_IN);
-			inputData = optionMessageInValue.getBytes();
+			byte[] inputData = optionMessageInValue.getBytes();
+			if (cmd.hasOption(MAPPED)) {
+				// encode Data within mapped bitmap file
+				steganography.encodeFile(fileInput, fileOutput, inputData, getEncodeOptions());
+			} else {
+				// load bitmap file
+				byte[] image = readImage(fileInput);
+				// encode Data
+				byte[] encodeData = steganography.encodeData(image, inputData, getEncodeOptions());
+				// save image
+				saveImage(fileOutput, encodeData);
+			}
 		} else {
 			throw new Exception("Input must be 'data_in' or 'message_in'");
 		}
-		// load bitmap file
-		byte[] image = Files.readAllBytes(fileInput.toPath());
-		// encode Data
-		byte[] encodeData = steganography.encodeData(image, inputData, cmd.hasOption(FORCE));
-		// save image
+		// show seed if not defined previously
+		if ((!cmd.hasOption(SEED_VALUE) && !cmd.hasOption(SEED_STRING))) {
+			System.out.println(String.format("Data inserted with %d seed", steganography.getSeed()));
+		}
+	}
+
+	private void encodeImage(final File fileInput, final File fileOutput, final InputStream inputData,
+			final long length) throws Exception {
+		if (cmd.hasOption(MAPPED)) {
+			// encode Data within mapped bitmap file
+			steganography.encodeFile(fileInput, fileOutput, inputData, length, getEncodeOptions());
+		} else {
+			// load bitmap file
+			byte[] image = readImage(fileInput);
+			// encode Data
+			byte[] encodeData = steganography.encodeData(image, inputData, length, getEncodeOptions());
+			// save image
+			saveImage(fileOutput, encodeData);
+		}
+	}
+
+	private void saveImage(final File fileOutput, final byte[] encodeData) throws Exception {
 		if (fileOutput.exists() && !cmd.hasOption(OVERRIDE)) {
 			throw new Exception(String.format("Output image file (%s) already exist. Set override flag to overwrite",
 					fileOutput.getName()));
 		}
+		long start = System.nanoTime();
 		Files.write(fileOutput.toPath(), encodeData);
-		// show seed if not defined previously
-		if ((!cmd.hasOption(SEED_VALUE) && !cmd.hasOption(SEED_STRING))) {
-			System.out.println(String.format("Data inserted with %d seed", steganography.getSeed()));
+		recordIO(start);
+	}
+
+	// load bitmap file
+	private byte[] readImage(final File fileInput) throws Exception {
+		long start = System.nanoTime();
+		byte[] image = Files.readAllBytes(fileInput.toPath());
+		recordIO(start);
+		return image;
+	}
+
+	private void recordIO(final long start) {
+		if (metrics != null) {
+			metrics.record(SteganographyMetrics.Phase.IO, System.nanoTime() - start);
+		}
+	}
+
+	private void startMetrics() throws Exception {
+		String format = cmd.getOptionValue(METRICS).toLowerCase(Locale.ROOT);
+		if (!format.equals("text") && !format.equals("json")) {
+			throw new Exception(String.format("Invalid metrics format: '%s' must be text or json", format));
+		}
+		boolean json = format.equals("json");
+		metrics = new SteganographyMetrics();
+		metrics.register("cli");
+		steganography.setMetrics(metrics);
+		// periodic print
+		if (cmd.hasOption(METRICS_PERIOD)) {
+			String optionPeriodValue = cmd.getOptionValue(METRICS_PERIOD);
+			try {
+				metrics.startDump(System.err, Long.parseLong(optionPeriodValue), json);
+			} catch (NumberFormatException nfe) {
+				throw new Exception(
+						String.format("Number format exception: '%s' is not a valid number", optionPeriodValue));
+			}
+		}
+		// print at exit, also after a failure
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			metrics.stopDump();
+			System.err.print(json ? metrics.dumpJson() + System.lineSeparator() : metrics.dumpText());
+		}));
+	}
+
+	private void runUpdate(final File fileInput) throws Exception {
+		String optionUpdateValue = cmd.getOptionValue(UPDATE);
+		int position;
+		try {
+			position = Integer.parseInt(optionUpdateValue);
+		} catch (NumberFormatException nfe) {
+			throw new Exception(
+					String.format("Number format exception: '%s' is not a valid number", optionUpdateValue));
+		}
+		// in type
+		byte[] inputData;
+		if (cmd.hasOption(DATA_IN)) {
+			File fileDataInput = new File(cmd.getOptionValue(DATA_IN));
+			if (!fileDataInput.exists()) {
+				throw new Exception(String.format("Input data file (%s) not found", fileDataInput.getName()));
+			}
+			inputData = Files.readAllBytes(fileDataInput.toPath());
+		} else if (cmd.hasOption(MESSAGE_IN)) {
+			inputData = cmd.getOptionValue(MESSAGE_IN).getBytes();
+		} else {
+			throw new Exception("Set one type of input: 'data_in' or 'message_in'");
+		}
+		if (cmd.hasOption(MAPPED)) {
+			// update Data within mapped bitmap file
+			steganography.updateFile(fileInput, position, inputData);
+		} else {
+			// load, update and save bitmap file
+			byte[] image = readImage(fileInput);
+			steganography.updateData(image, position, inputData);
+			long start = System.nanoTime();
+			Files.write(fileInput.toPath(), image);
+			recordIO(start);
 		}
 	}
 
@@ -203,18 +532,350 @@ public class SteganographyCLI {
 						fileOutput.getName()));
 			}
 		}
-		// load bitmap file
-		byte[] image = Files.readAllBytes(fileInput.toPath());
-		// decode Data
-		byte[] decodeData = steganography.decodeData(image);
+		// process decode data range
+		if (cmd.hasOption(RANGE)) {
+			int[] range = getRange();
+			byte[] decodeData;
+			if (cmd.hasOption(MAPPED)) {
+				decodeData = steganography.decodeFileRange(fileInput, range[0], range[1]);
+			} else {
+				decodeData = steganography.decodeRange(readImage(fileInput), range[0], range[1]);
+			}
+			if (cmd.hasOption(MESSAGE_OUT)) {
+				System.out.println(String.format("Message data:\n%s", new String(decodeData)));
+			} else {
+				Files.write(fileOutput.toPath(), decodeData);
+			}
+			return;
+		}
 		// process decode data
 		if (cmd.hasOption(MESSAGE_OUT)) {
+			// decode Data
+			byte[] decodeData;
+			if (cmd.hasOption(MAPPED)) {
+				// decode Data within mapped bitmap file
+				decodeData = steganography.decodeFile(fileInput);
+			} else {
+				// load bitmap file
+				byte[] image = readImage(fileInput);
+				decodeData = steganography.decodeData(image);
+			}
 			// output decoded message data
 			System.out.println(String.format("Message data:\n%s", new String(decodeData)));
 		} else if (cmd.hasOption(DATA_OUT)) {
-			// save decoded data file
-			Files.write(fileOutput.toPath(), decodeData);
+			// stream decoded data file
+			try (OutputStream outputData = new BufferedOutputStream(new FileOutputStream(fileOutput))) {
+				if (cmd.hasOption(MAPPED)) {
+					// decode Data within mapped bitmap file
+					steganography.decodeFile(fileInput, outputData);
+				} else {
+					// load bitmap file
+					byte[] image = readImage(fileInput);
+					steganography.decodeData(image, outputData);
+				}
+			} catch (Exception e) {
+				// discard partially decoded data file
+				Files.deleteIfExists(fileOutput.toPath());
+				throw e;
+			}
+		}
+	}
+
+	private void runCapacity() throws Exception {
+		File fileInput = getRequiredFileInput();
+		// the version 1 offset depends on the seed
+		setOptionalSeed();
+		int capacity = steganography.capacityFile(fileInput, getEncodeOptions());
+		System.out.println(capacity < 0 ? "Image has no capacity, the header does not fit"
+				: String.format("Image capacity is %d bytes", capacity));
+	}
+
+	private File selectCarrier(final Mode operationMode) throws Exception {
+		if (operationMode != Mode.ENCODE) {
+			throw new Exception("Option 'index' is only for 'encode' mode");
+		}
+		File directory = new File(cmd.getOptionValue(IMAGE_IN));
+		if (!directory.isDirectory()) {
+			throw new Exception(String.format("Input directory (%s) not found", directory.getName()));
+		}
+		// data length
+		long length;
+		if (cmd.hasOption(DATA_IN)) {
+			length = new File(cmd.getOptionValue(DATA_IN)).length();
+		} else if (cmd.hasOption(MESSAGE_IN)) {
+			length = cmd.getOptionValue(MESSAGE_IN).getBytes().length;
+		} else {
+			throw new Exception("Set one type of input: 'data_in' or 'message_in'");
+		}
+		// update the index with the new and modified carriers, the version 1 offset depends on the seed
+		setOptionalSeed();
+		CarrierIndex index = new CarrierIndex(new File(cmd.getOptionValue(INDEX)), steganography);
+		index.update(directory);
+		index.save();
+		File carrier = index.select(length, getEncodeOptions());
+		if (carrier == null) {
+			throw new Exception(String.format("No carrier in (%s) fits %d bytes", directory.getName(), length));
+		}
+		System.out.println(String.format("Carrier %s selected", carrier.getPath()));
+		return carrier;
+	}
+
+	private void runBatch(final Mode operationMode) throws Exception {
+		SteganographyBatch batch = new SteganographyBatch(operationMode == Mode.ENCODE, getOptionalThreads());
+		batch.setForce(cmd.hasOption(FORCE));
+		EncodeOptions encodeOptions = getEncodeOptions();
+		batch.setDepth(encodeOptions.getDepth());
+		batch.setCompression(encodeOptions.getCompression());
+		batch.setIntegrity(encodeOptions.getIntegrity());
+		batch.setScatter(encodeOptions.isScatter());
+		batch.setPixels(encodeOptions.isPixels());
+		batch.setEncrypted(encodeOptions.isEncrypted());
+		batch.setChunkSize(encodeOptions.getChunkSize());
+		batch.setParity(encodeOptions.getParity());
+		batch.setOverride(cmd.hasOption(OVERRIDE));
+		batch.setMapped(cmd.hasOption(MAPPED));
+		batch.setMetrics(metrics);
+		batch.setCarrierFormat(steganography.getCarrierFormat());
+		if (cmd.hasOption(PARALLEL)) {
+			batch.setForkJoinPool(new ForkJoinPool());
+		}
+		if (cmd.hasOption(BATCH)) {
+			// manifest
+			File manifest = new File(cmd.getOptionValue(BATCH));
+			if (!manifest.exists()) {
+				throw new Exception(String.format("Batch manifest file (%s) not found", manifest.getName()));
+			}
+			batch.runManifest(manifest);
+		} else {
+			// directory
+			String outputOption = operationMode == Mode.ENCODE ? IMAGE_OUT : DATA_OUT;
+			if (!cmd.hasOption(outputOption)) {
+				throw new Exception(String.format("Missing required option: '%s' output directory for batch mode",
+						operationMode == Mode.ENCODE ? IMAGE_OUT_LONG : DATA_OUT_LONG));
+			}
+			// values shared by all jobs
+			Map<String, String> defaults = new LinkedHashMap<>();
+			defaults.put(SteganographyBatch.DATA_IN, cmd.getOptionValue(DATA_IN));
+			defaults.put(SteganographyBatch.MESSAGE_IN, cmd.getOptionValue(MESSAGE_IN));
+			defaults.put(SteganographyBatch.SEED_STRING, cmd.getOptionValue(SEED_STRING));
+			defaults.put(SteganographyBatch.SEED_VALUE, cmd.getOptionValue(SEED_VALUE));
+			batch.runDirectory(new File(cmd.getOptionValue(BATCH_DIR)), new File(cmd.getOptionValue(outputOption)),
+					defaults);
+		}
+		if (batch.getFailed() > 0) {
+			exitCode = 1;
+		}
+	}
+
+	private void runShards(final Mode operationMode) throws Exception {
+		// comma separated input images
+		if (!cmd.hasOption(IMAGE_IN)) {
+			throw new Exception("Missing required option: 'image_in'");
+		}
+		File[] imagesIn = getFiles(cmd.getOptionValue(IMAGE_IN));
+		for (File imageIn : imagesIn) {
+			if (!imageIn.exists()) {
+				throw new Exception(String.format("Input image file (%s) not found", imageIn.getName()));
+			}
+		}
+		// Seed
+		setOptionalSeed();
+		// Parallel
+		if (cmd.hasOption(PARALLEL)) {
+			steganography.setForkJoinPool(new ForkJoinPool());
+		}
+		SteganographyShards shards = new SteganographyShards(steganography, getOptionalThreads());
+		if (operationMode == Mode.ENCODE) {
+			encodeShards(shards, imagesIn);
+		} else {
+			decodeShards(shards, imagesIn);
+		}
+	}
+
+	private void encodeShards(final SteganographyShards shards, final File[] imagesIn) throws Exception {
+		if (!cmd.hasOption(IMAGE_OUT)) {
+			throw new Exception("Missing required option: 'image_out' for 'encode' mode");
+		}
+		File[] imagesOut = getFiles(cmd.getOptionValue(IMAGE_OUT));
+		for (File imageOut : imagesOut) {
+			if (imageOut.exists() && !cmd.hasOption(OVERRIDE)) {
+				throw new Exception(String.format(
+						"Output image file (%s) already exist. Set override flag to overwrite", imageOut.getName()));
+			}
+		}
+		if (cmd.hasOption(DATA_IN)) {
+			File fileDataInput = new File(cmd.getOptionValue(DATA_IN));
+			if (!fileDataInput.exists()) {
+				throw new Exception(String.format("Input image file (%s) not found", fileDataInput.getName()));
+			}
+			// stream data file
+			try (InputStream inputData = new BufferedInputStream(new FileInputStream(fileDataInput))) {
+				shards.encodeFiles(imagesIn, imagesOut, inputData, fileDataInput.length(), getEncodeOptions());
+			}
+		} else if (cmd.hasOption(MESSAGE_IN)) {
+			byte[] inputData = cmd.getOptionValue(MESSAGE_IN).getBytes();
+			shards.encodeFiles(imagesIn, imagesOut, new ByteArrayInputStream(inputData), inputData.length,
+					getEncodeOptions());
+		} else {
+			throw new Exception("Set one type of input: 'data_in' or 'message_in'");
+		}
+		// show seed if not defined previously
+		if ((!cmd.hasOption(SEED_VALUE) && !cmd.hasOption(SEED_STRING))) {
+			System.out.println(String.format("Data inserted with %d seed", steganography.getSeed()));
+		}
+	}
+
+	private void decodeShards(final SteganographyShards shards, final File[] imagesIn) throws Exception {
+		if (cmd.hasOption(MESSAGE_OUT)) {
+			ByteArrayOutputStream decodeData = new ByteArrayOutputStream();
+			shards.decodeFiles(imagesIn, decodeData);
+			// output decoded message data
+			System.out.println(String.format("Message data:\n%s", new String(decodeData.toByteArray())));
+		} else if (cmd.hasOption(DATA_OUT)) {
+			File fileOutput = new File(cmd.getOptionValue(DATA_OUT));
+			if (fileOutput.exists() && !cmd.hasOption(OVERRIDE)) {
+				throw new Exception(String.format("Output data file (%s) already exist. Set override flag to overwrite",
+						fileOutput.getName()));
+			}
+			// stream decoded data file
+			try (OutputStream outputData = new BufferedOutputStream(new FileOutputStream(fileOutput))) {
+				shards.decodeFiles(imagesIn, outputData);
+			} catch (Exception e) {
+				// discard partially decoded data file
+				Files.deleteIfExists(fileOutput.toPath());
+				throw e;
+			}
+		} else {
+			throw new Exception("Set one type of output: 'data_out' or 'message_out'");
+		}
+	}
+
+	private static File[] getFiles(final String paths) {
+		String[] names = paths.split(",");
+		File[] files = new File[names.length];
+		for (int idx = 0; idx < names.length; idx++) {
+			files[idx] = new File(names[idx].trim());
+		}
+		return files;
+	}
+
+	private void runScan() throws Exception {
+		SteganographyScan scan = new SteganographyScan(getOptionalThreads());
+		File directory = new File(cmd.getOptionValue(SCAN));
+		if (!directory.isDirectory()) {
+			throw new Exception(String.format("Scan directory (%s) not found", directory.getName()));
+		}
+		scan.runDirectory(directory);
+		if (scan.getFailed() > 0) {
+			exitCode = 1;
+		}
+	}
+
+	private void runServer() throws Exception {
+		String optionPortValue = cmd.getOptionValue(SERVER);
+		int port;
+		try {
+			port = Integer.parseInt(optionPortValue);
+		} catch (NumberFormatException nfe) {
+			throw new Exception(String.format("Number format exception: '%s' is not a valid number", optionPortValue));
+		}
+		SteganographyServer server = new SteganographyServer(port, getOptionalThreads());
+		if (cmd.hasOption(PARALLEL)) {
+			server.setForkJoinPool(new ForkJoinPool());
+		}
+		server.setMetrics(metrics);
+		if (cmd.hasOption(SERVER_DIR)) {
+			File root = new File(cmd.getOptionValue(SERVER_DIR));
+			if (!root.isDirectory()) {
+				throw new Exception(String.format("Server root directory (%s) not found", root.getName()));
+			}
+			server.setRoot(root);
+		}
+		// compile encode/decode code before the first request
+		server.warmUp();
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+		System.out.println(String.format("Server listening on %s:%d", InetAddress.getLoopbackAddress().getHostAddress(),
+				server.getPort()));
+		System.out.println(String.format("Server token: %s", server.getToken()));
+	}
+
+	private EncodeOptions getEncodeOptions() throws Exception {
+		EncodeOptions encodeOptions = new EncodeOptions(cmd.hasOption(FORCE));
+		// Depth
+		if (cmd.hasOption(DEPTH)) {
+			String optionDepthValue = cmd.getOptionValue(DEPTH);
+			try {
+				encodeOptions.setDepth(Integer.parseInt(optionDepthValue));
+			} catch (NumberFormatException nfe) {
+				throw new Exception(
+						String.format("Number format exception: '%s' is not a valid number", optionDepthValue));
+			}
+		}
+		// Compression
+		if (cmd.hasOption(COMPRESSION)) {
+			encodeOptions.setCompression(Compression.forName(cmd.getOptionValue(COMPRESSION)));
+		}
+		// Integrity
+		if (cmd.hasOption(INTEGRITY)) {
+			encodeOptions.setIntegrity(Integrity.forName(cmd.getOptionValue(INTEGRITY)));
+		}
+		// Scatter
+		encodeOptions.setScatter(cmd.hasOption(SCATTER));
+		// Pixels
+		encodeOptions.setPixels(cmd.hasOption(PIXELS));
+		// Encryption
+		encodeOptions.setEncrypted(cmd.hasOption(ENCRYPT));
+		// Chunk size
+		if (cmd.hasOption(CHUNK_SIZE)) {
+			String optionChunkSizeValue = cmd.getOptionValue(CHUNK_SIZE);
+			try {
+				encodeOptions.setChunkSize(Integer.parseInt(optionChunkSizeValue));
+			} catch (NumberFormatException nfe) {
+				throw new Exception(
+						String.format("Number format exception: '%s' is not a valid number", optionChunkSizeValue));
+			}
+		}
+		// Parity
+		if (cmd.hasOption(PARITY)) {
+			String optionParityValue = cmd.getOptionValue(PARITY);
+			try {
+				encodeOptions.setParity(Integer.parseInt(optionParityValue));
+			} catch (NumberFormatException nfe) {
+				throw new Exception(
+						String.format("Number format exception: '%s' is not a valid number", optionParityValue));
+			}
+		}
+		return encodeOptions;
+	}
+
+	// position and length of the range option
+	private int[] getRange() throws Exception {
+		String optionRangeValue = cmd.getOptionValue(RANGE);
+		String[] values = optionRangeValue.split(":");
+		if (values.length != 2) {
+			throw new Exception(String.format("Invalid range: '%s' must be position:length", optionRangeValue));
+		}
+		try {
+			return new int[] { Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()) };
+		} catch (NumberFormatException nfe) {
+			throw new Exception(String.format("Number format exception: '%s' is not a valid range", optionRangeValue));
+		}
+	}
+
+	private int getOptionalThreads() throws Exception {
+		// threads
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (cmd.hasOption(THREADS)) {
+			String optionThreadsValue = cmd.getOptionValue(THREADS);
+			try {
+				threads = Integer.parseInt(optionThreadsValue);
+			} catch (NumberFormatException nfe) {
+				throw new Exception(
+						String.format("Number format exception: '%s' is not a valid number", optionThreadsValue));
+			}
 		}
+		return threads;
 	}
 
 	// show help
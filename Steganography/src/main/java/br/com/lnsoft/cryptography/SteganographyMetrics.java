@@ -0,0 +1,431 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the {@link Steganography} operations, shared by any number of instances and
+ * threads.
+ * <p>
+ * The time of each step is recorded in the histogram of its {@link Phase}, the time of each encode and decode call in
+ * the histogram of its {@link Operation} with the data bytes. Failures are counted by {@link Failure} cause where the
+ * error is detected. Counters are {@link LongAdder}s and histograms have one counter per power of two nanoseconds, so
+ * recording never blocks and threads rarely share a cache line. Percentiles are the upper bound of their bucket.
+ * <p>
+ * An instance without metrics does not read the clock at all, the cost of the disabled metrics is a field test per
+ * step. The metrics are exposed through JMX, see {@link #register(String)}, and dumped as text or JSON, on demand or
+ * periodically, see {@link #startDump(PrintStream, long, boolean)}.
+ */
+public class SteganographyMetrics implements SteganographyMetricsMBean, AutoCloseable {
+
+	/**
+	 * Steps of an operation.
+	 */
+	public enum Phase {
+		/** File mapping and copy, data stream reads and writes. Mapped pages are read on access while packing. */
+		IO,
+		/** Bitmap and signature checks, header layout and header fields. */
+		HEADER,
+		/** Data offset computation. */
+		OFFSET,
+		/** Data bytes packed within and unpacked from the image bytes. */
+		PACK,
+		/** Integrity check update, completion and comparison. */
+		HASH,
+		/** Compression and decompression, with the packing of the compressed bytes. */
+		COMPRESSION,
+		/** Encryption and decryption of the stored data bytes, key derivation and nonce. */
+		CIPHER,
+		/** Reed-Solomon parity of the data encoded and correction of damaged data. */
+		PARITY
+	}
+
+	/**
+	 * Calls recorded.
+	 */
+	public enum Operation {
+		ENCODE, DECODE
+	}
+
+	/**
+	 * Causes of failed operations.
+	 */
+	public enum Failure {
+		INVALID_SIGNATURE, INVALID_OFFSET, INVALID_HASH, INVALID_LENGTH
+	}
+
+	private static final String DOMAIN = "br.com.lnsoft.cryptography";
+
+	private final Histogram[] phases = new Histogram[Phase.values().length];
+	private final Histogram[] operations = new Histogram[Operation.values().length];
+	private final LongAdder[] bytes = new LongAdder[Operation.values().length];
+	private final LongAdder[] failures = new LongAdder[Failure.values().length];
+
+	private ObjectName objectName;
+	private ScheduledExecutorService dumpExecutor;
+
+	public SteganographyMetrics() {
+		for (int idx = 0; idx < phases.length; idx++) {
+			phases[idx] = new Histogram();
+		}
+		for (int idx = 0; idx < operations.length; idx++) {
+			operations[idx] = new Histogram();
+			bytes[idx] = new LongAdder();
+		}
+		for (int idx = 0; idx < failures.length; idx++) {
+			failures[idx] = new LongAdder();
+		}
+	}
+
+	//
+	// Recording
+	//
+
+	/**
+	 * Record the time of a step.
+	 *
+	 * @param phase
+	 *            the phase of the step
+	 * @param nanos
+	 *            elapsed time in nanoseconds
+	 */
+	public void record(final Phase phase, final long nanos) {
+		phases[phase.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Record a completed call.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param nanos
+	 *            elapsed time in nanoseconds
+	 * @param length
+	 *            number of data bytes embedded or extracted
+	 */
+	public void record(final Operation operation, final long nanos, final long length) {
+		operations[operation.ordinal()].record(nanos);
+		bytes[operation.ordinal()].add(length);
+	}
+
+	/**
+	 * Record a failure.
+	 *
+	 * @param failure
+	 *            the cause
+	 */
+	public void record(final Failure failure) {
+		failures[failure.ordinal()].increment();
+	}
+
+	//
+	// Values
+	//
+
+	/**
+	 * Get the number of steps of a phase.
+	 *
+	 * @param phase
+	 *            the phase
+	 * @return count
+	 */
+	public long getCount(final Phase phase) {
+		return phases[phase.ordinal()].count.sum();
+	}
+
+	/**
+	 * Get the time spent in a phase.
+	 *
+	 * @param phase
+	 *            the phase
+	 * @return total time in nanoseconds
+	 */
+	public long getNanos(final Phase phase) {
+		return phases[phase.ordinal()].total.sum();
+	}
+
+	/**
+	 * Get the number of completed calls of an operation.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @return count
+	 */
+	public long getCount(final Operation operation) {
+		return operations[operation.ordinal()].count.sum();
+	}
+
+	/**
+	 * Get the number of failures of a cause.
+	 *
+	 * @param failure
+	 *            the cause
+	 * @return count
+	 */
+	public long getCount(final Failure failure) {
+		return failures[failure.ordinal()].sum();
+	}
+
+	@Override
+	public long getEncodeCount() {
+		return getCount(Operation.ENCODE);
+	}
+
+	@Override
+	public long getDecodeCount() {
+		return getCount(Operation.DECODE);
+	}
+
+	@Override
+	public long getBytesEmbedded() {
+		return bytes[Operation.ENCODE.ordinal()].sum();
+	}
+
+	@Override
+	public long getBytesExtracted() {
+		return bytes[Operation.DECODE.ordinal()].sum();
+	}
+
+	@Override
+	public long getInvalidSignatureCount() {
+		return getCount(Failure.INVALID_SIGNATURE);
+	}
+
+	@Override
+	public long getInvalidOffsetCount() {
+		return getCount(Failure.INVALID_OFFSET);
+	}
+
+	@Override
+	public long getInvalidHashCount() {
+		return getCount(Failure.INVALID_HASH);
+	}
+
+	@Override
+	public long getInvalidLengthCount() {
+		return getCount(Failure.INVALID_LENGTH);
+	}
+
+	@Override
+	public long getPhaseNanos(final String phase) {
+		return getNanos(Phase.valueOf(phase.toUpperCase(Locale.ROOT)));
+	}
+
+	@Override
+	public void reset() {
+		for (Histogram histogram : phases) {
+			histogram.reset();
+		}
+		for (int idx = 0; idx < operations.length; idx++) {
+			operations[idx].reset();
+			bytes[idx].reset();
+		}
+		for (LongAdder failure : failures) {
+			failure.reset();
+		}
+	}
+
+	//
+	// Dump
+	//
+
+	@Override
+	public String dumpText() {
+		StringBuilder text = new StringBuilder();
+		for (Phase phase : Phase.values()) {
+			Histogram histogram = phases[phase.ordinal()];
+			text.append(String.format(Locale.ROOT, "phase %s: %s%n", name(phase), histogram.toText()));
+		}
+		for (Operation operation : Operation.values()) {
+			Histogram histogram = operations[operation.ordinal()];
+			text.append(String.format(Locale.ROOT, "operation %s: %s, %d bytes%n", name(operation),
+					histogram.toText(), bytes[operation.ordinal()].sum()));
+		}
+		for (Failure failure : Failure.values()) {
+			text.append(String.format(Locale.ROOT, "failure %s: %d%n", name(failure), getCount(failure)));
+		}
+		return text.toString();
+	}
+
+	@Override
+	public String dumpJson() {
+		StringBuilder json = new StringBuilder("{\"phases\":{");
+		for (Phase phase : Phase.values()) {
+			if (phase.ordinal() > 0) {
+				json.append(',');
+			}
+			json.append('"').append(name(phase)).append("\":").append(phases[phase.ordinal()].toJson(null));
+		}
+		json.append("},\"operations\":{");
+		for (Operation operation : Operation.values()) {
+			if (operation.ordinal() > 0) {
+				json.append(',');
+			}
+			json.append('"').append(name(operation)).append("\":")
+					.append(operations[operation.ordinal()].toJson(bytes[operation.ordinal()]));
+		}
+		json.append("},\"failures\":{");
+		for (Failure failure : Failure.values()) {
+			if (failure.ordinal() > 0) {
+				json.append(',');
+			}
+			json.append('"').append(name(failure)).append("\":").append(getCount(failure));
+		}
+		return json.append("}}").toString();
+	}
+
+	private static String name(final Enum<?> value) {
+		return value.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Print the metrics periodically from a daemon thread. A previous periodic dump is stopped.
+	 *
+	 * @param out
+	 *            the output stream
+	 * @param period
+	 *            seconds between two dumps
+	 * @param json
+	 *            true for JSON, one object per line, false for text
+	 */
+	public synchronized void startDump(final PrintStream out, final long period, final boolean json) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("Invalid metrics period. Must be greater than 0.");
+		}
+		stopDump();
+		dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "steganography-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumpExecutor.scheduleAtFixedRate(() -> out.print(json ? dumpJson() + System.lineSeparator() : dumpText()),
+				period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop the periodic dump.
+	 */
+	public synchronized void stopDump() {
+		if (dumpExecutor != null) {
+			dumpExecutor.shutdownNow();
+			dumpExecutor = null;
+		}
+	}
+
+	//
+	// JMX
+	//
+
+	/**
+	 * Register the metrics in the platform MBean server.
+	 *
+	 * @param name
+	 *            the name key of the object name
+	 * @return the object name, <code>br.com.lnsoft.cryptography:type=SteganographyMetrics,name=...</code>
+	 * @throws JMException
+	 */
+	public synchronized ObjectName register(final String name) throws JMException {
+		unregister();
+		ObjectName registered = new ObjectName(DOMAIN + ":type=SteganographyMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+		objectName = registered;
+		return registered;
+	}
+
+	/**
+	 * Unregister the metrics from the platform MBean server.
+	 *
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException {
+		if (objectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Stop the periodic dump and unregister the metrics.
+	 *
+	 * @throws JMException
+	 */
+	@Override
+	public void close() throws JMException {
+		stopDump();
+		unregister();
+	}
+
+	// latencies by power of two nanoseconds
+	private static final class Histogram {
+
+		private static final int BUCKETS = Long.SIZE;
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+		// bucket of 2^(n-1) to 2^n - 1 nanoseconds
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+		private Histogram() {
+			for (int idx = 0; idx < BUCKETS; idx++) {
+				buckets[idx] = new LongAdder();
+			}
+		}
+
+		private void record(final long nanos) {
+			long value = Math.max(0, nanos);
+			count.increment();
+			total.add(value);
+			max.accumulate(value);
+			buckets[Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(value))].increment();
+		}
+
+		private void reset() {
+			count.reset();
+			total.reset();
+			max.reset();
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+		}
+
+		// upper bound of the bucket of the quantile, at most the maximum
+		private long percentile(final long samples, final double quantile) {
+			long rank = (long) Math.ceil(samples * quantile);
+			long seen = 0;
+			for (int idx = 0; idx < BUCKETS; idx++) {
+				seen += buckets[idx].sum();
+				if (seen >= rank && seen > 0) {
+					return Math.min(idx == 0 ? 0 : (1L << idx) - 1, max.get());
+				}
+			}
+			return max.get();
+		}
+
+		private String toText() {
+			long samples = count.sum();
+			long sum = total.sum();
+			return String.format(Locale.ROOT, "count %d, total %.3f ms, mean %.1f us, p50 %.1f us, p99 %.1f us, "
+					+ "max %.1f us", samples, sum / 1e6, samples == 0 ? 0 : sum / 1e3 / samples,
+					percentile(samples, 0.5) / 1e3, percentile(samples, 0.99) / 1e3, max.get() / 1e3);
+		}
+
+		private String toJson(final LongAdder bytes) {
+			long samples = count.sum();
+			return String.format(Locale.ROOT, "{\"count\":%d,%s\"total_ns\":%d,\"p50_ns\":%d,\"p99_ns\":%d,"
+					+ "\"max_ns\":%d}", samples, bytes != null ? "\"bytes\":" + bytes.sum() + "," : "", total.sum(),
+					percentile(samples, 0.5), percentile(samples, 0.99), max.get());
+		}
+
+	}
+
+}
@@ -0,0 +1,52 @@
+package br.com.lnsoft.cryptography;
+
+/**
+ * JMX view of {@link SteganographyMetrics}.
+ */
+public interface SteganographyMetricsMBean {
+
+	long getEncodeCount();
+
+	long getDecodeCount();
+
+	long getBytesEmbedded();
+
+	long getBytesExtracted();
+
+	long getInvalidSignatureCount();
+
+	long getInvalidOffsetCount();
+
+	long getInvalidHashCount();
+
+	long getInvalidLengthCount();
+
+	/**
+	 * Get the time spent in a phase.
+	 *
+	 * @param phase
+	 *            the phase name, e.g. pack
+	 * @return total time in nanoseconds
+	 */
+	long getPhaseNanos(String phase);
+
+	/**
+	 * Dump the metrics as text, one line per phase, operation and failure cause.
+	 *
+	 * @return the text
+	 */
+	String dumpText();
+
+	/**
+	 * Dump the metrics as a JSON object.
+	 *
+	 * @return the JSON text
+	 */
+	String dumpJson();
+
+	/**
+	 * Reset every counter and histogram.
+	 */
+	void reset();
+
+}
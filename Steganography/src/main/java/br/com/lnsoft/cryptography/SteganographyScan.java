@@ -0,0 +1,177 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scan directory trees for encoded bitmap files and print a catalog of their steganography headers.
+ * <p>
+ * Only the header of each bitmap file is read, see {@link Steganography#probeFile(File)}, so a scan is bound by the
+ * file system metadata accesses instead of the image lengths. The directory tree is walked while the files are probed
+ * by a bounded worker pool. The catalog is printed as CSV with a header line and one line per encoded bitmap file, in
+ * completion order: <code>image_in</code>, <code>version</code>, <code>depth</code>, <code>integrity</code>,
+ * <code>compression</code>, <code>length</code>, <code>original_length</code>, <code>offset</code> and
+ * <code>hash</code>. The <code>image_in</code> column is the one of a batch manifest.
+ * <p>
+ * A file or directory that can not be read is reported and does not abort the scan. A summary is printed at the end.
+ */
+public class SteganographyScan {
+
+	static final String CATALOG_HEADER = "image_in,version,depth,integrity,compression,length,original_length,offset,"
+			+ "hash";
+
+	// pending files per worker before the walk blocks
+	private static final int QUEUE_FACTOR = 16;
+
+	private final int threads;
+
+	// the probe does not use the seed
+	private final Steganography steganography = new Steganography(0L);
+
+	private PrintStream out = System.out;
+	private PrintStream err = System.err;
+
+	private final AtomicInteger files = new AtomicInteger();
+	private final AtomicInteger encoded = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * Create a scan.
+	 *
+	 * @param threads
+	 *            number of worker threads
+	 */
+	public SteganographyScan(final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads. Must be at least 1.");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Set the streams for the catalog and the messages.
+	 *
+	 * @param out
+	 *            stream for the catalog
+	 * @param err
+	 *            stream for errors and summary
+	 */
+	public void setOutput(final PrintStream out, final PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Get the number of bitmap files probed.
+	 *
+	 * @return files
+	 */
+	public int getFiles() {
+		return files.get();
+	}
+
+	/**
+	 * Get the number of encoded bitmap files found.
+	 *
+	 * @return encoded files
+	 */
+	public int getEncoded() {
+		return encoded.get();
+	}
+
+	/**
+	 * Get the number of files and directories that could not be read.
+	 *
+	 * @return failed files
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Scan the bitmap files of a directory and of its sub directories, the PNM and TGA files too, see
+	 * {@link CarrierFormat#isCarrierFile(String)}.
+	 *
+	 * @param directory
+	 *            the root directory
+	 * @throws Exception
+	 */
+	public void runDirectory(final File directory) throws Exception {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException(String.format("Input directory (%s) not found", directory.getName()));
+		}
+		long start = System.nanoTime();
+		out.println(CATALOG_HEADER);
+		// bounded queue, the walking thread probes the file when the queue is full
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_FACTOR * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+					if (attributes.isRegularFile()
+							&& CarrierFormat.isCarrierFile(file.getFileName().toString())) {
+						executor.execute(() -> probe(file.toFile()));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+					reportFailure(file.toString(), e);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		printSummary(System.nanoTime() - start);
+	}
+
+	private void probe(final File image) {
+		try {
+			CarrierHeader header = steganography.probeFile(image);
+			files.incrementAndGet();
+			if (header != null) {
+				encoded.incrementAndGet();
+				out.println(String.format("%s,%d,%d,%s,%s,%d,%d,%d,%s", csvField(image.getPath()), header.getVersion(),
+						header.getDepth(), header.getIntegrity().name().toLowerCase(),
+						header.getCompression().name().toLowerCase(), header.getLongLength(),
+						header.getLongOriginalLength(), header.getLongOffset(), header.getHashString()));
+			}
+		} catch (Exception e) {
+			reportFailure(image.getPath(), e);
+		}
+	}
+
+	private void reportFailure(final String path, final Exception e) {
+		failed.incrementAndGet();
+		err.println(String.format("File (%s) failed: %s", path, e.getLocalizedMessage()));
+	}
+
+	private void printSummary(final long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		err.println(String.format("Scan finished: %d files, %d encoded, %d failed in %.3f s (%.1f files/s)",
+				files.get(), encoded.get(), failed.get(), seconds, files.get() / seconds));
+	}
+
+	// quote fields with a comma or a double quote
+	static String csvField(final String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+}
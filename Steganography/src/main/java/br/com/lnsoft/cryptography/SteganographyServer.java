@@ -0,0 +1,570 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long running encode/decode server bound to the loopback interface.
+ * <p>
+ * The server keeps one JVM with warmed up encode/decode code resident, so callers do not pay the JVM startup for each
+ * image. Two endpoints are available, both with the command line long option names as query parameters:
+ * <ul>
+ * <li><code>POST /encode?image_in=...</code>: the request body is the data, streamed into the image. With
+ * <code>image_out</code> the encoded image is written to that file, otherwise it is the response body.</li>
+ * <li><code>POST /decode</code>: the image is read from <code>image_in</code> or from the request body. With
+ * <code>data_out</code> the data is streamed to that file, otherwise it is the response body.</li>
+ * </ul>
+ * Optional parameters are <code>seed_string</code>, <code>seed_value</code>, <code>depth</code>,
+ * <code>compression</code>, <code>integrity</code>, <code>scatter</code>, <code>pixels</code>, <code>encrypt</code>,
+ * <code>parity</code>, <code>carrier_format</code>, <code>force</code>, <code>override</code> and <code>mapped</code>.
+ * Each request uses its own {@link Steganography} instance, so seeds are never shared between requests. At most
+ * <code>threads</code> requests run at once, the others wait in the queue.
+ * <p>
+ * The seed used is returned in the <code>X-Steganography-Seed</code> response header. Invalid requests are answered
+ * with status 400 and the error message.
+ * <p>
+ * Any local process, and a browser page through the loopback interface, can send requests, so each request must carry
+ * the random token of the server in the <code>X-Steganography-Token</code> header, see {@link #getToken()}, and
+ * requests with an <code>Origin</code> header, sent by browsers, are rejected. The file parameters are resolved
+ * against the server root, see {@link #setRoot(File)}, and files out of it are rejected. These requests are answered
+ * with status 403.
+ */
+public class SteganographyServer {
+
+	static final String SEED_HEADER = "X-Steganography-Seed";
+	static final String TOKEN_HEADER = "X-Steganography-Token";
+
+	private static final String ORIGIN_HEADER = "Origin";
+	private static final int TOKEN_SIZE = 16;
+
+	private static final String ENCODE_PATH = "/encode";
+	private static final String DECODE_PATH = "/decode";
+
+	private static final String IMAGE_IN = "image_in";
+	private static final String IMAGE_OUT = "image_out";
+	private static final String DATA_OUT = "data_out";
+	private static final String SEED_STRING = "seed_string";
+	private static final String SEED_VALUE = "seed_value";
+	private static final String DEPTH = "depth";
+	private static final String COMPRESSION = "compression";
+	private static final String INTEGRITY = "integrity";
+	private static final String SCATTER = "scatter";
+	private static final String PIXELS = "pixels";
+	private static final String ENCRYPT = "encrypt";
+	private static final String PARITY = "parity";
+	private static final String CARRIER_FORMAT = "carrier_format";
+	private static final String FORCE = "force";
+	private static final String OVERRIDE = "override";
+	private static final String MAPPED = "mapped";
+
+	private static final String POST = "POST";
+
+	private static final int STATUS_OK = 200;
+	private static final int STATUS_BAD_REQUEST = 400;
+	private static final int STATUS_FORBIDDEN = 403;
+	private static final int STATUS_METHOD_NOT_ALLOWED = 405;
+	private static final int STATUS_LENGTH_REQUIRED = 411;
+	private static final int STATUS_SERVER_ERROR = 500;
+
+	// pending connections accepted by the socket
+	private static final int BACKLOG = 64;
+
+	// synthetic image used to warm up the encode/decode code
+	private static final int WARM_UP_IMAGE_SIZE = 1024 * 1024;
+	private static final int WARM_UP_ROUNDS = 20;
+
+	private final HttpServer server;
+	private final ThreadPoolExecutor executor;
+	private final String token;
+
+	// real path of the directory of the file parameters
+	private Path root;
+
+	private ForkJoinPool forkJoinPool;
+
+	private SteganographyMetrics metrics;
+
+	private PrintStream err = System.err;
+
+	/**
+	 * Create a server bound to the loopback interface.
+	 *
+	 * @param port
+	 *            the port or 0 to use any free port
+	 * @param threads
+	 *            maximum number of requests processed at once
+	 * @throws IOException
+	 */
+	public SteganographyServer(final int port, final int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads. Must be at least 1.");
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+		// fixed pool, requests above the limit wait in the queue
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+		server.setExecutor(executor);
+		server.createContext(ENCODE_PATH, new RequestHandler(true));
+		server.createContext(DECODE_PATH, new RequestHandler(false));
+		token = createToken();
+		root = Paths.get("").toAbsolutePath().toRealPath();
+	}
+
+	// random hexadecimal token of the server
+	private static String createToken() {
+		byte[] bytes = new byte[TOKEN_SIZE];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder value = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes) {
+			value.append(String.format("%02x", b));
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Get the token every request must carry in the <code>X-Steganography-Token</code> header.
+	 *
+	 * @return random token of this server, 32 hexadecimal digits
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Set the directory the file parameters are resolved against, the files must be within it.
+	 *
+	 * @param root
+	 *            the root directory, default is the working directory
+	 * @throws IOException
+	 */
+	public void setRoot(final File root) throws IOException {
+		if (!root.isDirectory()) {
+			throw new IllegalArgumentException(String.format("Server root directory (%s) not found", root.getName()));
+		}
+		this.root = root.toPath().toRealPath();
+	}
+
+	/**
+	 * Set the pool used by the parallel mode of each request.
+	 *
+	 * @param forkJoinPool
+	 *            the pool or null to disable the parallel mode
+	 */
+	public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Set the metrics recorded by each request.
+	 *
+	 * @param metrics
+	 *            the metrics or null to disable the metrics
+	 */
+	public void setMetrics(final SteganographyMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Set the stream for request errors.
+	 *
+	 * @param err
+	 *            stream for request errors
+	 */
+	public void setOutput(final PrintStream err) {
+		this.err = err;
+	}
+
+	/**
+	 * Get the port the server is bound to.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Start accepting requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stop accepting requests, wait for the running ones up to the delay and release the worker threads.
+	 *
+	 * @param delay
+	 *            maximum time in seconds to wait for running requests
+	 */
+	public void stop(final int delay) {
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	/**
+	 * Encode and decode a synthetic image a few times so the first requests run compiled code.
+	 *
+	 * @throws Exception
+	 */
+	public void warmUp() throws Exception {
+		byte[] data = new byte[WARM_UP_IMAGE_SIZE / 4];
+		new Random(0).nextBytes(data);
+		Steganography steganography = new Steganography(0);
+		for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+			byte[] image = steganography.encodeData(createBitmap(WARM_UP_IMAGE_SIZE), data, false);
+			steganography.decodeData(image, new ByteArrayOutputStream(data.length));
+		}
+	}
+
+	// 24 bits bitmap header with BITMAPINFOHEADER
+	private static byte[] createBitmap(final int size) {
+		byte[] image = new byte[size];
+		ByteBuffer header = ByteBuffer.wrap(image);
+		header.put(0, (byte) 0x42).put(1, (byte) 0x4D);
+		header.putInt(2, Integer.reverseBytes(size));
+		header.putInt(10, Integer.reverseBytes(54));
+		header.putInt(14, Integer.reverseBytes(40));
+		return image;
+	}
+
+	//
+	// Requests
+	//
+
+	private class RequestHandler implements HttpHandler {
+
+		private final boolean encode;
+
+		RequestHandler(final boolean encode) {
+			this.encode = encode;
+		}
+
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				if (!POST.equals(exchange.getRequestMethod())) {
+					throw new RequestException(STATUS_METHOD_NOT_ALLOWED,
+							String.format("Method %s not allowed. Use POST.", exchange.getRequestMethod()));
+				}
+				checkAccess(exchange);
+				Request request = new Request(exchange);
+				if (encode) {
+					request.runEncode();
+				} else {
+					request.runDecode();
+				}
+			} catch (RequestException e) {
+				sendError(exchange, e.status, e.getLocalizedMessage());
+			} catch (IllegalArgumentException | EOFException e) {
+				sendError(exchange, STATUS_BAD_REQUEST, e.getLocalizedMessage());
+			} catch (Exception e) {
+				err.println(String.format("%s %s failed: %s", exchange.getRequestMethod(), exchange.getRequestURI(),
+						e.getLocalizedMessage()));
+				sendError(exchange, STATUS_SERVER_ERROR, e.getLocalizedMessage());
+			} finally {
+				exchange.close();
+			}
+		}
+
+		// local clients with the token only, browsers send an origin
+		private void checkAccess(final HttpExchange exchange) throws RequestException {
+			if (exchange.getRequestHeaders().containsKey(ORIGIN_HEADER)) {
+				throw new RequestException(STATUS_FORBIDDEN, "Invalid request. Browser requests are not allowed.");
+			}
+			if (!token.equals(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+				throw new RequestException(STATUS_FORBIDDEN,
+						String.format("Invalid request. Missing or invalid header: '%s'", TOKEN_HEADER));
+			}
+		}
+
+		private void sendError(final HttpExchange exchange, final int status, final String message)
+				throws IOException {
+			// response already started
+			if (exchange.getResponseCode() != -1) {
+				return;
+			}
+			byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			exchange.getResponseBody().write(body);
+		}
+
+	}
+
+	private class Request {
+
+		private final HttpExchange exchange;
+		private final Map<String, String> parameters;
+		private final Steganography steganography;
+
+		Request(final HttpExchange exchange) throws Exception {
+			this.exchange = exchange;
+			this.parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+			this.steganography = createSteganography();
+		}
+
+		private Steganography createSteganography() throws Exception {
+			Steganography steganography = new Steganography(parameters.get(SEED_STRING));
+			String seedValue = parameters.get(SEED_VALUE);
+			if (seedValue != null && !seedValue.isEmpty()) {
+				try {
+					steganography.setSeed(Long.parseLong(seedValue));
+				} catch (NumberFormatException nfe) {
+					throw new RequestException(STATUS_BAD_REQUEST,
+							String.format("Number format exception: '%s' is not a valid number", seedValue));
+				}
+			}
+			steganography.setForkJoinPool(forkJoinPool);
+			steganography.setMetrics(metrics);
+			if (has(CARRIER_FORMAT)) {
+				steganography.setCarrierFormat(CarrierFormat.forName(parameters.get(CARRIER_FORMAT)));
+			}
+			return steganography;
+		}
+
+		void runEncode() throws Exception {
+			File fileInput = getRequiredFile(IMAGE_IN, "Input image");
+			long length = getRequestLength();
+			EncodeOptions options = createOptions();
+			InputStream inputData = exchange.getRequestBody();
+			exchange.getResponseHeaders().set(SEED_HEADER, String.valueOf(steganography.getSeed()));
+			if (has(IMAGE_OUT)) {
+				File fileOutput = getOutputFile(IMAGE_OUT, "Output image");
+				if (flag(MAPPED)) {
+					// encode Data within mapped bitmap file
+					steganography.encodeFile(fileInput, fileOutput, inputData, length, options);
+				} else {
+					byte[] image = Files.readAllBytes(fileInput.toPath());
+					Files.write(fileOutput.toPath(), steganography.encodeData(image, inputData, length, options));
+				}
+				sendResult(length);
+			} else {
+				if (flag(MAPPED)) {
+					throw new RequestException(STATUS_BAD_REQUEST,
+							"Missing required parameter: 'image_out' for mapped 'encode'");
+				}
+				byte[] image = Files.readAllBytes(fileInput.toPath());
+				byte[] encodeData = steganography.encodeData(image, inputData, length, options);
+				sendData("image/bmp", encodeData);
+			}
+		}
+
+		private EncodeOptions createOptions() throws RequestException {
+			EncodeOptions options = new EncodeOptions(flag(FORCE));
+			if (has(DEPTH)) {
+				try {
+					options.setDepth(Integer.parseInt(parameters.get(DEPTH)));
+				} catch (NumberFormatException nfe) {
+					throw new RequestException(STATUS_BAD_REQUEST, String
+							.format("Number format exception: '%s' is not a valid number", parameters.get(DEPTH)));
+				}
+			}
+			if (has(COMPRESSION)) {
+				options.setCompression(Compression.forName(parameters.get(COMPRESSION)));
+			}
+			if (has(INTEGRITY)) {
+				options.setIntegrity(Integrity.forName(parameters.get(INTEGRITY)));
+			}
+			options.setScatter(flag(SCATTER));
+			options.setPixels(flag(PIXELS));
+			options.setEncrypted(flag(ENCRYPT));
+			if (has(PARITY)) {
+				try {
+					options.setParity(Integer.parseInt(parameters.get(PARITY)));
+				} catch (NumberFormatException nfe) {
+					throw new RequestException(STATUS_BAD_REQUEST, String
+							.format("Number format exception: '%s' is not a valid number", parameters.get(PARITY)));
+				}
+			}
+			return options;
+		}
+
+		void runDecode() throws Exception {
+			exchange.getResponseHeaders().set(SEED_HEADER, String.valueOf(steganography.getSeed()));
+			if (has(DATA_OUT)) {
+				File fileOutput = getOutputFile(DATA_OUT, "Output data");
+				long length;
+				// stream decoded data file
+				try (OutputStream outputData = new BufferedOutputStream(new FileOutputStream(fileOutput))) {
+					if (has(IMAGE_IN) && flag(MAPPED)) {
+						length = steganography.decodeFile(getRequiredFile(IMAGE_IN, "Input image"), outputData);
+					} else {
+						length = steganography.decodeData(readImage(), outputData);
+					}
+				} catch (Exception e) {
+					// discard partially decoded data file
+					Files.deleteIfExists(fileOutput.toPath());
+					throw e;
+				}
+				sendResult(length);
+			} else {
+				// data is checked before the response is started
+				byte[] decodeData;
+				if (has(IMAGE_IN) && flag(MAPPED)) {
+					decodeData = steganography.decodeFile(getRequiredFile(IMAGE_IN, "Input image"));
+				} else {
+					decodeData = steganography.decodeData(readImage());
+				}
+				sendData("application/octet-stream", decodeData);
+			}
+		}
+
+		// image from the input file or the request body
+		private byte[] readImage() throws Exception {
+			if (has(IMAGE_IN)) {
+				return Files.readAllBytes(getRequiredFile(IMAGE_IN, "Input image").toPath());
+			}
+			long length = getRequestLength();
+			if (length > Integer.MAX_VALUE) {
+				throw new RequestException(STATUS_BAD_REQUEST,
+						"Invalid file size. Bitmap file must be smaller than 2 GB.");
+			}
+			byte[] image = new byte[(int) length];
+			InputStream input = exchange.getRequestBody();
+			int position = 0;
+			while (position < image.length) {
+				int read = input.read(image, position, image.length - position);
+				if (read < 0) {
+					throw new EOFException(
+							String.format("Unexpected end of data. Missing %d bytes.", image.length - position));
+				}
+				position += read;
+			}
+			return image;
+		}
+
+		private void sendResult(final long length) throws IOException {
+			byte[] body = String.format("{\"seed\": %d, \"length\": %d}", steganography.getSeed(), length)
+					.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(STATUS_OK, body.length);
+			exchange.getResponseBody().write(body);
+		}
+
+		private void sendData(final String contentType, final byte[] body) throws IOException {
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			// zero length means chunked for the http server
+			exchange.sendResponseHeaders(STATUS_OK, body.length == 0 ? -1 : body.length);
+			exchange.getResponseBody().write(body);
+		}
+
+		private long getRequestLength() throws RequestException {
+			String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+			if (contentLength == null) {
+				throw new RequestException(STATUS_LENGTH_REQUIRED, "Missing required header: 'Content-Length'");
+			}
+			try {
+				return Long.parseLong(contentLength);
+			} catch (NumberFormatException nfe) {
+				throw new RequestException(STATUS_BAD_REQUEST,
+						String.format("Number format exception: '%s' is not a valid number", contentLength));
+			}
+		}
+
+		private boolean has(final String key) {
+			String value = parameters.get(key);
+			return value != null && !value.isEmpty();
+		}
+
+		private boolean flag(final String key) {
+			return parameters.containsKey(key) && !"false".equalsIgnoreCase(parameters.get(key));
+		}
+
+		private File getRequiredFile(final String key, final String description) throws IOException, RequestException {
+			if (!has(key)) {
+				throw new RequestException(STATUS_BAD_REQUEST, String.format("Missing required parameter: '%s'", key));
+			}
+			File file = resolveFile(key, description);
+			if (!file.exists()) {
+				throw new RequestException(STATUS_BAD_REQUEST,
+						String.format("%s file (%s) not found", description, file.getName()));
+			}
+			return file;
+		}
+
+		private File getOutputFile(final String key, final String description) throws IOException, RequestException {
+			File file = resolveFile(key, description);
+			if (file.exists() && !flag(OVERRIDE)) {
+				throw new RequestException(STATUS_BAD_REQUEST, String.format(
+						"%s file (%s) already exist. Set override flag to overwrite", description, file.getName()));
+			}
+			return file;
+		}
+
+		// file parameter within the root, the symbolic links of the file or of its directory are followed
+		private File resolveFile(final String key, final String description) throws IOException, RequestException {
+			Path path = root.resolve(parameters.get(key)).normalize();
+			Path parent = path.getParent();
+			if (Files.exists(path)) {
+				path = path.toRealPath();
+			} else if (parent != null && Files.isDirectory(parent)) {
+				path = parent.toRealPath().resolve(path.getFileName());
+			}
+			if (!path.startsWith(root)) {
+				throw new RequestException(STATUS_FORBIDDEN,
+						String.format("%s file (%s) is out of the server root", description, path.getFileName()));
+			}
+			return path.toFile();
+		}
+
+	}
+
+	// query parameters, a parameter without value is an empty string
+	static Map<String, String> parseQuery(final String query) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new LinkedHashMap<>();
+		if (query == null || query.isEmpty()) {
+			return parameters;
+		}
+		for (String parameter : query.split("&")) {
+			if (parameter.isEmpty()) {
+				continue;
+			}
+			int separator = parameter.indexOf('=');
+			String key = separator < 0 ? parameter : parameter.substring(0, separator);
+			String value = separator < 0 ? "" : parameter.substring(separator + 1);
+			parameters.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+		return parameters;
+	}
+
+	private static class RequestException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		RequestException(final int status, final String message) {
+			super(message);
+			this.status = status;
+		}
+
+	}
+
+}
@@ -0,0 +1,268 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe asynchronous encode and decode with bounded concurrency.
+ * <p>
+ * The service is immutable and the seed is given per call, so one service is shared by every thread of an
+ * application. Each call returns a {@link CompletableFuture} completed by a worker with the result or the error of the
+ * call. The digests and buffers are reused across calls as with {@link Steganography}, including on virtual threads.
+ * <p>
+ * At most <code>maxConcurrency</code> calls run at once and at most <code>maxPending</code> calls are accepted and not
+ * completed, running or queued. A call beyond this limit is not queued, its future fails at once with a
+ * {@link RejectedExecutionException}, so a producer faster than the workers gets backpressure instead of an unbounded
+ * queue. By default the calls run on virtual threads where available, Java 21 or later, and on a fixed pool of
+ * <code>maxConcurrency</code> daemon threads otherwise.
+ */
+public class SteganographyService implements AutoCloseable {
+
+	private final Executor executor;
+	// executor created by the service, shut down on close
+	private final ExecutorService ownedExecutor;
+	private final int maxConcurrency;
+	private final int maxPending;
+	private final Semaphore running;
+	private final Semaphore pending;
+	private final SteganographyMetrics metrics;
+
+	/**
+	 * Create a service running the calls on virtual threads where available.
+	 *
+	 * @param maxConcurrency
+	 *            maximum number of calls running at once
+	 * @param maxPending
+	 *            maximum number of calls accepted and not completed
+	 */
+	public SteganographyService(final int maxConcurrency, final int maxPending) {
+		this(null, maxConcurrency, maxPending, null);
+	}
+
+	/**
+	 * Create a service running the calls on the given executor.
+	 * <p>
+	 * A worker of the executor waits while <code>maxConcurrency</code> calls are running, so the executor should have
+	 * no more threads than that.
+	 *
+	 * @param executor
+	 *            the executor of the calls, it is not shut down by the service, or null for the default executor
+	 * @param maxConcurrency
+	 *            maximum number of calls running at once
+	 * @param maxPending
+	 *            maximum number of calls accepted and not completed
+	 * @param metrics
+	 *            the metrics recorded by the calls or null to disable the metrics
+	 */
+	public SteganographyService(final Executor executor, final int maxConcurrency, final int maxPending,
+			final SteganographyMetrics metrics) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Invalid concurrency. Must be at least 1.");
+		}
+		if (maxPending < maxConcurrency) {
+			throw new IllegalArgumentException(
+					String.format("Invalid number of pending calls. Must be at least %d.", maxConcurrency));
+		}
+		this.ownedExecutor = executor == null ? createExecutor(maxConcurrency) : null;
+		this.executor = executor == null ? ownedExecutor : executor;
+		this.maxConcurrency = maxConcurrency;
+		this.maxPending = maxPending;
+		this.running = new Semaphore(maxConcurrency);
+		this.pending = new Semaphore(maxPending);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Compute the seed value of a seed string, as {@link Steganography#setSeed(String)} does.
+	 *
+	 * @param seedString
+	 *            the seed string, a random seed is returned when null or empty
+	 * @return seed value
+	 */
+	public static long seed(final String seedString) {
+		return new Steganography(seedString).getSeed();
+	}
+
+	/**
+	 * Get the maximum number of calls running at once.
+	 *
+	 * @return maxConcurrency
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * Get the maximum number of calls accepted and not completed.
+	 *
+	 * @return maxPending
+	 */
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * Get the number of calls accepted and not completed.
+	 *
+	 * @return number of pending calls
+	 */
+	public int getPending() {
+		return maxPending - pending.availablePermits();
+	}
+
+	/**
+	 * Encode data within a bitmap image.
+	 *
+	 * @param seed
+	 *            the seed value
+	 * @param image
+	 *            byte array of the original image, encoded in place, it must not be used until the future completes
+	 * @param data
+	 *            byte array of the data
+	 * @param options
+	 *            the encode options, they must not be changed until the future completes
+	 * @return future of the encoded image
+	 * @see Steganography#encodeData(byte[], byte[], EncodeOptions)
+	 */
+	public CompletableFuture<byte[]> encodeAsync(final long seed, final byte[] image, final byte[] data,
+			final EncodeOptions options) {
+		return submit(() -> createSteganography(seed).encodeData(image, data, options));
+	}
+
+	/**
+	 * Decode the data within an encoded bitmap image.
+	 *
+	 * @param seed
+	 *            the seed value
+	 * @param image
+	 *            byte array with the encoded image
+	 * @return future of the data decoded
+	 * @see Steganography#decodeData(byte[])
+	 */
+	public CompletableFuture<byte[]> decodeAsync(final long seed, final byte[] image) {
+		return submit(() -> createSteganography(seed).decodeData(image));
+	}
+
+	/**
+	 * Encode data within a bitmap file using memory-mapped file access.
+	 *
+	 * @param seed
+	 *            the seed value
+	 * @param imageIn
+	 *            the original bitmap file
+	 * @param imageOut
+	 *            the encoded bitmap file, may be the same as the original file to encode in place
+	 * @param data
+	 *            byte array of the data
+	 * @param options
+	 *            the encode options, they must not be changed until the future completes
+	 * @return future completed when the file is encoded
+	 * @see Steganography#encodeFile(File, File, byte[], EncodeOptions)
+	 */
+	public CompletableFuture<Void> encodeFileAsync(final long seed, final File imageIn, final File imageOut,
+			final byte[] data, final EncodeOptions options) {
+		return submit(() -> {
+			createSteganography(seed).encodeFile(imageIn, imageOut, data, options);
+			return null;
+		});
+	}
+
+	/**
+	 * Decode the data within an encoded bitmap file using memory-mapped file access.
+	 *
+	 * @param seed
+	 *            the seed value
+	 * @param image
+	 *            the encoded bitmap file
+	 * @return future of the data decoded
+	 * @see Steganography#decodeFile(File)
+	 */
+	public CompletableFuture<byte[]> decodeFileAsync(final long seed, final File image) {
+		return submit(() -> createSteganography(seed).decodeFile(image));
+	}
+
+	/**
+	 * Shut down the default executor, the accepted calls are completed. An executor given to the constructor is not
+	 * shut down.
+	 */
+	@Override
+	public void close() {
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdown();
+		}
+	}
+
+	// the instance only holds the seed, the digests and buffers are reused from the workspaces
+	private Steganography createSteganography(final long seed) {
+		Steganography steganography = new Steganography(seed);
+		steganography.setMetrics(metrics);
+		return steganography;
+	}
+
+	private <T> CompletableFuture<T> submit(final Callable<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		if (!pending.tryAcquire()) {
+			future.completeExceptionally(new RejectedExecutionException(
+					String.format("Too many pending calls. Limit is %d.", maxPending)));
+			return future;
+		}
+		try {
+			executor.execute(() -> run(call, future));
+		} catch (RejectedExecutionException e) {
+			pending.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	// the permits are released before the future completes, so a dependent stage can submit the next call
+	private <T> void run(final Callable<T> call, final CompletableFuture<T> future) {
+		T result = null;
+		Throwable error = null;
+		try {
+			// skip the calls cancelled while queued
+			if (!future.isDone()) {
+				running.acquire();
+				try {
+					result = call.call();
+				} finally {
+					running.release();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = e;
+		} catch (Throwable e) {
+			error = e;
+		} finally {
+			pending.release();
+		}
+		if (error != null) {
+			future.completeExceptionally(error);
+		} else {
+			future.complete(result);
+		}
+	}
+
+	// virtual thread per call where available, fixed pool of daemon threads otherwise
+	private static ExecutorService createExecutor(final int threads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger count = new AtomicInteger();
+			return Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "steganography-service-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Split one payload across several carrier images and reassemble it.
+ * <p>
+ * The payload is cut in contiguous shards of nearly equal length, one per carrier, and each shard is encoded as the
+ * data of its carrier with a version 2 header recording a {@link Shard}: payload identifier, shard index and shard
+ * count. Each shard has its own integrity check, compression and data offset, so a shard is a valid encoded image on
+ * its own.
+ * <p>
+ * Carriers are bitmap files accessed through memory mapping. The shards are encoded and decoded by a bounded worker
+ * pool: the payload stream is read shard by shard while the previous shards are encoded, and the decoded shards are
+ * written to the output in index order while the next ones are decoded. At most one shard per worker and the shard
+ * being written are held in memory.
+ */
+public class SteganographyShards {
+
+	private final Steganography steganography;
+	private final int threads;
+
+	/**
+	 * Create a shards encoder and decoder.
+	 *
+	 * @param steganography
+	 *            the instance with the seed of the shards, shared by the workers
+	 * @param threads
+	 *            number of worker threads
+	 */
+	public SteganographyShards(final Steganography steganography, final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads. Must be at least 1.");
+		}
+		this.steganography = steganography;
+		this.threads = threads;
+	}
+
+	/**
+	 * Encode a payload read from a stream across carrier images, one shard per carrier.
+	 *
+	 * @param imagesIn
+	 *            the original bitmap files
+	 * @param imagesOut
+	 *            the encoded bitmap files, in the order of the original ones
+	 * @param data
+	 *            input stream of the payload, it is not closed
+	 * @param length
+	 *            number of bytes to read from the payload stream
+	 * @param options
+	 *            the encode options of every shard
+	 * @return the payload identifier recorded in the shards
+	 * @throws Exception
+	 */
+	public long encodeFiles(final File[] imagesIn, final File[] imagesOut, final InputStream data, final long length,
+			final EncodeOptions options) throws Exception {
+		int count = imagesIn.length;
+		if (count < 1) {
+			throw new IllegalArgumentException("Invalid number of images. Must be at least 1.");
+		}
+		if (imagesOut.length != count) {
+			throw new IllegalArgumentException(
+					String.format("Invalid number of output images. Must be %d, one per input image.", count));
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("Invalid data length. Must not be negative.");
+		}
+		long payloadId = ThreadLocalRandom.current().nextLong();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Deque<Future<Void>> pending = new ArrayDeque<>();
+			for (int index = 0; index < count; index++) {
+				// wait for a worker before reading the next shard
+				if (pending.size() == threads) {
+					await(pending.removeFirst());
+				}
+				byte[] shardData = readShard(data, shardLength(length, count, index));
+				EncodeOptions shardOptions = createOptions(options, new Shard(payloadId, index, count));
+				File imageIn = imagesIn[index];
+				File imageOut = imagesOut[index];
+				pending.addLast(executor.submit(() -> {
+					steganography.encodeFile(imageIn, imageOut, shardData, shardOptions);
+					return null;
+				}));
+			}
+			while (!pending.isEmpty()) {
+				await(pending.removeFirst());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return payloadId;
+	}
+
+	/**
+	 * Decode a payload from all its carrier images and write it to a stream.
+	 * <p>
+	 * The shard headers are checked first, so a missing, repeated or foreign shard fails before any data is written.
+	 *
+	 * @param images
+	 *            the encoded bitmap files, in any order
+	 * @param data
+	 *            output stream of the payload, it is not closed
+	 * @return number of payload bytes written
+	 * @throws Exception
+	 */
+	public long decodeFiles(final File[] images, final OutputStream data) throws Exception {
+		File[] ordered = orderShards(images);
+		long length = 0;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Deque<Future<byte[]>> pending = new ArrayDeque<>();
+			int submitted = 0;
+			for (int index = 0; index < ordered.length; index++) {
+				// keep every worker busy while the shards are written in order
+				while (submitted < ordered.length && pending.size() < threads) {
+					File image = ordered[submitted++];
+					pending.addLast(executor.submit((Callable<byte[]>) () -> steganography.decodeFile(image)));
+				}
+				byte[] shardData = await(pending.removeFirst());
+				data.write(shardData);
+				length += shardData.length;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return length;
+	}
+
+	// carriers sorted by shard index, all the shards of a single payload
+	private File[] orderShards(final File[] images) throws Exception {
+		if (images.length < 1) {
+			throw new IllegalArgumentException("Invalid number of images. Must be at least 1.");
+		}
+		File[] ordered = new File[images.length];
+		Shard first = null;
+		for (File image : images) {
+			CarrierHeader header = steganography.probeFile(image);
+			Shard shard = header != null ? header.getShard() : null;
+			if (shard == null) {
+				throw new IllegalArgumentException(
+						String.format("Decode error. Image (%s) is not a shard", image.getName()));
+			}
+			if (first == null) {
+				first = shard;
+			}
+			if (shard.getPayloadId() != first.getPayloadId() || shard.getCount() != first.getCount()) {
+				throw new IllegalArgumentException(
+						String.format("Decode error. Image (%s) is a shard of another payload", image.getName()));
+			}
+			if (shard.getCount() != images.length) {
+				throw new IllegalArgumentException(String.format(
+						"Decode error. Invalid number of images. The payload has %d shards.", shard.getCount()));
+			}
+			if (ordered[shard.getIndex()] != null) {
+				throw new IllegalArgumentException(
+						String.format("Decode error. Shard %d found twice", shard.getIndex()));
+			}
+			ordered[shard.getIndex()] = image;
+		}
+		return ordered;
+	}
+
+	// contiguous shards, the first ones are one byte longer when the length is not a multiple of the count
+	private static int shardLength(final long length, final int count, final int index) {
+		long shardLength = length / count + (index < length % count ? 1 : 0);
+		if (shardLength > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					String.format("Invalid data length. Shards must be smaller than %d bytes.", Integer.MAX_VALUE));
+		}
+		return (int) shardLength;
+	}
+
+	private static byte[] readShard(final InputStream data, final int length) throws Exception {
+		byte[] shardData = new byte[length];
+		int position = 0;
+		while (position < length) {
+			int count = data.read(shardData, position, length - position);
+			if (count < 0) {
+				throw new EOFException(
+						String.format("Unexpected end of data. Missing %d bytes.", length - position));
+			}
+			position += count;
+		}
+		return shardData;
+	}
+
+	private static EncodeOptions createOptions(final EncodeOptions options, final Shard shard) {
+		EncodeOptions shardOptions = new EncodeOptions(options);
+		shardOptions.setShard(shard);
+		return shardOptions;
+	}
+
+	// result of a worker, with the exception thrown by the worker
+	private static <T> T await(final Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+}
@@ -0,0 +1,400 @@
+package br.com.lnsoft.cryptography;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hold several independent payloads in one carrier image, each in its own slot.
+ * <p>
+ * The carrier is encoded once with chunked data filling its capacity, see {@link EncodeOptions#setChunkSize(int)}.
+ * The data starts with a slot directory: a magic number, the number of entries and the number of slots, then one
+ * {@link Slot} entry per slot of 20 bytes: the seed-keyed identifier, the offset and length of the payload in the data
+ * and its CRC32C checksum. The payloads follow the directory in the order they were added, the free space holds random
+ * bytes.
+ * <p>
+ * A slot is added by updating its payload, its entry and the number of slots in place, and read by decoding the
+ * directory and its payload range, so only the chunks of the directory and of the slot are read and written, not the
+ * other slots. All the slots are read in parallel in the fork/join pool of the instance, when set. The slots of an
+ * image are added one at a time, the slot data is not encrypted nor corrected.
+ */
+public class SteganographySlots {
+
+	/**
+	 * Largest number of slots of a carrier.
+	 */
+	public static final int MAX_SLOTS = 65536;
+
+	// chunk size of the carrier data when the options have none
+	private static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	// directory header: magic 'SLTS', number of entries, number of slots
+	private static final int DIRECTORY_MAGIC = 0x534C5453;
+	private static final int ENTRIES_OFFSET = 4;
+	private static final int COUNT_OFFSET = 8;
+	private static final int DIRECTORY_HEADER_SIZE = 12;
+	// entry: id, offset, length, hash
+	private static final int ENTRY_SIZE = 20;
+
+	private final Steganography steganography;
+
+	/**
+	 * Create a slots encoder and decoder.
+	 *
+	 * @param steganography
+	 *            the instance with the seed of the slots and the fork/join pool of the parallel reads
+	 */
+	public SteganographySlots(final Steganography steganography) {
+		this.steganography = steganography;
+	}
+
+	/**
+	 * Encode an empty slot directory within the image, the data fills the image capacity.
+	 *
+	 * @param image
+	 *            byte array with the original image
+	 * @param entries
+	 *            number of directory entries, the largest number of slots, between 1 and {@link #MAX_SLOTS}
+	 * @param options
+	 *            the encode options of the carrier, chunked with a chunk size of 4096 bytes when not set, not
+	 *            compressed, encrypted nor corrected
+	 * @return byte array with the encoded image
+	 * @throws Exception
+	 */
+	public byte[] createData(final byte[] image, final int entries, final EncodeOptions options) throws Exception {
+		EncodeOptions slotOptions = createOptions(options);
+		byte[] data = createDirectory(entries, steganography.capacityData(image, slotOptions));
+		return steganography.encodeData(image, data, slotOptions);
+	}
+
+	/**
+	 * Encode an empty slot directory within a bitmap file using memory-mapped file access.
+	 *
+	 * @param imageIn
+	 *            the original bitmap file
+	 * @param imageOut
+	 *            the encoded bitmap file
+	 * @param entries
+	 *            number of directory entries, the largest number of slots, between 1 and {@link #MAX_SLOTS}
+	 * @param options
+	 *            the encode options of the carrier
+	 * @throws Exception
+	 * @see #createData(byte[], int, EncodeOptions)
+	 */
+	public void createFile(final File imageIn, final File imageOut, final int entries, final EncodeOptions options)
+			throws Exception {
+		EncodeOptions slotOptions = createOptions(options);
+		byte[] data = createDirectory(entries, steganography.capacityFile(imageIn, slotOptions));
+		steganography.encodeFile(imageIn, imageOut, data, slotOptions);
+	}
+
+	/**
+	 * Compute the identifier of a slot: the first 8 bytes of the MD5 digest of the seed and the slot name.
+	 *
+	 * @param name
+	 *            the slot name
+	 * @return id
+	 * @throws Exception
+	 */
+	public long slotId(final String name) throws Exception {
+		MessageDigest md5 = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+		md5.update(ByteBuffer.allocate(Long.BYTES).putLong(0, steganography.getSeed()).array());
+		return ByteBuffer.wrap(md5.digest(name.getBytes(StandardCharsets.UTF_8))).getLong();
+	}
+
+	/**
+	 * Add a payload in a new slot of the encoded image, in place.
+	 *
+	 * @param image
+	 *            byte array with the encoded image, updated in place
+	 * @param name
+	 *            the slot name, not used by the other slots
+	 * @param data
+	 *            byte array of the payload
+	 * @return the slot added
+	 * @throws Exception
+	 */
+	public Slot addSlot(final byte[] image, final String name, final byte[] data) throws Exception {
+		return addSlot(name, data, steganography.probeData(image),
+				(position, length) -> steganography.decodeRange(image, position, length),
+				(position, bytes) -> steganography.updateData(image, position, bytes));
+	}
+
+	/**
+	 * Add a payload in a new slot of the encoded bitmap file, in place using memory-mapped file access.
+	 *
+	 * @param image
+	 *            the encoded bitmap file, updated in place
+	 * @param name
+	 *            the slot name, not used by the other slots
+	 * @param data
+	 *            byte array of the payload
+	 * @return the slot added
+	 * @throws Exception
+	 * @see #addSlot(byte[], String, byte[])
+	 */
+	public Slot addFileSlot(final File image, final String name, final byte[] data) throws Exception {
+		return addSlot(name, data, steganography.probeFile(image),
+				(position, length) -> steganography.decodeFileRange(image, position, length),
+				(position, bytes) -> steganography.updateFile(image, position, bytes));
+	}
+
+	/**
+	 * Read the slot directory of the encoded image.
+	 *
+	 * @param image
+	 *            byte array with the encoded image
+	 * @return the slots, in the order they were added
+	 * @throws Exception
+	 */
+	public List<Slot> listSlots(final byte[] image) throws Exception {
+		return readDirectory((position, length) -> steganography.decodeRange(image, position, length)).slots;
+	}
+
+	/**
+	 * Read the slot directory of the encoded bitmap file using memory-mapped file access.
+	 *
+	 * @param image
+	 *            the encoded bitmap file
+	 * @return the slots, in the order they were added
+	 * @throws Exception
+	 */
+	public List<Slot> listFileSlots(final File image) throws Exception {
+		return readDirectory((position, length) -> steganography.decodeFileRange(image, position, length)).slots;
+	}
+
+	/**
+	 * Read the payload of a slot of the encoded image.
+	 *
+	 * @param image
+	 *            byte array with the encoded image
+	 * @param name
+	 *            the slot name
+	 * @return byte array with the payload or null when the image has no slot of the name
+	 * @throws Exception
+	 */
+	public byte[] readSlot(final byte[] image, final String name) throws Exception {
+		return readSlot(name, (position, length) -> steganography.decodeRange(image, position, length));
+	}
+
+	/**
+	 * Read the payload of a slot of the encoded bitmap file using memory-mapped file access.
+	 *
+	 * @param image
+	 *            the encoded bitmap file
+	 * @param name
+	 *            the slot name
+	 * @return byte array with the payload or null when the image has no slot of the name
+	 * @throws Exception
+	 */
+	public byte[] readFileSlot(final File image, final String name) throws Exception {
+		return readSlot(name, (position, length) -> steganography.decodeFileRange(image, position, length));
+	}
+
+	/**
+	 * Read the payloads of all the slots of the encoded image, in parallel in the fork/join pool when set.
+	 *
+	 * @param image
+	 *            byte array with the encoded image
+	 * @return the payloads by slot identifier, in the order the slots were added
+	 * @throws Exception
+	 */
+	public Map<Long, byte[]> readSlots(final byte[] image) throws Exception {
+		return readSlots((position, length) -> steganography.decodeRange(image, position, length));
+	}
+
+	/**
+	 * Read the payloads of all the slots of the encoded bitmap file, in parallel in the fork/join pool when set. Each
+	 * slot maps the header pages and the chunks of its payload only.
+	 *
+	 * @param image
+	 *            the encoded bitmap file
+	 * @return the payloads by slot identifier, in the order the slots were added
+	 * @throws Exception
+	 */
+	public Map<Long, byte[]> readFileSlots(final File image) throws Exception {
+		return readSlots((position, length) -> steganography.decodeFileRange(image, position, length));
+	}
+
+	// range decode of the image or the file
+	private interface RangeReader {
+		byte[] read(int position, int length) throws Exception;
+	}
+
+	// range update of the image or the file
+	private interface RangeWriter {
+		void write(int position, byte[] data) throws Exception;
+	}
+
+	// number of directory entries and slots added
+	private static final class Directory {
+
+		private final int entries;
+		private final List<Slot> slots;
+
+		Directory(final int entries, final List<Slot> slots) {
+			this.entries = entries;
+			this.slots = slots;
+		}
+
+	}
+
+	private Slot addSlot(final String name, final byte[] data, final CarrierHeader header, final RangeReader reader,
+			final RangeWriter writer) throws Exception {
+		if (header == null) {
+			throw new IllegalArgumentException("Decode error. Image has no slot directory");
+		}
+		Directory directory = readDirectory(reader);
+		int entries = directory.entries;
+		List<Slot> slots = directory.slots;
+		long id = slotId(name);
+		if (findSlot(slots, id) != null) {
+			throw new IllegalArgumentException(String.format("Invalid slot. Slot (%s) already exists.", name));
+		}
+		if (slots.size() == entries) {
+			throw new IllegalArgumentException(
+					String.format("Invalid slot. The directory is full, %d slots.", entries));
+		}
+		// the payloads follow the directory in the order they were added
+		Slot last = slots.isEmpty() ? null : slots.get(slots.size() - 1);
+		int offset = last == null ? directoryLength(entries) : last.getOffset() + last.getLength();
+		if ((long) offset + data.length > header.getLength()) {
+			throw new IllegalArgumentException(
+					String.format("Invalid data length. Free slot space is %d bytes.", header.getLength() - offset));
+		}
+		Slot slot = new Slot(id, offset, data.length, checksum(data));
+		// add the payload, its entry then the number of slots, so a failed add leaves the directory unchanged
+		writer.write(offset, data);
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		entry.putLong(slot.getId()).putInt(slot.getOffset()).putInt(slot.getLength()).putInt(slot.getHash());
+		writer.write(DIRECTORY_HEADER_SIZE + slots.size() * ENTRY_SIZE, entry.array());
+		writer.write(COUNT_OFFSET, ByteBuffer.allocate(Integer.BYTES).putInt(0, slots.size() + 1).array());
+		return slot;
+	}
+
+	private byte[] readSlot(final String name, final RangeReader reader) throws Exception {
+		Slot slot = findSlot(readDirectory(reader).slots, slotId(name));
+		return slot != null ? readPayload(slot, reader) : null;
+	}
+
+	private Map<Long, byte[]> readSlots(final RangeReader reader) throws Exception {
+		List<Slot> slots = readDirectory(reader).slots;
+		Map<Long, byte[]> payloads = new LinkedHashMap<>();
+		ForkJoinPool pool = steganography.getForkJoinPool();
+		if (pool == null) {
+			for (Slot slot : slots) {
+				payloads.put(slot.getId(), readPayload(slot, reader));
+			}
+			return payloads;
+		}
+		// each slot is a range of its own chunks, decoded in a task
+		List<Future<byte[]>> tasks = new ArrayList<>();
+		for (Slot slot : slots) {
+			tasks.add(pool.submit(() -> readPayload(slot, reader)));
+		}
+		for (int idx = 0; idx < slots.size(); idx++) {
+			payloads.put(slots.get(idx).getId(), await(tasks.get(idx)));
+		}
+		return payloads;
+	}
+
+	private static byte[] readPayload(final Slot slot, final RangeReader reader) throws Exception {
+		byte[] payload = reader.read(slot.getOffset(), slot.getLength());
+		if (checksum(payload) != slot.getHash()) {
+			throw new IllegalArgumentException("Decode error. Invalid slot hash");
+		}
+		return payload;
+	}
+
+	// the slots added, the directory header and the used entries only are decoded
+	private static Directory readDirectory(final RangeReader reader) throws Exception {
+		ByteBuffer header = ByteBuffer.wrap(reader.read(0, DIRECTORY_HEADER_SIZE));
+		if (header.getInt(0) != DIRECTORY_MAGIC) {
+			throw new IllegalArgumentException("Decode error. Image has no slot directory");
+		}
+		int entries = header.getInt(ENTRIES_OFFSET);
+		int count = header.getInt(COUNT_OFFSET);
+		if (entries < 1 || entries > MAX_SLOTS || count < 0 || count > entries) {
+			throw new IllegalArgumentException("Decode error. Invalid slot directory");
+		}
+		ByteBuffer directory = ByteBuffer.wrap(reader.read(DIRECTORY_HEADER_SIZE, count * ENTRY_SIZE));
+		List<Slot> slots = new ArrayList<>(count);
+		for (int idx = 0; idx < count; idx++) {
+			slots.add(new Slot(directory.getLong(), directory.getInt(), directory.getInt(), directory.getInt()));
+		}
+		return new Directory(entries, slots);
+	}
+
+	private static Slot findSlot(final List<Slot> slots, final long id) {
+		for (Slot slot : slots) {
+			if (slot.getId() == id) {
+				return slot;
+			}
+		}
+		return null;
+	}
+
+	// directory without slots, random free space
+	private static byte[] createDirectory(final int entries, final int length) {
+		if (entries < 1 || entries > MAX_SLOTS) {
+			throw new IllegalArgumentException(
+					String.format("Invalid number of slots. Must be between 1 and %d.", MAX_SLOTS));
+		}
+		int directoryLength = directoryLength(entries);
+		if (length < directoryLength) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid number of slots. Image capacity is %d bytes, the directory needs %d.", Math.max(0, length),
+					directoryLength));
+		}
+		byte[] data = new byte[length];
+		ThreadLocalRandom.current().nextBytes(data);
+		ByteBuffer directory = ByteBuffer.wrap(data);
+		directory.putInt(DIRECTORY_MAGIC).putInt(entries).putInt(0);
+		directory.put(new byte[entries * ENTRY_SIZE]);
+		return data;
+	}
+
+	private static int directoryLength(final int entries) {
+		return DIRECTORY_HEADER_SIZE + entries * ENTRY_SIZE;
+	}
+
+	private static int checksum(final byte[] data) {
+		IntegrityDigest.Crc32c crc = new IntegrityDigest.Crc32c();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	// chunked data, updated in place
+	private static EncodeOptions createOptions(final EncodeOptions options) {
+		if (options.getCompression() != Compression.NONE || options.isEncrypted() || options.getParity() != 0) {
+			throw new IllegalArgumentException(
+					"Invalid slot options. Slots are not compressed, encrypted nor corrected with parity.");
+		}
+		EncodeOptions slotOptions = new EncodeOptions(options);
+		slotOptions.setChunkSize(options.getChunkSize() != 0 ? options.getChunkSize() : DEFAULT_CHUNK_SIZE);
+		return slotOptions;
+	}
+
+	// result of a task, with the exception thrown by the task
+	private static <T> T await(final Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+}
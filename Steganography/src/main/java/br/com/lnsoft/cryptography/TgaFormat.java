@@ -0,0 +1,69 @@
+package br.com.lnsoft.cryptography;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Uncompressed TGA file format without color map: true color images of 24 or 32 bits per pixel and grayscale images
+ * of 8 bits per pixel. The image data follows the 18 bytes header and the image ID field. The header has no magic
+ * number, so it is accepted from the consistency of its fields, and no reserved bytes: the carrier window is the
+ * image data and the signature is packed in its first bytes. The TGA 2.0 developer area, extension area and footer
+ * follow the image data, out of the window. The 16 bits per pixel images are not supported, their
+ * high byte holds the red channel.
+ */
+final class TgaFormat implements CarrierFormat {
+
+	// header fields, little endian
+	private static final int ID_LENGTH_OFFSET = 0;
+	private static final int COLOR_MAP_TYPE_OFFSET = 1;
+	private static final int IMAGE_TYPE_OFFSET = 2;
+	private static final int WIDTH_OFFSET = 12;
+	private static final int HEIGHT_OFFSET = 14;
+	private static final int BITS_PER_PIXEL_OFFSET = 16;
+	private static final int DESCRIPTOR_OFFSET = 17;
+	private static final int HEADER_SIZE = 18;
+
+	private static final int TRUE_COLOR = 2;
+	private static final int GRAYSCALE = 3;
+	// interleaving bits of the image descriptor, reserved since TGA 2.0
+	private static final int INTERLEAVING_MASK = 0xC0;
+
+	@Override
+	public String getName() {
+		return "tga";
+	}
+
+	@Override
+	public boolean accepts(final ByteBuffer header) {
+		if (header.limit() < HEADER_SIZE || header.get(COLOR_MAP_TYPE_OFFSET) != 0
+				|| (header.get(DESCRIPTOR_OFFSET) & INTERLEAVING_MASK) != 0) {
+			return false;
+		}
+		int imageType = header.get(IMAGE_TYPE_OFFSET);
+		int bitsPerPixel = header.get(BITS_PER_PIXEL_OFFSET) & 0xFF;
+		boolean trueColor = imageType == TRUE_COLOR && (bitsPerPixel == 24 || bitsPerPixel == 32);
+		boolean grayscale = imageType == GRAYSCALE && bitsPerPixel == 8;
+		return (trueColor || grayscale) && readShort(header, WIDTH_OFFSET) > 0 && readShort(header, HEIGHT_OFFSET) > 0;
+	}
+
+	@Override
+	public int windowOffset(final ByteBuffer header) {
+		// no color map data
+		return HEADER_SIZE + (header.get(ID_LENGTH_OFFSET) & 0xFF);
+	}
+
+	@Override
+	public long windowLength(final ByteBuffer header, final long imageLength) {
+		return (long) readShort(header, WIDTH_OFFSET) * readShort(header, HEIGHT_OFFSET)
+				* ((header.get(BITS_PER_PIXEL_OFFSET) & 0xFF) / 8);
+	}
+
+	@Override
+	public int signatureOffset(final ByteBuffer header) {
+		return -1;
+	}
+
+	private static int readShort(final ByteBuffer header, final int offset) {
+		return header.get(offset) & 0xFF | (header.get(offset + 1) & 0xFF) << 8;
+	}
+
+}
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import java.io.File;
 import java.nio.file.Files;
 
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import br.com.lnsoft.cryptography.Steganography;
@@ -15,6 +16,17 @@ public class BaseTests {
 	private static final String OUTPUT_IMAGE = "fsociety_out.bmp";
 	private static final String INPUT_DATA = "mr_robot.jpg";
 
+	private static final int INPUT_IMAGE_SIZE = 1024 * 1024;
+
+	@BeforeAll
+	static void createInputImage() throws Exception {
+		// synthetic bitmap when no input image is provided
+		File inputImage = new File(INPUT_IMAGE);
+		if (!inputImage.exists()) {
+			Files.write(inputImage.toPath(), TestBitmaps.createBitmap(INPUT_IMAGE_SIZE, 0));
+		}
+	}
+
 	@Test
 	void test1() {
 		long seed = 0;
@@ -0,0 +1,63 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.SteganographyBatch;
+
+public class BatchTests {
+
+	@Test
+	void manifestRoundTrip() throws Exception {
+		Path directory = Files.createTempDirectory("batch");
+		byte[] data = TestBitmaps.createData(1000);
+		Files.write(directory.resolve("in.bmp"), TestBitmaps.createBitmap(64 * 1024, 1));
+		Files.write(directory.resolve("data.bin"), data);
+		// encode manifest with a missing image
+		File encodeManifest = directory.resolve("encode.csv").toFile();
+		Files.write(encodeManifest.toPath(), Arrays.asList("image_in,data_in,image_out,seed_string",
+				path(directory, "in.bmp") + "," + path(directory, "data.bin") + "," + path(directory, "out.bmp")
+						+ ",\"secret, seed\"",
+				path(directory, "missing.bmp") + "," + path(directory, "data.bin") + ","
+						+ path(directory, "missing_out.bmp") + ",seed"),
+				StandardCharsets.UTF_8);
+		SteganographyBatch encode = createBatch(true);
+		encode.runManifest(encodeManifest);
+		assertEquals(1, encode.getSucceeded());
+		assertEquals(1, encode.getFailed());
+		// decode manifest with an invalid line
+		File decodeManifest = directory.resolve("decode.jsonl").toFile();
+		Files.write(decodeManifest.toPath(),
+				Arrays.asList("{\"image_in\": \"" + path(directory, "out.bmp") + "\", \"data_out\": \""
+						+ path(directory, "data.out") + "\", \"seed_string\": \"secret, seed\"}", "{\"image_in\""),
+				StandardCharsets.UTF_8);
+		SteganographyBatch decode = createBatch(false);
+		decode.runManifest(decodeManifest);
+		assertEquals(1, decode.getSucceeded());
+		assertEquals(1, decode.getFailed());
+		assertArrayEquals(data, Files.readAllBytes(directory.resolve("data.out")));
+	}
+
+	private static SteganographyBatch createBatch(final boolean encode) {
+		SteganographyBatch batch = new SteganographyBatch(encode, 2);
+		PrintStream discard = new PrintStream(new ByteArrayOutputStream());
+		batch.setOutput(discard, discard);
+		return batch;
+	}
+
+	// JSON friendly path
+	private static String path(final Path directory, final String name) {
+		return directory.resolve(name).toString().replace('\\', '/');
+	}
+
+}
@@ -0,0 +1,137 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class BufferTests {
+
+	private static final int IMAGE_SIZE = 64 * 1024;
+
+	private static final long SEED = 0x5EED;
+
+	@Test
+	void bufferMatchesArray() throws Exception {
+		for (int depth : new int[] { 1, 2, 4, 8 }) {
+			for (Compression compression : new Compression[] { Compression.NONE, Compression.DEFLATE }) {
+				EncodeOptions options = new EncodeOptions();
+				options.setDepth(depth);
+				options.setCompression(compression);
+				for (int length : new int[] { 0, 9, 4097 }) {
+					String message = "depth " + depth + " " + compression + " length " + length;
+					byte[] original = TestBitmaps.createBitmap(IMAGE_SIZE, length);
+					byte[] data = TestBitmaps.createData(length);
+					Steganography steganography = new Steganography(SEED);
+					byte[] expected = steganography.encodeData(original.clone(), data, options);
+					// heap, direct, little endian direct and sliced images with heap and direct data
+					for (int kind = 0; kind < 4; kind++) {
+						ByteBuffer image = createImage(original, kind);
+						ByteBuffer input = kind % 2 == 0 ? ByteBuffer.wrap(data) : copyDirect(data);
+						steganography.encodeData(image, input, options);
+						assertEquals(0, input.remaining(), message);
+						assertArrayEquals(expected, toArray(image), message + " kind " + kind);
+						ByteBuffer output = kind % 2 == 0 ? ByteBuffer.allocate(length + 3)
+								: ByteBuffer.allocateDirect(length + 3);
+						output.position(3);
+						assertEquals(length, steganography.decodeData(image, output), message);
+						assertEquals(length + 3, output.position(), message);
+						output.position(3);
+						byte[] decoded = new byte[length];
+						output.get(decoded);
+						assertArrayEquals(data, decoded, message + " kind " + kind);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void invalidBuffers() throws Exception {
+		byte[] data = TestBitmaps.createData(100);
+		Steganography steganography = new Steganography(SEED);
+		ByteBuffer image = ByteBuffer.wrap(TestBitmaps.createBitmap(IMAGE_SIZE, 1));
+		steganography.encodeData(image, ByteBuffer.wrap(data), new EncodeOptions());
+		// too small data buffer
+		ByteBuffer output = ByteBuffer.allocate(99);
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(image, output));
+		assertEquals(0, output.position());
+		// invalid hash, checked after the data is written, keeps the data buffer position
+		int hashOffset = TestBitmaps.HEADER_SIZE + 16;
+		image.put(hashOffset, (byte) (image.get(hashOffset) ^ 1));
+		ByteBuffer other = ByteBuffer.allocateDirect(100);
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(image, other));
+		assertEquals(0, other.position());
+	}
+
+	@Test
+	void steadyStateAllocation() throws Exception {
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		long threadId = Thread.currentThread().getId();
+		EncodeOptions options = new EncodeOptions(true);
+		options.setDepth(2);
+		Steganography steganography = new Steganography(SEED);
+		ByteBuffer image = copyDirect(TestBitmaps.createBitmap(4096, 1));
+		ByteBuffer data = ByteBuffer.wrap(TestBitmaps.createData(100));
+		ByteBuffer output = ByteBuffer.allocateDirect(100);
+		// rounds run until the hot path is compiled
+		long allocated = Long.MAX_VALUE;
+		for (int round = 0; round < 100 && allocated > 0; round++) {
+			long start = threads.getThreadAllocatedBytes(threadId);
+			for (int idx = 0; idx < 10000; idx++) {
+				data.clear();
+				steganography.encodeData(image, data, options);
+				output.clear();
+				steganography.decodeData(image, output);
+			}
+			allocated = threads.getThreadAllocatedBytes(threadId) - start;
+		}
+		assertEquals(0, allocated);
+	}
+
+	private static ByteBuffer createImage(final byte[] original, final int kind) {
+		switch (kind) {
+		case 0:
+			return ByteBuffer.wrap(original.clone());
+		case 1:
+			return copyDirect(original);
+		case 2:
+			return copyDirect(original).order(ByteOrder.LITTLE_ENDIAN);
+		default:
+			ByteBuffer buffer = ByteBuffer.allocateDirect(original.length + 5);
+			buffer.position(5);
+			buffer.put(original);
+			buffer.position(5);
+			return buffer.slice();
+		}
+	}
+
+	private static ByteBuffer copyDirect(final byte[] array) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(array.length);
+		buffer.put(array);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static byte[] toArray(final ByteBuffer buffer) {
+		byte[] array = new byte[buffer.limit()];
+		for (int idx = 0; idx < array.length; idx++) {
+			array[idx] = buffer.get(idx);
+		}
+		return array;
+	}
+
+}
@@ -0,0 +1,227 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierIndex;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Shard;
+import br.com.lnsoft.cryptography.Steganography;
+import br.com.lnsoft.cryptography.SteganographyShards;
+
+public class CapacityTests {
+
+	private static final long SEED = 0xCA9A;
+
+	private Path pool;
+
+	@BeforeEach
+	void createPool() throws Exception {
+		pool = Files.createTempDirectory("pool");
+	}
+
+	@AfterEach
+	void deletePool() throws Exception {
+		try (Stream<Path> paths = Files.walk(pool)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	void capacityIsExact() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] original = TestBitmaps.createBitmap(10007, 1);
+		File imageIn = pool.resolve("carrier.bmp").toFile();
+		Files.write(imageIn.toPath(), original);
+		for (EncodeOptions options : createOptions()) {
+			int capacity = steganography.capacityData(original, options);
+			assertEquals(capacity, steganography.capacityFile(imageIn, options));
+			// random data does not compress
+			byte[] data = TestBitmaps.createData(capacity);
+			byte[] image = steganography.encodeData(original.clone(), data, options);
+			assertArrayEquals(data, steganography.decodeData(image));
+			if (options.getCompression() == Compression.NONE) {
+				assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(original.clone(),
+						TestBitmaps.createData(capacity + 1), options));
+			}
+		}
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.capacityData(TestBitmaps.createData(100), new EncodeOptions()));
+	}
+
+	@Test
+	void noCapacity() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		// the header does not fit, or the compressed empty data with deflate
+		byte[] tiny = TestBitmaps.createBitmap(TestBitmaps.HEADER_SIZE + 20, 1);
+		byte[] small = TestBitmaps.createBitmap(TestBitmaps.HEADER_SIZE + 250, 1);
+		EncodeOptions compressed = new EncodeOptions();
+		compressed.setCompression(Compression.DEFLATE);
+		compressed.setDepth(1);
+		for (EncodeOptions options : createOptions()) {
+			assertEquals(-1, steganography.capacityData(tiny, options));
+			assertThrows(IllegalArgumentException.class,
+					() -> steganography.encodeData(tiny.clone(), new byte[0], options));
+		}
+		assertEquals(-1, steganography.capacityData(small, compressed));
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData(small.clone(), new byte[0], compressed));
+		EncodeOptions plain = new EncodeOptions(compressed);
+		plain.setCompression(Compression.NONE);
+		int capacity = steganography.capacityData(small, plain);
+		assertArrayEquals(new byte[capacity],
+				steganography.decodeData(steganography.encodeData(small.clone(), new byte[capacity], plain)));
+	}
+
+	@Test
+	void selectCarrier() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		File small = writeBitmap("small.bmp", 20000);
+		File medium = writeBitmap(Files.createDirectory(pool.resolve("sub")).resolve("medium.bmp"), 60000);
+		File large = writeBitmap("large.bmp", 80000);
+		// encoded carrier between small and medium
+		File encoded = pool.resolve("encoded.bmp").toFile();
+		Files.write(encoded.toPath(),
+				steganography.encodeData(TestBitmaps.createBitmap(30000, 0), new byte[10], new EncodeOptions()));
+		// not a bitmap
+		Files.write(pool.resolve("broken.bmp"), new byte[5]);
+		CarrierIndex index = new CarrierIndex(pool.resolve("index.csv").toFile(), steganography);
+		assertEquals(5, index.update(pool.toFile()));
+		assertEquals(4, index.size());
+		EncodeOptions options = new EncodeOptions();
+		int smallCapacity = steganography.capacityFile(small, options);
+		assertEquals(small.getAbsoluteFile(), index.select(0, options));
+		assertEquals(small.getAbsoluteFile(), index.select(smallCapacity, options));
+		assertEquals(medium.getAbsoluteFile(), index.select(smallCapacity + 1, options));
+		assertEquals(large.getAbsoluteFile(), index.select(steganography.capacityFile(large, options), options));
+		assertNull(index.select(steganography.capacityFile(large, options) + 1, options));
+		// the encoded carrier is picked with the force option only
+		EncodeOptions force = new EncodeOptions(true);
+		assertEquals(encoded.getAbsoluteFile(), index.select(smallCapacity + 1, force));
+		// shards across the pool
+		int length = 50000;
+		File[] carriers = index.selectShards(length, options);
+		assertEquals(2, carriers.length);
+		assertEquals(medium.getAbsoluteFile(), carriers[0]);
+		assertEquals(large.getAbsoluteFile(), carriers[1]);
+		File[] outputs = { pool.resolve("out0.bin").toFile(), pool.resolve("out1.bin").toFile() };
+		byte[] data = TestBitmaps.createData(length);
+		SteganographyShards shards = new SteganographyShards(steganography, 2);
+		shards.encodeFiles(carriers, outputs, new ByteArrayInputStream(data), length, options);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		shards.decodeFiles(outputs, output);
+		assertArrayEquals(data, output.toByteArray());
+		assertNull(index.selectShards(200000, options));
+		// the shard fields take 16 data bytes of the capacity
+		EncodeOptions plain = new EncodeOptions();
+		plain.setIntegrity(Integrity.CRC32C);
+		EncodeOptions shard = new EncodeOptions();
+		shard.setIntegrity(Integrity.CRC32C);
+		shard.setShard(new Shard(1, 0, 1));
+		assertEquals(steganography.capacityFile(large, plain) - 16, steganography.capacityFile(large, shard));
+	}
+
+	@Test
+	void shardsWithOverhead() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		File[] bitmaps = { writeBitmap("a.bmp", 40000), writeBitmap("b.bmp", 40000), writeBitmap("c.bmp", 40000) };
+		CarrierIndex index = new CarrierIndex(pool.resolve("index.csv").toFile(), steganography);
+		assertEquals(3, index.update(pool.toFile()));
+		EncodeOptions corrected = new EncodeOptions();
+		corrected.setParity(64);
+		EncodeOptions chunked = new EncodeOptions();
+		chunked.setChunkSize(256);
+		chunked.setWide(true);
+		for (EncodeOptions options : new EncodeOptions[] { corrected, chunked }) {
+			// the shard capacity includes the parity or the chunk index
+			EncodeOptions shard = new EncodeOptions(options);
+			shard.setShard(new Shard(0, 0, 1));
+			int capacity = steganography.capacityFile(bitmaps[0], shard);
+			assertEquals(2, index.selectShards(2 * capacity, options).length);
+			File[] carriers = index.selectShards(2 * capacity + 1, options);
+			assertEquals(3, carriers.length);
+			File[] outputs = new File[carriers.length];
+			for (int idx = 0; idx < outputs.length; idx++) {
+				outputs[idx] = pool.resolve("out" + idx + ".out").toFile();
+			}
+			byte[] data = TestBitmaps.createData(2 * capacity + 1);
+			SteganographyShards shards = new SteganographyShards(steganography, 2);
+			shards.encodeFiles(carriers, outputs, new ByteArrayInputStream(data), data.length, options);
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			shards.decodeFiles(outputs, output);
+			assertArrayEquals(data, output.toByteArray());
+		}
+	}
+
+	@Test
+	void incrementalUpdate() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		writeBitmap("a, copy.bmp", 20000);
+		File b = writeBitmap("b.bmp", 30000);
+		File c = writeBitmap("c.bmp", 40000);
+		File indexFile = pool.resolve("index, pool.csv").toFile();
+		CarrierIndex index = new CarrierIndex(indexFile, steganography);
+		assertEquals(3, index.update(pool.toFile()));
+		index.save();
+		// reloaded index, nothing changed
+		index = new CarrierIndex(indexFile, steganography);
+		assertEquals(3, index.size());
+		assertEquals(0, index.update(pool.toFile()));
+		// modified and deleted carriers
+		Files.write(b.toPath(), TestBitmaps.createBitmap(50000, 2));
+		Files.delete(c.toPath());
+		assertEquals(1, index.update(pool.toFile()));
+		assertEquals(2, index.size());
+		assertEquals(b.getAbsoluteFile(), index.select(20000, new EncodeOptions()));
+		index.save();
+		assertEquals(2, new CarrierIndex(indexFile, steganography).size());
+		// unknown index file format
+		Files.write(indexFile.toPath(), "image_in,length\n".getBytes());
+		assertThrows(IllegalArgumentException.class, () -> new CarrierIndex(indexFile, steganography));
+	}
+
+	private File writeBitmap(final String name, final int size) throws Exception {
+		return writeBitmap(pool.resolve(name), size);
+	}
+
+	private static File writeBitmap(final Path path, final int size) throws Exception {
+		Files.write(path, TestBitmaps.createBitmap(size, size));
+		return path.toFile();
+	}
+
+	private static EncodeOptions[] createOptions() {
+		EncodeOptions[] options = new EncodeOptions[7];
+		options[0] = new EncodeOptions();
+		for (int idx = 1; idx < 5; idx++) {
+			options[idx] = new EncodeOptions();
+			options[idx].setDepth(1 << (idx - 1));
+			options[idx].setIntegrity(Integrity.CRC32C);
+		}
+		options[5] = new EncodeOptions();
+		options[5].setDepth(2);
+		options[5].setCompression(Compression.DEFLATE);
+		options[5].setScatter(true);
+		options[6] = new EncodeOptions();
+		options[6].setDepth(4);
+		options[6].setCompression(Compression.DEFLATE_FAST);
+		options[6].setShard(new Shard(7, 0, 1));
+		return options;
+	}
+
+}
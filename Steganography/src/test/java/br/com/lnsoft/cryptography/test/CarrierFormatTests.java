@@ -0,0 +1,239 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierFormat;
+import br.com.lnsoft.cryptography.CarrierHeader;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class CarrierFormatTests {
+
+	private static final long SEED = 0xCF01;
+
+	@Test
+	void detectedFormats() throws Exception {
+		byte[][] images = { createPnm("P6", 200, 100, 3), createPnm("P5", 300, 200, 1), createTga(2, 24, 200, 100, 0),
+				createTga(2, 32, 150, 100, 12), createTga(3, 8, 300, 200, 0) };
+		CarrierFormat[] formats = { CarrierFormat.PNM, CarrierFormat.PNM, CarrierFormat.TGA, CarrierFormat.TGA,
+				CarrierFormat.TGA };
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(5000);
+		for (int idx = 0; idx < images.length; idx++) {
+			byte[] original = images[idx];
+			assertSame(formats[idx], CarrierFormat.detect(ByteBuffer.wrap(original)));
+			int windowOffset = formats[idx].windowOffset(ByteBuffer.wrap(original));
+			for (EncodeOptions options : createOptions()) {
+				byte[] image = steganography.encodeData(original.clone(), data, options);
+				assertArrayEquals(data, steganography.decodeData(image), "image " + idx);
+				// the format header is unchanged
+				assertArrayEquals(Arrays.copyOf(original, windowOffset), Arrays.copyOf(image, windowOffset));
+				CarrierHeader header = steganography.probeData(image);
+				assertEquals(data.length, header.getOriginalLength());
+				assertTrue(header.getOffset() > windowOffset);
+				// an encoded image needs the force flag
+				assertThrows(IllegalArgumentException.class,
+						() -> steganography.encodeData(image.clone(), data, new EncodeOptions()));
+				int capacity = steganography.capacityData(original, options);
+				steganography.encodeData(original.clone(), TestBitmaps.createData(capacity), options);
+			}
+			// the pixel layout is a bitmap option
+			EncodeOptions pixels = new EncodeOptions();
+			pixels.setPixels(true);
+			assertThrows(IllegalArgumentException.class,
+					() -> steganography.encodeData(original.clone(), data, pixels));
+		}
+	}
+
+	@Test
+	void rawFrames() throws Exception {
+		byte[] original = new byte[640 * 480 * 2];
+		new Random(SEED).nextBytes(original);
+		byte[] data = TestBitmaps.createData(20000);
+		Steganography steganography = new Steganography(SEED);
+		// a headerless frame is not detected
+		assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(original.clone(), data, false));
+		steganography.setCarrierFormat(CarrierFormat.RAW);
+		for (EncodeOptions options : createOptions()) {
+			byte[] image = steganography.encodeData(original.clone(), data, options);
+			assertArrayEquals(data, steganography.decodeData(image));
+			assertEquals(data.length, steganography.probeData(image).getOriginalLength());
+		}
+		// the file mode writes the same image
+		Path directory = Files.createTempDirectory("formats");
+		File imageIn = directory.resolve("frame.raw").toFile();
+		File imageOut = directory.resolve("frame_out.raw").toFile();
+		try {
+			Files.write(imageIn.toPath(), original);
+			EncodeOptions options = new EncodeOptions();
+			options.setIntegrity(Integrity.CRC32C);
+			options.setChunkSize(1024);
+			steganography.encodeFile(imageIn, imageOut, data, options);
+			assertArrayEquals(steganography.encodeData(original.clone(), data, options),
+					Files.readAllBytes(imageOut.toPath()));
+			assertArrayEquals(data, steganography.decodeFile(imageOut));
+			assertArrayEquals(Arrays.copyOfRange(data, 3000, 5000),
+					steganography.decodeFileRange(imageOut, 3000, 2000));
+			assertEquals(data.length, steganography.probeFile(imageOut).getLength());
+			assertEquals(steganography.capacityData(original, options), steganography.capacityFile(imageIn, options));
+		} finally {
+			imageIn.delete();
+			imageOut.delete();
+			Files.delete(directory);
+		}
+		// a format set is the only one read
+		steganography.setCarrierFormat(CarrierFormat.PNM);
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(TestBitmaps.createBitmap(1000, 1)));
+	}
+
+	@Test
+	void trailingData() throws Exception {
+		// TGA 2.0 extension area and footer, a second PGM image after the raster
+		byte[] tga = createTga(2, 24, 200, 100, 0);
+		byte[] tgaFooter = createTgaFooter(tga.length);
+		byte[] pnm = createPnm("P6", 200, 100, 3);
+		byte[] pnmTrailer = createPnm("P5", 50, 40, 1);
+		byte[][] images = { concat(tga, tgaFooter), concat(pnm, pnmTrailer) };
+		byte[][] trailers = { tgaFooter, pnmTrailer };
+		byte[][] windows = { tga, pnm };
+		Steganography steganography = new Steganography(SEED);
+		for (int idx = 0; idx < images.length; idx++) {
+			byte[] original = images[idx];
+			int imageEnd = windows[idx].length;
+			for (EncodeOptions options : createOptions()) {
+				// the capacity is the one of the image data only
+				int capacity = steganography.capacityData(original, options);
+				assertEquals(steganography.capacityData(windows[idx], options), capacity);
+				byte[] data = TestBitmaps.createData(capacity);
+				byte[] image = steganography.encodeData(original.clone(), data, options);
+				assertArrayEquals(data, steganography.decodeData(image), "image " + idx);
+				// the data after the image is unchanged
+				assertArrayEquals(trailers[idx], Arrays.copyOfRange(image, imageEnd, image.length));
+				assertEquals(capacity, steganography.probeData(image).getOriginalLength());
+			}
+		}
+		// the file mode keeps the footer too
+		Path directory = Files.createTempDirectory("formats");
+		File imageIn = directory.resolve("footer.tga").toFile();
+		File imageOut = directory.resolve("footer_out.tga").toFile();
+		try {
+			Files.write(imageIn.toPath(), images[0]);
+			EncodeOptions options = new EncodeOptions();
+			options.setScatter(true);
+			int capacity = steganography.capacityFile(imageIn, options);
+			assertEquals(steganography.capacityData(tga, options), capacity);
+			byte[] data = TestBitmaps.createData(capacity);
+			steganography.encodeFile(imageIn, imageOut, data, options);
+			byte[] image = Files.readAllBytes(imageOut.toPath());
+			assertArrayEquals(tgaFooter, Arrays.copyOfRange(image, tga.length, image.length));
+			assertArrayEquals(data, steganography.decodeFile(imageOut));
+			assertEquals(capacity, steganography.probeFile(imageOut).getLength());
+		} finally {
+			imageIn.delete();
+			imageOut.delete();
+			Files.delete(directory);
+		}
+		// truncated image data
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData(Arrays.copyOf(tga, tga.length - 1), new byte[100], false));
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.capacityData(Arrays.copyOf(pnm, pnm.length - 1), new EncodeOptions()));
+	}
+
+	@Test
+	void invalidHeaders() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = new byte[100];
+		// 16 bits samples, truncated header and unsupported TGA types
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData(createPnm("P6", 100, 100, 3, 65535), data, false));
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData("P6\n100 100".getBytes(StandardCharsets.US_ASCII), data, false));
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData(createTga(2, 16, 100, 100, 0), data, false));
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData(createTga(10, 24, 100, 100, 0), data, false));
+		assertNull(CarrierFormat.detect(ByteBuffer.wrap(new byte[] { 'P', '4', '\n' })));
+		assertSame(CarrierFormat.RAW, CarrierFormat.forName("RAW"));
+		assertThrows(IllegalArgumentException.class, () -> CarrierFormat.forName("png"));
+		assertTrue(CarrierFormat.isCarrierFile("frame.PGM"));
+	}
+
+	private static EncodeOptions[] createOptions() {
+		EncodeOptions plain = new EncodeOptions();
+		EncodeOptions compressed = new EncodeOptions();
+		compressed.setCompression(Compression.DEFLATE);
+		compressed.setDepth(2);
+		EncodeOptions scatter = new EncodeOptions();
+		scatter.setScatter(true);
+		scatter.setIntegrity(Integrity.MURMUR3_128);
+		return new EncodeOptions[] { plain, compressed, scatter };
+	}
+
+	private static byte[] createPnm(final String magic, final int width, final int height, final int channels) {
+		return createPnm(magic, width, height, channels, 255);
+	}
+
+	// text header with a comment, random samples
+	private static byte[] createPnm(final String magic, final int width, final int height, final int channels,
+			final int maxValue) {
+		byte[] header = String.format("%s\n# capture frame\n%d %d\n%d\n", magic, width, height, maxValue)
+				.getBytes(StandardCharsets.US_ASCII);
+		byte[] image = new byte[header.length + width * height * channels];
+		new Random(width * height).nextBytes(image);
+		System.arraycopy(header, 0, image, 0, header.length);
+		return image;
+	}
+
+	// extension area of the TGA 2.0 size and the footer that locates it
+	private static byte[] createTgaFooter(final int extensionOffset) {
+		ByteBuffer footer = ByteBuffer.allocate(495 + 26).order(ByteOrder.LITTLE_ENDIAN);
+		footer.putShort((short) 495);
+		footer.put("steganography".getBytes(StandardCharsets.US_ASCII));
+		footer.position(495);
+		footer.putInt(extensionOffset);
+		footer.putInt(0);
+		footer.put("TRUEVISION-XFILE.\0".getBytes(StandardCharsets.US_ASCII));
+		return footer.array();
+	}
+
+	private static byte[] concat(final byte[] first, final byte[] second) {
+		byte[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	// uncompressed TGA header without color map, random image ID and pixels
+	private static byte[] createTga(final int imageType, final int bitsPerPixel, final int width, final int height,
+			final int idLength) {
+		byte[] image = new byte[18 + idLength + width * height * bitsPerPixel / 8];
+		new Random(width * height).nextBytes(image);
+		Arrays.fill(image, 0, 18, (byte) 0);
+		ByteBuffer header = ByteBuffer.wrap(image);
+		header.put(0, (byte) idLength);
+		header.put(2, (byte) imageType);
+		header.putShort(12, Short.reverseBytes((short) width));
+		header.putShort(14, Short.reverseBytes((short) height));
+		header.put(16, (byte) bitsPerPixel);
+		return image;
+	}
+
+}
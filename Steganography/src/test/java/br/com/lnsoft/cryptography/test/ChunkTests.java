@@ -0,0 +1,189 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierHeader;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class ChunkTests {
+
+	private static final long SEED = 0xC4C5;
+
+	// ranges within the first chunk, across chunks, up to the last partial chunk and empty
+	private static final int[][] RANGES = { { 0, 100 }, { 1000, 2000 }, { 4096, 1024 }, { 19000, 1000 },
+			{ 0, 20000 }, { 7000, 0 } };
+
+	@Test
+	void rangesOfEveryLayout() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(20000);
+		for (EncodeOptions options : createOptions()) {
+			byte[] original = options.isPixels() ? TestBitmaps.createPixelBitmap(200, 120, 32, 40, 0, 1)
+					: TestBitmaps.createBitmap(100000, 1);
+			byte[] image = steganography.encodeData(original.clone(), data, options);
+			assertArrayEquals(data, steganography.decodeData(image));
+			for (int[] range : RANGES) {
+				assertArrayEquals(Arrays.copyOfRange(data, range[0], range[0] + range[1]),
+						steganography.decodeRange(image, range[0], range[1]), Arrays.toString(range));
+			}
+			// the other encode modes write the same image
+			assertArrayEquals(image, steganography.encodeData(original.clone(), new ByteArrayInputStream(data),
+					data.length, options));
+			ByteBuffer buffer = ByteBuffer.wrap(original.clone());
+			steganography.encodeData(buffer, ByteBuffer.wrap(data), options);
+			assertArrayEquals(image, buffer.array());
+			CarrierHeader header = steganography.probeData(image);
+			assertEquals(1024, header.getChunkSize());
+			assertEquals(data.length, header.getLength());
+			// the chunk index is within the capacity
+			int capacity = steganography.capacityData(original, options);
+			steganography.encodeData(original.clone(), TestBitmaps.createData(capacity), options);
+			assertThrows(IllegalArgumentException.class,
+					() -> steganography.encodeData(original.clone(), TestBitmaps.createData(capacity + 1), options));
+		}
+	}
+
+	@Test
+	void onlyTouchedChunksAreChecked() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(20000);
+		EncodeOptions options = new EncodeOptions();
+		options.setChunkSize(1024);
+		byte[] image = steganography.encodeData(TestBitmaps.createBitmap(60000, 2), data, options);
+		// flip a data bit of the fourth chunk, after 20 checksums with depth 4
+		int offset = steganography.probeData(image).getOffset();
+		image[offset + 2 * (20 * 4 + 3 * 1024 + 10)] ^= 0x01;
+		assertArrayEquals(Arrays.copyOfRange(data, 0, 3072), steganography.decodeRange(image, 0, 3072));
+		assertArrayEquals(Arrays.copyOfRange(data, 4096, 5000), steganography.decodeRange(image, 4096, 904));
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeRange(image, 3000, 100));
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(image));
+		// invalid ranges and options
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeRange(image, 19000, 1001));
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeRange(image, -1, 10));
+		assertThrows(IllegalArgumentException.class, () -> options.setChunkSize(100));
+		options.setCompression(Compression.DEFLATE);
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData(TestBitmaps.createBitmap(60000, 2), data, options));
+	}
+
+	@Test
+	void fileRanges() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(30000);
+		Path directory = Files.createTempDirectory("chunks");
+		File imageIn = directory.resolve("in.bmp").toFile();
+		File imageOut = directory.resolve("out.bmp").toFile();
+		try {
+			Files.write(imageIn.toPath(), TestBitmaps.createBitmap(90000, 3));
+			EncodeOptions options = new EncodeOptions();
+			options.setChunkSize(4096);
+			options.setIntegrity(Integrity.CRC32C);
+			steganography.encodeFile(imageIn, imageOut, data, options);
+			assertArrayEquals(steganography.encodeData(Files.readAllBytes(imageIn.toPath()), data, options),
+					Files.readAllBytes(imageOut.toPath()));
+			assertArrayEquals(data, steganography.decodeFile(imageOut));
+			assertArrayEquals(Arrays.copyOfRange(data, 5000, 9000),
+					steganography.decodeFileRange(imageOut, 5000, 4000));
+			assertArrayEquals(Arrays.copyOfRange(data, 29000, 30000),
+					steganography.decodeFileRange(imageOut, 29000, 1000));
+			// data without chunks is decoded whole
+			steganography.encodeFile(imageIn, imageOut, data, new EncodeOptions());
+			assertArrayEquals(Arrays.copyOfRange(data, 10, 20), steganography.decodeFileRange(imageOut, 10, 10));
+			assertArrayEquals(Arrays.copyOfRange(data, 10, 20),
+					steganography.decodeRange(Files.readAllBytes(imageOut.toPath()), 10, 10));
+		} finally {
+			imageIn.delete();
+			imageOut.delete();
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void updateInPlace() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(20000);
+		for (EncodeOptions options : createOptions()) {
+			byte[] original = options.isPixels() ? TestBitmaps.createPixelBitmap(200, 120, 32, 40, 0, 4)
+					: TestBitmaps.createBitmap(100000, 4);
+			byte[] image = steganography.encodeData(original.clone(), data, options);
+			byte[] expected = data.clone();
+			// within a chunk, across chunks and up to the last partial chunk
+			for (int[] range : new int[][] { { 10, 20 }, { 1000, 2100 }, { 19990, 10 }, { 5000, 0 } }) {
+				byte[] update = TestBitmaps.createData(range[1] + 1);
+				steganography.updateData(image, range[0], Arrays.copyOf(update, range[1]));
+				System.arraycopy(update, 0, expected, range[0], range[1]);
+			}
+			// the same image as encoding the updated data
+			assertArrayEquals(expected, steganography.decodeData(image));
+			assertArrayEquals(steganography.encodeData(original.clone(), expected, options), image);
+		}
+		// data without chunks
+		byte[] plain = steganography.encodeData(TestBitmaps.createBitmap(60000, 5), data, new EncodeOptions());
+		assertThrows(IllegalArgumentException.class, () -> steganography.updateData(plain, 0, new byte[10]));
+		// the chunks of the range are checked first
+		EncodeOptions options = new EncodeOptions();
+		options.setChunkSize(1024);
+		byte[] image = steganography.encodeData(TestBitmaps.createBitmap(60000, 5), data, options);
+		int offset = steganography.probeData(image).getOffset();
+		image[offset + 2 * (20 * 4 + 1024 + 10)] ^= 0x01;
+		assertThrows(IllegalArgumentException.class, () -> steganography.updateData(image, 1500, new byte[10]));
+		steganography.updateData(image, 3000, new byte[10]);
+		assertThrows(IllegalArgumentException.class, () -> steganography.updateData(image, 19995, new byte[10]));
+	}
+
+	@Test
+	void updateFileInPlace() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(30000);
+		Path directory = Files.createTempDirectory("chunks");
+		File imageFile = directory.resolve("image.bmp").toFile();
+		try {
+			byte[] original = TestBitmaps.createBitmap(90000, 6);
+			EncodeOptions options = new EncodeOptions();
+			options.setChunkSize(4096);
+			options.setIntegrity(Integrity.MD5);
+			Files.write(imageFile.toPath(), steganography.encodeData(original.clone(), data, options));
+			byte[] update = TestBitmaps.createData(5000);
+			steganography.updateFile(imageFile, 12000, update);
+			System.arraycopy(update, 0, data, 12000, update.length);
+			assertArrayEquals(data, steganography.decodeFile(imageFile));
+			assertArrayEquals(steganography.encodeData(original.clone(), data, options),
+					Files.readAllBytes(imageFile.toPath()));
+		} finally {
+			imageFile.delete();
+			Files.delete(directory);
+		}
+	}
+
+	private static EncodeOptions[] createOptions() {
+		EncodeOptions plain = new EncodeOptions();
+		EncodeOptions depth = new EncodeOptions();
+		depth.setDepth(2);
+		depth.setIntegrity(Integrity.MURMUR3_128);
+		EncodeOptions scatter = new EncodeOptions();
+		scatter.setScatter(true);
+		EncodeOptions pixels = new EncodeOptions();
+		pixels.setPixels(true);
+		pixels.setIntegrity(Integrity.CRC32C);
+		EncodeOptions[] options = { plain, depth, scatter, pixels };
+		for (EncodeOptions option : options) {
+			option.setChunkSize(1024);
+		}
+		return options;
+	}
+
+}
@@ -0,0 +1,98 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class CompressionTests {
+
+	private static final long SEED = 0x5EED;
+
+	@Test
+	void compressedRoundTrip() throws Exception {
+		byte[] text = createText(200000);
+		for (Compression compression : new Compression[] { Compression.DEFLATE, Compression.DEFLATE_FAST }) {
+			for (int depth : new int[] { 1, 4, 8 }) {
+				EncodeOptions options = createOptions(compression, depth);
+				// smaller than the raw data needs at depth 4 and 8
+				byte[] original = TestBitmaps.createBitmap(256 * 1024, depth);
+				Steganography steganography = new Steganography(SEED);
+				byte[] image = steganography.encodeData(original.clone(), text, options);
+				String message = compression + " depth " + depth;
+				assertArrayEquals(text, steganography.decodeData(image), message);
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				assertEquals(text.length, steganography.decodeData(image, output), message);
+				assertArrayEquals(text, output.toByteArray(), message);
+				byte[] stream = steganography.encodeData(original.clone(), new ByteArrayInputStream(text),
+						text.length, options);
+				assertArrayEquals(image, stream, message);
+			}
+		}
+	}
+
+	@Test
+	void incompressibleData() throws Exception {
+		for (int length : new int[] { 0, 1, 100, 30000 }) {
+			byte[] data = TestBitmaps.createData(length);
+			Steganography steganography = new Steganography(SEED);
+			byte[] image = steganography.encodeData(TestBitmaps.createBitmap(64 * 1024, length), data,
+					createOptions(Compression.DEFLATE, 4));
+			assertArrayEquals(data, steganography.decodeData(image), "length " + length);
+		}
+		// random data does not fit once compressed
+		assertThrows(IllegalArgumentException.class, () -> new Steganography(SEED).encodeData(
+				TestBitmaps.createBitmap(4096, 0), TestBitmaps.createData(4000), createOptions(Compression.DEFLATE, 4)));
+	}
+
+	@Test
+	void compressedFile() throws Exception {
+		byte[] text = createText(100000);
+		File imageIn = File.createTempFile("compression", ".bmp");
+		File imageOut = File.createTempFile("compression", ".bmp");
+		try {
+			// room for the worst case window, so the offset depends on the seed
+			Files.write(imageIn.toPath(), TestBitmaps.createBitmap(1024 * 1024, 1));
+			Steganography steganography = new Steganography(SEED);
+			EncodeOptions options = createOptions(Compression.DEFLATE_FAST, 2);
+			steganography.encodeFile(imageIn, imageOut, new ByteArrayInputStream(text), text.length, options);
+			assertArrayEquals(steganography.encodeData(Files.readAllBytes(imageIn.toPath()), text, options),
+					Files.readAllBytes(imageOut.toPath()));
+			assertArrayEquals(text, steganography.decodeFile(imageOut));
+			// wrong seed
+			assertThrows(IllegalArgumentException.class, () -> new Steganography(SEED + 1).decodeFile(imageOut));
+		} finally {
+			imageIn.delete();
+			imageOut.delete();
+		}
+	}
+
+	private static EncodeOptions createOptions(final Compression compression, final int depth) {
+		EncodeOptions options = new EncodeOptions();
+		options.setCompression(compression);
+		options.setDepth(depth);
+		return options;
+	}
+
+	// log like text
+	private static byte[] createText(final int length) {
+		StringBuilder text = new StringBuilder();
+		for (int line = 0; text.length() < length; line++) {
+			text.append(String.format("2018-06-%02d INFO [worker-%d] request %d served in %d ms%n", line % 30 + 1,
+					line % 8, line, line % 97));
+		}
+		return text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+	}
+
+}
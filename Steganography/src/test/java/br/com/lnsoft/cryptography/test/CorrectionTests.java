@@ -0,0 +1,188 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierHeader;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class CorrectionTests {
+
+	private static final String SEED = "correction seed";
+
+	@Test
+	void damagedBytesAreCorrected() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(20000);
+		for (EncodeOptions options : createOptions()) {
+			byte[] image = steganography.encodeData(TestBitmaps.createBitmap(100000, 1), data, options);
+			CarrierHeader header = steganography.probeData(image);
+			assertEquals(16, header.getParity());
+			// scattered bit flips and a burst of image bytes after the header, the flips of a prime stride spread over
+			// the codewords wherever the data offset is
+			for (int idx = 0; idx < 100; idx++) {
+				image[header.getOffset() + (idx * 211 + options.getDepth()) % (image.length - header.getOffset())] ^= 1;
+			}
+			for (int idx = 0; idx < 300; idx++) {
+				image[header.getOffset() + 5000 + idx] ^= 0x0F;
+			}
+			assertArrayEquals(data, steganography.decodeData(image));
+			// the stream and buffer modes, on a direct buffer too
+			ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+			assertEquals(data.length, steganography.decodeData(image, decoded));
+			assertArrayEquals(data, decoded.toByteArray());
+			ByteBuffer output = ByteBuffer.allocateDirect(data.length + 10);
+			output.position(10);
+			assertEquals(data.length, steganography.decodeData(ByteBuffer.wrap(image), output));
+			byte[] buffered = new byte[data.length];
+			output.position(10);
+			output.get(buffered);
+			assertArrayEquals(data, buffered);
+		}
+	}
+
+	@Test
+	void randomDamageWithinParity() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(20000);
+		byte[] original = TestBitmaps.createBitmap(200000, 5);
+		for (int depth : new int[] { 1, 2, 8 }) {
+			EncodeOptions options = new EncodeOptions();
+			options.setDepth(depth);
+			options.setParity(16);
+			options.setEncrypted(depth == 8);
+			byte[] image = steganography.encodeData(original.clone(), data, options);
+			int offset = steganography.probeData(image).getOffset();
+			int bytesPerData = 8 / depth;
+			// random bytes of the data run, at most parity / 2 damaged data bytes per codeword: data byte j of a block
+			// of 64 * 239 data bytes belongs to codeword j % c, c being 64 or fewer in the last block
+			Random random = new Random(depth);
+			int[] errors = new int[2 * 64];
+			boolean[] damaged = new boolean[data.length];
+			for (int idx = 0; idx < 5000; idx++) {
+				int index = random.nextInt(data.length);
+				int block = index / (64 * 239);
+				int codewords = Math.min(64, (data.length - block * 64 * 239 + 238) / 239);
+				int codeword = block * 64 + index % (64 * 239) % codewords;
+				if (!damaged[index] && errors[codeword] == 8) {
+					continue;
+				}
+				if (!damaged[index]) {
+					damaged[index] = true;
+					errors[codeword]++;
+				}
+				image[offset + index * bytesPerData + random.nextInt(bytesPerData)] ^= 1 << random.nextInt(depth);
+			}
+			assertArrayEquals(data, steganography.decodeData(image), "depth " + depth);
+		}
+	}
+
+	@Test
+	void tooManyErrorsFail() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(20000);
+		EncodeOptions options = new EncodeOptions();
+		options.setParity(4);
+		byte[] image = steganography.encodeData(TestBitmaps.createBitmap(100000, 2), data, options);
+		int offset = steganography.probeData(image).getOffset();
+		for (int idx = 0; idx < 2000; idx++) {
+			image[offset + idx] ^= 0x0F;
+		}
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(image));
+	}
+
+	@Test
+	void parallelAndMapped() throws Exception {
+		int length = 3 * 1024 * 1024 + 5;
+		byte[] original = TestBitmaps.createBitmap(3 * length, 3);
+		byte[] data = TestBitmaps.createData(length);
+		EncodeOptions options = new EncodeOptions();
+		options.setIntegrity(Integrity.CRC32C);
+		options.setParity(32);
+		byte[] expected = new Steganography(SEED).encodeData(original.clone(), data, options);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		Path directory = Files.createTempDirectory("correction");
+		File imageIn = directory.resolve("in.bmp").toFile();
+		File imageOut = directory.resolve("out.bmp").toFile();
+		try {
+			Steganography steganography = new Steganography(SEED);
+			steganography.setForkJoinPool(pool);
+			byte[] actual = steganography.encodeData(original.clone(), data, options);
+			assertArrayEquals(expected, actual);
+			// damaged bytes in every block
+			int offset = steganography.probeData(actual).getOffset();
+			for (int idx = offset; idx < offset + 2 * length; idx += 1000) {
+				actual[idx] ^= 1;
+			}
+			assertArrayEquals(data, steganography.decodeData(actual));
+			// mapped files
+			Files.write(imageIn.toPath(), actual);
+			assertArrayEquals(data, steganography.decodeFile(imageIn));
+			ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+			steganography.decodeFile(imageIn, decoded);
+			assertArrayEquals(data, decoded.toByteArray());
+			Files.write(imageIn.toPath(), original);
+			steganography.encodeFile(imageIn, imageOut, data, options);
+			assertArrayEquals(expected, Files.readAllBytes(imageOut.toPath()));
+		} finally {
+			pool.shutdown();
+			imageIn.delete();
+			imageOut.delete();
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void capacityAndInvalidOptions() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] original = TestBitmaps.createBitmap(100000, 4);
+		EncodeOptions options = new EncodeOptions();
+		options.setParity(64);
+		int capacity = steganography.capacityData(original, options);
+		byte[] data = TestBitmaps.createData(capacity);
+		assertArrayEquals(data, steganography.decodeData(steganography.encodeData(original.clone(), data, options)));
+		// the error reports the capacity with the parity
+		IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData(original.clone(), TestBitmaps.createData(capacity + 1), options));
+		assertEquals(String.format("Invalid data length. Image capacity is %d bytes.", capacity), error.getMessage());
+		// invalid parity, compressed and chunked data
+		assertThrows(IllegalArgumentException.class, () -> options.setParity(1));
+		assertThrows(IllegalArgumentException.class, () -> options.setParity(129));
+		options.setCompression(Compression.DEFLATE);
+		assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(original.clone(), data, options));
+		options.setCompression(Compression.NONE);
+		options.setChunkSize(1024);
+		assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(original.clone(), data, options));
+	}
+
+	private static EncodeOptions[] createOptions() {
+		EncodeOptions plain = new EncodeOptions();
+		EncodeOptions scatter = new EncodeOptions();
+		scatter.setScatter(true);
+		scatter.setIntegrity(Integrity.CRC32C);
+		EncodeOptions encrypted = new EncodeOptions();
+		encrypted.setDepth(8);
+		encrypted.setEncrypted(true);
+		encrypted.setIntegrity(Integrity.MURMUR3_128);
+		EncodeOptions[] options = { plain, scatter, encrypted };
+		for (EncodeOptions option : options) {
+			option.setParity(16);
+		}
+		return options;
+	}
+
+}
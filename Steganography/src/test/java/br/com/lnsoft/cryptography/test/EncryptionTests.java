@@ -0,0 +1,224 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierHeader;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class EncryptionTests {
+
+	private static final String SEED = "encryption secret";
+
+	@Test
+	void roundTripOfEveryLayout() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(20000);
+		for (EncodeOptions options : createOptions()) {
+			byte[] original = options.isPixels() ? TestBitmaps.createPixelBitmap(200, 120, 32, 40, 0, 1)
+					: TestBitmaps.createBitmap(100000, 1);
+			byte[] image = steganography.encodeData(original.clone(), data, options);
+			assertArrayEquals(data, steganography.decodeData(image));
+			CarrierHeader header = steganography.probeData(image);
+			assertTrue(header.isEncrypted());
+			assertEquals(data.length, header.getOriginalLength());
+			// a new nonce per encode, the same data gives another image
+			assertFalse(Arrays.equals(image, steganography.encodeData(original.clone(), data, options)));
+			// the stream and buffer modes
+			image = steganography.encodeData(original.clone(), new ByteArrayInputStream(data), data.length, options);
+			ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+			assertEquals(data.length, steganography.decodeData(image, decoded));
+			assertArrayEquals(data, decoded.toByteArray());
+			ByteBuffer buffer = ByteBuffer.wrap(original.clone());
+			steganography.encodeData(buffer, ByteBuffer.wrap(data), options);
+			ByteBuffer output = ByteBuffer.allocate(data.length);
+			assertEquals(data.length, steganography.decodeData(ByteBuffer.wrap(buffer.array()), output));
+			assertArrayEquals(data, output.array());
+			// the nonce is within the capacity
+			int capacity = steganography.capacityData(original, options);
+			steganography.encodeData(original.clone(), TestBitmaps.createData(capacity), options);
+			if (options.getCompression() == Compression.NONE) {
+				assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(original.clone(),
+						TestBitmaps.createData(capacity + 1), options));
+			}
+		}
+	}
+
+	@Test
+	void storedBytesAreEncrypted() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		// constant data, plain stored bytes repeat
+		byte[] data = new byte[4096];
+		byte[] original = TestBitmaps.createBitmap(40000, 2);
+		EncodeOptions options = new EncodeOptions();
+		options.setDepth(8);
+		options.setEncrypted(true);
+		byte[] image = steganography.encodeData(original.clone(), data, options);
+		int offset = steganography.probeData(image).getOffset();
+		byte[] stored = Arrays.copyOfRange(image, offset, offset + data.length);
+		assertFalse(Arrays.equals(data, stored));
+		byte[] plain = steganography.encodeData(original.clone(), data, plain(options));
+		int plainOffset = steganography.probeData(plain).getOffset();
+		assertArrayEquals(data, Arrays.copyOfRange(plain, plainOffset, plainOffset + data.length));
+		// the key of another seed string fails the check, a seed value has no key
+		options.setIntegrity(Integrity.CRC32C);
+		byte[] checked = steganography.encodeData(original.clone(), data, options);
+		assertThrows(IllegalArgumentException.class, () -> new Steganography(SEED + "!").decodeData(checked));
+		assertThrows(IllegalArgumentException.class,
+				() -> new Steganography(1234).encodeData(original.clone(), data, options));
+		// the keys of the salt stored in the header, for any instance of the seed string
+		for (int idx = 0; idx < 10; idx++) {
+			byte[] encoded = new Steganography(SEED).encodeData(original.clone(), data, options);
+			assertArrayEquals(data, new Steganography(SEED).decodeData(encoded));
+		}
+	}
+
+	@Test
+	void keyCache() throws Exception {
+		byte[] data = TestBitmaps.createData(4096);
+		byte[] original = TestBitmaps.createBitmap(40000, 6);
+		EncodeOptions options = new EncodeOptions();
+		options.setDepth(8);
+		options.setEncrypted(true);
+		Steganography steganography = new Steganography(SEED);
+		byte[] image = steganography.encodeData(original.clone(), data, options);
+		int offset = steganography.probeData(image).getOffset();
+		// the bytes before the data differ by the nonce with the cached salt, by the nonce and the salt without it
+		int cached = headerChanges(image, steganography.encodeData(original.clone(), data, options), offset);
+		Steganography.clearKeys();
+		int cleared = headerChanges(image, steganography.encodeData(original.clone(), data, options), offset);
+		assertTrue(cleared > cached, cached + " " + cleared);
+		Steganography uncached = new Steganography(SEED);
+		uncached.setKeyCache(false);
+		assertFalse(uncached.isKeyCache());
+		byte[] first = uncached.encodeData(original.clone(), data, options);
+		byte[] second = uncached.encodeData(original.clone(), data, options);
+		assertTrue(headerChanges(first, second, offset) > cached);
+		assertArrayEquals(data, uncached.decodeData(first));
+		assertArrayEquals(data, steganography.decodeData(second));
+		assertArrayEquals(data, uncached.decodeData(image));
+	}
+
+	@Test
+	void keyedHash() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(5000);
+		byte[] original = TestBitmaps.createBitmap(40000, 5);
+		for (Integrity integrity : Integrity.values()) {
+			EncodeOptions options = new EncodeOptions();
+			options.setIntegrity(integrity);
+			options.setEncrypted(true);
+			byte[] image = steganography.encodeData(original.clone(), data, options);
+			byte[] hash = steganography.probeData(image).getHash();
+			// the hash of the data is not stored, the keyed check depends on the nonce
+			byte[] plain = steganography.encodeData(original.clone(), data, plain(options));
+			assertFalse(Arrays.equals(steganography.probeData(plain).getHash(), hash), integrity.name());
+			byte[] other = steganography.encodeData(original.clone(), data, options);
+			assertFalse(Arrays.equals(steganography.probeData(other).getHash(), hash), integrity.name());
+			assertEquals(integrity == Integrity.CRC32C ? 4 : 16, hash.length);
+			assertArrayEquals(data, steganography.decodeData(image));
+		}
+	}
+
+	@Test
+	void chunkRanges() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(20000);
+		EncodeOptions options = new EncodeOptions();
+		options.setChunkSize(1024);
+		options.setEncrypted(true);
+		byte[] image = steganography.encodeData(TestBitmaps.createBitmap(100000, 3), data, options);
+		// ranges start within a cipher block and cross chunks
+		for (int[] range : new int[][] { { 0, 100 }, { 1003, 2000 }, { 19000, 1000 }, { 7000, 0 } }) {
+			assertArrayEquals(Arrays.copyOfRange(data, range[0], range[0] + range[1]),
+					steganography.decodeRange(image, range[0], range[1]), Arrays.toString(range));
+		}
+		// the key stream is not reused in place
+		assertThrows(IllegalArgumentException.class, () -> steganography.updateData(image, 10, new byte[10]));
+	}
+
+	@Test
+	void fileRoundTrip() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(30000);
+		Path directory = Files.createTempDirectory("encryption");
+		File imageIn = directory.resolve("in.bmp").toFile();
+		File imageOut = directory.resolve("out.bmp").toFile();
+		try {
+			Files.write(imageIn.toPath(), TestBitmaps.createBitmap(90000, 4));
+			EncodeOptions options = new EncodeOptions();
+			options.setChunkSize(4096);
+			options.setIntegrity(Integrity.MD5);
+			options.setEncrypted(true);
+			steganography.encodeFile(imageIn, imageOut, data, options);
+			assertArrayEquals(data, steganography.decodeFile(imageOut));
+			assertArrayEquals(data, steganography.decodeData(Files.readAllBytes(imageOut.toPath())));
+			assertArrayEquals(Arrays.copyOfRange(data, 5000, 9000),
+					steganography.decodeFileRange(imageOut, 5000, 4000));
+			assertTrue(steganography.probeFile(imageOut).isEncrypted());
+			assertThrows(IllegalArgumentException.class, () -> steganography.updateFile(imageOut, 0, new byte[10]));
+		} finally {
+			imageIn.delete();
+			imageOut.delete();
+			Files.delete(directory);
+		}
+	}
+
+	private static int headerChanges(final byte[] image, final byte[] other, final int offset) {
+		int changes = 0;
+		for (int idx = 0; idx < offset; idx++) {
+			if (image[idx] != other[idx]) {
+				changes++;
+			}
+		}
+		return changes;
+	}
+
+	private static EncodeOptions plain(final EncodeOptions options) {
+		EncodeOptions plain = new EncodeOptions();
+		plain.setDepth(options.getDepth());
+		plain.setCompression(options.getCompression());
+		plain.setIntegrity(options.getIntegrity());
+		plain.setScatter(options.isScatter());
+		plain.setPixels(options.isPixels());
+		plain.setChunkSize(options.getChunkSize());
+		return plain;
+	}
+
+	private static EncodeOptions[] createOptions() {
+		EncodeOptions plain = new EncodeOptions();
+		EncodeOptions compressed = new EncodeOptions();
+		compressed.setCompression(Compression.DEFLATE);
+		compressed.setIntegrity(Integrity.MURMUR3_128);
+		EncodeOptions chunked = new EncodeOptions();
+		chunked.setDepth(2);
+		chunked.setChunkSize(1024);
+		EncodeOptions scatter = new EncodeOptions();
+		scatter.setScatter(true);
+		scatter.setIntegrity(Integrity.CRC32C);
+		EncodeOptions pixels = new EncodeOptions();
+		pixels.setPixels(true);
+		EncodeOptions[] options = { plain, compressed, chunked, scatter, pixels };
+		for (EncodeOptions option : options) {
+			option.setEncrypted(true);
+		}
+		return options;
+	}
+
+}
@@ -0,0 +1,116 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierHeader;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class IntegrityTests {
+
+	private static final long SEED = 0x5EED;
+
+	@Test
+	void integrityRoundTrip() throws Exception {
+		for (Integrity integrity : Integrity.values()) {
+			for (Compression compression : new Compression[] { Compression.NONE, Compression.DEFLATE }) {
+				for (int depth : new int[] { 1, 4, 8 }) {
+					EncodeOptions options = createOptions(integrity, compression, depth);
+					// crosses the fused and stream block sizes
+					for (int length : new int[] { 0, 15, 17, 70001 }) {
+						String message = integrity + " " + compression + " depth " + depth + " length " + length;
+						byte[] data = TestBitmaps.createData(length);
+						byte[] original = TestBitmaps.createBitmap(1024 * 1024, length);
+						Steganography steganography = new Steganography(SEED);
+						byte[] image = steganography.encodeData(original.clone(), data, options);
+						assertArrayEquals(data, steganography.decodeData(image), message);
+						ByteArrayOutputStream output = new ByteArrayOutputStream();
+						assertEquals(length, steganography.decodeData(image, output), message);
+						assertArrayEquals(data, output.toByteArray(), message);
+						// short reads split the hash updates at any index
+						byte[] stream = steganography.encodeData(original.clone(),
+								new ShortReadInputStream(new ByteArrayInputStream(data)), length, options);
+						assertArrayEquals(image, stream, message);
+						assertEquals(integrity, steganography.probeData(image).getIntegrity(), message);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void checkValues() throws Exception {
+		byte[] data = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+		assertEquals("9e107d9d372bb6826bd81d3542a419d6", probe(Integrity.MD5, data).getHashString());
+		assertEquals("22620404", probe(Integrity.CRC32C, data).getHashString());
+		assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", probe(Integrity.MURMUR3_128, data).getHashString());
+		assertEquals(4, probe(Integrity.CRC32C, data).getHash().length);
+		// the default options keep the version 1 header with MD5
+		assertEquals(1, probe(Integrity.MD5, data).getVersion());
+	}
+
+	@Test
+	void invalidData() throws Exception {
+		byte[] data = TestBitmaps.createData(1000);
+		for (Integrity integrity : new Integrity[] { Integrity.CRC32C, Integrity.MURMUR3_128 }) {
+			Steganography steganography = new Steganography(SEED);
+			byte[] image = steganography.encodeData(TestBitmaps.createBitmap(64 * 1024, 1), data,
+					createOptions(integrity, Compression.NONE, 4));
+			// damaged data byte
+			int offset = steganography.probeData(image).getOffset() + 100;
+			image[offset] ^= 1;
+			assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(image), integrity.name());
+			image[offset] ^= 1;
+			// unknown integrity identifier, low nibble of the descriptor integrity byte
+			int integrityOffset = TestBitmaps.HEADER_SIZE + 5;
+			image[integrityOffset] |= 0x0F;
+			assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(image), integrity.name());
+		}
+		assertThrows(IllegalArgumentException.class, () -> Integrity.forName("sha1"));
+		assertEquals(Integrity.MURMUR3_128, Integrity.forName("Murmur3_128"));
+	}
+
+	private static CarrierHeader probe(final Integrity integrity, final byte[] data) throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] image = steganography.encodeData(TestBitmaps.createBitmap(64 * 1024, 1), data,
+				createOptions(integrity, Compression.NONE, 4));
+		return steganography.probeData(image);
+	}
+
+	private static EncodeOptions createOptions(final Integrity integrity, final Compression compression,
+			final int depth) {
+		EncodeOptions options = new EncodeOptions();
+		options.setIntegrity(integrity);
+		options.setCompression(compression);
+		options.setDepth(depth);
+		return options;
+	}
+
+	// returns at most 7 bytes per read
+	private static final class ShortReadInputStream extends FilterInputStream {
+
+		ShortReadInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			return super.read(b, off, Math.min(len, 7));
+		}
+
+	}
+
+}
@@ -0,0 +1,127 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Steganography;
+import br.com.lnsoft.cryptography.SteganographyMetrics;
+import br.com.lnsoft.cryptography.SteganographyMetrics.Failure;
+import br.com.lnsoft.cryptography.SteganographyMetrics.Operation;
+import br.com.lnsoft.cryptography.SteganographyMetrics.Phase;
+
+public class MetricsTests {
+
+	private static final long SEED = 0x3E7A;
+
+	@Test
+	void phasesAndOperations() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		assertNull(steganography.getMetrics());
+		SteganographyMetrics metrics = new SteganographyMetrics();
+		steganography.setMetrics(metrics);
+		byte[] data = TestBitmaps.createData(5000);
+		byte[] image = steganography.encodeData(TestBitmaps.createBitmap(60000, 1), data, false);
+		assertArrayEquals(data, steganography.decodeData(image));
+		EncodeOptions options = new EncodeOptions();
+		options.setCompression(Compression.DEFLATE);
+		image = steganography.encodeData(TestBitmaps.createBitmap(60000, 2), data, options);
+		assertArrayEquals(data, steganography.decodeData(image));
+		// every step is recorded
+		assertEquals(2, metrics.getEncodeCount());
+		assertEquals(2, metrics.getDecodeCount());
+		assertEquals(2 * data.length, metrics.getBytesEmbedded());
+		assertEquals(2 * data.length, metrics.getBytesExtracted());
+		for (Phase phase : new Phase[] { Phase.HEADER, Phase.OFFSET, Phase.PACK, Phase.HASH, Phase.COMPRESSION }) {
+			assertTrue(metrics.getCount(phase) > 0, phase.name());
+			assertTrue(metrics.getNanos(phase) > 0, phase.name());
+		}
+		assertEquals(metrics.getNanos(Phase.PACK), metrics.getPhaseNanos("pack"));
+		// dumps
+		String text = metrics.dumpText();
+		assertTrue(text.contains("phase pack: count " + metrics.getCount(Phase.PACK) + ","), text);
+		assertTrue(text.contains("operation encode: count 2,"), text);
+		String json = metrics.dumpJson();
+		assertTrue(json.startsWith("{\"phases\":{\"io\":{\"count\":"), json);
+		assertTrue(json.contains("\"decode\":{\"count\":2,\"bytes\":10000,"), json);
+		assertTrue(json.endsWith("\"invalid_length\":0}}"), json);
+		metrics.reset();
+		assertEquals(0, metrics.getCount(Operation.ENCODE));
+		assertEquals(0, metrics.getNanos(Phase.PACK));
+		// disabled metrics are not updated
+		steganography.setMetrics(null);
+		steganography.decodeData(image);
+		assertEquals(0, metrics.getDecodeCount());
+	}
+
+	@Test
+	void failures() throws Exception {
+		SteganographyMetrics metrics = new SteganographyMetrics();
+		Steganography steganography = new Steganography(SEED);
+		steganography.setMetrics(metrics);
+		byte[] original = TestBitmaps.createBitmap(60000, 3);
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(original.clone()));
+		byte[] image = steganography.encodeData(original, TestBitmaps.createData(1000), false);
+		// wrong seed
+		Steganography other = new Steganography(SEED + 1);
+		other.setMetrics(metrics);
+		assertThrows(IllegalArgumentException.class, () -> other.decodeData(image));
+		// corrupted data
+		byte[] corrupted = image.clone();
+		int offset = steganography.probeData(corrupted).getOffset();
+		corrupted[offset] ^= 0x01;
+		assertThrows(IllegalArgumentException.class, () -> steganography.decodeData(corrupted));
+		// data larger than the image
+		assertThrows(IllegalArgumentException.class,
+				() -> steganography.encodeData(original, TestBitmaps.createData(50000), true));
+		assertEquals(1, metrics.getCount(Failure.INVALID_SIGNATURE));
+		assertEquals(1, metrics.getInvalidOffsetCount());
+		assertEquals(1, metrics.getInvalidHashCount());
+		assertEquals(1, metrics.getInvalidLengthCount());
+		assertEquals(1, metrics.getEncodeCount());
+		assertEquals(0, metrics.getDecodeCount());
+	}
+
+	@Test
+	void jmxAndPeriodicDump() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name;
+		try (SteganographyMetrics metrics = new SteganographyMetrics()) {
+			name = metrics.register("tests");
+			assertEquals("br.com.lnsoft.cryptography:type=SteganographyMetrics,name=\"tests\"", name.toString());
+			Steganography steganography = new Steganography(SEED);
+			steganography.setMetrics(metrics);
+			steganography.encodeData(TestBitmaps.createBitmap(60000, 4), TestBitmaps.createData(1000), false);
+			assertEquals(1L, server.getAttribute(name, "EncodeCount"));
+			assertEquals(1000L, server.getAttribute(name, "BytesEmbedded"));
+			String json = (String) server.invoke(name, "dumpJson", null, null);
+			assertTrue(json.contains("\"encode\":{\"count\":1,"), json);
+			assertThrows(IllegalArgumentException.class, () -> metrics.startDump(System.err, 0, false));
+			// one JSON object per period
+			ByteArrayOutputStream dump = new ByteArrayOutputStream();
+			metrics.startDump(new PrintStream(dump, true, "UTF-8"), 1, true);
+			long deadline = System.currentTimeMillis() + 10000;
+			while (dump.size() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertTrue(dump.toString("UTF-8").startsWith("{\"phases\""));
+		}
+		// closing unregisters the bean
+		assertFalse(server.isRegistered(name));
+	}
+
+}
@@ -0,0 +1,175 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class PackingTests {
+
+	private static final int IMAGE_SIZE = 64 * 1024;
+
+	private static final long SEED = 0x5EED;
+
+	@Test
+	void encodeMatchesReference() throws Exception {
+		for (int length = 0; length < 200; length++) {
+			byte[] image = TestBitmaps.createBitmap(IMAGE_SIZE + length, length);
+			byte[] data = TestBitmaps.createData(length);
+			byte[] expected = referenceEncode(image.clone(), data, SEED);
+			byte[] actual = new Steganography(SEED).encodeData(image.clone(), data, false);
+			assertArrayEquals(expected, actual, "length " + length);
+		}
+	}
+
+	@Test
+	void offsetMatchesReference() throws Exception {
+		// power of two and other offset ranges
+		for (int range : new int[] { 1024, 1000, 65536 }) {
+			for (long seed = -50; seed < 50; seed++) {
+				long value = seed * 0x9E3779B97F4A7C15L;
+				byte[] image = TestBitmaps.createBitmap(TestBitmaps.HEADER_SIZE + 48 + 2 * 16 + range, range);
+				byte[] data = TestBitmaps.createData(16);
+				Steganography steganography = new Steganography(value);
+				// version 1 offsets must also be lower than the offset range
+				if (new Random(value).nextInt(range) + TestBitmaps.HEADER_SIZE + 48 > range) {
+					assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(image, data, false));
+					continue;
+				}
+				byte[] expected = referenceEncode(image.clone(), data, value);
+				byte[] actual = steganography.encodeData(image.clone(), data, false);
+				assertArrayEquals(expected, actual, "range " + range + " seed " + value);
+			}
+		}
+	}
+
+	@Test
+	void decodeRoundTrip() throws Exception {
+		for (int length : new int[] { 0, 1, 7, 8, 9, 15, 16, 17, 4095, 4096, 4097, 20000 }) {
+			byte[] data = TestBitmaps.createData(length);
+			Steganography steganography = new Steganography(SEED);
+			byte[] image = steganography.encodeData(TestBitmaps.createBitmap(IMAGE_SIZE, length), data, false);
+			assertArrayEquals(data, steganography.decodeData(image), "length " + length);
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			steganography.decodeData(image, output);
+			assertArrayEquals(data, output.toByteArray(), "stream length " + length);
+		}
+	}
+
+	@Test
+	void parallelMatchesSequential() throws Exception {
+		int length = 3 * 1024 * 1024 + 5;
+		byte[] image = TestBitmaps.createBitmap(2 * length + IMAGE_SIZE, length);
+		byte[] data = TestBitmaps.createData(length);
+		byte[] expected = new Steganography(SEED).encodeData(image.clone(), data, false);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			Steganography steganography = new Steganography(SEED);
+			steganography.setForkJoinPool(pool);
+			byte[] actual = steganography.encodeData(image.clone(), data, false);
+			assertArrayEquals(expected, actual);
+			assertArrayEquals(data, steganography.decodeData(actual));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void depthMatchesReference() throws Exception {
+		// depth 4 keeps the version 1 header of encodeMatchesReference
+		for (int depth : new int[] { 1, 2, 8 }) {
+			EncodeOptions options = new EncodeOptions();
+			options.setDepth(depth);
+			for (int length : new int[] { 0, 1, 7, 8, 9, 17, 1000, 4097 }) {
+				byte[] original = TestBitmaps.createBitmap(IMAGE_SIZE, length);
+				byte[] data = TestBitmaps.createData(length);
+				Steganography steganography = new Steganography(SEED);
+				byte[] image = steganography.encodeData(original.clone(), data, options);
+				String message = "depth " + depth + " length " + length;
+				// version 2 signature and untouched image bits, the descriptor always uses 4 bits
+				assertEquals(0x32, image[9], message);
+				for (int idx = 10; idx < image.length; idx++) {
+					int bits = idx >= TestBitmaps.HEADER_SIZE && idx < TestBitmaps.HEADER_SIZE + 8 ? 4 : depth;
+					assertEquals((original[idx] & 0xFF) >>> bits, (image[idx] & 0xFF) >>> bits, message);
+				}
+				assertArrayEquals(data, referenceDecode(image, depth), message);
+				assertArrayEquals(data, steganography.decodeData(image), message);
+				byte[] stream = steganography.encodeData(original.clone(), new ByteArrayInputStream(data), length,
+						options);
+				assertArrayEquals(image, stream, message);
+			}
+		}
+	}
+
+	//
+	// Reference implementation of the original bit by bit encoding
+	//
+
+	private static byte[] referenceEncode(final byte[] image, final byte[] data, final long seed) throws Exception {
+		int baseHeaderOffset = 14 + TestBitmaps.DIB_HEADER_SIZE;
+		int headerSize = baseHeaderOffset + 8 + 8 + 32;
+		int maxOffset = image.length - ((2 * data.length) + headerSize);
+		int offset = new Random(seed).nextInt(maxOffset) + headerSize;
+		image[6] = 0x4c;
+		image[7] = 0x4e;
+		image[8] = 0x76;
+		image[9] = 0x31;
+		referenceEncodeBytes(image, baseHeaderOffset, ByteBuffer.allocate(4).putInt(data.length).array());
+		referenceEncodeBytes(image, baseHeaderOffset + 8, ByteBuffer.allocate(4).putInt(offset).array());
+		referenceEncodeBytes(image, baseHeaderOffset + 16, MessageDigest.getInstance("MD5").digest(data));
+		referenceEncodeBytes(image, offset, data);
+		return image;
+	}
+
+	// version 2 header: descriptor with depth 4 then length, offset and hash with the data depth
+	private static byte[] referenceDecode(final byte[] image, final int depth) {
+		int baseHeaderOffset = 14 + TestBitmaps.DIB_HEADER_SIZE;
+		assertEquals(depth, referenceDecodeBytes(image, baseHeaderOffset, 4, 4)[0]);
+		int lengthOffset = baseHeaderOffset + 8;
+		int length = ByteBuffer.wrap(referenceDecodeBytes(image, lengthOffset, 4, depth)).getInt();
+		int offset = ByteBuffer.wrap(referenceDecodeBytes(image, lengthOffset + 32 / depth, 4, depth)).getInt();
+		return referenceDecodeBytes(image, offset, length, depth);
+	}
+
+	private static byte[] referenceDecodeBytes(final byte[] image, final int initialOffset, final int length,
+			final int depth) {
+		byte[] data = new byte[length];
+		int bit = 0;
+		for (int idx = 0; idx < 8 * length; idx++) {
+			// most significant bit first, depth bits per image byte
+			int offset = initialOffset + idx / depth;
+			int value = (image[offset] >>> (depth - 1 - idx % depth)) & 1;
+			data[bit / 8] |= value << (7 - bit % 8);
+			bit++;
+		}
+		return data;
+	}
+
+	private static void referenceEncodeBytes(final byte[] image, final int initialOffset, final byte[] data) {
+		int offset = initialOffset;
+		for (int i = 0; i < data.length; ++i) {
+			image[offset] = (byte) ((image[offset] & 0xF0) | (((data[i] >>> 7) & 1) << 3));
+			image[offset] = (byte) (image[offset] | (((data[i] >>> 6) & 1)) << 2);
+			image[offset] = (byte) (image[offset] | (((data[i] >>> 5) & 1) << 1));
+			image[offset] = (byte) (image[offset] | ((data[i] >>> 4) & 1));
+			offset++;
+			image[offset] = (byte) ((image[offset] & 0xF0) | (((data[i] >>> 3) & 1) << 3));
+			image[offset] = (byte) (image[offset] | (((data[i] >>> 2) & 1)) << 2);
+			image[offset] = (byte) (image[offset] | (((data[i] >>> 1) & 1) << 1));
+			image[offset] = (byte) (image[offset] | ((data[i] >>> 0) & 1));
+			offset++;
+		}
+	}
+
+}
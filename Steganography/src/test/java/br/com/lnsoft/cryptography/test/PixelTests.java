@@ -0,0 +1,151 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierHeader;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class PixelTests {
+
+	private static final long SEED = 0x91C5;
+
+	// BITMAPV4HEADER with bit masks
+	private static final int V4_HEADER_SIZE = 108;
+
+	@Test
+	void paddedRowsRoundTrip() throws Exception {
+		// 101 pixels rows are padded with 1 byte, the gap is kept
+		byte[] original = TestBitmaps.createPixelBitmap(101, 97, 24, TestBitmaps.DIB_HEADER_SIZE, 10, 1);
+		for (int depth : new int[] { 1, 2, 4, 8 }) {
+			for (Compression compression : new Compression[] { Compression.NONE, Compression.DEFLATE }) {
+				String message = "depth " + depth + " " + compression;
+				EncodeOptions options = createOptions(depth, compression, false);
+				int length = Math.min(3000, new Steganography(SEED).capacityData(original, options));
+				roundTrip(original, 101, 97, 24, false, TestBitmaps.createData(length), options, message);
+			}
+		}
+	}
+
+	@Test
+	void alphaIsUntouched() throws Exception {
+		// top-down 32 bits bitmap with an alpha mask
+		byte[] original = TestBitmaps.createPixelBitmap(33, -20, 32, V4_HEADER_SIZE, 0, 2);
+		Steganography steganography = new Steganography(SEED);
+		EncodeOptions options = createOptions(2, Compression.NONE, false);
+		// 3 samples per pixel
+		int capacity = steganography.capacityData(original, options);
+		assertEquals((33 * 20 * 3 - headerSize(2) - 1) / 4, capacity);
+		roundTrip(original, 33, 20, 32, true, TestBitmaps.createData(capacity), options, "alpha");
+		options.setScatter(true);
+		roundTrip(original, 33, 20, 32, true, TestBitmaps.createData(capacity), options, "alpha scatter");
+		// without alpha mask every byte of a pixel is a sample
+		byte[] opaque = TestBitmaps.createPixelBitmap(33, -20, 32, TestBitmaps.DIB_HEADER_SIZE, 0, 3);
+		options.setScatter(false);
+		assertEquals((33 * 20 * 4 - headerSize(2) - 1) / 4, steganography.capacityData(opaque, options));
+		roundTrip(opaque, 33, 20, 32, false, TestBitmaps.createData(600), options, "opaque");
+	}
+
+	@Test
+	void mappedFileAndProbe() throws Exception {
+		byte[] original = TestBitmaps.createPixelBitmap(250, 300, 32, V4_HEADER_SIZE, 0, 4);
+		byte[] data = TestBitmaps.createData(50000);
+		Steganography steganography = new Steganography(SEED);
+		EncodeOptions options = createOptions(4, Compression.DEFLATE_FAST, true);
+		byte[] image = steganography.encodeData(original.clone(), data, options);
+		File imageIn = File.createTempFile("pixels", ".bmp");
+		File imageOut = File.createTempFile("pixels", ".bmp");
+		try {
+			Files.write(imageIn.toPath(), original);
+			steganography.encodeFile(imageIn, imageOut, data, options);
+			assertArrayEquals(image, Files.readAllBytes(imageOut.toPath()));
+			assertArrayEquals(data, steganography.decodeFile(imageOut));
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			steganography.decodeFile(imageOut, output);
+			assertArrayEquals(data, output.toByteArray());
+			CarrierHeader header = steganography.probeFile(imageOut);
+			assertEquals(3, header.getVersion());
+			assertTrue(header.isScatter());
+			assertEquals(data.length, header.getOriginalLength());
+			assertEquals(steganography.capacityData(original, options), steganography.capacityFile(imageIn, options));
+		} finally {
+			imageIn.delete();
+			imageOut.delete();
+		}
+		// unsupported bitmap format
+		byte[] palette = TestBitmaps.createPixelBitmap(64, 64, 8, TestBitmaps.DIB_HEADER_SIZE, 1024, 5);
+		assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(palette, data, options));
+		// truncated pixel array
+		byte[] truncated = TestBitmaps.createPixelBitmap(64, 64, 24, TestBitmaps.DIB_HEADER_SIZE, 0, 6);
+		ByteBuffer.wrap(truncated).putInt(22, Integer.reverseBytes(65));
+		assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(truncated, data, options));
+	}
+
+	// encode with every mode, check the data and the bytes outside the samples
+	private static void roundTrip(final byte[] original, final int width, final int height, final int bitsPerPixel,
+			final boolean alpha, final byte[] data, final EncodeOptions options, final String message)
+			throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] image = steganography.encodeData(original.clone(), data, options);
+		assertEquals(3, steganography.probeData(image).getVersion(), message);
+		assertArrayEquals(data, steganography.decodeData(image), message);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertEquals(data.length, steganography.decodeData(image, output), message);
+		assertArrayEquals(data, output.toByteArray(), message);
+		assertArrayEquals(image, steganography.encodeData(original.clone(), new ByteArrayInputStream(data),
+				data.length, options), message);
+		// direct buffers
+		ByteBuffer buffer = ByteBuffer.allocateDirect(original.length);
+		buffer.put(original).clear();
+		steganography.encodeData(buffer, ByteBuffer.wrap(data), options);
+		ByteBuffer decoded = ByteBuffer.allocate(data.length);
+		steganography.decodeData(buffer, decoded);
+		assertArrayEquals(data, decoded.array(), message);
+		byte[] encoded = new byte[original.length];
+		buffer.clear();
+		buffer.get(encoded);
+		assertArrayEquals(image, encoded, message);
+		// headers, gap, padding and alpha bytes untouched, but the signature
+		int pixelOffset = Integer.reverseBytes(ByteBuffer.wrap(original).getInt(10));
+		int stride = (width * bitsPerPixel + 31) / 32 * 4;
+		int rowBytes = width * bitsPerPixel / 8;
+		for (int idx = 0; idx < image.length; idx++) {
+			int column = (idx - pixelOffset) % stride;
+			boolean sample = idx >= pixelOffset && column < rowBytes && !(alpha && column % 4 == 3);
+			if (!sample && (idx < 6 || idx >= 10)) {
+				assertEquals(original[idx], image[idx], message + " index " + idx);
+			}
+		}
+		assertEquals(height * stride, image.length - pixelOffset, message);
+	}
+
+	// image bytes of the version 3 header fields with CRC32C, the header starts with the samples
+	private static int headerSize(final int depth) {
+		return 8 + (4 + 4 + 4) * 8 / depth;
+	}
+
+	private static EncodeOptions createOptions(final int depth, final Compression compression,
+			final boolean scatter) {
+		EncodeOptions options = new EncodeOptions();
+		options.setDepth(depth);
+		options.setCompression(compression);
+		options.setIntegrity(Integrity.CRC32C);
+		options.setScatter(scatter);
+		options.setPixels(true);
+		return options;
+	}
+
+}
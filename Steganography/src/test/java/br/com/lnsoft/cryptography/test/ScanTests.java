@@ -0,0 +1,77 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierHeader;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Steganography;
+import br.com.lnsoft.cryptography.SteganographyScan;
+
+public class ScanTests {
+
+	@Test
+	void scanDirectory() throws Exception {
+		Path directory = Files.createTempDirectory("scan");
+		Path nested = Files.createDirectories(directory.resolve("a/b"));
+		byte[] data = TestBitmaps.createData(1000);
+		String hash = String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(data)));
+		// version 1 and compressed version 2 images with different seeds
+		Steganography steganography = new Steganography(1L);
+		byte[] version1 = steganography.encodeData(TestBitmaps.createBitmap(64 * 1024, 1), data, false);
+		Files.write(directory.resolve("v1.bmp"), version1);
+		EncodeOptions options = new EncodeOptions();
+		options.setDepth(2);
+		options.setCompression(Compression.DEFLATE);
+		byte[] version2 = new Steganography(2L).encodeData(TestBitmaps.createBitmap(64 * 1024, 2), data, options);
+		Files.write(nested.resolve("v2, copy.bmp"), version2);
+		// plain bitmap, invalid bitmap and other file
+		Files.write(nested.resolve("plain.bmp"), TestBitmaps.createBitmap(1024, 3));
+		Files.write(directory.resolve("broken.bmp"), new byte[] { 0x42, 0x4D, 0 });
+		Files.write(directory.resolve("other.txt"), data);
+		// probe without seed
+		CarrierHeader header = new Steganography(3L).probeData(version1);
+		assertEquals(1, header.getVersion());
+		assertEquals(4, header.getDepth());
+		assertEquals(1000, header.getLength());
+		assertEquals(hash, header.getHashString());
+		assertNull(steganography.probeData(TestBitmaps.createBitmap(1024, 3)));
+		// scan
+		ByteArrayOutputStream catalog = new ByteArrayOutputStream();
+		SteganographyScan scan = new SteganographyScan(2);
+		scan.setOutput(new PrintStream(catalog, true, "UTF-8"), new PrintStream(new ByteArrayOutputStream()));
+		scan.runDirectory(directory.toFile());
+		assertEquals(3, scan.getFiles());
+		assertEquals(2, scan.getEncoded());
+		assertEquals(1, scan.getFailed());
+		String[] lines = new String(catalog.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+		assertEquals("image_in,version,depth,integrity,compression,length,original_length,offset,hash", lines[0]);
+		Set<String> entries = new HashSet<>(Arrays.asList(lines).subList(1, lines.length));
+		int offset = steganography.probeFile(directory.resolve("v1.bmp").toFile()).getOffset();
+		assertTrue(entries.contains(String.format("%s,1,4,md5,none,1000,1000,%d,%s", directory.resolve("v1.bmp"),
+				offset, hash)), entries.toString());
+		CarrierHeader compressed = steganography.probeFile(nested.resolve("v2, copy.bmp").toFile());
+		assertEquals(2, compressed.getVersion());
+		assertEquals(2, compressed.getDepth());
+		assertEquals(Compression.DEFLATE, compressed.getCompression());
+		assertEquals(1000, compressed.getOriginalLength());
+		assertTrue(entries.contains(String.format("\"%s\",2,2,md5,deflate,%d,1000,%d,%s", nested.resolve("v2, copy.bmp"),
+				compressed.getLength(), compressed.getOffset(), hash)), entries.toString());
+	}
+
+}
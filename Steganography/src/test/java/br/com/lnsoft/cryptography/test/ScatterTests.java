@@ -0,0 +1,146 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class ScatterTests {
+
+	private static final int IMAGE_SIZE = 256 * 1024;
+
+	private static final long SEED = 0x5EED;
+
+	@Test
+	void scatterRoundTrip() throws Exception {
+		for (int depth : new int[] { 1, 2, 4, 8 }) {
+			for (Compression compression : new Compression[] { Compression.NONE, Compression.DEFLATE }) {
+				EncodeOptions options = createOptions(depth, compression);
+				// crosses the staging block size
+				for (int length : new int[] { 0, 1, 17, 20000 }) {
+					String message = "depth " + depth + " " + compression + " length " + length;
+					byte[] original = TestBitmaps.createBitmap(IMAGE_SIZE, length);
+					byte[] data = TestBitmaps.createData(length);
+					Steganography steganography = new Steganography(SEED);
+					byte[] image = steganography.encodeData(original.clone(), data, options);
+					assertTrue(steganography.probeData(image).isScatter(), message);
+					assertArrayEquals(data, steganography.decodeData(image), message);
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					assertEquals(length, steganography.decodeData(image, output), message);
+					assertArrayEquals(data, output.toByteArray(), message);
+					// stream and buffer encoding place the data at the same positions
+					byte[] stream = steganography.encodeData(original.clone(), new ByteArrayInputStream(data), length,
+							options);
+					assertArrayEquals(image, stream, message);
+					ByteBuffer buffer = ByteBuffer.allocateDirect(original.length);
+					buffer.put(original).clear();
+					steganography.encodeData(buffer, ByteBuffer.wrap(data), options);
+					byte[] encoded = new byte[original.length];
+					buffer.get(encoded);
+					assertArrayEquals(image, encoded, message);
+					// untouched image bits
+					for (int idx = TestBitmaps.HEADER_SIZE + 8; idx < image.length; idx++) {
+						assertEquals((original[idx] & 0xFF) >>> depth, (image[idx] & 0xFF) >>> depth, message);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void dataIsSpread() throws Exception {
+		int length = 1000;
+		byte[] original = TestBitmaps.createBitmap(IMAGE_SIZE, length);
+		byte[] data = TestBitmaps.createData(length);
+		Steganography steganography = new Steganography(SEED);
+		EncodeOptions options = createOptions(2, Compression.NONE);
+		byte[] image = steganography.encodeData(original.clone(), data, options);
+		options.setScatter(false);
+		byte[] contiguous = steganography.encodeData(original.clone(), data, options);
+		int offset = steganography.probeData(image).getOffset();
+		assertEquals(steganography.probeData(contiguous).getOffset(), offset);
+		// changed image bytes after the header and outside the contiguous window, in every quarter of the image
+		int[] quarters = new int[4];
+		int outside = 0;
+		for (int idx = TestBitmaps.HEADER_SIZE + 128; idx < image.length; idx++) {
+			if (image[idx] != original[idx]) {
+				quarters[(int) ((long) idx * 4 / image.length)]++;
+				if (idx < offset || idx >= offset + 4 * length) {
+					outside++;
+				}
+			}
+		}
+		assertTrue(outside > length, "changed bytes outside the window " + outside);
+		for (int quarter : quarters) {
+			assertTrue(quarter > 0);
+		}
+		assertFalse(Arrays.equals(contiguous, image));
+	}
+
+	@Test
+	void wrongSeed() throws Exception {
+		byte[] data = TestBitmaps.createData(1000);
+		byte[] image = new Steganography(SEED).encodeData(TestBitmaps.createBitmap(IMAGE_SIZE, 1), data,
+				createOptions(4, Compression.NONE, Integrity.CRC32C));
+		assertThrows(IllegalArgumentException.class, () -> new Steganography(SEED + 1).decodeData(image));
+	}
+
+	@Test
+	void parallelAndMapped() throws Exception {
+		int length = 3 * 1024 * 1024 + 5;
+		byte[] original = TestBitmaps.createBitmap(2 * length + IMAGE_SIZE, length);
+		byte[] data = TestBitmaps.createData(length);
+		EncodeOptions options = createOptions(4, Compression.NONE, Integrity.MURMUR3_128);
+		byte[] expected = new Steganography(SEED).encodeData(original.clone(), data, options);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		File imageIn = File.createTempFile("scatter", ".bmp");
+		File imageOut = File.createTempFile("scatter", ".bmp");
+		try {
+			Steganography steganography = new Steganography(SEED);
+			steganography.setForkJoinPool(pool);
+			byte[] actual = steganography.encodeData(original.clone(), data, options);
+			assertArrayEquals(expected, actual);
+			assertArrayEquals(data, steganography.decodeData(actual));
+			// mapped files
+			Files.write(imageIn.toPath(), original);
+			steganography.encodeFile(imageIn, imageOut, data, options);
+			assertArrayEquals(expected, Files.readAllBytes(imageOut.toPath()));
+			assertArrayEquals(data, steganography.decodeFile(imageOut));
+		} finally {
+			pool.shutdown();
+			imageIn.delete();
+			imageOut.delete();
+		}
+	}
+
+	private static EncodeOptions createOptions(final int depth, final Compression compression) {
+		return createOptions(depth, compression, Integrity.MD5);
+	}
+
+	private static EncodeOptions createOptions(final int depth, final Compression compression,
+			final Integrity integrity) {
+		EncodeOptions options = new EncodeOptions();
+		options.setDepth(depth);
+		options.setCompression(compression);
+		options.setIntegrity(integrity);
+		options.setScatter(true);
+		return options;
+	}
+
+}
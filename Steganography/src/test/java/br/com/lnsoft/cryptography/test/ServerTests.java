@@ -0,0 +1,144 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.Steganography;
+import br.com.lnsoft.cryptography.SteganographyServer;
+
+public class ServerTests {
+
+	@Test
+	void encodeDecodeRequests() throws Exception {
+		Path directory = Files.createTempDirectory("server");
+		Path imageIn = directory.resolve("in.bmp");
+		Files.write(imageIn, TestBitmaps.createBitmap(64 * 1024, 1));
+		byte[] data = TestBitmaps.createData(5000);
+		SteganographyServer server = new SteganographyServer(0, 2);
+		server.setOutput(new PrintStream(new ByteArrayOutputStream()));
+		server.setRoot(directory.toFile());
+		server.start();
+		try {
+			String base = "http://127.0.0.1:" + server.getPort();
+			// encoded image as response body, same as the library
+			HttpURLConnection encode = post(server,
+					base + "/encode?image_in=" + URLEncoder.encode(imageIn.toString(), "UTF-8") + "&seed_string=server",
+					data);
+			assertEquals(200, encode.getResponseCode());
+			byte[] image = read(encode.getInputStream());
+			assertArrayEquals(new Steganography("server").encodeData(Files.readAllBytes(imageIn), data, false), image);
+			// decode image sent as request body
+			HttpURLConnection decode = post(server, base + "/decode?seed_string=server", image);
+			assertEquals(200, decode.getResponseCode());
+			assertArrayEquals(data, read(decode.getInputStream()));
+			// other seed
+			HttpURLConnection invalid = post(server, base + "/decode?seed_value=1", image);
+			assertEquals(400, invalid.getResponseCode());
+			// relative file parameters are within the root
+			HttpURLConnection relative = post(server,
+					base + "/encode?image_in=in.bmp&image_out=out.bmp&seed_string=server", data);
+			assertEquals(200, relative.getResponseCode());
+			assertArrayEquals(image, Files.readAllBytes(directory.resolve("out.bmp")));
+		} finally {
+			server.stop(0);
+			Files.deleteIfExists(directory.resolve("out.bmp"));
+			Files.delete(imageIn);
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void rejectedRequests() throws Exception {
+		Path outside = Files.createTempDirectory("outside");
+		Path directory = Files.createTempDirectory(outside, "server");
+		Path imageOutside = outside.resolve("in.bmp");
+		Files.write(imageOutside, TestBitmaps.createBitmap(64 * 1024, 2));
+		Path link = directory.resolve("link.bmp");
+		byte[] data = TestBitmaps.createData(100);
+		SteganographyServer server = new SteganographyServer(0, 1);
+		server.setOutput(new PrintStream(new ByteArrayOutputStream()));
+		server.setRoot(directory.toFile());
+		server.start();
+		try {
+			Files.createSymbolicLink(link, imageOutside);
+			String base = "http://127.0.0.1:" + server.getPort();
+			// files out of the root, through '..', an absolute path or a symbolic link
+			for (String imageIn : new String[] { "../in.bmp", imageOutside.toString(), "link.bmp" }) {
+				HttpURLConnection encode = post(server,
+						base + "/encode?image_in=" + URLEncoder.encode(imageIn, "UTF-8") + "&seed_string=server", data);
+				assertEquals(403, encode.getResponseCode(), imageIn);
+			}
+			HttpURLConnection output = post(server,
+					base + "/decode?data_out=..%2Fdata.bin&seed_string=server", new byte[0]);
+			assertEquals(403, output.getResponseCode());
+			assertFalse(Files.exists(outside.resolve("data.bin")));
+			// missing or wrong token
+			HttpURLConnection anonymous = (HttpURLConnection) new URL(base + "/decode").openConnection();
+			anonymous.setRequestMethod("POST");
+			assertEquals(403, anonymous.getResponseCode());
+			HttpURLConnection wrong = (HttpURLConnection) new URL(base + "/decode").openConnection();
+			wrong.setRequestMethod("POST");
+			// flip the first digit so the wrong token never matches the real one
+			String token = server.getToken();
+			String wrongToken = (token.charAt(0) == '0' ? "1" : "0") + token.substring(1);
+			wrong.setRequestProperty("X-Steganography-Token", wrongToken);
+			assertEquals(403, wrong.getResponseCode());
+			// browser request with the token, the origin header is set on a raw connection
+			try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+				String request = "POST /decode HTTP/1.1\r\nHost: 127.0.0.1\r\nOrigin: http://example.com\r\n"
+						+ "X-Steganography-Token: " + server.getToken() + "\r\nContent-Length: 0\r\n"
+						+ "Connection: close\r\n\r\n";
+				socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+				String response = new String(read(socket.getInputStream()), StandardCharsets.US_ASCII);
+				assertTrue(response.startsWith("HTTP/1.1 403"), response);
+			}
+		} finally {
+			server.stop(0);
+			Files.deleteIfExists(link);
+			Files.delete(directory);
+			Files.delete(imageOutside);
+			Files.delete(outside);
+		}
+	}
+
+	private static HttpURLConnection post(final SteganographyServer server, final String url, final byte[] body)
+			throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("X-Steganography-Token", server.getToken());
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(body.length);
+		try (OutputStream output = connection.getOutputStream()) {
+			output.write(body);
+		}
+		return connection;
+	}
+
+	private static byte[] read(final InputStream input) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+		}
+		input.close();
+		return output.toByteArray();
+	}
+
+}
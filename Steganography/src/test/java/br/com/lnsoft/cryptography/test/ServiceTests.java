@@ -0,0 +1,85 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+import br.com.lnsoft.cryptography.SteganographyMetrics;
+import br.com.lnsoft.cryptography.SteganographyService;
+
+public class ServiceTests {
+
+	@Test
+	void concurrentCallsWithSeedPerCall() throws Exception {
+		SteganographyMetrics metrics = new SteganographyMetrics();
+		try (SteganographyService service = new SteganographyService(null, 4, 64, metrics)) {
+			EncodeOptions options = new EncodeOptions();
+			options.setCompression(Compression.DEFLATE_FAST);
+			options.setIntegrity(Integrity.CRC32C);
+			// every call has its own seed, the same image as a dedicated instance
+			List<CompletableFuture<byte[]>> encoded = new ArrayList<>();
+			for (int job = 0; job < 32; job++) {
+				byte[] image = TestBitmaps.createBitmap(40000, job);
+				encoded.add(service.encodeAsync(job, image, TestBitmaps.createData(1000 + job), options));
+			}
+			List<CompletableFuture<byte[]>> decoded = new ArrayList<>();
+			for (int job = 0; job < 32; job++) {
+				byte[] expected = new Steganography(job).encodeData(TestBitmaps.createBitmap(40000, job),
+						TestBitmaps.createData(1000 + job), options);
+				assertArrayEquals(expected, encoded.get(job).get(), "job " + job);
+				decoded.add(service.decodeAsync(job, encoded.get(job).get()));
+			}
+			for (int job = 0; job < 32; job++) {
+				assertArrayEquals(TestBitmaps.createData(1000 + job), decoded.get(job).get(), "job " + job);
+			}
+			assertEquals(32, metrics.getEncodeCount());
+			assertEquals(32, metrics.getDecodeCount());
+			assertEquals(0, service.getPending());
+			// errors complete the future
+			byte[] image = encoded.get(0).get();
+			ExecutionException error = assertThrows(ExecutionException.class,
+					() -> service.decodeAsync(1, image).get());
+			assertTrue(error.getCause() instanceof IllegalArgumentException);
+			assertEquals(SteganographyService.seed("secret"), new Steganography("secret").getSeed());
+		}
+	}
+
+	@Test
+	void pendingLimit() throws Exception {
+		// the executor holds the calls until released
+		List<Runnable> queued = new ArrayList<>();
+		SteganographyService service = new SteganographyService(queued::add, 1, 2, null);
+		byte[] image = new Steganography(7).encodeData(TestBitmaps.createBitmap(20000, 1), new byte[100], false);
+		CompletableFuture<byte[]> first = service.decodeAsync(7, image);
+		CompletableFuture<byte[]> second = service.decodeAsync(7, image);
+		CompletableFuture<byte[]> rejected = service.decodeAsync(7, image);
+		assertEquals(2, service.getPending());
+		ExecutionException error = assertThrows(ExecutionException.class, rejected::get);
+		assertTrue(error.getCause() instanceof RejectedExecutionException);
+		// a cancelled call is skipped and releases its place
+		second.cancel(false);
+		queued.forEach(Runnable::run);
+		assertArrayEquals(new byte[100], first.get());
+		assertEquals(0, service.getPending());
+		// accepted again once completed
+		queued.clear();
+		CompletableFuture<byte[]> next = service.decodeAsync(7, image);
+		queued.forEach(Runnable::run);
+		assertArrayEquals(new byte[100], next.get());
+		assertThrows(IllegalArgumentException.class, () -> new SteganographyService(2, 1));
+	}
+
+}
@@ -0,0 +1,134 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Shard;
+import br.com.lnsoft.cryptography.Steganography;
+import br.com.lnsoft.cryptography.SteganographyShards;
+
+public class ShardTests {
+
+	private static final long SEED = 0x5A4D;
+
+	private static final int[] IMAGE_SIZES = { 64 * 1024, 96 * 1024, 80 * 1024 };
+
+	private File[] imagesIn;
+	private File[] imagesOut;
+
+	@BeforeEach
+	void createImages() throws Exception {
+		imagesIn = new File[IMAGE_SIZES.length];
+		imagesOut = new File[IMAGE_SIZES.length];
+		for (int idx = 0; idx < IMAGE_SIZES.length; idx++) {
+			imagesIn[idx] = File.createTempFile("shard", ".bmp");
+			imagesOut[idx] = File.createTempFile("shard", ".bmp");
+			Files.write(imagesIn[idx].toPath(), TestBitmaps.createBitmap(IMAGE_SIZES[idx], idx));
+		}
+	}
+
+	@AfterEach
+	void deleteImages() {
+		for (int idx = 0; idx < IMAGE_SIZES.length; idx++) {
+			imagesIn[idx].delete();
+			imagesOut[idx].delete();
+		}
+	}
+
+	@Test
+	void shardRoundTrip() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		SteganographyShards shards = new SteganographyShards(steganography, 2);
+		for (boolean scatter : new boolean[] { false, true }) {
+			for (int length : new int[] { 0, 2, 10001 }) {
+				String message = "scatter " + scatter + " length " + length;
+				EncodeOptions options = new EncodeOptions();
+				options.setCompression(Compression.DEFLATE);
+				options.setIntegrity(Integrity.CRC32C);
+				options.setScatter(scatter);
+				byte[] data = TestBitmaps.createData(length);
+				long payloadId = shards.encodeFiles(imagesIn, imagesOut, new ByteArrayInputStream(data), length,
+						options);
+				// every shard records its place
+				for (int idx = 0; idx < imagesOut.length; idx++) {
+					Shard shard = steganography.probeFile(imagesOut[idx]).getShard();
+					assertEquals(payloadId, shard.getPayloadId(), message);
+					assertEquals(idx, shard.getIndex(), message);
+					assertEquals(imagesOut.length, shard.getCount(), message);
+				}
+				// any order of the carriers
+				File[] shuffled = { imagesOut[2], imagesOut[0], imagesOut[1] };
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				assertEquals(length, shards.decodeFiles(shuffled, output), message);
+				assertArrayEquals(data, output.toByteArray(), message);
+			}
+		}
+	}
+
+	@Test
+	void shardIsValidImage() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(3001);
+		new SteganographyShards(steganography, 3).encodeFiles(imagesIn, imagesOut, new ByteArrayInputStream(data),
+				data.length, new EncodeOptions());
+		// contiguous shards, the first one is one byte longer
+		assertArrayEquals(Arrays.copyOfRange(data, 0, 1001), steganography.decodeFile(imagesOut[0]));
+		assertArrayEquals(Arrays.copyOfRange(data, 1001, 2001), steganography.decodeFile(imagesOut[1]));
+		assertArrayEquals(Arrays.copyOfRange(data, 2001, 3001), steganography.decodeFile(imagesOut[2]));
+		// plain images have no shard
+		steganography.encodeFile(imagesIn[0], imagesOut[0], data, new EncodeOptions());
+		assertNull(steganography.probeFile(imagesOut[0]).getShard());
+	}
+
+	@Test
+	void invalidShards() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		SteganographyShards shards = new SteganographyShards(steganography, 2);
+		byte[] data = TestBitmaps.createData(500);
+		shards.encodeFiles(imagesIn, imagesOut, new ByteArrayInputStream(data), data.length, new EncodeOptions());
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		// missing shard
+		assertThrows(IllegalArgumentException.class,
+				() -> shards.decodeFiles(new File[] { imagesOut[0], imagesOut[1] }, output));
+		// repeated shard
+		assertThrows(IllegalArgumentException.class,
+				() -> shards.decodeFiles(new File[] { imagesOut[0], imagesOut[1], imagesOut[1] }, output));
+		// image without steganography
+		assertThrows(IllegalArgumentException.class,
+				() -> shards.decodeFiles(new File[] { imagesOut[0], imagesOut[1], imagesIn[2] }, output));
+		// shard of another payload
+		File[] others = new File[imagesIn.length];
+		for (int idx = 0; idx < others.length; idx++) {
+			others[idx] = File.createTempFile("shard", ".bmp");
+		}
+		try {
+			shards.encodeFiles(imagesIn, others, new ByteArrayInputStream(data), data.length, new EncodeOptions());
+			assertThrows(IllegalArgumentException.class,
+					() -> shards.decodeFiles(new File[] { imagesOut[0], imagesOut[1], others[2] }, output));
+		} finally {
+			for (File other : others) {
+				other.delete();
+			}
+		}
+		assertEquals(0, output.size());
+		// unequal number of images
+		assertThrows(IllegalArgumentException.class, () -> shards.encodeFiles(imagesIn,
+				new File[] { imagesOut[0] }, new ByteArrayInputStream(data), data.length, new EncodeOptions()));
+	}
+
+}
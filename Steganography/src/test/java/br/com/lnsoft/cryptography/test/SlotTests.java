@@ -0,0 +1,145 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Slot;
+import br.com.lnsoft.cryptography.Steganography;
+import br.com.lnsoft.cryptography.SteganographySlots;
+
+public class SlotTests {
+
+	private static final long SEED = 0x5107;
+
+	private static final int[] LENGTHS = { 100, 0, 5000, 1, 4096, 20000, 37 };
+
+	@Test
+	void slotRoundTrip() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		SteganographySlots slots = new SteganographySlots(steganography);
+		EncodeOptions options = new EncodeOptions();
+		options.setIntegrity(Integrity.CRC32C);
+		byte[] image = slots.createData(TestBitmaps.createBitmap(200000, 1), 16, options);
+		byte[][] payloads = createPayloads();
+		for (int idx = 0; idx < payloads.length; idx++) {
+			Slot slot = slots.addSlot(image, "slot " + idx, payloads[idx]);
+			assertEquals(slots.slotId("slot " + idx), slot.getId());
+			assertEquals(payloads[idx].length, slot.getLength());
+		}
+		// each slot is read on its own, in any order
+		for (int idx = payloads.length - 1; idx >= 0; idx--) {
+			assertArrayEquals(payloads[idx], slots.readSlot(image, "slot " + idx));
+		}
+		assertNull(slots.readSlot(image, "missing"));
+		List<Slot> directory = slots.listSlots(image);
+		assertEquals(payloads.length, directory.size());
+		assertEquals(directory.get(0).getOffset() + 100, directory.get(2).getOffset());
+		assertSlots(payloads, slots.readSlots(image));
+		// parallel reads
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			steganography.setForkJoinPool(pool);
+			assertSlots(payloads, slots.readSlots(image));
+		} finally {
+			pool.shutdown();
+		}
+		// the identifiers depend on the seed
+		SteganographySlots other = new SteganographySlots(new Steganography(SEED + 1));
+		assertNotEquals(slots.slotId("slot 0"), other.slotId("slot 0"));
+		assertNull(other.readSlot(image, "slot 0"));
+		// a name is used once
+		assertThrows(IllegalArgumentException.class, () -> slots.addSlot(image, "slot 0", new byte[10]));
+	}
+
+	@Test
+	void fileSlots() throws Exception {
+		File imageIn = File.createTempFile("slots", ".bmp");
+		File imageOut = File.createTempFile("slots", ".bmp");
+		try {
+			byte[] original = TestBitmaps.createBitmap(200000, 2);
+			Files.write(imageIn.toPath(), original);
+			SteganographySlots slots = new SteganographySlots(new Steganography(SEED));
+			EncodeOptions options = new EncodeOptions();
+			options.setChunkSize(1024);
+			options.setScatter(true);
+			slots.createFile(imageIn, imageOut, 8, options);
+			byte[][] payloads = createPayloads();
+			for (int idx = 0; idx < payloads.length; idx++) {
+				slots.addFileSlot(imageOut, "slot " + idx, payloads[idx]);
+			}
+			assertArrayEquals(payloads[5], slots.readFileSlot(imageOut, "slot 5"));
+			assertEquals(payloads.length, slots.listFileSlots(imageOut).size());
+			assertSlots(payloads, slots.readFileSlots(imageOut));
+			// the byte array mode reads the same slots
+			assertSlots(payloads, slots.readSlots(Files.readAllBytes(imageOut.toPath())));
+		} finally {
+			imageIn.delete();
+			imageOut.delete();
+		}
+	}
+
+	@Test
+	void invalidSlots() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		SteganographySlots slots = new SteganographySlots(steganography);
+		byte[] original = TestBitmaps.createBitmap(100000, 3);
+		byte[] image = slots.createData(original.clone(), 2, new EncodeOptions());
+		slots.addSlot(image, "first", new byte[10]);
+		slots.addSlot(image, "second", new byte[10]);
+		// full directory and free space
+		assertThrows(IllegalArgumentException.class, () -> slots.addSlot(image, "third", new byte[10]));
+		byte[] other = slots.createData(original.clone(), 2, new EncodeOptions());
+		int capacity = steganography.probeData(other).getLength();
+		assertThrows(IllegalArgumentException.class, () -> slots.addSlot(other, "large", new byte[capacity]));
+		// no directory
+		byte[] encoded = steganography.encodeData(original.clone(), TestBitmaps.createData(1000), false);
+		assertThrows(IllegalArgumentException.class, () -> slots.readSlot(encoded, "first"));
+		// invalid entries and options
+		assertThrows(IllegalArgumentException.class, () -> slots.createData(original.clone(), 0, new EncodeOptions()));
+		EncodeOptions compressed = new EncodeOptions();
+		compressed.setCompression(Compression.DEFLATE);
+		assertThrows(IllegalArgumentException.class, () -> slots.createData(original.clone(), 4, compressed));
+		EncodeOptions encrypted = new EncodeOptions();
+		encrypted.setEncrypted(true);
+		assertThrows(IllegalArgumentException.class, () -> slots.createData(original.clone(), 4, encrypted));
+		EncodeOptions corrected = new EncodeOptions();
+		corrected.setParity(16);
+		IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+				() -> slots.createData(original.clone(), 4, corrected));
+		assertTrue(error.getMessage().startsWith("Invalid slot options."));
+	}
+
+	private static byte[][] createPayloads() {
+		byte[][] payloads = new byte[LENGTHS.length][];
+		for (int idx = 0; idx < LENGTHS.length; idx++) {
+			payloads[idx] = TestBitmaps.createData(LENGTHS[idx]);
+			Arrays.fill(payloads[idx], 0, Math.min(1, LENGTHS[idx]), (byte) idx);
+		}
+		return payloads;
+	}
+
+	private static void assertSlots(final byte[][] payloads, final Map<Long, byte[]> actual) {
+		assertEquals(payloads.length, actual.size());
+		int idx = 0;
+		for (byte[] payload : actual.values()) {
+			assertArrayEquals(payloads[idx++], payload);
+		}
+	}
+
+}
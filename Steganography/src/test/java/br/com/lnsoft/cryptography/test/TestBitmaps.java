@@ -0,0 +1,64 @@
+package br.com.lnsoft.cryptography.test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic bitmap images and data used by the tests.
+ */
+final class TestBitmaps {
+
+	static final int HEADER_SIZE = 54;
+	static final int DIB_HEADER_SIZE = 40;
+
+	private TestBitmaps() {
+	}
+
+	// 24 bits bitmap with BITMAPINFOHEADER and random pixels
+	static byte[] createBitmap(final int size, final long seed) {
+		byte[] image = new byte[size];
+		new Random(seed).nextBytes(image);
+		ByteBuffer header = ByteBuffer.wrap(image);
+		// BMP header
+		header.put(0, (byte) 0x42).put(1, (byte) 0x4D);
+		header.putInt(2, Integer.reverseBytes(size));
+		header.putInt(6, 0);
+		header.putInt(10, Integer.reverseBytes(HEADER_SIZE));
+		// BITMAPINFOHEADER size
+		header.putInt(14, Integer.reverseBytes(DIB_HEADER_SIZE));
+		return image;
+	}
+
+	// uncompressed bitmap with padded rows, the pixel array starts after the DIB header and the gap
+	static byte[] createPixelBitmap(final int width, final int height, final int bitsPerPixel,
+			final int dibHeaderSize, final int gap, final long seed) {
+		int stride = (width * bitsPerPixel + 31) / 32 * 4;
+		int pixelOffset = 14 + dibHeaderSize + gap;
+		byte[] image = createBitmap(pixelOffset + stride * Math.abs(height), seed);
+		ByteBuffer header = ByteBuffer.wrap(image);
+		header.putInt(10, Integer.reverseBytes(pixelOffset));
+		header.putInt(14, Integer.reverseBytes(dibHeaderSize));
+		header.putInt(18, Integer.reverseBytes(width));
+		// negative height for a top-down bitmap
+		header.putInt(22, Integer.reverseBytes(height));
+		header.putShort(26, Short.reverseBytes((short) 1));
+		header.putShort(28, Short.reverseBytes((short) bitsPerPixel));
+		// BI_BITFIELDS with a BITMAPV4HEADER, BI_RGB otherwise
+		header.putInt(30, Integer.reverseBytes(dibHeaderSize > DIB_HEADER_SIZE ? 3 : 0));
+		if (dibHeaderSize > DIB_HEADER_SIZE) {
+			// red, green, blue and alpha masks
+			header.putInt(54, Integer.reverseBytes(0x00FF0000));
+			header.putInt(58, Integer.reverseBytes(0x0000FF00));
+			header.putInt(62, Integer.reverseBytes(0x000000FF));
+			header.putInt(66, Integer.reverseBytes(0xFF000000));
+		}
+		return image;
+	}
+
+	static byte[] createData(final int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+}
@@ -0,0 +1,108 @@
+package br.com.lnsoft.cryptography.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import br.com.lnsoft.cryptography.CarrierHeader;
+import br.com.lnsoft.cryptography.Compression;
+import br.com.lnsoft.cryptography.EncodeOptions;
+import br.com.lnsoft.cryptography.Integrity;
+import br.com.lnsoft.cryptography.Steganography;
+
+public class WideTests {
+
+	private static final long SEED = 0x64B1;
+
+	@Test
+	void wideHeader() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(10000);
+		byte[] original = TestBitmaps.createBitmap(100000, 1);
+		EncodeOptions options = new EncodeOptions();
+		options.setWide(true);
+		byte[] image = steganography.encodeData(original.clone(), data, options);
+		assertArrayEquals(data, steganography.decodeData(image));
+		CarrierHeader header = steganography.probeData(image);
+		assertEquals(2, header.getVersion());
+		assertEquals(data.length, header.getLongLength());
+		assertEquals(header.getOffset(), header.getLongOffset());
+		// the wide fields take more header bytes than the 32 bits fields
+		EncodeOptions narrow = new EncodeOptions();
+		narrow.setIntegrity(Integrity.CRC32C);
+		options.setIntegrity(Integrity.CRC32C);
+		assertTrue(steganography.capacityData(original, options) < steganography.capacityData(original, narrow));
+		assertThrows(IllegalArgumentException.class, () -> steganography.encodeData(original.clone(),
+				TestBitmaps.createData(steganography.capacityData(original, options) + 1), options));
+		// the file mode writes the same image
+		Path directory = Files.createTempDirectory("wide");
+		File imageIn = directory.resolve("in.bmp").toFile();
+		File imageOut = directory.resolve("out.bmp").toFile();
+		try {
+			Files.write(imageIn.toPath(), original);
+			steganography.encodeFile(imageIn, imageOut, data, options);
+			assertArrayEquals(steganography.encodeData(original.clone(), data, options),
+					Files.readAllBytes(imageOut.toPath()));
+			assertArrayEquals(data, steganography.decodeFile(imageOut));
+			assertEquals(data.length, steganography.probeFile(imageOut).getLongLength());
+		} finally {
+			imageIn.delete();
+			imageOut.delete();
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void largeFile() throws Exception {
+		Steganography steganography = new Steganography(SEED);
+		byte[] data = TestBitmaps.createData(3 * 1024 * 1024 + 17);
+		Path directory = Files.createTempDirectory("wide");
+		File image = directory.resolve("large.bmp").toFile();
+		try {
+			// sparse bitmap of 3 GB, only the pages of the header and of the data are written
+			try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+				file.write(Arrays.copyOf(TestBitmaps.createBitmap(1000, 2), TestBitmaps.HEADER_SIZE));
+				file.setLength(3L << 30);
+			}
+			EncodeOptions options = new EncodeOptions();
+			options.setIntegrity(Integrity.CRC32C);
+			// half the bitmap with depth 4, the whole bitmap beyond the int range with depth 8
+			assertTrue(steganography.capacityFile(image, options) > (3 << 29) - 100);
+			EncodeOptions full = new EncodeOptions();
+			full.setDepth(8);
+			assertEquals(Integer.MAX_VALUE, steganography.capacityFile(image, full));
+			steganography.encodeFile(image, image, new ByteArrayInputStream(data), data.length, options);
+			CarrierHeader header = steganography.probeFile(image);
+			assertEquals(data.length, header.getLongLength());
+			assertTrue(header.getLongOffset() >= TestBitmaps.HEADER_SIZE);
+			assertTrue(header.getLongOffset() + 2L * data.length <= 3L << 30);
+			assertArrayEquals(data, steganography.decodeFile(image));
+			ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+			assertEquals(data.length, steganography.decodeFile(image, decoded));
+			assertArrayEquals(data, decoded.toByteArray());
+			// a wrong seed finds another offset
+			assertThrows(IllegalArgumentException.class, () -> new Steganography(SEED + 1).decodeFile(image));
+			// only contiguous uncompressed data
+			options.setForce(true);
+			options.setCompression(Compression.DEFLATE);
+			assertEquals(-1, steganography.capacityFile(image, options));
+			assertThrows(IllegalArgumentException.class, () -> steganography.encodeFile(image, image, data, options));
+			assertThrows(IllegalArgumentException.class, () -> steganography.decodeFileRange(image, 0, 10));
+		} finally {
+			image.delete();
+			Files.delete(directory);
+		}
+	}
+
+}